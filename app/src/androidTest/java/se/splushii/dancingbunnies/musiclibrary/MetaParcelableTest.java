@@ -0,0 +1,75 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import static org.junit.Assert.assertEquals;
+
+// Parcel is only stubbed in JVM unit tests, so the Parcelable round trip runs on a device.
+// The byte[] round trips are in MetaCodecTest.
+@RunWith(AndroidJUnit4.class)
+public class MetaParcelableTest {
+    private static Meta roundTrip(Meta meta) {
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(meta, 0);
+            parcel.setDataPosition(0);
+            return parcel.readParcelable(Meta.class.getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void assertMetaEquals(Meta expected, Meta actual) {
+        assertEquals(expected.entryID, actual.entryID);
+        assertEquals(expected.stringMap, actual.stringMap);
+        assertEquals(expected.longMap, actual.longMap);
+        assertEquals(expected.doubleMap, actual.doubleMap);
+    }
+
+    @Test
+    public void roundTrip_empty() {
+        Meta meta = new Meta(new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void roundTrip_track() {
+        Meta meta = new Meta(new EntryID("src", "track-1", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        meta.addString(Meta.FIELD_TITLE, "\u65e5\u672c\u8a9e \ud83d\udc07");
+        meta.addString(Meta.FIELD_GENRE, "Rock");
+        meta.addString(Meta.FIELD_GENRE, "Pop");
+        meta.addLong(Meta.FIELD_YEAR, Long.MIN_VALUE);
+        meta.addLong(Meta.FIELD_DURATION, 180_000);
+        meta.addDouble(Meta.FIELD_AVERAGE_RATING, Double.NaN);
+        meta.longMap.put(Meta.FIELD_TRACKNUMBER, Arrays.asList(null, 2L));
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void roundTrip_array() {
+        Meta[] metas = {
+                new Meta(new EntryID("src", "a", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK)),
+                new Meta(new EntryID("src", "b", Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST))
+        };
+        metas[1].addString(Meta.FIELD_TITLE, "Playlist");
+        Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeTypedArray(metas, 0);
+            parcel.setDataPosition(0);
+            Meta[] read = parcel.createTypedArray(Meta.CREATOR);
+            assertEquals(metas.length, read.length);
+            for (int i = 0; i < metas.length; i++) {
+                assertMetaEquals(metas[i], read[i]);
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
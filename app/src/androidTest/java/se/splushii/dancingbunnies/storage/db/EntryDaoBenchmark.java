@@ -0,0 +1,210 @@
+package se.splushii.dancingbunnies.storage.db;
+
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.BiConsumer;
+
+import androidx.room.Room;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.util.Util;
+
+import static org.junit.Assert.assertEquals;
+
+// Removes and moves random selections in 5k-entry queues and playlists, one entry at a time
+// and in bulk. Both must give the same order with contiguous positions.
+@RunWith(AndroidJUnit4.class)
+public class EntryDaoBenchmark {
+    private static final String LC = Util.getLogContext(EntryDaoBenchmark.class);
+
+    private static final int NUM_ENTRIES = 5000;
+    private static final int[] SELECTION_SIZES = {10, 100, 1000};
+    private static final int QUEUE_ID_EACH = 1;
+    private static final int QUEUE_ID_BULK = 2;
+    private static final EntryID PLAYLIST_ID_EACH =
+            new EntryID("src", "each", EntryID.TYPE_PLAYLIST);
+    private static final EntryID PLAYLIST_ID_BULK =
+            new EntryID("src", "bulk", EntryID.TYPE_PLAYLIST);
+
+    private DB db;
+    private PlaybackControllerEntryDao queueModel;
+    private PlaylistEntryDao playlistModel;
+
+    @Before
+    public void setUp() {
+        db = Room.inMemoryDatabaseBuilder(
+                InstrumentationRegistry.getInstrumentation().getTargetContext(),
+                DB.class
+        ).build();
+        queueModel = db.playbackControllerEntryModel();
+        playlistModel = db.playlistEntryModel();
+    }
+
+    @After
+    public void tearDown() {
+        db.close();
+    }
+
+    private static EntryID trackID(int i) {
+        return new EntryID("src", "track" + i, EntryID.TYPE_TRACK);
+    }
+
+    // Queue entry without playlist position or selection
+    private static PlaybackEntry queueEntry(int i) {
+        return new PlaybackEntry(trackID(i), i, PlaybackEntry.USER_TYPE_QUEUE, -1, -1);
+    }
+
+    private void fillQueue(int queueID) {
+        List<PlaybackEntry> entries = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            entries.add(queueEntry(i));
+        }
+        queueModel.replaceWith(queueID, entries);
+    }
+
+    private void fillPlaylist(EntryID playlistID) {
+        db.metaModel().insert(Playlist.from(playlistID.src, playlistID.id));
+        List<PlaylistEntry> entries = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            entries.add(PlaylistEntry.from(playlistID, "entry" + i, trackID(i), i));
+        }
+        playlistModel.add(playlistID, entries, null);
+    }
+
+    // Returns the keys in position order, after checking that the positions are contiguous
+    private static List<String> getKeys(List<PositionEntry> entries) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            assertEquals(i, entries.get(i).pos);
+            keys.add(entries.get(i).key);
+        }
+        return keys;
+    }
+
+    private static List<Integer> select(int size, long seed) {
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            indices.add(i);
+        }
+        Collections.shuffle(indices, new Random(seed));
+        return indices.subList(0, size);
+    }
+
+    private long time(Runnable runnable) {
+        long start = System.nanoTime();
+        db.runInTransaction(runnable);
+        return System.nanoTime() - start;
+    }
+
+    private void log(String operation, int size, long eachNanos, long bulkNanos) {
+        Log.i(LC, String.format(
+                Locale.ROOT,
+                "%s %d of %d entries: one at a time %.1f ms, bulk %.1f ms",
+                operation,
+                size,
+                NUM_ENTRIES,
+                eachNanos / 1e6,
+                bulkNanos / 1e6
+        ));
+    }
+
+    private void benchmarkQueue(String operation,
+                                BiConsumer<Integer, List<PlaybackEntry>> each,
+                                BiConsumer<Integer, List<PlaybackEntry>> bulk) {
+        for (int size: SELECTION_SIZES) {
+            queueModel.removeAll(QUEUE_ID_EACH);
+            queueModel.removeAll(QUEUE_ID_BULK);
+            fillQueue(QUEUE_ID_EACH);
+            fillQueue(QUEUE_ID_BULK);
+            List<PlaybackEntry> selection = new ArrayList<>();
+            for (int i: select(size, size)) {
+                selection.add(queueEntry(i));
+            }
+            long eachNanos = time(() -> each.accept(QUEUE_ID_EACH, selection));
+            long bulkNanos = time(() -> bulk.accept(QUEUE_ID_BULK, selection));
+            assertEquals(
+                    getKeys(queueModel._get_position_entries(QUEUE_ID_EACH)),
+                    getKeys(queueModel._get_position_entries(QUEUE_ID_BULK))
+            );
+            log("Queue " + operation, size, eachNanos, bulkNanos);
+        }
+    }
+
+    private void benchmarkPlaylist(String operation,
+                                   BiConsumer<EntryID, List<String>> each,
+                                   BiConsumer<EntryID, List<String>> bulk) {
+        for (int size: SELECTION_SIZES) {
+            db.metaModel().deletePlaylist(PLAYLIST_ID_EACH.src, PLAYLIST_ID_EACH.id);
+            db.metaModel().deletePlaylist(PLAYLIST_ID_BULK.src, PLAYLIST_ID_BULK.id);
+            fillPlaylist(PLAYLIST_ID_EACH);
+            fillPlaylist(PLAYLIST_ID_BULK);
+            List<String> selection = new ArrayList<>();
+            for (int i: select(size, size)) {
+                selection.add("entry" + i);
+            }
+            long eachNanos = time(() -> each.accept(PLAYLIST_ID_EACH, selection));
+            long bulkNanos = time(() -> bulk.accept(PLAYLIST_ID_BULK, selection));
+            assertEquals(
+                    getKeys(playlistModel._get_position_entries(
+                            PLAYLIST_ID_EACH.src,
+                            PLAYLIST_ID_EACH.id
+                    )),
+                    getKeys(playlistModel._get_position_entries(
+                            PLAYLIST_ID_BULK.src,
+                            PLAYLIST_ID_BULK.id
+                    ))
+            );
+            log("Playlist " + operation, size, eachNanos, bulkNanos);
+        }
+    }
+
+    @Test
+    public void removeQueueEntries() {
+        benchmarkQueue(
+                "remove",
+                queueModel::removeEntriesEach,
+                queueModel::removeEntriesBulk
+        );
+    }
+
+    @Test
+    public void moveQueueEntries() {
+        long target = NUM_ENTRIES / 2;
+        benchmarkQueue(
+                "move",
+                (queueID, entries) -> queueModel.moveEach(queueID, entries, target),
+                (queueID, entries) -> queueModel.moveBulk(queueID, entries, target)
+        );
+    }
+
+    @Test
+    public void removePlaylistEntries() {
+        benchmarkPlaylist(
+                "remove",
+                playlistModel::removeEach,
+                playlistModel::removeBulk
+        );
+    }
+
+    @Test
+    public void movePlaylistEntries() {
+        String target = "entry" + NUM_ENTRIES / 2;
+        benchmarkPlaylist(
+                "move",
+                (playlistID, entries) -> playlistModel.moveEach(playlistID, entries, target),
+                (playlistID, entries) -> playlistModel.moveBulk(playlistID, entries, target)
+        );
+    }
+}
@@ -0,0 +1,127 @@
+package se.splushii.dancingbunnies.storage.db;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import se.splushii.dancingbunnies.audioplayer.PlaybackController;
+import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+import se.splushii.dancingbunnies.util.Util;
+
+import static org.junit.Assert.assertEquals;
+
+// Sorts a 3k-entry queue of a 20k-track library in the database, and on track metas as in
+// PlaybackController.sorted(). Both must give the same order. The Meta-based sort reads from
+// the app database, so the tracks and the queue use their own source and queue ID, and are
+// deleted afterwards.
+@RunWith(AndroidJUnit4.class)
+public class PlaybackControllerEntryDaoSortBenchmark {
+    private static final String LC =
+            Util.getLogContext(PlaybackControllerEntryDaoSortBenchmark.class);
+
+    private static final String SRC = "sortbenchmark";
+    private static final int QUEUE_ID = 1000;
+    private static final int NUM_TRACKS = 20000;
+    private static final int NUM_QUEUE_ENTRIES = 3000;
+    private static final int NUM_ARTISTS = 200;
+    private static final int NUM_ALBUMS = 1000;
+    private static final int ROUNDS = 3;
+
+    private Context context;
+    private DB db;
+    private List<PlaybackEntry> queueEntries;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = DB.getDB(context);
+        Random random = new Random(0);
+        List<Meta> metas = new ArrayList<>();
+        for (int i = 0; i < NUM_TRACKS; i++) {
+            Meta meta = new Meta(new EntryID(SRC, "track" + i, EntryID.TYPE_TRACK));
+            meta.addString(Meta.FIELD_TITLE, "title" + random.nextInt(NUM_TRACKS));
+            meta.addString(Meta.FIELD_ARTIST, "artist" + random.nextInt(NUM_ARTISTS));
+            if (random.nextInt(10) == 0) {
+                // Multiple values, ordered by the lowest one
+                meta.addString(Meta.FIELD_ARTIST, "artist" + random.nextInt(NUM_ARTISTS));
+            }
+            if (random.nextInt(20) != 0) {
+                // Entries without a value are ordered first
+                meta.addString(Meta.FIELD_ALBUM, "album" + random.nextInt(NUM_ALBUMS));
+            }
+            meta.addLong(Meta.FIELD_TRACKNUMBER, 1 + random.nextInt(20));
+            metas.add(meta);
+        }
+        db.metaModel().insertEntriesAndMetas(EntryID.TYPE_TRACK, metas, false, null);
+        queueEntries = new ArrayList<>();
+        for (int i = 0; i < NUM_QUEUE_ENTRIES; i++) {
+            queueEntries.add(new PlaybackEntry(
+                    metas.get(random.nextInt(NUM_TRACKS)).entryID,
+                    i,
+                    PlaybackEntry.USER_TYPE_QUEUE,
+                    -1,
+                    -1
+            ));
+        }
+        db.playbackControllerEntryModel().replaceWith(QUEUE_ID, queueEntries);
+    }
+
+    @After
+    public void tearDown() {
+        db.playbackControllerEntryModel().removeAll(QUEUE_ID);
+        db.metaModel().deleteEntriesWhereSourceIs(EntryID.TYPE_TRACK, SRC);
+    }
+
+    private void benchmark(String... sortBy) {
+        List<String> sortByList = Arrays.asList(sortBy);
+        long dbNanos = 0;
+        long metaNanos = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            List<Long> dbOrder = db.playbackControllerEntryModel()
+                    .getPlaybackIDsSortedBy(QUEUE_ID, sortByList);
+            dbNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Long> metaOrder = PlaybackController.sorted(context, queueEntries, sortByList)
+                    .join()
+                    .stream()
+                    .map(entry -> entry.playbackID)
+                    .collect(Collectors.toList());
+            metaNanos += System.nanoTime() - start;
+            assertEquals(metaOrder, dbOrder);
+        }
+        Log.i(LC, String.format(
+                Locale.ROOT,
+                "Sort %d queue entries by %s: metas %.1f ms, database %.1f ms",
+                NUM_QUEUE_ENTRIES,
+                sortByList,
+                metaNanos / 1e6 / ROUNDS,
+                dbNanos / 1e6 / ROUNDS
+        ));
+    }
+
+    @Test
+    public void sortByArtistAlbumTrackNumber() {
+        benchmark(Meta.FIELD_ARTIST, Meta.FIELD_ALBUM, Meta.FIELD_TRACKNUMBER);
+    }
+
+    @Test
+    public void sortByTitle() {
+        benchmark(Meta.FIELD_TITLE);
+    }
+}
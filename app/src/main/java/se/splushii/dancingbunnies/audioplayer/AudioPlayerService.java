@@ -61,6 +61,7 @@ import se.splushii.dancingbunnies.musiclibrary.QueryNode;
 import se.splushii.dancingbunnies.musiclibrary.QueryTree;
 import se.splushii.dancingbunnies.storage.MetaStorage;
 import se.splushii.dancingbunnies.storage.PlaybackControllerStorage;
+import se.splushii.dancingbunnies.util.PlayLatencyTracer;
 import se.splushii.dancingbunnies.util.Util;
 
 import static androidx.mediarouter.media.MediaRouter.RouteInfo.PLAYBACK_TYPE_LOCAL;
@@ -682,10 +683,12 @@ public class AudioPlayerService extends MediaBrowserServiceCompat {
         @Override
         public void onPlay() {
             Log.d(LC, "onPlay");
+            PlayLatencyTracer.getInstance().begin("play");
             if (requestAudioFocus()) {
                 playbackController.play()
                         .handle(AudioPlayerService.this::handleControllerResult);
             } else {
+                PlayLatencyTracer.getInstance().cancel();
                 Toast.makeText(
                         AudioPlayerService.this,
                         "Could not get audio focus. Audio focus is held by another app.",
@@ -705,6 +708,7 @@ public class AudioPlayerService extends MediaBrowserServiceCompat {
         @Override
         public void onPlayFromMediaId(String mediaId, Bundle extras) {
             Log.d(LC, "onPlayFromMediaId");
+            PlayLatencyTracer.getInstance().begin("play_now");
             EntryID entryID = EntryID.from(extras);
             playbackController.playNow(Collections.singletonList(entryID))
                     .thenRun(() -> setToast(
@@ -767,6 +771,7 @@ public class AudioPlayerService extends MediaBrowserServiceCompat {
         @Override
         public void onSkipToNext() {
             Log.d(LC, "onSkipToNext");
+            PlayLatencyTracer.getInstance().begin("skip_to_next");
             playbackController.skipToNext()
                     .handle(AudioPlayerService.this::handleControllerResult);
         }
@@ -17,6 +17,9 @@ import com.google.android.gms.cast.framework.media.MediaQueue;
 import com.google.android.gms.cast.framework.media.RemoteMediaClient;
 import com.google.android.gms.common.api.PendingResult;
 
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -28,12 +31,15 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
+import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.storage.MetaStorage;
+import se.splushii.dancingbunnies.util.FileHTTPServer;
 import se.splushii.dancingbunnies.util.Util;
 
 public class CastAudioPlayer implements AudioPlayer {
@@ -59,6 +65,11 @@ public class CastAudioPlayer implements AudioPlayer {
     private int lastCurrentItemId = MediaQueueItem.INVALID_ITEM_ID;
     private SparseArray<MediaQueueItem> lastQueueItemMap;
     private final LongSparseArray<Integer> playbackIDToCastItemIDMap;
+    // Serves locally cached audio to the Cast receiver
+    private final FileHTTPServer audioFileServer = new FileHTTPServer();
+    // Cache files served for playback entries. Guarded by servedFiles.
+    private final LongSparseArray<File> servedFiles = new LongSparseArray<>();
+    private final Consumer<EntryID> onDeleteAudioData = this::onDeleteAudioData;
     private PlaybackEntry playbackFinishedEntry;
 
     private final Semaphore queueChangeLock = new Semaphore(0);
@@ -88,6 +99,7 @@ public class CastAudioPlayer implements AudioPlayer {
         if (castSession != null) {
             setCastSession(castSession);
         }
+        AudioStorage.getInstance(context).addDeleteListener(onDeleteAudioData);
     }
 
     void setCastSession(CastSession castSession) {
@@ -404,6 +416,12 @@ public class CastAudioPlayer implements AudioPlayer {
     public CompletableFuture<Void> destroy(boolean clearState) {
         Log.d(LC, "destroy");
         callback = AudioPlayer.dummyCallback;
+        AudioStorage.getInstance(context).removeDeleteListener(onDeleteAudioData);
+        audioFileServer.stop();
+        audioFileServer.unregisterAll();
+        synchronized (servedFiles) {
+            servedFiles.clear();
+        }
         Log.d(LC, "destroyed");
         return Util.futureResult();
     }
@@ -707,7 +725,13 @@ public class CastAudioPlayer implements AudioPlayer {
     }
 
     private MediaInfo buildMediaInfo(PlaybackEntry playbackEntry, Meta meta) {
-        String URL = MusicLibraryService.getAudioURL(context, playbackEntry.entryID);
+        String contentType = meta.getFirstString(Meta.FIELD_CONTENT_TYPE);
+        String URL = getCachedAudioURL(playbackEntry, contentType);
+        if (URL == null) {
+            URL = MusicLibraryService.getAudioURL(context, playbackEntry.entryID);
+        } else {
+            Log.d(LC, "Serving cached audio from this device for " + playbackEntry);
+        }
         if (URL == null) {
             Log.e(LC, "Could not get URL for " + playbackEntry);
             return null;
@@ -718,7 +742,6 @@ public class CastAudioPlayer implements AudioPlayer {
         castMeta.putString(CASTMETA_KEY_PLAYLIST_POS, Long.toString(playbackEntry.playlistPos));
         castMeta.putString(CASTMETA_KEY_PLAYLIST_SELECTION_ID, Long.toString(playbackEntry.playlistSelectionID));
         long duration = meta.getFirstLong(Meta.FIELD_DURATION, 0);
-        String contentType = meta.getFirstString(Meta.FIELD_CONTENT_TYPE);
         return new MediaInfo.Builder(URL)
                 .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
                 .setContentType(contentType)
@@ -727,6 +750,60 @@ public class CastAudioPlayer implements AudioPlayer {
                 .build();
     }
 
+    // Returns a local network URL for the audio if it is cached on this device, or null
+    private String getCachedAudioURL(PlaybackEntry playbackEntry, String contentType) {
+        File cacheFile = AudioStorage.getCacheFile(context, playbackEntry.entryID);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        InetAddress address = FileHTTPServer.getLANAddress();
+        if (address == null) {
+            return null;
+        }
+        try {
+            audioFileServer.start(0);
+        } catch (IOException e) {
+            Log.e(LC, "Could not start audio file server: " + e.getMessage());
+            return null;
+        }
+        String path;
+        synchronized (servedFiles) {
+            path = audioFileServer.register(cacheFile, contentType);
+            servedFiles.put(playbackEntry.playbackID, cacheFile);
+        }
+        return "http://" + address.getHostAddress() + ":" + audioFileServer.getPort() + path;
+    }
+
+    // Stops serving the cache file of a playback entry which left the queue, unless another
+    // playback entry uses it
+    private void stopServing(long playbackID) {
+        synchronized (servedFiles) {
+            File cacheFile = servedFiles.get(playbackID);
+            if (cacheFile == null) {
+                return;
+            }
+            servedFiles.remove(playbackID);
+            for (int i = 0; i < servedFiles.size(); i++) {
+                if (servedFiles.valueAt(i).equals(cacheFile)) {
+                    return;
+                }
+            }
+            audioFileServer.unregister(cacheFile);
+        }
+    }
+
+    private void onDeleteAudioData(EntryID entryID) {
+        File cacheFile = AudioStorage.getCacheFile(context, entryID);
+        synchronized (servedFiles) {
+            for (int i = servedFiles.size() - 1; i >= 0; i--) {
+                if (servedFiles.valueAt(i).equals(cacheFile)) {
+                    servedFiles.removeAt(i);
+                }
+            }
+            audioFileServer.unregister(cacheFile);
+        }
+    }
+
     // Changes queue
     @Override
     public CompletableFuture<Void> next() {
@@ -855,6 +932,7 @@ public class CastAudioPlayer implements AudioPlayer {
                 PlaybackEntry playbackEntry = mediaQueueItem2PlaybackEntry(queueItemMap.get(itemId));
                 playbackIDToCastItemIDMap.remove(playbackEntry.playbackID);
                 queueItemMap.remove(itemId);
+                onLeftQueue(playbackEntry);
             }
             cleanQueueItemMap();
             logCurrentQueue();
@@ -891,10 +969,19 @@ public class CastAudioPlayer implements AudioPlayer {
                     PlaybackEntry playbackEntry = mediaQueueItem2PlaybackEntry(queueItemMap.get(itemID));
                     playbackIDToCastItemIDMap.remove(playbackEntry.playbackID);
                     queueItemMap.remove(itemID);
+                    onLeftQueue(playbackEntry);
                 }
             }
         }
 
+        private void onLeftQueue(PlaybackEntry playbackEntry) {
+            // Before disconnect the itemIds gets wiped. The receiver may still be playing.
+            if (mediaQueue.getItemCount() <= 0) {
+                return;
+            }
+            stopServing(playbackEntry.playbackID);
+        }
+
         // Called when one ore more changes has been made
         @Override
         public void mediaQueueChanged() {
@@ -1,6 +1,10 @@
 package se.splushii.dancingbunnies.audioplayer;
 
+import android.app.ActivityManager;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
 
@@ -9,27 +13,43 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.stream.Collectors;
 
 import androidx.core.util.Pair;
 import se.splushii.dancingbunnies.backend.AudioDataHandler;
+import se.splushii.dancingbunnies.musiclibrary.AudioDataSource;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
 import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.storage.PlaybackControllerStorage;
+import se.splushii.dancingbunnies.ui.settings.SettingsActivityFragment;
+import se.splushii.dancingbunnies.util.PlayLatencyTracer;
 import se.splushii.dancingbunnies.util.Util;
 
 class LocalAudioPlayer implements AudioPlayer {
     private static final String LC = Util.getLogContext(LocalAudioPlayer.class);
+    private static final int MAX_TO_PRELOAD = 3;
+    // Make sure the next player is prepared this long before the current track ends
+    private static final long PREPARE_AHEAD_MS = 30000;
     private Callback callback;
     private final PlaybackControllerStorage storage;
 
     private MediaPlayerInstance player;
     private boolean playWhenReady;
     private final Context context;
-    // TODO: Make preloadPlayers thread safe (to avoid ConcurrentModificationException)
-    private final LinkedList<MediaPlayerInstance> preloadPlayers;
+    // Iterated from other threads. Compound operations synchronize on it.
+    private final CopyOnWriteArrayList<MediaPlayerInstance> preloadPlayers;
     private final LinkedList<PlaybackEntry> historyPlaybackEntries;
+    private final Handler handler;
+    private final Runnable prepareAheadCheck = this::onPrepareAheadDeadline;
+
+    // Gap measurement between tracks
+    private long trackEndedTime = -1;
+    private int numTransitions = 0;
+    private int numGaplessTransitions = 0;
+    private long totalGapMs = 0;
+    private long maxGapMs = 0;
 
     LocalAudioPlayer(Callback audioPlayerCallback,
                      Context context,
@@ -40,8 +60,9 @@ class LocalAudioPlayer implements AudioPlayer {
         this.context = context;
         this.storage = storage;
         this.playWhenReady = playWhenReady;
-        preloadPlayers = new LinkedList<>();
+        preloadPlayers = new CopyOnWriteArrayList<>();
         historyPlaybackEntries = new LinkedList<>();
+        handler = new Handler(Looper.getMainLooper());
         if (initFromStorage) {
             Pair<PlaybackEntry, Long> currentEntryInfo = storage.getLocalAudioPlayerCurrentEntry();
             if (currentEntryInfo != null) {
@@ -85,6 +106,7 @@ class LocalAudioPlayer implements AudioPlayer {
         Log.d(LC, "destroy");
         AudioStorage.getInstance(context).removeDeleteListener(this::onDeleteAudioData);
         callback = AudioPlayer.dummyCallback;
+        handler.removeCallbacks(prepareAheadCheck);
         return stop()
                 .thenCompose(v -> clearState ? clearState() : Util.futureResult())
                 .thenRun(() -> Log.d(LC, "destroyed"));
@@ -113,7 +135,7 @@ class LocalAudioPlayer implements AudioPlayer {
 
     @Override
     public int getMaxToPreload() {
-        return 3;
+        return MAX_TO_PRELOAD;
     }
 
     @Override
@@ -139,12 +161,15 @@ class LocalAudioPlayer implements AudioPlayer {
             );
             playersToQueue.add(playerInstance);
         }
-        preloadPlayers.addAll(offset, playersToQueue);
-        for (int i = 0; i < preloadPlayers.size(); i++) {
+        synchronized (preloadPlayers) {
+            preloadPlayers.addAll(Math.min(offset, preloadPlayers.size()), playersToQueue);
+        }
+        int i = 0;
+        for (MediaPlayerInstance preloadPlayer: preloadPlayers) {
             MusicLibraryService.downloadAudioData(
                     context,
-                    preloadPlayers.get(i).playbackEntry.entryID,
-                    AudioStorage.DOWNLOAD_PRIO_MEDIUM + i
+                    preloadPlayer.playbackEntry.entryID,
+                    AudioStorage.DOWNLOAD_PRIO_MEDIUM + i++
             );
         }
         setNextPlayer();
@@ -160,7 +185,14 @@ class LocalAudioPlayer implements AudioPlayer {
         if (player == null) {
             return next();
         }
-        player.play();
+        if (player.play()) {
+            PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_STARTED);
+            onTrackStarted(false);
+        } else if (player.isPlaying()) {
+            // Already playing. Nothing to measure.
+            PlayLatencyTracer.getInstance().cancel();
+        }
+        schedulePrepareAheadCheck();
         updatePlaybackState();
         return Util.futureResult();
     }
@@ -173,6 +205,7 @@ class LocalAudioPlayer implements AudioPlayer {
             return Util.futureResult();
         }
         player.pause();
+        handler.removeCallbacks(prepareAheadCheck);
         updatePlaybackState();
         return Util.futureResult();
     }
@@ -180,6 +213,8 @@ class LocalAudioPlayer implements AudioPlayer {
     @Override
     public CompletableFuture<Void> stop() {
         playWhenReady = false;
+        handler.removeCallbacks(prepareAheadCheck);
+        trackEndedTime = -1;
         if (player == null) {
             return Util.futureResult("Player is null");
         }
@@ -193,7 +228,7 @@ class LocalAudioPlayer implements AudioPlayer {
     @Override
     public CompletableFuture<Void> next() {
         MediaPlayerInstance previousPlayer = player;
-        MediaPlayerInstance nextPlayer = preloadPlayers.poll();
+        MediaPlayerInstance nextPlayer = pollPreloadPlayer();
         setCurrentPlayer(nextPlayer);
         setNextPlayer();
         if (previousPlayer != null) {
@@ -202,6 +237,8 @@ class LocalAudioPlayer implements AudioPlayer {
         CompletableFuture<Void> ret = persistState();
         if (player != null && playWhenReady) {
             ret = ret.thenCompose(aVoid -> play());
+        } else {
+            PlayLatencyTracer.getInstance().cancel();
         }
         return ret.thenRun(() -> {
             updatePlaybackState();
@@ -246,6 +283,7 @@ class LocalAudioPlayer implements AudioPlayer {
             return Util.futureResult("Player is null");
         }
         player.seekTo(pos);
+        schedulePrepareAheadCheck();
         updatePlaybackState();
         return Util.futureResult();
     }
@@ -306,11 +344,12 @@ class LocalAudioPlayer implements AudioPlayer {
                 + ": " + historyEntriesToRemove.stream()
                 .map(PlaybackEntry::toString)
                 .collect(Collectors.joining(", ")));
+        preloadPlayers.removeAll(preloadPlayersToRemove);
         for (MediaPlayerInstance mp: preloadPlayersToRemove) {
-            preloadPlayers.remove(mp);
+            mp.release();
         }
         if (removeCurrentEntry) {
-            setCurrentPlayer(preloadPlayers.poll());
+            setCurrentPlayer(pollPreloadPlayer());
         }
         if (removeCurrentEntry || !preloadPlayersToRemove.isEmpty()) {
             setNextPlayer();
@@ -354,15 +393,120 @@ class LocalAudioPlayer implements AudioPlayer {
         }
     }
 
+    private MediaPlayerInstance pollPreloadPlayer() {
+        synchronized (preloadPlayers) {
+            return preloadPlayers.isEmpty() ? null : preloadPlayers.remove(0);
+        }
+    }
+
+    private MediaPlayerInstance peekPreloadPlayer() {
+        synchronized (preloadPlayers) {
+            return preloadPlayers.isEmpty() ? null : preloadPlayers.get(0);
+        }
+    }
+
+    // Prepares the players within the preparation depth, and releases prepared players
+    // outside of it to free their decoders and buffers.
     private void setNextPlayer() {
         if (player == null) {
             return;
         }
-        MediaPlayerInstance nextPlayer = preloadPlayers.peek();
-        if (nextPlayer != null) {
-            nextPlayer.getReady();
+        int depth = getPrepareDepth();
+        int i = 0;
+        for (MediaPlayerInstance preloadPlayer: preloadPlayers) {
+            if (i++ < depth) {
+                preloadPlayer.getReady();
+            } else if (preloadPlayer.isPrepared()) {
+                Log.d(LC, "Releasing " + preloadPlayer.title() + " outside of depth " + depth);
+                preloadPlayer.release();
+            }
+        }
+        player.setNext(peekPreloadPlayer());
+        schedulePrepareAheadCheck();
+    }
+
+    private int getPrepareDepth() {
+        int depth = Math.min(
+                SettingsActivityFragment.getGaplessPrepareDepth(context),
+                MAX_TO_PRELOAD
+        );
+        if (depth <= 1) {
+            return 1;
+        }
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (activityManager == null) {
+            return depth;
+        }
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        if (activityManager.isLowRamDevice() || memoryInfo.lowMemory) {
+            Log.d(LC, "Low on memory. Only preparing the next player.");
+            return 1;
+        }
+        return depth;
+    }
+
+    private void schedulePrepareAheadCheck() {
+        handler.removeCallbacks(prepareAheadCheck);
+        if (player == null || !player.isPlaying()) {
+            return;
+        }
+        long duration = player.getDuration();
+        if (duration <= 0) {
+            return;
+        }
+        long delay = duration - player.getCurrentPosition() - PREPARE_AHEAD_MS;
+        handler.postDelayed(prepareAheadCheck, Math.max(0, delay));
+    }
+
+    private void onPrepareAheadDeadline() {
+        MediaPlayerInstance nextPlayer = peekPreloadPlayer();
+        if (player == null || nextPlayer == null || nextPlayer.isPrepared()) {
+            return;
+        }
+        Log.w(LC, "Next player " + nextPlayer.title() + " not prepared "
+                + PREPARE_AHEAD_MS + "ms before the end of " + player.title()
+                + ". Prioritizing it.");
+        MusicLibraryService.downloadAudioData(
+                context,
+                nextPlayer.playbackEntry.entryID,
+                AudioStorage.DOWNLOAD_PRIO_TOP
+        );
+        nextPlayer.getReady();
+    }
+
+    private void onTrackEnded(MediaPlayerInstance instance) {
+        MediaPlayerInstance nextPlayer = peekPreloadPlayer();
+        if (nextPlayer == null) {
+            trackEndedTime = -1;
+            return;
+        }
+        if (nextPlayer.isPlaying()) {
+            // The next track was started by the framework from setNextMediaPlayer()
+            onTrackStarted(true);
+            return;
         }
-        player.setNext(nextPlayer);
+        trackEndedTime = SystemClock.elapsedRealtime();
+        Log.d(LC, "Track ended without a prepared next player: " + instance.title());
+    }
+
+    private void onTrackStarted(boolean gapless) {
+        if (!gapless && trackEndedTime < 0) {
+            return;
+        }
+        long gapMs = gapless ? 0 : SystemClock.elapsedRealtime() - trackEndedTime;
+        trackEndedTime = -1;
+        numTransitions++;
+        if (gapless) {
+            numGaplessTransitions++;
+        }
+        totalGapMs += gapMs;
+        maxGapMs = Math.max(maxGapMs, gapMs);
+        Log.d(LC, "Track transition gap: " + gapMs + "ms"
+                + " (gapless: " + numGaplessTransitions + "/" + numTransitions
+                + ", avg gap: " + totalGapMs / numTransitions + "ms"
+                + ", max gap: " + maxGapMs + "ms)");
     }
 
     private boolean isCurrentPlayer(MediaPlayerInstance mediaPlayerInstance) {
@@ -370,7 +514,7 @@ class LocalAudioPlayer implements AudioPlayer {
     }
 
     private boolean isNextPlayer(MediaPlayerInstance mediaPlayerInstance) {
-        MediaPlayerInstance nextPlayer = preloadPlayers.peek();
+        MediaPlayerInstance nextPlayer = peekPreloadPlayer();
         return mediaPlayerInstance.equals(nextPlayer);
     }
 
@@ -390,6 +534,7 @@ class LocalAudioPlayer implements AudioPlayer {
         public void onPrepared(MediaPlayerInstance instance) {
             if (isCurrentPlayer(instance)) {
                 Log.d(LC, "onPrepared: " + instance.title());
+                PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_PREPARED);
                 if (playWhenReady) {
                     play();
                 } else {
@@ -408,6 +553,7 @@ class LocalAudioPlayer implements AudioPlayer {
         @Override
         public void onPlaybackCompleted(MediaPlayerInstance instance) {
             if (isCurrentPlayer(instance)) {
+                onTrackEnded(instance);
                 callback.onSongEnded();
                 next();
             } else {
@@ -419,17 +565,47 @@ class LocalAudioPlayer implements AudioPlayer {
         public void getAudioData(MediaPlayerInstance instance,
                                  EntryID entryID,
                                  AudioDataHandler audioDataHandler) {
+            boolean current = isCurrentPlayer(instance);
+            if (current) {
+                PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_FETCH);
+            }
             MusicLibraryService.getAudioData(
                     context,
                     entryID,
-                    isCurrentPlayer(instance) ?
+                    current ?
                             AudioStorage.DOWNLOAD_PRIO_TOP :
                             AudioStorage.DOWNLOAD_PRIO_MEDIUM + getQueueIndex(instance),
-                    audioDataHandler
+                    current ? new TracingAudioDataHandler(audioDataHandler) : audioDataHandler
             );
         }
     };
 
+    // Marks the data stages of the play latency trace for the current player
+    private static class TracingAudioDataHandler extends AudioDataHandler {
+        private final AudioDataHandler handler;
+
+        TracingAudioDataHandler(AudioDataHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void onDownloading() {
+            PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_DOWNLOAD);
+            handler.onDownloading();
+        }
+
+        @Override
+        public void onSuccess(AudioDataSource audioDataSource) {
+            PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_DATA_READY);
+            handler.onSuccess(audioDataSource);
+        }
+
+        @Override
+        public void onFailure(String status) {
+            handler.onFailure(status);
+        }
+    }
+
     interface MediaPlayerCallback {
         void onBuffering(MediaPlayerInstance instance);
         void onPrepared(MediaPlayerInstance instance);
@@ -35,7 +35,9 @@ class MediaPlayerInstance {
 
     MediaPlayerInstance(PlaybackEntry playbackEntry,
                         LocalAudioPlayer.MediaPlayerCallback callback) {
-        reconstruct();
+        // The MediaPlayer is constructed when needed, to not hold native resources for
+        // entries which are not yet being prepared
+        state = MediaPlayerState.NULL;
         this.playbackEntry = playbackEntry;
         this.callback = callback;
     }
@@ -303,7 +305,7 @@ class MediaPlayerInstance {
         return MediaPlayerState.IDLE.equals(state) && !buffering;
     }
 
-    private boolean isPrepared() {
+    boolean isPrepared() {
         switch (state) {
             case NULL:
             case IDLE:
@@ -322,6 +324,18 @@ class MediaPlayerInstance {
         }
     }
 
+    boolean isPlaying() {
+        return isPrepared() && mediaPlayer != null && mediaPlayer.isPlaying();
+    }
+
+    // Returns the duration in ms, or -1 if not known
+    long getDuration() {
+        if (!isPrepared() || mediaPlayer == null) {
+            return -1;
+        }
+        return mediaPlayer.getDuration();
+    }
+
     int getPlaybackState() {
         switch (state) {
             case STARTED:
@@ -390,7 +404,7 @@ class MediaPlayerInstance {
     }
 
     void getReady() {
-        if (isIdle()) {
+        if (isIdle() || MediaPlayerState.NULL.equals(state)) {
             preload();
         } else if (isStopped()) {
             prepare();
@@ -11,6 +11,7 @@ import com.google.android.gms.cast.framework.SessionManager;
 import com.google.android.gms.cast.framework.SessionManagerListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -25,6 +26,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
@@ -40,6 +42,7 @@ import se.splushii.dancingbunnies.storage.MetaStorage;
 import se.splushii.dancingbunnies.storage.PlaybackControllerStorage;
 import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
 import se.splushii.dancingbunnies.util.Diff;
+import se.splushii.dancingbunnies.util.PlayLatencyTracer;
 import se.splushii.dancingbunnies.util.Util;
 
 // PlaybackController should have audio players, an internal queue, an internal playlist,
@@ -107,6 +110,16 @@ public class PlaybackController {
     private ExecutorService executor = Executors.newSingleThreadExecutor();
     private final Object executorLock = new Object();
 
+    // updateState requests made before a pending run has started share that run
+    private final Object updateStateLock = new Object();
+    private CompletableFuture<Void> pendingUpdateState;
+    private long numUpdateStateRequests = 0;
+    private long numUpdateStateRuns = 0;
+    private long numUpdateStateStagesSkipped = 0;
+    // Inputs to syncPlaylistEntries the last time it ran without changing them
+    private volatile List<Object> stableSyncPlaylistEntriesInputs;
+    private final AtomicLong currentPlaylistPlaybackEntriesVersion = new AtomicLong();
+
     PlaybackController(Context context,
                        PlaybackControllerStorage playbackControllerStorage,
                        Callback callback) {
@@ -132,37 +145,29 @@ public class PlaybackController {
                 + "\ncurrentPlaylistPlaybackRepeatMode: " + currentPlaylistPlaybackRepeatMode
         );
 
-        LiveData<List<PlaybackEntry>> queueEntriesLiveData = storage.getQueueEntries();
         queue = new PlaybackQueue(
                 PlaybackControllerStorage.QUEUE_ID_QUEUE,
                 storage,
-                queueEntriesLiveData,
                 this::onQueueChanged
         );
-        LiveData<List<PlaybackEntry>> playlistEntriesLiveData = storage.getPlaylistEntries();
         playlistItems = new PlaybackQueue(
                 PlaybackControllerStorage.QUEUE_ID_PLAYLIST,
                 storage,
-                playlistEntriesLiveData,
                 this::onQueueChanged
         );
-        LiveData<List<PlaybackEntry>> historyEntriesLiveData = storage.getHistoryEntries();
         history = new PlaybackQueue(
                 PlaybackControllerStorage.QUEUE_ID_HISTORY,
                 storage,
-                historyEntriesLiveData,
                 () -> Log.d(LC, "playback history entries changed")
         );
-        LiveData<List<PlaybackEntry>> currentPlaylistPlaybackEntriesLiveData =
-                storage.getCurrentPlaylistPlaybackEntries();
         currentPlaylistPlaybackEntries = new PlaybackQueue(
                 PlaybackControllerStorage.QUEUE_ID_CURRENT_PLAYLIST_PLAYBACK,
                 storage,
-                currentPlaylistPlaybackEntriesLiveData,
                 () -> {
                     Log.d(LC, "playlist playback entries changed");
+                    currentPlaylistPlaybackEntriesVersion.incrementAndGet();
                     onCurrentPlaylistPlaybackEntriesChanged();
-                    submitCompletableFuture(PlaybackController.this::updateState);
+                    scheduleUpdateState();
                 }
         );
 
@@ -234,7 +239,7 @@ public class PlaybackController {
         onQueueChanged();
         audioPlayer.initialize();
         onCurrentPlaylistPlaybackEntriesChanged();
-        submitCompletableFuture(this::updateState);
+        scheduleUpdateState();
     }
 
     void onDestroy(boolean stopPlayer) {
@@ -263,7 +268,7 @@ public class PlaybackController {
 
     CompletableFuture<Void> setPlaylist(EntryID playlistID, long pos) {
         _setPlaylist(playlistID, pos);
-        return submitCompletableFuture(this::updateState);
+        return scheduleUpdateState();
     }
 
     private void _setPlaylist(EntryID playlistID, long pos) {
@@ -372,7 +377,7 @@ public class PlaybackController {
                         setCurrentPlaylistPosition(playlistPos, 0);
                         callback.onPlaylistSelectionChanged(getCurrentPlaylistID(), playlistPos);
                     })
-                    .thenRun(() -> submitCompletableFuture(this::updateState));
+                    .thenRun(() -> scheduleUpdateState());
         });
     }
 
@@ -389,7 +394,7 @@ public class PlaybackController {
                         setCurrentPlaylistPosition(playlistPos, 0);
                         callback.onPlaylistSelectionChanged(getCurrentPlaylistID(), playlistPos);
                     })
-                    .thenRun(() -> submitCompletableFuture(this::updateState));
+                    .thenRun(() -> scheduleUpdateState());
         });
     }
 
@@ -398,7 +403,7 @@ public class PlaybackController {
         return submitCompletableFuture(() -> {
             setCurrentPlaylistPlaybackRandom(!isCurrentPlaylistPlaybackRandom());
             setCurrentPlaylistPlaybackRepeatMode(true);
-            submitCompletableFuture(this::updateState);
+            scheduleUpdateState();
             return Util.futureResult();
         });
     }
@@ -406,7 +411,7 @@ public class PlaybackController {
     CompletableFuture<Void> setRepeat(boolean repeat) {
         return submitCompletableFuture(() -> {
             setCurrentPlaylistPlaybackRepeatMode(repeat);
-            submitCompletableFuture(this::updateState);
+            scheduleUpdateState();
             return Util.futureResult();
         });
     }
@@ -419,7 +424,10 @@ public class PlaybackController {
         Log.d(LC, "play");
         setPlayWhenReady(true);
         synchronized (executorLock) {
-            return submitCompletableFuture(() -> audioPlayer.play());
+            return submitCompletableFuture(() -> {
+                PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_CONTROLLER);
+                return audioPlayer.play();
+            });
         }
     }
 
@@ -444,7 +452,10 @@ public class PlaybackController {
     CompletableFuture<Void> skipToNext() {
         Log.d(LC, "skipToNext");
         synchronized (executorLock) {
-            return submitCompletableFuture(() -> audioPlayer.next());
+            return submitCompletableFuture(() -> {
+                PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_CONTROLLER);
+                return audioPlayer.next();
+            });
         }
     }
 
@@ -617,6 +628,29 @@ public class PlaybackController {
         return maxToPreload - numPreloaded;
     }
 
+    private CompletableFuture<Void> scheduleUpdateState() {
+        synchronized (updateStateLock) {
+            numUpdateStateRequests++;
+            if (pendingUpdateState != null) {
+                return pendingUpdateState;
+            }
+            pendingUpdateState = submitCompletableFuture(() -> {
+                synchronized (updateStateLock) {
+                    // Requests from now on need a new run, as they may depend on this one
+                    pendingUpdateState = null;
+                    numUpdateStateRuns++;
+                    Log.d(LC, "updateState: run " + numUpdateStateRuns
+                            + " for " + numUpdateStateRequests + " requests"
+                            + " (" + (numUpdateStateRequests - numUpdateStateRuns)
+                            + " runs saved, " + numUpdateStateStagesSkipped
+                            + " stages skipped)");
+                }
+                return updateState();
+            });
+            return pendingUpdateState;
+        }
+    }
+
     private CompletableFuture<Void> updateState() {
         Log.d(LC, "updateState");
         if (audioPlayer == null) {
@@ -624,11 +658,18 @@ public class PlaybackController {
         }
         return CompletableFuture.completedFuture(null)
                 .thenCompose(aVoid -> cleanDuplicateEntries())
-                .thenCompose(aVoid -> syncPlaylistEntries())
+                .thenCompose(aVoid -> syncPlaylistEntriesIfChanged())
                 .thenCompose(aVoid -> updateHistory())
                 .thenCompose(aVoid -> updatePreload());
     }
 
+    private void onUpdateStateStageSkipped(String stage) {
+        synchronized (updateStateLock) {
+            numUpdateStateStagesSkipped++;
+        }
+        Log.d(LC, "updateState: " + stage + " skipped. Inputs unchanged.");
+    }
+
     private CompletionStage<Void> cleanDuplicateEntries() {
         // Start with entries in history
         HashSet<Long> playbackIDs = history.getEntries().stream()
@@ -639,7 +680,7 @@ public class PlaybackController {
         if (current != null) {
             if (playbackIDs.contains(current.playbackID)) {
                 // De-preload and schedule another updateState
-                submitCompletableFuture(this::updateState);
+                scheduleUpdateState();
                 return audioPlayer.remove(Collections.singletonList(current))
                         .thenCompose(aVoid -> Util.futureResult(
                                 "cleanDuplicateEntries: Current entry is a duplicate"
@@ -651,7 +692,7 @@ public class PlaybackController {
         for (PlaybackEntry entry: audioPlayer.getPreloadEntries()) {
             if (playbackIDs.contains(entry.playbackID)) {
                 // De-preload and schedule another updateState
-                submitCompletableFuture(this::updateState);
+                scheduleUpdateState();
                 return audioPlayer.remove(Collections.singletonList(entry))
                         .thenCompose(aVoid -> Util.futureResult(
                                 "cleanDuplicateEntries: AudioPlayer preload contains a duplicate"
@@ -663,7 +704,7 @@ public class PlaybackController {
         for (PlaybackEntry entry: queue.getEntries()) {
             if (playbackIDs.contains(entry.playbackID)) {
                 // De-preload and schedule another updateState
-                submitCompletableFuture(this::updateState);
+                scheduleUpdateState();
                 queue.remove(Collections.singletonList(entry))
                         .thenCompose(aVoid -> Util.futureResult(
                                 "cleanDuplicateEntries: PlaybackController queue contains a duplicate"
@@ -675,7 +716,7 @@ public class PlaybackController {
         for (PlaybackEntry entry: playlistItems.getEntries()) {
             if (playbackIDs.contains(entry.playbackID)) {
                 // De-preload and schedule another updateState
-                submitCompletableFuture(this::updateState);
+                scheduleUpdateState();
                 playlistItems.remove(Collections.singletonList(entry))
                         .thenCompose(aVoid -> Util.futureResult(
                                 "cleanDuplicateEntries: PlaybackController playlist entries contains a duplicate"
@@ -688,6 +729,10 @@ public class PlaybackController {
 
     private CompletionStage<Void> updateHistory() {
         List<PlaybackEntry> historyEntries = audioPlayer.getHistory();
+        if (historyEntries.isEmpty()) {
+            onUpdateStateStageSkipped("updateHistory");
+            return Util.futureResult();
+        }
         historyEntries.forEach(p -> p.setPreloaded(false));
         Log.d(LC, "updateHistory getting " + historyEntries.size());
         return audioPlayer.remove(historyEntries)
@@ -789,6 +834,55 @@ public class PlaybackController {
         return true;
     }
 
+    // Skips syncPlaylistEntries if it would run on the same inputs as when it last ran
+    // without changing them
+    private CompletableFuture<Void> syncPlaylistEntriesIfChanged() {
+        List<Object> inputs = getSyncPlaylistEntriesInputs();
+        if (inputs.equals(stableSyncPlaylistEntriesInputs)) {
+            onUpdateStateStageSkipped("syncPlaylistEntries");
+            return Util.futureResult();
+        }
+        stableSyncPlaylistEntriesInputs = null;
+        return syncPlaylistEntries().thenRun(() -> {
+            if (inputs.equals(getSyncPlaylistEntriesInputs())) {
+                stableSyncPlaylistEntriesInputs = inputs;
+            }
+        });
+    }
+
+    private List<Object> getSyncPlaylistEntriesInputs() {
+        PlaybackEntry lastPlaylistPlaybackEntry = getLastPlaylistPlaybackEntry();
+        List<Object> inputs = new ArrayList<>(Arrays.asList(
+                getCurrentPlaylistID(),
+                getCurrentPlaylistSelectionID(),
+                getCurrentPlaylistPosition(),
+                getCurrentPlaylistPlaybackPosition(),
+                isCurrentPlaylistPlaybackRandom(),
+                getCurrentPlaylistPlaybackRepeatMode(),
+                endOfPlaylistPlayback,
+                currentPlaylistPlaybackEntriesVersion.get(),
+                currentPlaylistPlaybackEntries.size(),
+                getSyncPlaylistEntriesInput(lastPlaylistPlaybackEntry)
+        ));
+        for (PlaybackEntry entry: getAllEntries()) {
+            inputs.add(getSyncPlaylistEntriesInput(entry));
+        }
+        return inputs;
+    }
+
+    private List<Object> getSyncPlaylistEntriesInput(PlaybackEntry entry) {
+        if (entry == null) {
+            return null;
+        }
+        return Arrays.asList(
+                entry.playbackID,
+                entry.entryID,
+                entry.playbackType,
+                entry.playlistPos,
+                entry.playlistSelectionID
+        );
+    }
+
     private CompletableFuture<Void> syncPlaylistEntries() {
         Log.d(LC, "syncPlaylistEntries");
         // Check if the current entry has the same playlistSelectionID as
@@ -818,7 +912,7 @@ public class PlaybackController {
                 PlaybackEntry expectedPlaylistPlaybackEntry =
                         currentPlaylistPlaybackEntries.get((int) expectedPlaylistPlaybackPosition);
                 if (expectedPlaylistPlaybackEntry == null) {
-                    submitCompletableFuture(this::updateState);
+                    scheduleUpdateState();
                     return Util.futureResult(
                             "syncPlaylistEntries: Could not get expected playlist playbackentry."
                     );
@@ -1072,7 +1166,7 @@ public class PlaybackController {
                     }
                     return Util.futureResult();
                 })
-                .thenRun(() -> submitCompletableFuture(this::updateState));
+                .thenRun(() -> scheduleUpdateState());
     }
 
     private void onQueueChanged() {
@@ -1213,7 +1307,7 @@ public class PlaybackController {
                 long time = System.currentTimeMillis() - startTime;
                 Log.d(LC, "playlistEntriesObserver. Finish! Time: " + time + "ms");
                 return Util.futureResult();
-            }).thenRun(() -> submitCompletableFuture(this::updateState));
+            }).thenRun(() -> scheduleUpdateState());
         }
     }
 
@@ -1255,7 +1349,7 @@ public class PlaybackController {
         synchronized (executorLock) {
             return submitCompletableFuture(() ->
                     _deQueue(playbackEntries)
-                    .thenRun(() -> submitCompletableFuture(this::updateState))
+                    .thenRun(() -> scheduleUpdateState())
             );
         }
     }
@@ -1315,7 +1409,7 @@ public class PlaybackController {
                                            List<String> sortBy) {
         synchronized (executorLock) {
             return submitCompletableFuture(() -> {
-                Log.d(LC, "shuffleQueueItems(" + playbackEntries.size() + ")");
+                Log.d(LC, "sortQueueItems(" + playbackEntries.size() + ")");
                 List<PlaybackEntry> queueEntries = getAllQueueEntries();
                 return sorted(playbackEntries, sortBy)
                         .thenCompose(sortedEntries -> reorderQueueItemsAccordingToList(
@@ -1328,7 +1422,7 @@ public class PlaybackController {
 
     private CompletableFuture<List<PlaybackEntry>> sorted(List<PlaybackEntry> playbackEntries,
                                                           List<String> sortBy) {
-        return sorted(context, playbackEntries, sortBy);
+        return storage.sorted(PlaybackControllerStorage.QUEUE_ID_QUEUE, playbackEntries, sortBy);
     }
 
     public static CompletableFuture<List<PlaybackEntry>> sorted(Context context,
@@ -1450,7 +1544,10 @@ public class PlaybackController {
         setPlayWhenReady(true);
         long beforePlaybackID = getQueuePlaybackID(0);
         synchronized (executorLock) {
-            return submitCompletableFuture(() -> queueEntries(entryIDs, beforePlaybackID))
+            return submitCompletableFuture(() -> {
+                PlayLatencyTracer.getInstance().mark(PlayLatencyTracer.STAGE_CONTROLLER);
+                return queueEntries(entryIDs, beforePlaybackID);
+            })
                     .thenCompose(r -> getNumTotalQueueEntries() > 0 ?
                             audioPlayer.next() : Util.futureResult())
                     .thenCompose(r -> audioPlayer.play());
@@ -1555,13 +1652,13 @@ public class PlaybackController {
         public void onPreloadChanged() {
             Log.d(LC, "onPreloadChanged");
             onQueueChanged();
-            submitCompletableFuture(PlaybackController.this::updateState);
+            scheduleUpdateState();
         }
 
         @Override
         public void onSongEnded() {
             Log.d(LC, "onSongEnded");
-            submitCompletableFuture(PlaybackController.this::updateState);
+            scheduleUpdateState();
         }
 
         @Override
@@ -1603,7 +1700,7 @@ public class PlaybackController {
                 .thenCompose(aVoid -> queue.add(0, queueEntries))
                 .thenCompose(aVoid -> playlistItems.add(0, playlistEntries))
                 .thenCompose(aVoid -> history.add(0, state.history))
-                .thenRun(() -> submitCompletableFuture(this::updateState));
+                .thenRun(() -> scheduleUpdateState());
     }
 
     private AudioPlayer.AudioPlayerState resetController() {
@@ -1617,6 +1714,11 @@ public class PlaybackController {
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        synchronized (updateStateLock) {
+            // A pending run was discarded with the executor
+            pendingUpdateState = null;
+        }
+        stableSyncPlaylistEntriesInputs = null;
         AudioPlayer.AudioPlayerState lastState = audioPlayer.getLastState();
         printState("resetController. State:", lastState);
         audioPlayer.destroy(true);
@@ -3,56 +3,50 @@ package se.splushii.dancingbunnies.audioplayer;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
 
-import androidx.lifecycle.LiveData;
-import androidx.lifecycle.Observer;
+import androidx.core.util.Pair;
 import se.splushii.dancingbunnies.storage.PlaybackControllerStorage;
+import se.splushii.dancingbunnies.storage.PlaybackControllerStorage.QueueChange;
+import se.splushii.dancingbunnies.util.IndexedSequence;
 import se.splushii.dancingbunnies.util.Util;
 
+// In-memory copy of a queue in PlaybackControllerStorage, kept in sync by applying the
+// queue change stream. Falls back to reloading when a change is missed or can not be applied.
 class PlaybackQueue {
     private static final String LC = Util.getLogContext(PlaybackQueue.class);
-    private final LinkedList<PlaybackEntry> queue;
-    private final HashSet<Long> playbackIDSet;
+    // Indexed by playbackID
+    private final IndexedSequence<Long, PlaybackEntry> queue;
     private final PlaybackControllerStorage storage;
     private final int queueID;
     private final Runnable onQueueChanged;
-    private final LiveData<List<PlaybackEntry>> playbackEntriesLiveData;
-    private final Observer<List<PlaybackEntry>> observer;
+    private final PlaybackControllerStorage.QueueChangeListener queueChangeListener;
+    // Below are guarded by queue
+    // Sequence number of the last change applied
+    private long lastSeq = 0;
+    private boolean reloading = false;
+    private final List<QueueChange> changesDuringReload = new ArrayList<>();
+    // Origin tokens of writes already applied optimistically, in the order they were applied
+    private final ArrayDeque<Object> optimisticChanges = new ArrayDeque<>();
+    // Whether storage may have applied the optimistic changes to a different state
+    private boolean optimisticChangesDiverged = false;
 
     PlaybackQueue(int queueID,
                   PlaybackControllerStorage storage,
-                  LiveData<List<PlaybackEntry>> playbackEntriesLiveData,
                   Runnable onQueueChanged) {
-        this.playbackEntriesLiveData = playbackEntriesLiveData;
         this.storage = storage;
         this.queueID = queueID;
         this.onQueueChanged = onQueueChanged;
-        queue = new LinkedList<>();
-        playbackIDSet = new HashSet<>();
-        observer = playbackEntries -> {
-            int previousSize;
-            int newSize;
-            boolean changed;
-            synchronized (queue) {
-                previousSize = queue.size();
-                changed = !queue.equals(playbackEntries);
-                if (changed) {
-                    queue.clear();
-                    playbackIDSet.clear();
-                    _add(0, playbackEntries);
-                }
-                newSize = queue.size();
-            }
-            if (changed) {
-                PlaybackQueue.this.onChanged(previousSize, newSize);
-            }
-        };
-        playbackEntriesLiveData.observeForever(observer);
+        queue = new IndexedSequence<>(p -> p.playbackID);
+        queueChangeListener = this::onQueueChange;
+        storage.addQueueChangeListener(queueID, queueChangeListener);
+        synchronized (queue) {
+            reload();
+        }
     }
 
     private void onChanged(int previousSize, int newSize) {
@@ -61,17 +55,222 @@ class PlaybackQueue {
         onQueueChanged.run();
     }
 
+    private void onQueueChange(QueueChange change) {
+        int previousSize;
+        int newSize;
+        boolean changed;
+        synchronized (queue) {
+            previousSize = queue.size();
+            changed = applyChange(change);
+            newSize = queue.size();
+        }
+        if (changed) {
+            // Not on the storage writer thread, which holds the queue storage lock
+            Util.getMainThreadExecutor().execute(() -> onChanged(previousSize, newSize));
+        }
+    }
+
+    // Returns whether the in-memory queue changed
+    private boolean applyChange(QueueChange change) {
+        if (reloading) {
+            changesDuringReload.add(change);
+            return false;
+        }
+        if (change.seq <= lastSeq) {
+            return false;
+        }
+        if (change.seq != lastSeq + 1) {
+            Log.w(LC, PlaybackControllerStorage.getQueueName(queueID)
+                    + " missed changes (seq " + lastSeq + " -> " + change.seq + "). Reloading.");
+            reload();
+            return false;
+        }
+        lastSeq = change.seq;
+        if (change.origin != null && optimisticChanges.contains(change.origin)) {
+            if (optimisticChanges.peekFirst() != change.origin) {
+                // Committed in a different order than applied
+                optimisticChangesDiverged = true;
+            }
+            optimisticChanges.remove(change.origin);
+            reloadIfDiverged();
+            return false;
+        }
+        if (!optimisticChanges.isEmpty()) {
+            // Committed in between optimistic changes, which are position based
+            optimisticChangesDiverged = true;
+        }
+        boolean applied;
+        switch (change.type) {
+            case QueueChange.INSERT:
+                applied = applyInsert(change.position, change.entries);
+                break;
+            case QueueChange.REMOVE:
+                for (PlaybackEntry entry: change.entries) {
+                    queue.removeKey(entry.playbackID);
+                }
+                applied = true;
+                break;
+            case QueueChange.MOVE:
+                applied = applyMove(change.beforePlaybackID, change.entries);
+                break;
+            case QueueChange.UPDATE:
+                for (PlaybackEntry entry: change.entries) {
+                    queue.replace(entry);
+                }
+                applied = true;
+                break;
+            case QueueChange.REPLACE:
+                queue.clear();
+                _add(0, change.entries);
+                applied = true;
+                break;
+            default:
+                applied = false;
+                break;
+        }
+        if (!applied) {
+            Log.w(LC, PlaybackControllerStorage.getQueueName(queueID)
+                    + " could not apply change " + change.type + " (seq " + change.seq + ")."
+                    + " Reloading.");
+            reload();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean applyInsert(int toPosition, List<PlaybackEntry> entries) {
+        if (toPosition < 0 || toPosition > queue.size()) {
+            return false;
+        }
+        for (PlaybackEntry entry: entries) {
+            if (queue.containsKey(entry.playbackID)) {
+                return false;
+            }
+        }
+        queue.addAll(toPosition, entries);
+        return true;
+    }
+
+    // Same result as DB.movePositions(). Moved entries keep their relative order.
+    private boolean applyMove(long beforePlaybackID, List<PlaybackEntry> entries) {
+        LinkedHashMap<Long, Integer> positions = new LinkedHashMap<>();
+        for (PlaybackEntry entry: entries) {
+            int position = queue.indexOfKey(entry.playbackID);
+            if (position < 0) {
+                return false;
+            }
+            positions.put(entry.playbackID, position);
+        }
+        int targetPos;
+        if (beforePlaybackID <= PlaybackEntry.PLAYBACK_ID_INVALID) {
+            targetPos = queue.size();
+        } else {
+            targetPos = queue.indexOfKey(beforePlaybackID);
+            if (targetPos < 0) {
+                return false;
+            }
+        }
+        int numBelowTargetPos = 0;
+        for (int position: positions.values()) {
+            if (position < targetPos) {
+                numBelowTargetPos++;
+            }
+        }
+        List<Long> movedIDs = new ArrayList<>(positions.keySet());
+        movedIDs.sort(Comparator.comparing(positions::get));
+        List<PlaybackEntry> movedEntries = new ArrayList<>(movedIDs.size());
+        for (long playbackID: movedIDs) {
+            movedEntries.add(queue.removeKey(playbackID));
+        }
+        queue.addAll(targetPos - numBelowTargetPos, movedEntries);
+        return true;
+    }
+
+    // Must hold queue
+    private void reloadIfDiverged() {
+        if (optimisticChangesDiverged && optimisticChanges.isEmpty()) {
+            Log.w(LC, PlaybackControllerStorage.getQueueName(queueID)
+                    + " optimistic changes diverged from storage. Reloading.");
+            reload();
+        }
+    }
+
+    // Must hold queue
+    private void reload() {
+        if (reloading) {
+            return;
+        }
+        reloading = true;
+        changesDuringReload.clear();
+        storage.getEntriesSnapshot(queueID).handle((snapshot, throwable) -> {
+            if (throwable != null) {
+                Log.e(LC, "Could not reload " + PlaybackControllerStorage.getQueueName(queueID)
+                        + ": " + throwable.getMessage());
+            }
+            onReloaded(snapshot);
+            return null;
+        });
+    }
+
+    private void onReloaded(Pair<Long, List<PlaybackEntry>> snapshot) {
+        int previousSize;
+        int newSize;
+        synchronized (queue) {
+            previousSize = queue.size();
+            reloading = false;
+            List<QueueChange> pendingChanges = new ArrayList<>(changesDuringReload);
+            changesDuringReload.clear();
+            if (snapshot == null) {
+                // The next change will be seen as a gap, and trigger a new reload
+                return;
+            }
+            queue.clear();
+            _add(0, snapshot.second);
+            lastSeq = snapshot.first;
+            // The optimistic changes were discarded. Their changes will be applied from storage.
+            optimisticChanges.clear();
+            optimisticChangesDiverged = false;
+            for (QueueChange change: pendingChanges) {
+                applyChange(change);
+            }
+            newSize = queue.size();
+        }
+        onChanged(previousSize, newSize);
+    }
+
+    // Marks an in-memory change that is about to be written. Must hold queue.
+    private Object startOptimisticChange() {
+        Object origin = new Object();
+        optimisticChanges.addLast(origin);
+        return origin;
+    }
+
+    private CompletableFuture<Void> onOptimisticChangeWritten(Object origin,
+                                                              CompletableFuture<Void> write) {
+        return write.whenComplete((aVoid, throwable) -> {
+            if (throwable == null) {
+                return;
+            }
+            Log.e(LC, "Could not write to " + PlaybackControllerStorage.getQueueName(queueID)
+                    + ": " + throwable.getMessage() + ". Reloading.");
+            synchronized (queue) {
+                optimisticChanges.remove(origin);
+                reload();
+            }
+        });
+    }
+
     private void _add(int toPosition, List<PlaybackEntry> entries) {
-        int index = toPosition;
+        List<PlaybackEntry> entriesToAdd = new ArrayList<>(entries.size());
         for (PlaybackEntry entry : entries) {
-            if (playbackIDSet.contains(entry.playbackID)) {
+            if (queue.containsKey(entry.playbackID)) {
                 Log.e(LC, "Tried to add duplicate playbackID: " + entry.playbackID
                         + "(" + entry.toString() + ")");
                 continue;
             }
-            queue.add(index++, entry);
-            playbackIDSet.add(entry.playbackID);
+            entriesToAdd.add(entry);
         }
+        queue.addAll(toPosition, entriesToAdd);
     }
 
     CompletableFuture<Void> add(int toPosition, List<PlaybackEntry> entries) {
@@ -83,14 +282,19 @@ class PlaybackQueue {
         // Optimistic update of in-memory queue
         int previousSize;
         int newSize;
+        Object origin;
         synchronized (queue) {
             previousSize = queue.size();
             _add(toPosition, entries);
             newSize = queue.size();
+            origin = startOptimisticChange();
         }
         onChanged(previousSize, newSize);
         // Actual update of queue source data
-        return storage.insert(queueID, toPosition, entries);
+        return onOptimisticChangeWritten(
+                origin,
+                storage.insert(queueID, toPosition, entries, origin)
+        );
     }
 
     CompletableFuture<Void> updatePositions(List<PlaybackEntry> movedPlaybackEntries) {
@@ -102,19 +306,21 @@ class PlaybackQueue {
         // Optimistic update of in-memory queue
         int previousSize;
         int newSize;
+        Object origin;
         synchronized (queue) {
             previousSize = queue.size();
             for (PlaybackEntry entry: movedPlaybackEntries) {
-                int index = queue.indexOf(entry);
-                if (index >= 0) {
-                    queue.set(index, entry);
-                }
+                queue.replace(entry);
             }
             newSize = queue.size();
+            origin = startOptimisticChange();
         }
         onChanged(previousSize, newSize);
         // Actual update of queue source data
-        return storage.updatePositions(queueID, movedPlaybackEntries);
+        return onOptimisticChangeWritten(
+                origin,
+                storage.updatePositions(queueID, movedPlaybackEntries, origin)
+        );
     }
 
     CompletableFuture<Void> replaceWith(List<PlaybackEntry> entries) {
@@ -123,24 +329,26 @@ class PlaybackQueue {
         // Optimistic update of in-memory queue
         int previousSize;
         int newSize;
+        Object origin;
         synchronized (queue) {
             previousSize = queue.size();
             queue.clear();
-            playbackIDSet.clear();
             _add(0, entries);
             newSize = queue.size();
+            origin = startOptimisticChange();
         }
         onChanged(previousSize, newSize);
-        return storage.replaceWith(queueID, entries);
+        return onOptimisticChangeWritten(
+                origin,
+                storage.replaceWith(queueID, entries, origin)
+        );
     }
 
     CompletableFuture<List<PlaybackEntry>> poll(int num) {
         Log.d(LC, "poll(" + num + ")");
         List<PlaybackEntry> entries;
         synchronized (queue) {
-            entries = queue.stream()
-                    .limit(num)
-                    .collect(Collectors.toList());
+            entries = queue.subList(0, Math.max(0, Math.min(num, queue.size())));
         }
         return remove(entries)
                 .thenApply(aVoid -> entries);
@@ -155,17 +363,21 @@ class PlaybackQueue {
         // Optimistic update of in-memory queue
         int previousSize;
         int newSize;
+        Object origin;
         synchronized (queue) {
             previousSize = queue.size();
             for (PlaybackEntry entry : playbackEntries) {
-                queue.remove(entry);
-                playbackIDSet.remove(entry.playbackID);
+                queue.removeKey(entry.playbackID);
             }
             newSize = queue.size();
+            origin = startOptimisticChange();
         }
         onChanged(previousSize, newSize);
         // Actual update of queue source data
-        return storage.removeEntries(queueID, playbackEntries);
+        return onOptimisticChangeWritten(
+                origin,
+                storage.removeEntries(queueID, playbackEntries, origin)
+        );
     }
 
     CompletableFuture<Void> clear() {
@@ -173,20 +385,24 @@ class PlaybackQueue {
         // Optimistic update of in-memory queue
         int previousSize;
         int newSize;
+        Object origin;
         synchronized (queue) {
             previousSize = queue.size();
             queue.clear();
-            playbackIDSet.clear();
             newSize = queue.size();
+            origin = startOptimisticChange();
         }
         onChanged(previousSize, newSize);
         // Actual update of queue source data
-        return storage.removeAll(queueID);
+        return onOptimisticChangeWritten(
+                origin,
+                storage.removeAll(queueID, origin)
+        );
     }
 
     public List<PlaybackEntry> getEntries() {
         synchronized (queue) {
-            return new ArrayList<>(queue);
+            return queue.toList();
         }
     }
 
@@ -203,12 +419,12 @@ class PlaybackQueue {
     }
 
     void onDestroy() {
-        playbackEntriesLiveData.removeObserver(observer);
+        storage.removeQueueChangeListener(queueID, queueChangeListener);
     }
 
     boolean isEmpty() {
         synchronized (queue) {
-            return queue.size() < 1;
+            return queue.isEmpty();
         }
     }
 }
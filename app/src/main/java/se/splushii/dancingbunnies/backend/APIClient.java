@@ -36,6 +36,7 @@ public abstract class APIClient {
     public static final String SETTINGS_KEY_SUBSONIC_PASSWORD = "se.splushii.dancingbunnies.settings_key.subsonic.password";
     public static final String SETTINGS_KEY_GIT_REPO = "se.splushii.dancingbunnies.settings_key.git.repo";
     public static final String SETTINGS_KEY_GIT_BRANCH = "se.splushii.dancingbunnies.settings_key.git.branch";
+    public static final String SETTINGS_KEY_GIT_SHALLOW = "se.splushii.dancingbunnies.settings_key.git.shallow";
     public static final String SETTINGS_KEY_GIT_USERNAME = "se.splushii.dancingbunnies.settings_key.git.username";
     public static final String SETTINGS_KEY_GIT_PASSWORD = "se.splushii.dancingbunnies.settings_key.git.password";
     public static final String SETTINGS_KEY_GIT_SSH_KEY = "se.splushii.dancingbunnies.settings_key.git.ssh_key";
@@ -272,6 +273,7 @@ public abstract class APIClient {
         public void addPlaylistEntry(
                 Context context,
                 EntryID playlistID,
+                String playlistEntryID,
                 EntryID entryID,
                 String beforePlaylistEntryID,
                 Meta metaSnapshot
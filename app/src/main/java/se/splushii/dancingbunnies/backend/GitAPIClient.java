@@ -8,8 +8,6 @@ import com.jcraft.jsch.JSch;
 import com.jcraft.jsch.JSchException;
 import com.jcraft.jsch.Session;
 
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.io.filefilter.HiddenFileFilter;
 import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.CreateBranchCommand;
 import org.eclipse.jgit.api.Git;
@@ -22,28 +20,33 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.StoredConfig;
 import org.eclipse.jgit.transport.HttpTransport;
 import org.eclipse.jgit.transport.JschConfigSessionFactory;
 import org.eclipse.jgit.transport.OpenSshConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.SshTransport;
+import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.eclipse.jgit.util.FS;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
+import java.net.URISyntaxException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
-import androidx.core.util.Consumer;
 import se.splushii.dancingbunnies.musiclibrary.AudioDataSource;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
@@ -70,10 +73,13 @@ public class GitAPIClient extends APIClient {
     public static final String PROTOCOL_SSH = "ssh";
 
     private static final String REMOTE = "origin";
+    static final int GC_LOOSE_OBJECTS_THRESHOLD = 1024;
+    static final int GC_PACK_FILES_THRESHOLD = 8;
 
     private Path workDir;
     private String gitURI;
     private String gitBranch;
+    private boolean shallow;
     private String sshPrivKey;
     private String sshPassphrase;
     private String username;
@@ -81,6 +87,7 @@ public class GitAPIClient extends APIClient {
     private String tagDelimiter;
 
     private TransportConfigCallback transportConfigCallback;
+    private boolean gcPending = false;
 
     public GitAPIClient(String apiInstanceID) {
         super(MusicLibraryService.API_SRC_ID_GIT, apiInstanceID);
@@ -98,13 +105,16 @@ public class GitAPIClient extends APIClient {
 
     @Override
     public void loadSettings(Context context, Path workDir, Bundle settings) {
-        this.workDir = workDir;
-        gitURI = settings.getString(APIClient.SETTINGS_KEY_GIT_REPO);
+        setRepository(
+                workDir,
+                settings.getString(APIClient.SETTINGS_KEY_GIT_REPO),
+                settings.getString(APIClient.SETTINGS_KEY_GIT_BRANCH),
+                settings.getBoolean(APIClient.SETTINGS_KEY_GIT_SHALLOW, false)
+        );
         username = settings.getString(APIClient.SETTINGS_KEY_GIT_USERNAME);
         password = settings.getString(APIClient.SETTINGS_KEY_GIT_PASSWORD);
         sshPrivKey = settings.getString(APIClient.SETTINGS_KEY_GIT_SSH_KEY);
         sshPassphrase = settings.getString(APIClient.SETTINGS_KEY_GIT_SSH_KEY_PASSPHRASE);
-        gitBranch = settings.getString(APIClient.SETTINGS_KEY_GIT_BRANCH);
 
         transportConfigCallback = transport -> {
             transport.setTimeout(30);
@@ -208,7 +218,17 @@ public class GitAPIClient extends APIClient {
         });
     }
 
-    private String updateWorkDir() {
+    void setRepository(Path workDir, String gitURI, String gitBranch, boolean shallow) {
+        this.workDir = workDir;
+        this.gitURI = gitURI;
+        this.gitBranch = gitBranch;
+        this.shallow = shallow;
+    }
+
+    // Clones the remote repository, or pulls the target branch into the existing working tree.
+    // Returns an error message, or null on success.
+    String updateWorkDir() {
+        long start = System.currentTimeMillis();
         Git git = null;
         File workDirFile = workDir.toFile();
         if (workDirFile.exists() && workDirFile.isDirectory()) {
@@ -245,6 +265,10 @@ public class GitAPIClient extends APIClient {
                         return "Could not reset working tree: " + e.getMessage();
                     }
                 }
+                String error = updateFetchRefSpecs(git);
+                if (error != null) {
+                    return error;
+                }
                 String currentBranch;
                 try {
                     currentBranch = git.getRepository().getBranch();
@@ -256,6 +280,11 @@ public class GitAPIClient extends APIClient {
                             + " does not match target branch \"" + gitBranch + "\"."
                             + " Checking out target branch.");
                     try {
+                        git.fetch()
+                                .setTransportConfigCallback(transportConfigCallback)
+                                .setRemote(REMOTE)
+                                .setTagOpt(shallow ? TagOpt.NO_TAGS : TagOpt.AUTO_FOLLOW)
+                                .call();
                         git.checkout()
                                 .setName(gitBranch)
                                 .setCreateBranch(true)
@@ -272,6 +301,7 @@ public class GitAPIClient extends APIClient {
                     PullResult pullResult = git.pull()
                             .setTransportConfigCallback(transportConfigCallback)
                             .setRemoteBranchName(gitBranch)
+                            .setTagOpt(shallow ? TagOpt.NO_TAGS : TagOpt.AUTO_FOLLOW)
                             .setRebase(true)
                             .call();
                     if (!pullResult.isSuccessful()) {
@@ -298,17 +328,140 @@ public class GitAPIClient extends APIClient {
                     .setTransportConfigCallback(transportConfigCallback)
                     .setBranch(gitBranch)
                     .setURI(gitURI);
+            if (shallow) {
+                // JGit does not support depth-limited fetches. Fetch only the target branch.
+                cloneCommand.setCloneAllBranches(false)
+                        .setBranchesToClone(Collections.singletonList(Constants.R_HEADS + gitBranch));
+            }
             try {
                 git = cloneCommand.call();
                 Log.d(LC, "Successfully cloned the remote repository");
             } catch (GitAPIException e) {
                 return "Could not clone repository: " + e.getMessage();
             }
+            if (shallow) {
+                String error = updateFetchRefSpecs(git);
+                if (error != null) {
+                    git.close();
+                    return error;
+                }
+            }
         }
+        pruneRepository(git);
         git.close();
+        Log.d(LC, "updateWorkDir finished in " + (System.currentTimeMillis() - start) + "ms");
+        return null;
+    }
+
+    // In shallow mode, only the target branch is fetched, without tags. The remote-tracking refs
+    // of other branches and all tags are deleted, so that the history they keep can be pruned.
+    // Clones fetch the tags of the target branch, as JGit can not clone without tags.
+    private String updateFetchRefSpecs(Git git) {
+        try {
+            StoredConfig config = git.getRepository().getConfig();
+            RemoteConfig remoteConfig = new RemoteConfig(config, REMOTE);
+            String remoteRefs = Constants.R_REMOTES + REMOTE + "/";
+            RefSpec refSpec = shallow ?
+                    new RefSpec("+" + Constants.R_HEADS + gitBranch + ":" + remoteRefs + gitBranch)
+                    : new RefSpec("+" + Constants.R_HEADS + "*:" + remoteRefs + "*");
+            TagOpt tagOpt = shallow ? TagOpt.NO_TAGS : TagOpt.AUTO_FOLLOW;
+            if (!remoteConfig.getFetchRefSpecs().equals(Collections.singletonList(refSpec))
+                    || remoteConfig.getTagOpt() != tagOpt) {
+                Log.d(LC, "Setting fetch refspec: " + refSpec + ", tag option: " + tagOpt);
+                remoteConfig.setFetchRefSpecs(Collections.singletonList(refSpec));
+                remoteConfig.setTagOpt(tagOpt);
+                remoteConfig.update(config);
+                config.save();
+            }
+            if (!shallow) {
+                return null;
+            }
+            List<String> staleRefs = new ArrayList<>();
+            for (Ref ref: git.getRepository().getRefDatabase().getRefsByPrefix(remoteRefs)) {
+                if (!ref.getName().equals(remoteRefs + gitBranch)) {
+                    staleRefs.add(ref.getName());
+                }
+            }
+            if (!staleRefs.isEmpty()) {
+                Log.d(LC, "Deleting remote-tracking refs: " + staleRefs);
+                git.branchDelete()
+                        .setBranchNames(staleRefs.toArray(new String[0]))
+                        .setForce(true)
+                        .call();
+                gcPending = true;
+            }
+            List<String> tags = new ArrayList<>();
+            for (Ref ref: git.getRepository().getRefDatabase().getRefsByPrefix(Constants.R_TAGS)) {
+                tags.add(ref.getName());
+            }
+            if (!tags.isEmpty()) {
+                Log.d(LC, "Deleting tags: " + tags);
+                git.tagDelete()
+                        .setTags(tags.toArray(new String[0]))
+                        .call();
+                gcPending = true;
+            }
+        } catch (URISyntaxException | IOException | GitAPIException e) {
+            return "Could not update fetch refspecs: " + e.getMessage();
+        }
         return null;
     }
 
+    // Packs loose objects and removes unreachable objects when the object database has grown
+    // past the thresholds. Logs the disk usage of the object database.
+    private void pruneRepository(Git git) {
+        try {
+            Properties stats = git.gc().getStatistics();
+            long numLooseObjects = getStat(stats, "numberOfLooseObjects");
+            long numPackFiles = getStat(stats, "numberOfPackFiles");
+            if (gcPending
+                    || numLooseObjects > GC_LOOSE_OBJECTS_THRESHOLD
+                    || numPackFiles > GC_PACK_FILES_THRESHOLD) {
+                long start = System.currentTimeMillis();
+                Log.d(LC, "Running gc. Loose objects: " + numLooseObjects
+                        + ", pack files: " + numPackFiles);
+                // Delete replaced packs right away. Otherwise they are kept until
+                // gc.prunePackExpire has passed, and the pack files threshold stays exceeded.
+                // In shallow mode, also drop unreachable objects instead of loosening them until
+                // gc.pruneExpire has passed. Not saved, only used by this repository instance.
+                StoredConfig config = git.getRepository().getConfig();
+                config.setString(
+                        ConfigConstants.CONFIG_GC_SECTION,
+                        null,
+                        ConfigConstants.CONFIG_KEY_PRUNEPACKEXPIRE,
+                        "now"
+                );
+                if (shallow) {
+                    config.setString(
+                            ConfigConstants.CONFIG_GC_SECTION,
+                            null,
+                            ConfigConstants.CONFIG_KEY_PRUNEEXPIRE,
+                            "now"
+                    );
+                }
+                stats = git.gc()
+                        .setPreserveOldPacks(false)
+                        .setPrunePreserved(true)
+                        .call();
+                gcPending = false;
+                Log.d(LC, "gc finished in " + (System.currentTimeMillis() - start) + "ms");
+            }
+            Log.d(LC, "Object database: "
+                    + (getStat(stats, "sizeOfPackedObjects")
+                    + getStat(stats, "sizeOfLooseObjects")) / 1024 + "KB"
+                    + " (packed objects: " + getStat(stats, "numberOfPackedObjects")
+                    + ", pack files: " + getStat(stats, "numberOfPackFiles")
+                    + ", loose objects: " + getStat(stats, "numberOfLooseObjects") + ")");
+        } catch (GitAPIException e) {
+            Log.e(LC, "Could not prune repository: " + e.getMessage());
+        }
+    }
+
+    private static long getStat(Properties stats, String key) {
+        Object value = stats.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
     private String getLocalChanges() {
         Git git;
         try {
@@ -331,35 +484,29 @@ public class GitAPIClient extends APIClient {
                 + "\nUncommitted: " + gitStatus.getUncommittedChanges();
     }
 
-    private String getPlaylists(Context context, boolean fetch, Consumer<PlaylistPath> consumer) {
+    private GitPlaylistIndex updatePlaylistIndex(Context context,
+                                                 boolean fetch) throws BatchException {
         if (fetch) {
             String error = updateWorkDir();
             if (error != null) {
-                return error;
+                throw new BatchException(error);
             }
-            Log.d(LC, "Local working tree is up to date. Traversing files...");
+            Log.d(LC, "Local working tree is up to date. Updating playlist index...");
         }
-        List<Path> playlistPaths;
-        try (Stream<Path> walk = Files.walk(Paths.get(workDir.toUri()))) {
-            playlistPaths = walk
-                    .filter(Files::isRegularFile)
-                    .filter(path -> HiddenFileFilter.VISIBLE.accept(path.toFile()))
-                    .filter(path -> FilenameUtils.isExtension(path.toString(), ".yaml"))
-                    .collect(Collectors.toList());
+        GitPlaylistIndex playlistIndex = GitPlaylistIndex.load(src, workDir);
+        String error;
+        try (Git git = Git.open(workDir.toFile())) {
+            error = playlistIndex.update(
+                    git.getRepository(),
+                    source -> Playlist.from(context, src, source)
+            );
         } catch (IOException e) {
-            return "Could not traverse repository"
-                    + " for playlist files: " + e.getMessage();
+            error = "Could not open repository: " + e.getMessage();
         }
-        Log.d(LC, "Valid playlist files:\n"
-                + playlistPaths.stream()
-                .map(Path::toString)
-                .collect(Collectors.joining("\n"))
-        );
-        playlistPaths.forEach(path -> consumer.accept(new PlaylistPath(
-                path,
-                Playlist.from(context, src, path)))
-        );
-        return null;
+        if (error != null) {
+            throw new BatchException(error);
+        }
+        return playlistIndex;
     }
 
     @Override
@@ -367,11 +514,13 @@ public class GitAPIClient extends APIClient {
             Context context,
             APIClientRequestHandler handler
     ) {
-        List<Playlist> playlists = new ArrayList<>();
-        String error = getPlaylists(context, true, p -> playlists.add(p.playlist));
-        if (error != null) {
-            return Util.futureResult(error);
+        GitPlaylistIndex playlistIndex;
+        try {
+            playlistIndex = updatePlaylistIndex(context, true);
+        } catch (BatchException e) {
+            return Util.futureResult(e.getMessage());
         }
+        List<Playlist> playlists = playlistIndex.getPlaylists();
         return Util.futureResult(Optional.of(playlists));
     }
 
@@ -382,32 +531,48 @@ public class GitAPIClient extends APIClient {
 
     public static class Batch extends APIClient.Batch {
         private final GitAPIClient api;
-        private final HashMap<EntryID, PlaylistPath> playlistPaths = new HashMap<>();
+        private final HashMap<EntryID, Path> playlistPaths = new HashMap<>();
+        // Pending playlist entry edits, written once per file on commit
+        private final HashMap<Path, Playlist.FileEditor> playlistEditors = new HashMap<>();
         private final List<String> commitMessages = new ArrayList<>();
 
         Batch(Context context, GitAPIClient api) throws BatchException {
             this.api = api;
-            updatePlaylistPaths(context, true);
-        }
-
-        private void updatePlaylistPaths(Context context, boolean fetch) throws BatchException {
-            playlistPaths.clear();
-            String error = api.getPlaylists(
-                    context,
-                    fetch,
-                    p -> playlistPaths.put(p.playlist.meta.entryID, p)
-            );
-            if (error != null) {
-                throw new BatchException("Could not get playlists from local workdir: " + error);
+            GitPlaylistIndex playlistIndex;
+            try {
+                playlistIndex = api.updatePlaylistIndex(context, true);
+            } catch (BatchException e) {
+                throw new BatchException("Could not get playlists from local workdir: "
+                        + e.getMessage());
+            }
+            for (GitPlaylistIndex.Entry entry: playlistIndex.getEntries()) {
+                if (entry.playlistID != null) {
+                    playlistPaths.put(entry.playlistID, playlistIndex.getPath(entry));
+                }
             }
         }
 
         private Path getPath(EntryID playlistID) throws APIClient.BatchException {
-            PlaylistPath playlistPath = playlistPaths.get(playlistID);
+            Path playlistPath = playlistPaths.get(playlistID);
             if (playlistPath == null) {
                 throw new BatchException("Could not find playlist with id " + playlistID.getDisplayableString());
             }
-            return playlistPath.path;
+            return playlistPath;
+        }
+
+        private Playlist.FileEditor getEditor(Context context,
+                                              EntryID playlistID) throws BatchException {
+            Path path = getPath(playlistID);
+            Playlist.FileEditor editor = playlistEditors.get(path);
+            if (editor == null) {
+                editor = Playlist.FileEditor.open(context, path);
+                if (editor == null) {
+                    throw new BatchException("Could not parse playlist "
+                            + playlistID.getDisplayableString());
+                }
+                playlistEditors.put(path, editor);
+            }
+            return editor;
         }
 
         @Override
@@ -425,9 +590,7 @@ public class GitAPIClient extends APIClient {
             int counter = 1;
             while (true) {
                 Path path = api.workDir.resolve(fileName);
-                if (playlistPaths.values().stream()
-                        .map(p -> p.path)
-                        .noneMatch(p -> p.equals(path))) {
+                if (!playlistPaths.containsValue(path)) {
                     break;
                 }
                 fileName = playlistID.id + "-" + counter + ".yaml";
@@ -453,7 +616,7 @@ public class GitAPIClient extends APIClient {
                     name,
                     query
             ).getDisplayableDetails());
-            updatePlaylistPaths(context, false);
+            playlistPaths.put(playlistID, path);
         }
 
         @Override
@@ -462,12 +625,13 @@ public class GitAPIClient extends APIClient {
                 throw new BatchException("Can not find playlist "
                         + playlistID.getDisplayableString());
             }
-            PlaylistPath playlistPath = playlistPaths.get(playlistID);
+            Path playlistPath = playlistPaths.get(playlistID);
             if (playlistPath == null) {
                 throw new BatchException("Can not find path for playlist "
                         + playlistID.getDisplayableString());
             }
-            File playlistFile = playlistPath.path.toFile();
+            playlistEditors.remove(playlistPath);
+            File playlistFile = playlistPath.toFile();
             if (!playlistFile.isFile()) {
                 throw new BatchException("Could not delete playlist "
                         + playlistID.getDisplayableString() + " in local workdir. Not a file.");
@@ -484,19 +648,19 @@ public class GitAPIClient extends APIClient {
                     null,
                     playlistID
             ).getDisplayableDetails());
-            updatePlaylistPaths(context, false);
+            playlistPaths.remove(playlistID);
         }
 
         @Override
         public void addPlaylistEntry(Context context,
                                      EntryID playlistID,
+                                     String playlistEntryID,
                                      EntryID entryID,
                                      String beforePlaylistEntryID,
                                      Meta metaSnapshot
         ) throws BatchException {
-            String error = StupidPlaylist.addEntryInFile(
-                    context,
-                    getPath(playlistID),
+            String error = getEditor(context, playlistID).addEntry(
+                    playlistEntryID,
                     entryID,
                     beforePlaylistEntryID,
                     metaSnapshot
@@ -513,7 +677,8 @@ public class GitAPIClient extends APIClient {
                     playlistID,
                     entryID,
                     beforePlaylistEntryID,
-                    metaSnapshot
+                    metaSnapshot,
+                    playlistEntryID
             ).getDisplayableDetails());
         }
 
@@ -523,11 +688,7 @@ public class GitAPIClient extends APIClient {
                                         String playlistEntryID,
                                         EntryID entryID
         ) throws BatchException {
-            String error = StupidPlaylist.deleteEntryInFile(
-                    context,
-                    getPath(playlistID),
-                    playlistEntryID
-            );
+            String error = getEditor(context, playlistID).deleteEntry(playlistEntryID);
             if (error != null) {
                 throw new BatchException("Could not update local workdir: " + error);
             }
@@ -550,9 +711,7 @@ public class GitAPIClient extends APIClient {
                                       EntryID entryID,
                                       String beforePlaylistEntryID
         ) throws BatchException {
-            String error = StupidPlaylist.moveEntryInFile(
-                    context,
-                    getPath(playlistID),
+            String error = getEditor(context, playlistID).moveEntry(
                     playlistEntryID,
                     beforePlaylistEntryID
             );
@@ -577,6 +736,16 @@ public class GitAPIClient extends APIClient {
             if (commitMessages.isEmpty()) {
                 return Util.futureResult();
             }
+            for (Playlist.FileEditor editor: playlistEditors.values()) {
+                if (!editor.isChanged()) {
+                    continue;
+                }
+                String error = editor.write();
+                if (error != null) {
+                    return Util.futureResult("Could not update local workdir: " + error);
+                }
+            }
+            playlistEditors.clear();
             String message;
             if (commitMessages.size() == 1) {
                 message = commitMessages.get(0);
@@ -622,13 +791,4 @@ public class GitAPIClient extends APIClient {
         }
         return null;
     }
-
-    private static class PlaylistPath {
-        final Path path;
-        final Playlist playlist;
-        PlaylistPath(Path path, Playlist playlist) {
-            this.path = path;
-            this.playlist = playlist;
-        }
-    }
 }
@@ -0,0 +1,478 @@
+package se.splushii.dancingbunnies.backend;
+
+import android.util.Log;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Playlist;
+import se.splushii.dancingbunnies.util.Util;
+
+// Index of the playlist files committed in a Git repository: path -> blob SHA -> playlist ID.
+// It is persisted in the repository's .git directory together with the HEAD it was built
+// from. After a pull, only the playlist files changed between the indexed HEAD and the new
+// HEAD are parsed. Playlists are parsed from the indexed blobs, not from the work tree, so
+// uncommitted changes never end up under a blob SHA. A summary of each parsed playlist is
+// stored with its blob SHA, so that playlists are served without parsing their files again,
+// also after a restart. Playlist files are parsed in parallel.
+class GitPlaylistIndex {
+    private static final String LC = Util.getLogContext(GitPlaylistIndex.class);
+
+    private static final String INDEX_FILE = "dancingbunnies-playlist-index";
+    private static final int VERSION = 2;
+    private static final String PLAYLIST_EXTENSION = ".yaml";
+
+    private static volatile int numParseThreads = Runtime.getRuntime().availableProcessors();
+    private static final ThreadPoolExecutor parseExecutor = new ThreadPoolExecutor(
+            numParseThreads,
+            numParseThreads,
+            30,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>()
+    );
+    static {
+        parseExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    // Pins the number of parse threads, e.g. to compare serial and parallel parsing.
+    // With one thread, files are parsed inline.
+    static synchronized void setNumParseThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("numThreads must be at least 1: " + numThreads);
+        }
+        // The core pool size must not exceed the maximum pool size at any point
+        if (numThreads > parseExecutor.getMaximumPoolSize()) {
+            parseExecutor.setMaximumPoolSize(numThreads);
+            parseExecutor.setCorePoolSize(numThreads);
+        } else {
+            parseExecutor.setCorePoolSize(numThreads);
+            parseExecutor.setMaximumPoolSize(numThreads);
+        }
+        numParseThreads = numThreads;
+    }
+
+    static int getNumParseThreads() {
+        return numParseThreads;
+    }
+
+    static class Entry {
+        final String path;
+        final String blobSHA;
+        // Null if the file is not a valid playlist
+        final EntryID playlistID;
+        // See Playlist.toSummary(). Null if the file is not a valid playlist.
+        final byte[] playlistSummary;
+
+        Entry(String path, String blobSHA, EntryID playlistID, byte[] playlistSummary) {
+            this.path = path;
+            this.blobSHA = blobSHA;
+            this.playlistID = playlistID;
+            this.playlistSummary = playlistSummary;
+        }
+    }
+
+    // A playlist blob. While the index parses, blobs are read from the index's open repository.
+    // Afterwards, the repository is opened for each read, so that playlists which are streamed
+    // lazily can still be read.
+    static class BlobSource implements Playlist.Source {
+        private final Path gitDir;
+        private final String path;
+        private final ObjectId blobId;
+        private volatile Repository sharedRepository;
+
+        BlobSource(Path gitDir, String path, String blobSHA) {
+            this(gitDir, path, blobSHA, null);
+        }
+
+        private BlobSource(Path gitDir, String path, String blobSHA, Repository repository) {
+            this.gitDir = gitDir;
+            this.path = path;
+            this.blobId = ObjectId.fromString(blobSHA);
+            this.sharedRepository = repository;
+        }
+
+        private void release() {
+            sharedRepository = null;
+        }
+
+        @Override
+        public InputStream open() throws IOException {
+            Repository shared = sharedRepository;
+            if (shared != null) {
+                return shared.open(blobId, Constants.OBJ_BLOB).openStream();
+            }
+            Repository repository = openRepository(gitDir);
+            try {
+                InputStream blobStream = repository.open(blobId, Constants.OBJ_BLOB).openStream();
+                return new FilterInputStream(blobStream) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            repository.close();
+                        }
+                    }
+                };
+            } catch (IOException e) {
+                repository.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public long size() throws IOException {
+            Repository shared = sharedRepository;
+            if (shared != null) {
+                try (ObjectReader reader = shared.newObjectReader()) {
+                    return reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+                }
+            }
+            try (Repository repository = openRepository(gitDir);
+                 ObjectReader reader = repository.newObjectReader()) {
+                return reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + blobId.name() + ")";
+        }
+    }
+
+    private static Repository openRepository(Path gitDir) throws IOException {
+        return new FileRepositoryBuilder()
+                .setGitDir(gitDir.toFile())
+                .setMustExist(true)
+                .build();
+    }
+
+    private final String src;
+    private final Path workDir;
+    private final Path gitDir;
+    private final Path indexFile;
+    private String head;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    private GitPlaylistIndex(String src, Path workDir) {
+        this.src = src;
+        this.workDir = workDir;
+        this.gitDir = workDir.resolve(Constants.DOT_GIT);
+        this.indexFile = gitDir.resolve(INDEX_FILE);
+    }
+
+    static synchronized GitPlaylistIndex load(String src, Path workDir) {
+        GitPlaylistIndex index = new GitPlaylistIndex(src, workDir);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(index.indexFile)
+        ))) {
+            if (in.readInt() != VERSION || !src.equals(in.readUTF())) {
+                return index;
+            }
+            String head = in.readUTF();
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                String path = in.readUTF();
+                String blobSHA = in.readUTF();
+                EntryID playlistID = null;
+                byte[] playlistSummary = null;
+                if (in.readBoolean()) {
+                    String id = in.readUTF();
+                    String type = in.readUTF();
+                    playlistID = EntryID.interned(src, id, type);
+                    int summaryLength = in.readInt();
+                    if (summaryLength < 0) {
+                        throw new IOException("Invalid playlist summary length: " + summaryLength);
+                    }
+                    playlistSummary = new byte[summaryLength];
+                    in.readFully(playlistSummary);
+                }
+                index.entries.put(path, new Entry(path, blobSHA, playlistID, playlistSummary));
+            }
+            index.head = head.isEmpty() ? null : head;
+        } catch (NoSuchFileException ignored) {
+        } catch (IOException e) {
+            Log.e(LC, "Could not read playlist index. Rebuilding: " + e.getMessage());
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    private void save() throws IOException {
+        Path tmpFile = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(tmpFile)
+        ))) {
+            out.writeInt(VERSION);
+            out.writeUTF(src);
+            out.writeUTF(head == null ? "" : head);
+            out.writeInt(entries.size());
+            for (Entry entry: entries.values()) {
+                out.writeUTF(entry.path);
+                out.writeUTF(entry.blobSHA);
+                out.writeBoolean(entry.playlistID != null);
+                if (entry.playlistID != null) {
+                    out.writeUTF(entry.playlistID.id);
+                    out.writeUTF(entry.playlistID.type);
+                    out.writeInt(entry.playlistSummary.length);
+                    out.write(entry.playlistSummary);
+                }
+            }
+        }
+        Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // Brings the index up to date with HEAD, parsing changed playlist files with parser.
+    // Returns an error message, or null on success.
+    synchronized String update(Repository repository,
+                               Function<Playlist.Source, Playlist> parser) {
+        long start = System.currentTimeMillis();
+        int numParsed;
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            ObjectId headId = repository.resolve(Constants.HEAD);
+            if (headId == null) {
+                entries.clear();
+                head = null;
+                save();
+                return null;
+            }
+            if (headId.name().equals(head)) {
+                return null;
+            }
+            RevTree newTree = revWalk.parseCommit(headId).getTree();
+            RevTree oldTree = null;
+            if (head != null) {
+                try {
+                    oldTree = revWalk.parseCommit(ObjectId.fromString(head)).getTree();
+                } catch (MissingObjectException | IllegalArgumentException e) {
+                    Log.d(LC, "Indexed HEAD " + head + " not found. Rebuilding playlist index.");
+                }
+            }
+            numParsed = oldTree == null ?
+                    rebuild(repository, newTree, parser)
+                    : applyDiff(repository, oldTree, newTree, parser);
+            head = headId.name();
+            save();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "Could not update playlist index: " + e.getMessage();
+        }
+        Log.d(LC, "update: parsed " + numParsed + " of " + entries.size() + " playlist files"
+                + " in " + (System.currentTimeMillis() - start) + "ms");
+        return null;
+    }
+
+    private int rebuild(Repository repository,
+                        RevTree tree,
+                        Function<Playlist.Source, Playlist> parser) throws IOException {
+        HashMap<String, Entry> oldEntries = new HashMap<>(entries);
+        // Unchanged entries, or null for files to parse, in tree order
+        LinkedHashMap<String, Entry> newEntries = new LinkedHashMap<>();
+        List<Entry> toParse = new ArrayList<>();
+        try (TreeWalk treeWalk = new TreeWalk(repository)) {
+            treeWalk.addTree(tree);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(PathSuffixFilter.create(PLAYLIST_EXTENSION));
+            while (treeWalk.next()) {
+                String path = treeWalk.getPathString();
+                if (!isPlaylistPath(path)) {
+                    continue;
+                }
+                String blobSHA = treeWalk.getObjectId(0).name();
+                Entry oldEntry = oldEntries.get(path);
+                if (oldEntry != null && oldEntry.blobSHA.equals(blobSHA)) {
+                    newEntries.put(path, oldEntry);
+                    continue;
+                }
+                newEntries.put(path, null);
+                toParse.add(new Entry(path, blobSHA, null, null));
+            }
+        }
+        for (Entry entry: parseAll(toParse, repository, parser)) {
+            newEntries.put(entry.path, entry);
+        }
+        entries.clear();
+        entries.putAll(newEntries);
+        return toParse.size();
+    }
+
+    private int applyDiff(Repository repository,
+                          RevTree oldTree,
+                          RevTree newTree,
+                          Function<Playlist.Source, Playlist> parser) throws IOException {
+        List<DiffEntry> diffEntries;
+        try (DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            diffFormatter.setRepository(repository);
+            diffFormatter.setDetectRenames(false);
+            diffFormatter.setPathFilter(PathSuffixFilter.create(PLAYLIST_EXTENSION));
+            diffEntries = diffFormatter.scan(oldTree, newTree);
+        }
+        List<Entry> toParse = new ArrayList<>();
+        for (DiffEntry diffEntry: diffEntries) {
+            switch (diffEntry.getChangeType()) {
+                case DELETE:
+                    entries.remove(diffEntry.getOldPath());
+                    break;
+                case RENAME:
+                    entries.remove(diffEntry.getOldPath());
+                    // Fall through
+                case ADD:
+                case MODIFY:
+                case COPY:
+                    String path = diffEntry.getNewPath();
+                    if (!isPlaylistPath(path)) {
+                        break;
+                    }
+                    String blobSHA = diffEntry.getNewId().toObjectId().name();
+                    toParse.add(new Entry(path, blobSHA, null, null));
+                    break;
+            }
+        }
+        for (Entry entry: parseAll(toParse, repository, parser)) {
+            entries.put(entry.path, entry);
+        }
+        return toParse.size();
+    }
+
+    // Parses the blobs of entries in parallel. Returns the parsed entries in the same order.
+    private List<Entry> parseAll(List<Entry> toParse,
+                                 Repository repository,
+                                 Function<Playlist.Source, Playlist> parser) {
+        List<Playlist> playlists = parseEntries(toParse, repository, parser);
+        List<Entry> parsedEntries = new ArrayList<>(toParse.size());
+        for (int i = 0; i < toParse.size(); i++) {
+            Entry entry = toParse.get(i);
+            Playlist playlist = playlists.get(i);
+            if (playlist == null) {
+                Log.e(LC, "Could not parse playlist file: " + entry.path);
+                parsedEntries.add(entry);
+                continue;
+            }
+            parsedEntries.add(new Entry(
+                    entry.path,
+                    entry.blobSHA,
+                    playlist.meta.entryID,
+                    playlist.toSummary()
+            ));
+        }
+        return parsedEntries;
+    }
+
+    // Returns the parsed playlists in the order of sources. A blob which can not be parsed
+    // results in null, and does not affect the other blobs.
+    private static List<Playlist> parseBlobs(List<? extends Playlist.Source> sources,
+                                             Function<Playlist.Source, Playlist> parser) {
+        List<Playlist> playlists = new ArrayList<>(sources.size());
+        int numThreads = numParseThreads;
+        if (sources.size() <= 1 || numThreads <= 1) {
+            for (Playlist.Source source: sources) {
+                playlists.add(parse(source, parser));
+            }
+            return playlists;
+        }
+        long start = System.currentTimeMillis();
+        List<CompletableFuture<Playlist>> futures = new ArrayList<>(sources.size());
+        for (Playlist.Source source: sources) {
+            futures.add(CompletableFuture.supplyAsync(() -> parse(source, parser), parseExecutor));
+        }
+        for (CompletableFuture<Playlist> future: futures) {
+            playlists.add(future.join());
+        }
+        Log.d(LC, "parseBlobs: parsed " + sources.size() + " blobs on " + numThreads
+                + " threads in " + (System.currentTimeMillis() - start) + "ms");
+        return playlists;
+    }
+
+    private static Playlist parse(Playlist.Source source,
+                                  Function<Playlist.Source, Playlist> parser) {
+        try {
+            return parser.apply(source);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static boolean isPlaylistPath(String path) {
+        int nameStart = path.lastIndexOf('/') + 1;
+        return !path.startsWith(".", nameStart);
+    }
+
+    Collection<Entry> getEntries() {
+        return entries.values();
+    }
+
+    Path getPath(Entry entry) {
+        return workDir.resolve(entry.path);
+    }
+
+    // Parses the blobs of entries, reading from repository until all are parsed
+    private List<Playlist> parseEntries(List<Entry> entries,
+                                        Repository repository,
+                                        Function<Playlist.Source, Playlist> parser) {
+        List<BlobSource> sources = new ArrayList<>(entries.size());
+        for (Entry entry: entries) {
+            sources.add(new BlobSource(gitDir, entry.path, entry.blobSHA, repository));
+        }
+        try {
+            return parseBlobs(sources, parser);
+        } finally {
+            for (BlobSource source: sources) {
+                source.release();
+            }
+        }
+    }
+
+    // Returns all valid playlists, restored from their summaries. Entries of static playlists
+    // are read from their blobs when needed.
+    synchronized List<Playlist> getPlaylists() {
+        List<Playlist> playlists = new ArrayList<>();
+        for (Entry entry: entries.values()) {
+            if (entry.playlistSummary == null) {
+                continue;
+            }
+            Playlist playlist = Playlist.fromSummary(
+                    entry.playlistSummary,
+                    new BlobSource(gitDir, entry.path, entry.blobSHA)
+            );
+            if (playlist != null) {
+                playlists.add(playlist);
+            }
+        }
+        return playlists;
+    }
+}
@@ -130,6 +130,7 @@ public class LocalAPIClient extends APIClient {
         @Override
         public void addPlaylistEntry(Context context,
                                      EntryID playlistID,
+                                     String playlistEntryID,
                                      EntryID entryID,
                                      String beforePlaylistEntryID,
                                      Meta metaSnapshot) {
@@ -377,7 +377,7 @@ public class SubsonicAPIClient extends APIClient {
         if (jChild.getBoolean(JSON_IS_DIR)) {
             return Optional.empty();
         }
-        EntryID entryID = new EntryID(src, id, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+        EntryID entryID = EntryID.interned(src, id, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
         Meta meta = new Meta(entryID);
         meta.setTagDelimiter(tagDelimiter);
         meta.addString(Meta.FIELD_MEDIA_ROOT, musicFolder);
@@ -716,7 +716,7 @@ public class SubsonicAPIClient extends APIClient {
                                 for (int i = 0; i < jEntryArray.length(); i++) {
                                     JSONObject jPlaylist = jEntryArray.getJSONObject(i);
                                     String id = jPlaylist.getString(JSON_ID);
-                                    entries.add(new EntryID(src, id, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+                                    entries.add(EntryID.interned(src, id, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
                                 }
                             }
                         } catch (JSONException e) {
@@ -39,6 +39,7 @@ public class LibrarySyncWorker extends Worker {
             "se.splushii.dancingbunnies.librarysyncworker.input_key.pref_fetch_playlists";
 
     private static final String UNIQUE_WORK_NAME_PREFIX = Jobs.WORK_NAME_LIBRARY_SYNC_TAG + ".backend_id_";
+    private static final String UNIQUE_WORK_NAME_SCOPED_SUFFIX = ".scoped";
 
     public static final String DATA_KEY_STATUS = "status";
 
@@ -46,6 +47,7 @@ public class LibrarySyncWorker extends Worker {
     private final boolean fetchLibrary;
     private final boolean indexLibrary;
     private final boolean fetchPlaylists;
+    private final Data inputData;
 
     public LibrarySyncWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
         super(context, workerParams);
@@ -54,6 +56,7 @@ public class LibrarySyncWorker extends Worker {
         fetchLibrary = inputData.getBoolean(DATA_KEY_PREF_FETCH_LIBRARY, true);
         indexLibrary = inputData.getBoolean(DATA_KEY_PREF_INDEX_LIBRARY, true);
         fetchPlaylists = inputData.getBoolean(DATA_KEY_PREF_FETCH_PLAYLISTS, true);
+        this.inputData = inputData;
     }
 
     @NonNull
@@ -68,6 +71,10 @@ public class LibrarySyncWorker extends Worker {
                     .putString(DATA_KEY_STATUS, "Failed to sync. Missing internal data.")
                     .build());
         }
+        SyncScope scope = SyncScope.from(src, inputData);
+        if (scope != null) {
+            return doScopedWork(src, scope);
+        }
         Throwable e;
         if (fetchLibrary) {
             CompletableFuture<Throwable> fetchLibraryFuture = MusicLibraryService.fetchLibrary(
@@ -189,6 +196,79 @@ public class LibrarySyncWorker extends Worker {
                 .build());
     }
 
+    // Only index the changed tracks and fetch the changed playlists. The library is not
+    // fetched, since the changes have already been applied locally.
+    private Result doScopedWork(String src, SyncScope scope) {
+        Log.d(LC, "Scoped sync: " + scope);
+        Throwable e;
+        if (scope.hasTracks()) {
+            MusicLibraryRequestHandler handler = new MusicLibraryRequestHandler() {
+                @Override
+                public void onStart() {
+                    setProgress("Library index started");
+                }
+
+                @Override
+                public void onProgress(String status) {
+                    setProgress("Library index progress: " + status);
+                }
+            };
+            CompletableFuture<Void> indexFuture = scope.isAllTracks() ?
+                    MusicLibraryService.indexLibrary(getApplicationContext(), src, handler)
+                    : MusicLibraryService.indexTracks(
+                            getApplicationContext(),
+                            src,
+                            scope.getTracks(),
+                            handler
+                    );
+            e = indexFuture.handle((aVoid, throwable) -> throwable).join();
+            if (e != null) {
+                return Result.failure(baseData()
+                        .putString(DATA_KEY_STATUS, "Failed to index library: " + e.getMessage())
+                        .build()
+                );
+            }
+        }
+        if (scope.hasPlaylists()) {
+            MusicLibraryRequestHandler handler = new MusicLibraryRequestHandler() {
+                @Override
+                public void onStart() {
+                    setProgress("Playlist sync started");
+                }
+
+                @Override
+                public void onProgress(String status) {
+                    setProgress("Playlist sync progress: " + status);
+                }
+            };
+            CompletableFuture<Void> fetchPlaylistsFuture = scope.isAllPlaylists() ?
+                    MusicLibraryService.fetchPlayLists(getApplicationContext(), src, handler)
+                    : MusicLibraryService.fetchPlaylists(
+                            getApplicationContext(),
+                            src,
+                            scope.getPlaylists(),
+                            handler
+                    );
+            e = fetchPlaylistsFuture.thenCompose(aVoid ->
+                    TransactionStorage.getInstance(getApplicationContext())
+                            .getTransactionsOnce(src, Transaction.GROUP_PLAYLISTS)
+            ).thenAccept(transactions -> {
+                for (Transaction transaction: transactions) {
+                    transaction.applyLocally(getApplicationContext());
+                }
+            }).handle((aVoid, throwable) -> throwable).join();
+            if (e != null) {
+                return Result.failure(baseData()
+                        .putString(DATA_KEY_STATUS, "Failed to sync playlists: " + e.getMessage())
+                        .build()
+                );
+            }
+        }
+        return Result.success(baseData()
+                .putString(DATA_KEY_STATUS, "Successfully synced changes")
+                .build());
+    }
+
     private void setProgress(String status) {
         setProgressAsync(
                 baseData()
@@ -214,6 +294,33 @@ public class LibrarySyncWorker extends Worker {
         requeue(context, preferenceBackendID, fetchLibrary, indexLibrary, fetchPlaylists, true);
     }
 
+    // Sync only what is in scope. Scoped syncs are queued separately from the scheduled sync.
+    public static void runNow(Context context, long preferenceBackendID, SyncScope scope) {
+        Log.d(LC, "enqueueing scoped work (now): " + scope);
+        OneTimeWorkRequest workRequest = new OneTimeWorkRequest.Builder(LibrarySyncWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build()
+                )
+                .setInputData(
+                        scope.putData(baseData(
+                                preferenceBackendID,
+                                false,
+                                scope.hasTracks(),
+                                scope.hasPlaylists()
+                        )).build()
+                )
+                .addTag(Jobs.WORK_NAME_LIBRARY_SYNC_TAG)
+                .addTag(uniqueWorkName(preferenceBackendID))
+                .build();
+        WorkManager.getInstance(context.getApplicationContext())
+                .enqueueUniqueWork(
+                        uniqueScopedWorkName(preferenceBackendID),
+                        ExistingWorkPolicy.APPEND_OR_REPLACE,
+                        workRequest
+                );
+    }
+
     public static void requeue(Context context,
                                long preferenceBackendID,
                                boolean fetchLibrary,
@@ -295,12 +402,18 @@ public class LibrarySyncWorker extends Worker {
     public static void cancel(Context context, long preferenceBackendID) {
         WorkManager.getInstance(context.getApplicationContext())
                 .cancelUniqueWork(uniqueWorkName(preferenceBackendID));
+        WorkManager.getInstance(context.getApplicationContext())
+                .cancelUniqueWork(uniqueScopedWorkName(preferenceBackendID));
     }
 
     private static String uniqueWorkName(long preferenceBackendID) {
         return UNIQUE_WORK_NAME_PREFIX + preferenceBackendID;
     }
 
+    private static String uniqueScopedWorkName(long preferenceBackendID) {
+        return uniqueWorkName(preferenceBackendID) + UNIQUE_WORK_NAME_SCOPED_SUFFIX;
+    }
+
 
     public static long getBackendIDFromTags(Set<String> tags) {
         if (tags == null || tags.isEmpty()) {
@@ -0,0 +1,197 @@
+package se.splushii.dancingbunnies.jobs;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import androidx.work.Data;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+
+// The tracks and playlists of a source which need to be synced, e.g. after applying
+// transactions. Tracks and playlists fall back to a full sync when there are too many of them
+// to fit in the work input data.
+public class SyncScope {
+    private static final String DATA_KEY_SCOPED =
+            "se.splushii.dancingbunnies.syncscope.input_key.scoped";
+    private static final String DATA_KEY_TRACK_IDS =
+            "se.splushii.dancingbunnies.syncscope.input_key.track_ids";
+    private static final String DATA_KEY_TRACK_TYPES =
+            "se.splushii.dancingbunnies.syncscope.input_key.track_types";
+    private static final String DATA_KEY_TRACK_TYPE_INDICES =
+            "se.splushii.dancingbunnies.syncscope.input_key.track_type_indices";
+    private static final String DATA_KEY_ALL_TRACKS =
+            "se.splushii.dancingbunnies.syncscope.input_key.all_tracks";
+    private static final String DATA_KEY_PLAYLIST_IDS =
+            "se.splushii.dancingbunnies.syncscope.input_key.playlist_ids";
+    private static final String DATA_KEY_PLAYLIST_TYPES =
+            "se.splushii.dancingbunnies.syncscope.input_key.playlist_types";
+    private static final String DATA_KEY_PLAYLIST_TYPE_INDICES =
+            "se.splushii.dancingbunnies.syncscope.input_key.playlist_type_indices";
+    private static final String DATA_KEY_ALL_PLAYLISTS =
+            "se.splushii.dancingbunnies.syncscope.input_key.all_playlists";
+
+    // Work input data is limited to 10KB
+    private static final int MAX_IDS = 128;
+
+    private final String src;
+    private final HashSet<EntryID> tracks = new HashSet<>();
+    private final HashSet<EntryID> playlists = new HashSet<>();
+    private boolean allTracks = false;
+    private boolean allPlaylists = false;
+
+    public SyncScope(String src) {
+        this.src = src;
+    }
+
+    public void addTrack(EntryID entryID) {
+        if (!allTracks) {
+            tracks.add(entryID);
+            if (tracks.size() > MAX_IDS) {
+                allTracks = true;
+                tracks.clear();
+            }
+        }
+    }
+
+    public void addPlaylist(EntryID playlistID) {
+        if (!allPlaylists) {
+            playlists.add(playlistID);
+            if (playlists.size() > MAX_IDS) {
+                allPlaylists = true;
+                playlists.clear();
+            }
+        }
+    }
+
+    public String getSrc() {
+        return src;
+    }
+
+    public boolean hasTracks() {
+        return allTracks || !tracks.isEmpty();
+    }
+
+    public boolean hasPlaylists() {
+        return allPlaylists || !playlists.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return !hasTracks() && !hasPlaylists();
+    }
+
+    public boolean isAllTracks() {
+        return allTracks;
+    }
+
+    public boolean isAllPlaylists() {
+        return allPlaylists;
+    }
+
+    public List<EntryID> getTracks() {
+        return new ArrayList<>(tracks);
+    }
+
+    public List<EntryID> getPlaylists() {
+        return new ArrayList<>(playlists);
+    }
+
+    Data.Builder putData(Data.Builder builder) {
+        builder.putBoolean(DATA_KEY_SCOPED, true)
+                .putBoolean(DATA_KEY_ALL_TRACKS, allTracks)
+                .putBoolean(DATA_KEY_ALL_PLAYLISTS, allPlaylists);
+        putEntryIDs(
+                builder,
+                tracks,
+                DATA_KEY_TRACK_IDS,
+                DATA_KEY_TRACK_TYPES,
+                DATA_KEY_TRACK_TYPE_INDICES
+        );
+        putEntryIDs(
+                builder,
+                playlists,
+                DATA_KEY_PLAYLIST_IDS,
+                DATA_KEY_PLAYLIST_TYPES,
+                DATA_KEY_PLAYLIST_TYPE_INDICES
+        );
+        return builder;
+    }
+
+    // Returns null if the data does not describe a scoped sync
+    static SyncScope from(String src, Data data) {
+        if (!data.getBoolean(DATA_KEY_SCOPED, false)) {
+            return null;
+        }
+        SyncScope scope = new SyncScope(src);
+        getEntryIDs(
+                data,
+                src,
+                DATA_KEY_TRACK_IDS,
+                DATA_KEY_TRACK_TYPES,
+                DATA_KEY_TRACK_TYPE_INDICES,
+                scope.tracks
+        );
+        getEntryIDs(
+                data,
+                src,
+                DATA_KEY_PLAYLIST_IDS,
+                DATA_KEY_PLAYLIST_TYPES,
+                DATA_KEY_PLAYLIST_TYPE_INDICES,
+                scope.playlists
+        );
+        scope.allTracks = data.getBoolean(DATA_KEY_ALL_TRACKS, false);
+        scope.allPlaylists = data.getBoolean(DATA_KEY_ALL_PLAYLISTS, false);
+        return scope;
+    }
+
+    // The types are stored once, since they are long and shared by most entries
+    private static void putEntryIDs(Data.Builder builder,
+                                    Set<EntryID> entryIDs,
+                                    String idsKey,
+                                    String typesKey,
+                                    String typeIndicesKey) {
+        String[] ids = new String[entryIDs.size()];
+        int[] typeIndices = new int[entryIDs.size()];
+        List<String> types = new ArrayList<>();
+        int i = 0;
+        for (EntryID entryID: entryIDs) {
+            int typeIndex = types.indexOf(entryID.type);
+            if (typeIndex < 0) {
+                typeIndex = types.size();
+                types.add(entryID.type);
+            }
+            ids[i] = entryID.id;
+            typeIndices[i] = typeIndex;
+            i++;
+        }
+        builder.putStringArray(idsKey, ids)
+                .putStringArray(typesKey, types.toArray(new String[0]))
+                .putIntArray(typeIndicesKey, typeIndices);
+    }
+
+    private static void getEntryIDs(Data data,
+                                    String src,
+                                    String idsKey,
+                                    String typesKey,
+                                    String typeIndicesKey,
+                                    Set<EntryID> entryIDs) {
+        String[] ids = data.getStringArray(idsKey);
+        String[] types = data.getStringArray(typesKey);
+        int[] typeIndices = data.getIntArray(typeIndicesKey);
+        if (ids == null || types == null || typeIndices == null) {
+            return;
+        }
+        for (int i = 0; i < ids.length && i < typeIndices.length; i++) {
+            entryIDs.add(EntryID.interned(src, ids[i], types[typeIndices[i]]));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SyncScope{"
+                + "src='" + src + '\''
+                + ", tracks=" + (allTracks ? "all" : tracks.size())
+                + ", playlists=" + (allPlaylists ? "all" : playlists.size())
+                + '}';
+    }
+}
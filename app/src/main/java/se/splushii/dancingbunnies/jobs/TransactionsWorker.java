@@ -5,10 +5,10 @@ import android.util.Log;
 
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import androidx.annotation.NonNull;
@@ -38,8 +38,20 @@ public class TransactionsWorker extends Worker {
     @NonNull
     @Override
     public Result doWork() {
-        HashSet<String> sourcesToSync = new HashSet<>();
-        Throwable e = TransactionStorage.getInstance(getApplicationContext())
+        HashMap<String, SyncScope> syncScopes = new HashMap<>();
+        TransactionStorage transactionStorage =
+                TransactionStorage.getInstance(getApplicationContext());
+        int numCompacted = transactionStorage.compactTransactions()
+                .handle((n, throwable) -> {
+                    if (throwable != null) {
+                        Log.e(LC, "Could not compact transactions: " + throwable.getMessage());
+                        return 0;
+                    }
+                    return n;
+                })
+                .join();
+        transactionStorage.beginApplyingTransactions();
+        Throwable e = transactionStorage
                 .getTransactionsOnce()
                 .thenAccept(transactions -> {
                     int total = transactions.size();
@@ -79,7 +91,11 @@ public class TransactionsWorker extends Worker {
                                                             transactionResult.transaction
                                                     ));
                                             successCount.incrementAndGet();
-                                            sourcesToSync.add(transactionResult.transaction.getSrc());
+                                            Transaction t = transactionResult.transaction;
+                                            t.addToSyncScope(syncScopes.computeIfAbsent(
+                                                    t.getSrc(),
+                                                    SyncScope::new
+                                            ));
                                         } else {
                                             TransactionStorage.getInstance(getApplicationContext())
                                                     .setError(
@@ -109,26 +125,29 @@ public class TransactionsWorker extends Worker {
                 })
                 .handle((aVoid, throwable) -> throwable)
                 .join();
-        scheduleSync(sourcesToSync);
+        transactionStorage.endApplyingTransactions();
+        scheduleSync(syncScopes.values());
+        String compactedStatus = numCompacted > 0 ?
+                " (" + numCompacted + " redundant transactions compacted)" : "";
         if (e != null) {
             e.printStackTrace();
-            return Result.failure(data("Failure: " + e.getMessage()));
+            return Result.failure(data("Failure: " + e.getMessage() + compactedStatus));
         }
-        return Result.success(data("Success"));
+        return Result.success(data("Success" + compactedStatus));
     }
 
-    private void scheduleSync(Set<String> sources) {
-        // TODO: Keep track of what needs to be synced. Only library or only playlists? Both?
-        for (String src: sources) {
+    private void scheduleSync(Collection<SyncScope> scopes) {
+        for (SyncScope scope: scopes) {
+            if (scope.isEmpty()) {
+                continue;
+            }
             LibrarySyncWorker.runNow(
                     getApplicationContext(),
                     SettingsActivityFragment.getBackendConfigIDFromSource(
                             getApplicationContext(),
-                            src
+                            scope.getSrc()
                     ),
-                    true,
-                    true,
-                    true
+                    scope
             );
         }
     }
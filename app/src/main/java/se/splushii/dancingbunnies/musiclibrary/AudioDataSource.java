@@ -29,11 +29,12 @@ import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.util.Arrays;
+import java.util.function.BooleanSupplier;
 
 import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.storage.MetaStorage;
 import se.splushii.dancingbunnies.storage.db.WaveformEntry;
+import se.splushii.dancingbunnies.util.PCMDownsampler;
 import se.splushii.dancingbunnies.util.Util;
 
 // TODO: Support reading while buffering.
@@ -41,6 +42,7 @@ public class AudioDataSource extends MediaDataSource {
     private static final String LC = Util.getLogContext(AudioDataSource.class);
     private static final long BYTES_BETWEEN_PROGRESS_UPDATE = 100_000L;
     private static final long TIME_MS_BETWEEN_PROGRESS_UPDATE = 200L;
+    private static final int NUM_WAVEFORM_BUCKETS = 1024 * 8;
     private final String url;
     public final EntryID entryID;
     private final File cacheFile;
@@ -269,7 +271,8 @@ public class AudioDataSource extends MediaDataSource {
         return url;
     }
 
-    public boolean fetchSamples() {
+    // Returns false if sampling failed or was cancelled
+    public boolean fetchSamples(BooleanSupplier isCancelled) {
         WaveformEntry waveformEntry = audioStorage.getWaveformSync(entryID);
         if (waveformEntry != null) {
             Log.d(LC, "getSamples: samples already exist");
@@ -328,19 +331,15 @@ public class AudioDataSource extends MediaDataSource {
         final long timeoutUs = -1; // Infinite timeout
         boolean extractorReachedEnd = false;
         boolean outputBufferReachedEnd = false;
-        final int downSampledSize = 1024 * 8;
-        int downSampleFactor = 1;
-        int numSamples = 0;
-        double sumSquareSamples = 0;
-        double sumSquareSamplesNegative = 0;
-        double peak = 0;
-        double peakNegative = 0;
-        int downSampledPos = 0;
-        double[] peakList = new double[downSampledSize];
-        double[] peakNegativeList = new double[downSampledSize];
-        double[] squaresSumList = new double[downSampledSize];
-        double[] squaresSumNegativeList = new double[downSampledSize];
+        PCMDownsampler downsampler = null;
         while (!outputBufferReachedEnd) {
+            if (isCancelled.getAsBoolean()) {
+                Log.d(LC, "getSamples: cancelled");
+                mediaCodec.stop();
+                mediaCodec.release();
+                extractor.release();
+                return false;
+            }
             // Put encoded data into codec's input buffer
             if (!extractorReachedEnd) {
                 int inputBufferId = mediaCodec.dequeueInputBuffer(timeoutUs);
@@ -396,67 +395,12 @@ public class AudioDataSource extends MediaDataSource {
                         Log.e(LC, "getSamples: NOT HANDLING PCM 8 BIT");
                         return false;
                     case AudioFormat.ENCODING_PCM_16BIT:
-                        ShortBuffer shortBuffer = outputBuffer.order(ByteOrder.nativeOrder()).asShortBuffer();
-                        int numFrames = shortBuffer.remaining() / channels;
-                        for (int framePos = 0; framePos < numFrames; framePos++) {
-                            double gainSumSquare = 0;
-                            double gainSumSquareNegative = 0;
-                            for (int i = 0; i < channels; i++) {
-                                short gain = shortBuffer.get(framePos + i);
-                                if (gain > 0) {
-                                    double gainPositive = (double) gain / Short.MAX_VALUE;
-                                    if (gainPositive > peak) {
-                                        peak = gainPositive;
-                                    }
-                                    gainSumSquare += gainPositive * gainPositive;
-                                } else if (gain < 0) {
-                                    double gainNegative = (double) gain / Short.MIN_VALUE;
-                                    if (gainNegative > peakNegative) {
-                                        peakNegative = gainNegative;
-                                    }
-                                    gainSumSquareNegative += gainNegative * gainNegative;
-                                }
-                            }
-                            if (downSampledPos >= downSampledSize) {
-                                // Downsample
-                                for (int i = 0; 2 * i + 1 < downSampledSize; i++) {
-                                    int firstIndex = 2 * i;
-                                    int secondIndex = firstIndex + 1;
-                                    peakList[i] = Math.max(
-                                            peakList[firstIndex],
-                                            peakList[secondIndex]
-                                    );
-                                    peakNegativeList[i] = Math.max(
-                                            peakNegativeList[firstIndex],
-                                            peakNegativeList[secondIndex]
-                                    );
-                                    squaresSumList[i] = squaresSumList[firstIndex]
-                                            + squaresSumList[secondIndex];
-                                    squaresSumNegativeList[i] = squaresSumNegativeList[firstIndex]
-                                            + squaresSumNegativeList[secondIndex];
-                                }
-                                downSampleFactor *= 2;
-                                downSampledPos = downSampledSize / 2;
-                            }
-                            double averageGainSquare = gainSumSquare / channels;
-                            double averageGainSquareNegative = gainSumSquareNegative / channels;
-                            if (numSamples < downSampleFactor) {
-                                sumSquareSamples += averageGainSquare;
-                                sumSquareSamplesNegative += averageGainSquareNegative;
-                                numSamples++;
-                            } else {
-                                peakList[downSampledPos] = peak;
-                                peakNegativeList[downSampledPos] = peakNegative;
-                                squaresSumList[downSampledPos] = sumSquareSamples;
-                                squaresSumNegativeList[downSampledPos] = sumSquareSamplesNegative;
-                                downSampledPos++;
-                                sumSquareSamples = averageGainSquare;
-                                sumSquareSamplesNegative = averageGainSquareNegative;
-                                peak = 0;
-                                peakNegative = 0;
-                                numSamples = 1;
-                            }
+                        if (downsampler == null) {
+                            downsampler = new PCMDownsampler(channels, NUM_WAVEFORM_BUCKETS);
                         }
+                        downsampler.accept(
+                                outputBuffer.order(ByteOrder.nativeOrder()).asShortBuffer()
+                        );
                         break;
                     case AudioFormat.ENCODING_PCM_FLOAT:
                         Log.e(LC, "getSamples: NOT HANDLING PCM FLOAT");
@@ -473,40 +417,16 @@ public class AudioDataSource extends MediaDataSource {
         mediaCodec.release();
         extractor.release();
 
-        // Calculate RMS
-        double[] rmsList = Arrays.copyOf(squaresSumList, downSampledPos);
-        double[] rmsNegativeList = Arrays.copyOf(squaresSumNegativeList, downSampledPos);
-        for (int i = 0; i < downSampledPos; i++) {
-            rmsList[i] = Math.sqrt(rmsList[i] / downSampleFactor);
-            rmsNegativeList[i] = Math.sqrt(rmsNegativeList[i] / downSampleFactor);
-        }
-
-        peakList = Arrays.copyOf(peakList, downSampledPos);
-        peakNegativeList = Arrays.copyOf(peakNegativeList, downSampledPos);
-
-        // Normalize to 0..1
-        double maxAmplitude = 0;
-        for (int i = 0; i < downSampledPos; i++) {
-            if (peakList[i] > maxAmplitude) {
-                maxAmplitude = peakList[i];
-            }
-            if (peakNegativeList[i] > maxAmplitude) {
-                maxAmplitude = peakNegativeList[i];
-            }
-        }
-        if (maxAmplitude > 0) {
-            for (int i = 0; i < downSampledPos; i++) {
-                peakList[i] /= maxAmplitude;
-                peakNegativeList[i] /= maxAmplitude;
-                rmsList[i] /= maxAmplitude;
-                rmsNegativeList[i] /= maxAmplitude;
-            }
+        if (downsampler == null) {
+            Log.e(LC, "getSamples: no decoded samples");
+            return false;
         }
-
-        this.peakSamples = peakList;
-        this.peakNegativeSamples = peakNegativeList;
-        this.rmsSamples = rmsList;
-        this.rmsNegativeSamples = rmsNegativeList;
+        PCMDownsampler.Buckets buckets = downsampler.finish();
+        buckets.normalize();
+        this.peakSamples = buckets.peakPositive;
+        this.peakNegativeSamples = buckets.peakNegative;
+        this.rmsSamples = buckets.rmsPositive;
+        this.rmsNegativeSamples = buckets.rmsNegative;
         try {
             JSONArray peakSamplesPositiveJSON = new JSONArray(peakSamples);
             JSONArray peakSamplesNegativeJSON = new JSONArray(peakNegativeSamples);
@@ -9,6 +9,8 @@ import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat.QueueItem;
 
 import com.google.android.gms.cast.MediaMetadata;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import org.apache.lucene.document.Document;
 import org.json.JSONException;
@@ -37,20 +39,35 @@ public class EntryID implements Parcelable {
             "dancingbunnies.entryid.UNKNOWN_TYPE"
     );
 
+    // Pool for EntryIDs which are created in bulk (sync, queries), so that equal EntryIDs
+    // share one instance. Weak, so unused EntryIDs can still be garbage collected.
+    private static final Interner<EntryID> interner = Interners.newWeakInterner();
+
     @NonNull public final String src;
     @NonNull public final String id;
     @NonNull public final String type;
+    private final int hash;
 
     public EntryID(@NonNull String src, @NonNull String id, @NonNull String type) {
         this.src = src;
         this.id = id;
         this.type = type;
+        hash = Objects.hash(src, id, type);
     }
 
     protected EntryID(Parcel in) {
         src = Objects.requireNonNull(in.readString());
         id = Objects.requireNonNull(in.readString());
         type = Objects.requireNonNull(in.readString());
+        hash = Objects.hash(src, id, type);
+    }
+
+    public static EntryID interned(@NonNull String src, @NonNull String id, @NonNull String type) {
+        return intern(new EntryID(src, id, type));
+    }
+
+    public static EntryID intern(EntryID entryID) {
+        return interner.intern(entryID);
     }
 
     public static EntryID generate(String src, String type) {
@@ -104,7 +121,7 @@ public class EntryID implements Parcelable {
 
     @Override
     public int hashCode() {
-        return key().hashCode();
+        return hash;
     }
 
     @Override
@@ -119,7 +136,7 @@ public class EntryID implements Parcelable {
             return false;
         }
         EntryID e = (EntryID) obj;
-        return src.equals(e.src) && id.equals(e.id) && type.equals(e.type);
+        return hash == e.hash && id.equals(e.id) && src.equals(e.src) && type.equals(e.type);
     }
 
     public String key() {
@@ -194,7 +211,7 @@ public class EntryID implements Parcelable {
     }
 
     public static EntryID from(Entry entry, String entryType) {
-        return new EntryID(entry.src, entry.id, entryType);
+        return interned(entry.src, entry.id, entryType);
     }
 
     public JSONObject toJSON() {
@@ -2,6 +2,8 @@ package se.splushii.dancingbunnies.musiclibrary;
 
 import android.annotation.SuppressLint;
 import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.support.v4.media.MediaMetadataCompat;
 import android.text.InputType;
 
@@ -33,8 +35,9 @@ import static se.splushii.dancingbunnies.musiclibrary.Meta.Type.DOUBLE;
 import static se.splushii.dancingbunnies.musiclibrary.Meta.Type.LONG;
 import static se.splushii.dancingbunnies.musiclibrary.Meta.Type.STRING;
 
-public class Meta {
+public class Meta implements Parcelable {
     private static final String LC = Util.getLogContext(Meta.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
 
     public static final Meta UNKNOWN_ENTRY = new Meta(EntryID.UNKOWN);
     private static final HashMap<String, Type> typeMap = new HashMap<>();
@@ -93,9 +96,7 @@ public class Meta {
     private static final String JSON_KEY_STRINGS = "strings";
     private static final String JSON_KEY_LONGS = "longs";
     private static final String JSON_KEY_DOUBLES = "doubles";
-    private static final String BUNDLE_KEY_STRINGS = "dancingbunnies.bundle.key.meta.strings";
-    private static final String BUNDLE_KEY_LONGS = "dancingbunnies.bundle.key.meta.longs";
-    private static final String BUNDLE_KEY_DOUBLES = "dancingbunnies.bundle.key.meta.doubles";
+    private static final String BUNDLE_KEY_BINARY = "dancingbunnies.bundle.key.meta.binary";
 
     public static final List<String> FIELD_ORDER = Arrays.asList(
             Meta.FIELD_TITLE,
@@ -120,9 +121,9 @@ public class Meta {
     }
 
     public final EntryID entryID;
-    private final HashMap<String, List<String>> stringMap;
-    private final HashMap<String, List<Long>> longMap;
-    private final HashMap<String, List<Double>> doubleMap;
+    final HashMap<String, List<String>> stringMap;
+    final HashMap<String, List<Long>> longMap;
+    final HashMap<String, List<Double>> doubleMap;
     private String tagDelimiter;
 
     public Meta(EntryID entryID) {
@@ -133,10 +134,10 @@ public class Meta {
         tagDelimiter = null;
     }
 
-    private Meta(EntryID entryID,
-                 HashMap<String, List<String>> stringMap,
-                 HashMap<String, List<Long>> longMap,
-                 HashMap<String, List<Double>> doubleMap) {
+    Meta(EntryID entryID,
+         HashMap<String, List<String>> stringMap,
+         HashMap<String, List<Long>> longMap,
+         HashMap<String, List<Double>> doubleMap) {
         this.entryID = entryID;
         this.stringMap = stringMap;
         this.longMap = longMap;
@@ -144,17 +145,54 @@ public class Meta {
         tagDelimiter = null;
     }
 
-    @SuppressWarnings("unchecked")
+    private Meta(Meta source) {
+        this(source.entryID, source.stringMap, source.longMap, source.doubleMap);
+    }
+
     public Meta(Bundle b) {
-        entryID = EntryID.from(b);
-        stringMap = (HashMap<String, List<String>>) b.getSerializable(BUNDLE_KEY_STRINGS);
-        longMap = (HashMap<String, List<Long>>) b.getSerializable(BUNDLE_KEY_LONGS);
-        doubleMap = (HashMap<String, List<Double>>) b.getSerializable(BUNDLE_KEY_DOUBLES);
-        tagDelimiter = null;
+        this(from(b));
+    }
+
+    private static Meta from(Bundle b) {
+        byte[] data = b.getByteArray(BUNDLE_KEY_BINARY);
+        if (data == null) {
+            // E.g. a bundle from EntryID.toBundle()
+            return new Meta(EntryID.from(b));
+        }
+        return fromBytes(data);
+    }
+
+    public static Meta fromBytes(byte[] data) {
+        return MetaCodec.decode(data);
+    }
+
+    public byte[] toBytes() {
+        return MetaCodec.encode(this);
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(toBytes());
+    }
+
+    public static final Creator<Meta> CREATOR = new Creator<Meta>() {
+        @Override
+        public Meta createFromParcel(Parcel in) {
+            return fromBytes(in.createByteArray());
+        }
+
+        @Override
+        public Meta[] newArray(int size) {
+            return new Meta[size];
+        }
+    };
+
+    @Override
+    public int describeContents() {
+        return 0;
     }
 
     public static Meta from(JSONObject json) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
             JSONObject jsonEntryIDJSON = json.getJSONObject(JSON_KEY_ENTRY_ID);
             EntryID entryID = EntryID.from(jsonEntryIDJSON);
@@ -483,15 +521,12 @@ public class Meta {
 
     public Bundle toBundle() {
         Bundle b = entryID.toBundle();
-        b.putSerializable(BUNDLE_KEY_STRINGS, stringMap);
-        b.putSerializable(BUNDLE_KEY_LONGS, longMap);
-        b.putSerializable(BUNDLE_KEY_DOUBLES, doubleMap);
+        b.putByteArray(BUNDLE_KEY_BINARY, toBytes());
         return b;
     }
 
     public JSONObject toJSON() {
         JSONObject root = new JSONObject();
-        ObjectMapper mapper = new ObjectMapper();
         try {
             root.put(JSON_KEY_ENTRY_ID, entryID.toJSON());
             root.put(JSON_KEY_STRINGS, new JSONObject(mapper.writeValueAsString(stringMap)));
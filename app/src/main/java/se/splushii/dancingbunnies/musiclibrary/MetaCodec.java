@@ -0,0 +1,250 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary format for Meta, used for Parcels, Bundles and persistence.
+//
+// Layout (all lengths and counts are unsigned varints):
+//   version
+//   entryID: src, id, type (strings)
+//   key table: count, keys (strings)
+//   string section: count, [key index, count, values (strings)]
+//   long section:   count, [key index, value header, values (zigzag varints)]
+//   double section: count, [key index, value header, values (8 byte IEEE 754, big endian)]
+// A string is a varint of its byte length + 1 (0 for null) followed by its UTF-8 bytes.
+// A value header is a varint of the value count shifted left by one, with the low bit set if
+// any value is null. It is then followed by a bitmap of the null values ((count + 7) / 8
+// bytes, least significant bit first), and the null values are left out.
+class MetaCodec {
+    private static final int VERSION = 2;
+
+    static byte[] encode(Meta meta) {
+        Writer w = new Writer();
+        w.writeVarint(VERSION);
+        w.writeString(meta.entryID.src);
+        w.writeString(meta.entryID.id);
+        w.writeString(meta.entryID.type);
+        LinkedHashMap<String, Integer> keyTable = new LinkedHashMap<>();
+        addKeys(keyTable, meta.stringMap);
+        addKeys(keyTable, meta.longMap);
+        addKeys(keyTable, meta.doubleMap);
+        w.writeVarint(keyTable.size());
+        for (String key: keyTable.keySet()) {
+            w.writeString(key);
+        }
+        w.writeVarint(meta.stringMap.size());
+        for (Map.Entry<String, List<String>> entry: meta.stringMap.entrySet()) {
+            w.writeVarint(keyTable.get(entry.getKey()));
+            List<String> values = entry.getValue();
+            w.writeVarint(values.size());
+            for (String value: values) {
+                w.writeString(value);
+            }
+        }
+        w.writeVarint(meta.longMap.size());
+        for (Map.Entry<String, List<Long>> entry: meta.longMap.entrySet()) {
+            w.writeVarint(keyTable.get(entry.getKey()));
+            List<Long> values = entry.getValue();
+            w.writeValueHeader(values);
+            for (Long value: values) {
+                if (value != null) {
+                    w.writeVarLong((value << 1) ^ (value >> 63));
+                }
+            }
+        }
+        w.writeVarint(meta.doubleMap.size());
+        for (Map.Entry<String, List<Double>> entry: meta.doubleMap.entrySet()) {
+            w.writeVarint(keyTable.get(entry.getKey()));
+            List<Double> values = entry.getValue();
+            w.writeValueHeader(values);
+            for (Double value: values) {
+                if (value != null) {
+                    w.writeFixedLong(Double.doubleToRawLongBits(value));
+                }
+            }
+        }
+        return w.toByteArray();
+    }
+
+    static Meta decode(byte[] data) {
+        Reader r = new Reader(data);
+        int version = r.readVarint();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported Meta encoding version: " + version);
+        }
+        EntryID entryID = EntryID.interned(r.readString(), r.readString(), r.readString());
+        String[] keyTable = new String[r.readVarint()];
+        for (int i = 0; i < keyTable.length; i++) {
+            keyTable[i] = r.readString().intern();
+        }
+        int numStringKeys = r.readVarint();
+        HashMap<String, List<String>> stringMap = new HashMap<>(capacity(numStringKeys));
+        for (int i = 0; i < numStringKeys; i++) {
+            String key = keyTable[r.readVarint()];
+            int numValues = r.readVarint();
+            List<String> values = new ArrayList<>(numValues);
+            for (int j = 0; j < numValues; j++) {
+                values.add(r.readString());
+            }
+            stringMap.put(key, values);
+        }
+        int numLongKeys = r.readVarint();
+        HashMap<String, List<Long>> longMap = new HashMap<>(capacity(numLongKeys));
+        for (int i = 0; i < numLongKeys; i++) {
+            String key = keyTable[r.readVarint()];
+            boolean[] nulls = r.readValueHeader();
+            List<Long> values = new ArrayList<>(nulls.length);
+            for (boolean isNull: nulls) {
+                if (isNull) {
+                    values.add(null);
+                    continue;
+                }
+                long zigzag = r.readVarLong();
+                values.add((zigzag >>> 1) ^ -(zigzag & 1));
+            }
+            longMap.put(key, values);
+        }
+        int numDoubleKeys = r.readVarint();
+        HashMap<String, List<Double>> doubleMap = new HashMap<>(capacity(numDoubleKeys));
+        for (int i = 0; i < numDoubleKeys; i++) {
+            String key = keyTable[r.readVarint()];
+            boolean[] nulls = r.readValueHeader();
+            List<Double> values = new ArrayList<>(nulls.length);
+            for (boolean isNull: nulls) {
+                values.add(isNull ? null : Double.longBitsToDouble(r.readFixedLong()));
+            }
+            doubleMap.put(key, values);
+        }
+        return new Meta(entryID, stringMap, longMap, doubleMap);
+    }
+
+    private static void addKeys(LinkedHashMap<String, Integer> keyTable, Map<String, ?> map) {
+        for (String key: map.keySet()) {
+            if (!keyTable.containsKey(key)) {
+                keyTable.put(key, keyTable.size());
+            }
+        }
+    }
+
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    private static class Writer extends ByteArrayOutputStream {
+        Writer() {
+            super(256);
+        }
+
+        void writeVarint(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeFixedLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                write((int) (value >>> shift));
+            }
+        }
+
+        void writeValueHeader(List<?> values) {
+            int numValues = values.size();
+            if (!values.contains(null)) {
+                writeVarint(numValues << 1);
+                return;
+            }
+            writeVarint((numValues << 1) | 1);
+            for (int i = 0; i < numValues; i += 8) {
+                int mask = 0;
+                for (int bit = 0; bit < 8 && i + bit < numValues; bit++) {
+                    if (values.get(i + bit) == null) {
+                        mask |= 1 << bit;
+                    }
+                }
+                write(mask);
+            }
+        }
+
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            write(bytes, 0, bytes.length);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] data;
+        private int pos;
+
+        Reader(byte[] data) {
+            this.data = data;
+            pos = 0;
+        }
+
+        int readVarint() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint at position " + pos);
+        }
+
+        long readFixedLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = (value << 8) | (data[pos++] & 0xFF);
+            }
+            return value;
+        }
+
+        // Returns which of the values are null
+        boolean[] readValueHeader() {
+            int header = readVarint();
+            boolean[] nulls = new boolean[header >>> 1];
+            if ((header & 1) == 0) {
+                return nulls;
+            }
+            for (int i = 0; i < nulls.length; i += 8) {
+                int mask = data[pos++];
+                for (int bit = 0; bit < 8 && i + bit < nulls.length; bit++) {
+                    nulls[i + bit] = (mask & (1 << bit)) != 0;
+                }
+            }
+            return nulls;
+        }
+
+        String readString() {
+            int length = readVarint() - 1;
+            if (length < 0) {
+                return null;
+            }
+            String value = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+    }
+}
@@ -529,6 +529,29 @@ public class MusicLibraryService extends Service {
         );
     }
 
+    // Re-indexes only the given tracks, using the meta in local meta storage
+    public static CompletableFuture<Void> indexTracks(Context context,
+                                                      final String src,
+                                                      final List<EntryID> entryIDs,
+                                                      final MusicLibraryRequestHandler handler) {
+        handler.onStart();
+        MetaStorage metaStorage = MetaStorage.getInstance(context);
+        return metaStorage.getTrackMetasOnce(entryIDs).thenApplyAsync(metas -> {
+            Indexer indexer = Indexer.getInstance(context);
+            if (!indexer.initialize(10000)) {
+                throw new Util.FutureException("Failed to initialize search index");
+            }
+            handler.onProgress("Indexing " + metas.size() + " entries...");
+            indexer.removeSongs(entryIDs);
+            int numDocs = indexer.indexSongs(metas, progress -> {});
+            indexer.close();
+            return numDocs;
+        }).thenAccept(numDocs ->
+                handler.onProgress("Successfully indexed "
+                        + numDocs + " library entries from " + src + ".")
+        );
+    }
+
     public static CompletableFuture<Void> fetchPlayLists(Context context,
                                                          final String src,
                                                          final MusicLibraryRequestHandler handler) {
@@ -557,13 +580,12 @@ public class MusicLibraryService extends Service {
                 Log.d(LC, "Fetched playlists from " + src + ": " + data.size() + " entries.");
                 handler.onProgress("Saving playlists to local playlist storage...");
                 Log.d(LC, "savePlaylistsToStorage start");
-                return CompletableFuture.supplyAsync(() -> {
-                    playlistStorage.replaceAllPlaylistsFromSource(
-                            src,
-                            data,
-                            false,
-                            handler::onProgress
-                    );
+                return playlistStorage.replaceAllPlaylistsFromSource(
+                        src,
+                        data,
+                        false,
+                        handler::onProgress
+                ).thenApply(aVoid -> {
                     Log.d(LC, "savePlaylistsToStorage finish");
                     return data;
                 });
@@ -575,4 +597,51 @@ public class MusicLibraryService extends Service {
                         + data.size() + " playlist entries from " + src + ".")
         );
     }
-}
\ No newline at end of file
+
+    // Fetches all playlists, but only replaces the given playlists in local storage
+    public static CompletableFuture<Void> fetchPlaylists(Context context,
+                                                         final String src,
+                                                         final List<EntryID> playlistIDs,
+                                                         final MusicLibraryRequestHandler handler) {
+        handler.onStart();
+        String api = getAPIFromSource(src);
+        APIClient client = APIClient.getAPIClient(context, src);
+        PlaylistStorage playlistStorage = PlaylistStorage.getInstance(context);
+        if (client instanceof DummyAPIClient) {
+            String msg = "Can not fetch playlists from " + src + ". API " + api + " not found.";
+            return Util.futureResult(msg);
+        }
+        if (!client.hasPlaylists()) {
+            String msg = "Can not fetch playlists from " + src + "."
+                    + " API " + api + " does not support playlists.";
+            handler.onProgress(msg);
+            return Util.futureResult();
+        }
+        HashSet<EntryID> playlistIDSet = new HashSet<>(playlistIDs);
+        return client.getPlaylists(context, new APIClientRequestHandler() {
+            @Override
+            public void onProgress(String s) {
+                handler.onProgress(s);
+            }
+        }).thenCompose(opt -> {
+            if (!opt.isPresent()) {
+                return Util.futureResult("Could not fetch playlists from " + src + ".");
+            }
+            List<Playlist> data = opt.get().stream()
+                    .filter(p -> playlistIDSet.contains(p.meta.entryID))
+                    .collect(Collectors.toList());
+            Log.d(LC, "Fetched playlists from " + src + ": " + data.size()
+                    + "/" + playlistIDs.size() + " requested playlists.");
+            handler.onProgress("Saving playlists to local playlist storage...");
+            return playlistStorage.replacePlaylists(
+                    playlistIDs,
+                    data,
+                    false,
+                    handler::onProgress
+            ).thenApply(aVoid -> data);
+        }).thenAccept(data ->
+                handler.onProgress("Successfully processed "
+                        + data.size() + " playlists from " + src + ".")
+        );
+    }
+}
@@ -4,17 +4,25 @@ import android.content.Context;
 import android.util.Log;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -30,21 +38,167 @@ public abstract class Playlist {
     public static final String TYPE_STUPID = "static";
     public static final String TYPE_SMART = "smart";
 
+    // Shared and thread-safe once configured
+    private static final ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
+
     public final Meta meta;
     Playlist(Meta meta) {
         this.meta = meta;
     }
 
-    public static Playlist from(Context context, String src, Path playlistFile) {
+    // The contents of a playlist file, e.g. a blob in a Git repository. Large playlists are
+    // validated when parsed, and read again when their entries are read. A source must thus
+    // return the same contents each time it is opened.
+    public interface Source {
+        InputStream open() throws IOException;
+        long size() throws IOException;
+    }
+
+    // Only for files which are read once
+    private static Source source(Path playlistFile) {
+        return new Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return Files.newInputStream(playlistFile);
+            }
+
+            @Override
+            public long size() throws IOException {
+                return Files.size(playlistFile);
+            }
+
+            @Override
+            public String toString() {
+                return playlistFile.toString();
+            }
+        };
+    }
+
+    public static Playlist from(Context context, String src, Source playlistFile) {
+        if (PlaylistEntryReader.shouldStream(playlistFile)) {
+            JacksonPlaylistRoot jRoot = PlaylistEntryReader.readHeader(context, playlistFile);
+            if (jRoot == null) {
+                return null;
+            }
+            if (Playlist.TYPE_STUPID.equals(jRoot.playlist.type)) {
+                Meta meta = toMeta(src, jRoot.playlist);
+                return new StupidPlaylist(
+                        meta,
+                        new PlaylistEntryReader(playlistFile, meta.entryID)
+                );
+            }
+            return from(src, jRoot);
+        }
         JacksonPlaylistRoot jRoot = getJackson(context, playlistFile);
         if (jRoot == null) {
             return null;
         }
-        String id = jRoot.playlist.id;
+        return from(src, jRoot);
+    }
+
+    private static Playlist from(String src, JacksonPlaylistRoot jRoot) {
+        Meta meta = toMeta(src, jRoot.playlist);
+        switch (jRoot.playlist.type) {
+            case Playlist.TYPE_STUPID:
+                List<PlaylistEntry> playlistEntries = new ArrayList<>();
+                for (int i = 0; i < jRoot.entries.size(); i++) {
+                    PlaylistEntry playlistEntry = toPlaylistEntry(
+                            meta.entryID,
+                            jRoot.entries.get(i),
+                            i
+                    );
+                    if (playlistEntry != null) {
+                        playlistEntries.add(playlistEntry);
+                    }
+                }
+                return new StupidPlaylist(meta, playlistEntries);
+            case Playlist.TYPE_SMART:
+                return new SmartPlaylist(meta, QueryNode.fromJSON(jRoot.query));
+            default:
+                Log.e(LC, "Playlist type not supported: " + jRoot.playlist.type);
+                return null;
+        }
+    }
+
+    // A playlist without its entries: type, meta and query. Static playlists read their entries
+    // from the source their summary is restored with, so a summary is enough to restore a
+    // playlist without parsing its file again.
+    public byte[] toSummary() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (this instanceof SmartPlaylist) {
+                out.writeUTF(TYPE_SMART);
+            } else {
+                out.writeUTF(TYPE_STUPID);
+            }
+            writeBytes(out, meta.toBytes());
+            if (this instanceof SmartPlaylist) {
+                QueryNode queryNode = ((SmartPlaylist) this).getQueryNode();
+                out.writeBoolean(queryNode != null);
+                if (queryNode != null) {
+                    writeBytes(
+                            out,
+                            queryNode.toJSON().toString().getBytes(StandardCharsets.UTF_8)
+                    );
+                }
+            }
+        } catch (IOException e) {
+            // Not thrown by ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Returns null if the summary can not be read
+    public static Playlist fromSummary(byte[] summary, Source source) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(summary))) {
+            String type = in.readUTF();
+            Meta meta = Meta.fromBytes(readBytes(in));
+            switch (type) {
+                case TYPE_STUPID:
+                    return new StupidPlaylist(
+                            meta,
+                            new PlaylistEntryReader(source, meta.entryID)
+                    );
+                case TYPE_SMART:
+                    QueryNode queryNode = null;
+                    if (in.readBoolean()) {
+                        queryNode = QueryNode.fromJSON(
+                                new String(readBytes(in), StandardCharsets.UTF_8)
+                        );
+                    }
+                    return new SmartPlaylist(meta, queryNode);
+                default:
+                    Log.e(LC, "Playlist type not supported: " + type);
+                    return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(LC, "Could not read playlist summary: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static Meta toMeta(String src, JacksonPlaylistMeta jPlaylistMeta) {
+        String id = jPlaylistMeta.id;
         String type;
         type = Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST;
         Meta meta = new Meta(new EntryID(src, id, type));
-        for (Map<String, String> metaEntry: jRoot.playlist.meta) {
+        for (Map<String, String> metaEntry: jPlaylistMeta.meta) {
             Set<String> keySet = metaEntry.keySet();
             if (keySet.isEmpty()) {
                 continue;
@@ -74,52 +228,45 @@ public abstract class Playlist {
                     break;
             }
         }
-        switch (jRoot.playlist.type) {
-            case Playlist.TYPE_STUPID:
-                List<PlaylistEntry> playlistEntries = new ArrayList<>();
-                for (int i = 0; i < jRoot.entries.size(); i++) {
-                    JacksonPlaylistEntry jacksonPlaylistEntry = jRoot.entries.get(i);
-                    String playlistEntryID = jacksonPlaylistEntry.id;
-                    String entryType;
-                    switch (jacksonPlaylistEntry.entry.type) {
-                        case EntryID.TYPE_TRACK:
-                        case Meta.FIELD_SPECIAL_ENTRY_ID_TRACK:
-                            entryType = Meta.FIELD_SPECIAL_ENTRY_ID_TRACK;
-                            break;
-                        case EntryID.TYPE_PLAYLIST:
-                        case Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST:
-                            // TODO: Implement
-                            throw new RuntimeException("Not implemented");
-                        default:
-                            Log.e(LC, "Playlist entry type not supported: "
-                                    + jacksonPlaylistEntry.entry.type);
-                            continue;
-                    }
-                    EntryID entryID = new EntryID(
-                            jacksonPlaylistEntry.entry.src,
-                            jacksonPlaylistEntry.entry.id,
-                            entryType
-                    );
-                    playlistEntries.add(PlaylistEntry.from(
-                            meta.entryID,
-                            playlistEntryID,
-                            entryID,
-                            i
-                    ));
-                }
-                return new StupidPlaylist(meta, playlistEntries);
-            case Playlist.TYPE_SMART:
-                return new SmartPlaylist(meta, QueryNode.fromJSON(jRoot.query));
+        return meta;
+    }
+
+    // Returns null if the entry type is not supported
+    static PlaylistEntry toPlaylistEntry(EntryID playlistID,
+                                         JacksonPlaylistEntry jacksonPlaylistEntry,
+                                         int pos) {
+        String playlistEntryID = jacksonPlaylistEntry.id;
+        String entryType;
+        switch (jacksonPlaylistEntry.entry.type) {
+            case EntryID.TYPE_TRACK:
+            case Meta.FIELD_SPECIAL_ENTRY_ID_TRACK:
+                entryType = Meta.FIELD_SPECIAL_ENTRY_ID_TRACK;
+                break;
+            case EntryID.TYPE_PLAYLIST:
+            case Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST:
+                // TODO: Implement
+                throw new RuntimeException("Not implemented");
             default:
-                Log.e(LC, "Playlist type not supported: " + jRoot.playlist.type);
+                Log.e(LC, "Playlist entry type not supported: "
+                        + jacksonPlaylistEntry.entry.type);
                 return null;
         }
+        EntryID entryID = EntryID.interned(
+                jacksonPlaylistEntry.entry.src,
+                jacksonPlaylistEntry.entry.id,
+                entryType
+        );
+        return PlaylistEntry.from(
+                playlistID,
+                playlistEntryID,
+                entryID,
+                pos
+        );
     }
 
     private static String writeToFile(Path path, JacksonPlaylistRoot jRoot) {
-        ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
-        try {
-            objMapper.writeValue(Files.newOutputStream(path), jRoot);
+        try (OutputStream outputStream = Files.newOutputStream(path)) {
+            objMapper.writeValue(outputStream, jRoot);
         } catch (IOException e) {
             e.printStackTrace();
             return "Could not write changes to local playlist file: " + e.getMessage();
@@ -152,25 +299,25 @@ public abstract class Playlist {
     }
 
     private static JacksonPlaylistRoot getJackson(Context context, Path playlistFile) {
-        try {
-            if (!SchemaValidator.validatePlaylist(
-                    context,
-                    new FileInputStream(playlistFile.toFile())
-            )) {
-                Log.e(LC, "Playlist schema invalid");
-                return null;
-            }
-        } catch (FileNotFoundException e) {
+        return getJackson(context, source(playlistFile));
+    }
+
+    // Reads the file once into a tree, which is both validated and mapped
+    private static JacksonPlaylistRoot getJackson(Context context, Source playlistFile) {
+        JsonNode tree;
+        try (InputStream inputStream = playlistFile.open()) {
+            tree = objMapper.readTree(inputStream);
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
-        ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
+        if (!SchemaValidator.validatePlaylist(context, tree)) {
+            Log.e(LC, "Playlist schema invalid");
+            return null;
+        }
         JacksonPlaylistRoot jacksonPlaylistRoot;
         try {
-            jacksonPlaylistRoot = objMapper.readValue(
-                    Files.newInputStream(playlistFile),
-                    JacksonPlaylistRoot.class
-            );
+            jacksonPlaylistRoot = objMapper.treeToValue(tree, JacksonPlaylistRoot.class);
         } catch (IOException e) {
             e.printStackTrace();
             return null;
@@ -184,91 +331,209 @@ public abstract class Playlist {
 
     public static String addEntryInFile(Context context,
                                         Path path,
+                                        String playlistEntryID,
                                         EntryID entryID,
                                         String beforePlaylistEntryID,
                                         Meta metaSnapshot) {
-        JacksonPlaylistRoot jRoot = getJackson(context, path);
-        if (jRoot == null) {
+        FileEditor editor = FileEditor.open(context, path);
+        if (editor == null) {
             return "Could not parse playlist json";
         }
-        JacksonPlaylistEntry jPlaylistEntry = new JacksonPlaylistEntry();
-        jPlaylistEntry.id = PlaylistEntry.generatePlaylistEntryID();
-        JacksonEntry jEntry = new JacksonEntry();
-        jEntry.type = EntryID.TYPE_TRACK; // TODO: Support TYPE_PLAYLIST
-        jEntry.src = entryID.src;
-        jEntry.id = entryID.id;
-        Set<String> includedMetaKeys = new HashSet<>(Arrays.asList(
-                Meta.FIELD_ARTIST,
-                Meta.FIELD_YEAR,
-                Meta.FIELD_ALBUM,
-                Meta.FIELD_DISCNUMBER,
-                Meta.FIELD_TRACKNUMBER,
-                Meta.FIELD_TITLE
-        ));
-        jEntry.meta = metaSnapshot.toStringMapList(includedMetaKeys);
-        jPlaylistEntry.entry = jEntry;
-
-        boolean found = false;
-        for (int i = 0; i < jRoot.entries.size(); i++) {
-            if (jRoot.entries.get(i).id.equals(beforePlaylistEntryID)) {
-                jRoot.entries.add(i, jPlaylistEntry);
-                found = true;
-                break;
-            }
-        }
-        if (!found) {
-            jRoot.entries.add(jPlaylistEntry);
-        }
-        return writeToFile(path, jRoot);
+        String error = editor.addEntry(playlistEntryID, entryID, beforePlaylistEntryID, metaSnapshot);
+        return error != null ? error : editor.write();
     }
 
     public static String deleteEntryInFile(Context context,
                                            Path path,
                                            String playlistEntryID) {
-        JacksonPlaylistRoot jRoot = getJackson(context, path);
-        if (jRoot == null) {
+        FileEditor editor = FileEditor.open(context, path);
+        if (editor == null) {
             return "Could not parse playlist json";
         }
-        for (int i = 0; i < jRoot.entries.size(); i++) {
-            if (jRoot.entries.get(i).id.equals(playlistEntryID)) {
-                jRoot.entries.remove(i);
-                break;
-            }
-        }
-        return writeToFile(path, jRoot);
+        String error = editor.deleteEntry(playlistEntryID);
+        return error != null ? error : editor.write();
     }
 
     public static String moveEntryInFile(Context context,
                                          Path path,
                                          String playlistEntryID,
                                          String beforePlaylistEntryID) {
-        JacksonPlaylistRoot jRoot = getJackson(context, path);
-        if (jRoot == null) {
+        FileEditor editor = FileEditor.open(context, path);
+        if (editor == null) {
             return "Could not parse playlist json";
         }
-        JacksonPlaylistEntry jPlaylistEntry = null;
-        for (int i = 0; i < jRoot.entries.size(); i++) {
-            if (jRoot.entries.get(i).id.equals(playlistEntryID)) {
-                jPlaylistEntry = jRoot.entries.remove(i);
-                break;
+        String error = editor.moveEntry(playlistEntryID, beforePlaylistEntryID);
+        if (error != null) {
+            return error;
+        }
+        return editor.isChanged() ? editor.write() : null;
+    }
+
+    // Applies entry edits to an in-memory model of a playlist file, which is written once with
+    // write(). Entries are kept in a linked list indexed by playlist entry ID, so that each
+    // edit is constant time.
+    public static class FileEditor {
+        private final Path path;
+        private final JacksonPlaylistRoot jRoot;
+        private final HashMap<String, EntryNode> nodes = new HashMap<>();
+        private EntryNode head;
+        private EntryNode tail;
+        private boolean changed = false;
+
+        private static class EntryNode {
+            final JacksonPlaylistEntry entry;
+            EntryNode prev;
+            EntryNode next;
+
+            EntryNode(JacksonPlaylistEntry entry) {
+                this.entry = entry;
+            }
+        }
+
+        private FileEditor(Path path, JacksonPlaylistRoot jRoot) {
+            this.path = path;
+            this.jRoot = jRoot;
+            if (jRoot.entries == null) {
+                return;
+            }
+            for (JacksonPlaylistEntry entry: jRoot.entries) {
+                EntryNode node = new EntryNode(entry);
+                link(node, null);
+                // Edits apply to the first entry with a given ID
+                nodes.putIfAbsent(entry.id, node);
             }
         }
-        if (jPlaylistEntry == null) {
-            // Could not find entry to move. Assume this is ok.
+
+        public static FileEditor open(Context context, Path path) {
+            JacksonPlaylistRoot jRoot = getJackson(context, path);
+            return jRoot == null ? null : new FileEditor(path, jRoot);
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public boolean isChanged() {
+            return changed;
+        }
+
+        // Adds an entry with the given playlist entry ID, or a generated one if null
+        public String addEntry(String playlistEntryID,
+                               EntryID entryID,
+                               String beforePlaylistEntryID,
+                               Meta metaSnapshot) {
+            if (jRoot.entries == null) {
+                return "Can not add entries to a playlist without entries";
+            }
+            if (playlistEntryID != null && nodes.containsKey(playlistEntryID)) {
+                // Already added, e.g. by an earlier attempt to apply the same transaction
+                return null;
+            }
+            JacksonPlaylistEntry jPlaylistEntry = new JacksonPlaylistEntry();
+            jPlaylistEntry.id = playlistEntryID != null
+                    ? playlistEntryID
+                    : PlaylistEntry.generatePlaylistEntryID();
+            JacksonEntry jEntry = new JacksonEntry();
+            jEntry.type = EntryID.TYPE_TRACK; // TODO: Support TYPE_PLAYLIST
+            jEntry.src = entryID.src;
+            jEntry.id = entryID.id;
+            Set<String> includedMetaKeys = new HashSet<>(Arrays.asList(
+                    Meta.FIELD_ARTIST,
+                    Meta.FIELD_YEAR,
+                    Meta.FIELD_ALBUM,
+                    Meta.FIELD_DISCNUMBER,
+                    Meta.FIELD_TRACKNUMBER,
+                    Meta.FIELD_TITLE
+            ));
+            jEntry.meta = metaSnapshot.toStringMapList(includedMetaKeys);
+            jPlaylistEntry.entry = jEntry;
+            EntryNode node = new EntryNode(jPlaylistEntry);
+            link(node, nodes.get(beforePlaylistEntryID));
+            nodes.putIfAbsent(jPlaylistEntry.id, node);
+            changed = true;
             return null;
         }
-        boolean found = false;
-        for (int i = 0; i < jRoot.entries.size(); i++) {
-            if (jRoot.entries.get(i).id.equals(beforePlaylistEntryID)) {
-                jRoot.entries.add(i, jPlaylistEntry);
-                found = true;
-                break;
+
+        public String deleteEntry(String playlistEntryID) {
+            if (jRoot.entries == null) {
+                return "Can not delete entries from a playlist without entries";
             }
+            EntryNode node = nodes.remove(playlistEntryID);
+            if (node != null) {
+                unlink(node);
+            }
+            changed = true;
+            return null;
         }
-        if (!found) {
-            jRoot.entries.add(jPlaylistEntry);
+
+        public String moveEntry(String playlistEntryID, String beforePlaylistEntryID) {
+            if (jRoot.entries == null) {
+                return "Can not move entries in a playlist without entries";
+            }
+            EntryNode node = nodes.get(playlistEntryID);
+            if (node == null) {
+                // Could not find entry to move. Assume this is ok.
+                return null;
+            }
+            unlink(node);
+            EntryNode before = nodes.get(beforePlaylistEntryID);
+            link(node, before == node ? null : before);
+            changed = true;
+            return null;
+        }
+
+        // Inserts node before the node before, or last if before is null
+        private void link(EntryNode node, EntryNode before) {
+            if (before == null) {
+                node.prev = tail;
+                node.next = null;
+                if (tail == null) {
+                    head = node;
+                } else {
+                    tail.next = node;
+                }
+                tail = node;
+                return;
+            }
+            node.prev = before.prev;
+            node.next = before;
+            if (before.prev == null) {
+                head = node;
+            } else {
+                before.prev.next = node;
+            }
+            before.prev = node;
+        }
+
+        private void unlink(EntryNode node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        public String write() {
+            if (jRoot.entries != null) {
+                List<JacksonPlaylistEntry> entries = new ArrayList<>(nodes.size());
+                for (EntryNode node = head; node != null; node = node.next) {
+                    entries.add(node.entry);
+                }
+                jRoot.entries = entries;
+            }
+            String error = writeToFile(path, jRoot);
+            if (error == null) {
+                changed = false;
+            }
+            return error;
         }
-        return writeToFile(path, jRoot);
     }
 
     @JsonInclude(JsonInclude.Include.NON_NULL)
@@ -0,0 +1,190 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import se.splushii.dancingbunnies.musiclibrary.export.SchemaValidator;
+import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
+import se.splushii.dancingbunnies.util.Util;
+
+// Reads the entries of large static playlist files from a YAML token stream, one chunk at a
+// time, so that memory use does not depend on the number of entries.
+class PlaylistEntryReader {
+    private static final String LC = Util.getLogContext(PlaylistEntryReader.class);
+
+    // Files larger than this are streamed
+    private static final long STREAM_THRESHOLD_BYTES = 512 * 1024;
+    private static final int VALIDATION_CHUNK_SIZE = 1000;
+    private static final String FIELD_ENTRIES = "entries";
+    private static final EntryID PLACEHOLDER_ID = new EntryID("", "", EntryID.TYPE_PLAYLIST);
+
+    private static final ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
+
+    private final Playlist.Source source;
+    private final EntryID playlistID;
+
+    PlaylistEntryReader(Playlist.Source source, EntryID playlistID) {
+        this.source = source;
+        this.playlistID = playlistID;
+    }
+
+    static boolean shouldStream(Playlist.Source source) {
+        try {
+            return source.size() > STREAM_THRESHOLD_BYTES;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Validates the whole file, with the entries validated in chunks. Returns the playlist
+    // without entries, or null if the file is not a valid playlist.
+    static Playlist.JacksonPlaylistRoot readHeader(Context context, Playlist.Source source) {
+        long start = System.currentTimeMillis();
+        ObjectNode header = objMapper.createObjectNode();
+        int numEntries = 0;
+        try (InputStream inputStream = source.open();
+             JsonParser parser = objMapper.getFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                Log.e(LC, "Playlist is not an object: " + source);
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!FIELD_ENTRIES.equals(field) || token != JsonToken.START_ARRAY) {
+                    header.set(field, objMapper.readTree(parser));
+                    continue;
+                }
+                header.putArray(FIELD_ENTRIES);
+                ArrayNode chunk = objMapper.createArrayNode();
+                while (nextArrayElement(parser)) {
+                    chunk.add((JsonNode) objMapper.readTree(parser));
+                    numEntries++;
+                    if (chunk.size() >= VALIDATION_CHUNK_SIZE) {
+                        if (!validateEntries(context, chunk)) {
+                            return null;
+                        }
+                        chunk.removeAll();
+                    }
+                }
+                if (!validateEntries(context, chunk)) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (!SchemaValidator.validatePlaylist(context, header)) {
+            Log.e(LC, "Playlist schema invalid");
+            return null;
+        }
+        Playlist.JacksonPlaylistRoot jRoot;
+        try {
+            jRoot = objMapper.treeToValue(header, Playlist.JacksonPlaylistRoot.class);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+        if (jRoot.schema_version != 1) {
+            return null;
+        }
+        Log.d(LC, "readHeader: validated " + numEntries + " entries in "
+                + (System.currentTimeMillis() - start) + "ms: " + source);
+        return jRoot;
+    }
+
+    private static boolean nextArrayElement(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == null) {
+            throw new IOException("Unexpected end of input");
+        }
+        return token != JsonToken.END_ARRAY;
+    }
+
+    // Validates entries as part of a placeholder static playlist
+    private static boolean validateEntries(Context context, ArrayNode entries) {
+        ObjectNode playlist = objMapper.createObjectNode();
+        playlist.put("schema_version", 1);
+        playlist.putObject("playlist")
+                .put("type", Playlist.TYPE_STUPID)
+                .put("id", "");
+        playlist.set(FIELD_ENTRIES, entries);
+        if (!SchemaValidator.validatePlaylist(context, playlist)) {
+            Log.e(LC, "Playlist entries schema invalid");
+            return false;
+        }
+        for (JsonNode entry: entries) {
+            // Throws for entry types which are not implemented, as when not streaming
+            Playlist.toPlaylistEntry(
+                    PLACEHOLDER_ID,
+                    objMapper.convertValue(entry, Playlist.JacksonPlaylistEntry.class),
+                    0
+            );
+        }
+        return true;
+    }
+
+    // Passes the entries to consumer in chunks of at most chunkSize entries.
+    // Returns an error message, or null on success.
+    String read(int chunkSize, Consumer<List<PlaylistEntry>> consumer) {
+        long start = System.currentTimeMillis();
+        int pos = 0;
+        int numEntries = 0;
+        try (InputStream inputStream = source.open();
+             JsonParser parser = objMapper.getFactory().createParser(inputStream)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return "Playlist is not an object: " + source;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (!FIELD_ENTRIES.equals(field) || token != JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                    continue;
+                }
+                List<PlaylistEntry> chunk = new ArrayList<>();
+                while (nextArrayElement(parser)) {
+                    PlaylistEntry playlistEntry = Playlist.toPlaylistEntry(
+                            playlistID,
+                            objMapper.readValue(parser, Playlist.JacksonPlaylistEntry.class),
+                            pos++
+                    );
+                    if (playlistEntry == null) {
+                        continue;
+                    }
+                    chunk.add(playlistEntry);
+                    if (chunk.size() >= chunkSize) {
+                        consumer.accept(chunk);
+                        numEntries += chunk.size();
+                        chunk = new ArrayList<>();
+                    }
+                }
+                if (!chunk.isEmpty()) {
+                    consumer.accept(chunk);
+                    numEntries += chunk.size();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return "Could not read playlist entries from " + source + ": " + e.getMessage();
+        }
+        Log.d(LC, "read: " + numEntries + " entries in "
+                + (System.currentTimeMillis() - start) + "ms: " + source);
+        return null;
+    }
+}
@@ -11,6 +11,10 @@ public class SmartPlaylist extends Playlist {
         this.queryNode = queryNode;
     }
 
+    QueryNode getQueryNode() {
+        return queryNode;
+    }
+
     public String getJSONQueryString() {
         return queryNode.toJSON().toString();
     }
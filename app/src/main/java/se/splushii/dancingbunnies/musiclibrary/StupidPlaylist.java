@@ -1,6 +1,8 @@
 package se.splushii.dancingbunnies.musiclibrary;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
 import se.splushii.dancingbunnies.util.Util;
@@ -9,12 +11,40 @@ public class StupidPlaylist extends Playlist {
     private static final String LC = Util.getLogContext(StupidPlaylist.class);
 
     private final List<PlaylistEntry> entries;
+    // Reads the entries from file when they are not kept in memory
+    private final PlaylistEntryReader entryReader;
+
     public StupidPlaylist(Meta meta, List<PlaylistEntry> entries) {
         super(meta);
         this.entries = entries;
+        this.entryReader = null;
+    }
+
+    StupidPlaylist(Meta meta, PlaylistEntryReader entryReader) {
+        super(meta);
+        this.entries = null;
+        this.entryReader = entryReader;
     }
 
+    // Prefer forEachEntryChunk, which does not read all entries of large playlists into memory
     public List<PlaylistEntry> getEntries() {
-        return entries;
+        if (entries != null) {
+            return entries;
+        }
+        List<PlaylistEntry> playlistEntries = new ArrayList<>();
+        entryReader.read(Integer.MAX_VALUE, playlistEntries::addAll);
+        return playlistEntries;
+    }
+
+    // Passes the entries to consumer in chunks of at most chunkSize entries.
+    // Returns an error message, or null on success.
+    public String forEachEntryChunk(int chunkSize, Consumer<List<PlaylistEntry>> consumer) {
+        if (entryReader != null) {
+            return entryReader.read(chunkSize, consumer);
+        }
+        for (int i = 0; i < entries.size(); i += chunkSize) {
+            consumer.accept(entries.subList(i, Math.min(i + chunkSize, entries.size())));
+        }
+        return null;
     }
 }
@@ -24,16 +24,49 @@ import se.splushii.dancingbunnies.util.Util;
 public class SchemaValidator {
     private static final String LC = Util.getLogContext(SchemaValidator.class);
 
+    // Shared and thread-safe once configured
+    private static final ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
+    private static volatile JsonSchema playlistSchema;
+
     public static boolean validatePlaylist(Context context, InputStream inputStream) {
-        ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
-        return validate(objMapper, getPlaylistSchema(context, objMapper), inputStream);
+        JsonNode jsonNode;
+        try {
+            jsonNode = objMapper.readTree(inputStream);
+        } catch (IOException e) {
+            e.printStackTrace();
+            Log.e(LC, "Validation failed: Could not parse input");
+            return false;
+        }
+        return validatePlaylist(context, jsonNode);
     }
 
-    private static JsonSchema getPlaylistSchema(Context context, ObjectMapper objMapper) {
+    public static boolean validatePlaylist(Context context, JsonNode jsonNode) {
+        return validate(getPlaylistSchema(context), jsonNode);
+    }
+
+    private static JsonSchema getPlaylistSchema(Context context) {
+        JsonSchema schema = playlistSchema;
+        if (schema == null) {
+            synchronized (SchemaValidator.class) {
+                schema = playlistSchema;
+                if (schema == null) {
+                    long start = System.currentTimeMillis();
+                    schema = compilePlaylistSchema(context);
+                    playlistSchema = schema;
+                    Log.d(LC, "Compiled playlist schema in "
+                            + (System.currentTimeMillis() - start) + "ms");
+                }
+            }
+        }
+        return schema;
+    }
+
+    private static JsonSchema compilePlaylistSchema(Context context) {
         String metaSchemaURI = "https://dancingbunnies.splushii.se/meta-schema/2019-09/dancingbunnies";
         final JsonMetaSchema metaSchema = JsonMetaSchema.builder(metaSchemaURI, JsonMetaSchema.getV201909())
                 .addFormat(new Format() {
-                    private String value;
+                    // The schema is shared between threads
+                    private final ThreadLocal<String> value = new ThreadLocal<>();
 
                     @Override
                     public String getName() {
@@ -42,13 +75,13 @@ public class SchemaValidator {
 
                     @Override
                     public boolean matches(String value) {
-                        this.value = value;
+                        this.value.set(value);
                         return MusicLibraryService.matchAPISourceSyntax(value);
                     }
 
                     @Override
                     public String getErrorMessageDescription() {
-                        return ". Value \"" + value + "\" does not conform to regex: "
+                        return ". Value \"" + value.get() + "\" does not conform to regex: "
                                 + MusicLibraryService.API_SRC_REGEX;
                     }
                 })
@@ -62,17 +95,7 @@ public class SchemaValidator {
         return schemaFactory.getSchema(schemaStream);
     }
 
-    private static boolean validate(ObjectMapper objMapper,
-                                    JsonSchema schema,
-                                    InputStream inputStream) {
-        JsonNode jsonNode;
-        try {
-            jsonNode = objMapper.readTree(inputStream);
-        } catch (IOException e) {
-            e.printStackTrace();
-            Log.e(LC, "Validation failed: Could not parse input");
-            return false;
-        }
+    private static boolean validate(JsonSchema schema, JsonNode jsonNode) {
         Set<ValidationMessage> validationMsgs = schema.validate(jsonNode);
         if (validationMsgs.isEmpty()) {
             Log.d(LC, "Validation succeeded");
@@ -23,6 +23,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import androidx.core.util.Consumer;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.util.Util;
 
@@ -179,6 +180,34 @@ public class Indexer {
         Searcher.getInstance().onChange();
     }
 
+    public synchronized void removeSongs(List<EntryID> entryIDs) {
+        if (indexWriter == null) {
+            Log.e(LC, "removeSongs: indexWriter is null");
+            return;
+        }
+        QueryParser queryParser = Searcher.getQueryParser();
+        for (EntryID entryID: entryIDs) {
+            Query query;
+            try {
+                query = queryParser.parse(
+                        "+" + Meta.FIELD_SPECIAL_ENTRY_SRC
+                                + ": \"" + QueryParser.escape(entryID.src) + "\""
+                                + " +" + Meta.FIELD_SPECIAL_ENTRY_ID_TRACK
+                                + ": \"" + QueryParser.escape(entryID.id) + "\""
+                );
+            } catch (ParseException e) {
+                Log.e(LC, e.getMessage());
+                continue;
+            }
+            try {
+                indexWriter.deleteDocuments(query);
+            } catch (IOException e) {
+                Log.e(LC, e.getMessage());
+            }
+        }
+        Searcher.getInstance().onChange();
+    }
+
     public synchronized void close() {
         if (indexWriter == null) {
             Log.d(LC, "close: indexWriter is null");
@@ -9,8 +9,6 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -39,14 +37,14 @@ public class AudioStorage {
     private final HashMap<EntryID, AudioDataSource> audioMap;
     private final HashMap<EntryID, List<AudioDataHandler>> handlerMap;
     private final HashMap<EntryID, AudioDataFetchState> fetchStateMap;
-    private final MutableLiveData<HashMap<EntryID,AudioDataFetchState>> fetchStateMapLiveData;
+    private final FetchStateNotifier fetchStateNotifier;
     private final WaveformDao waveformModel;
 
     private final List<DownloadDataSourceEntry> downloadQueue;
     private final MutableLiveData<List<DownloadEntry>> downloadsLiveData;
     private DownloadDataSourceEntry currentDownloadDataSource;
 
-    private ExecutorService samplerExecutor = Executors.newSingleThreadExecutor();
+    private final WaveformSampler waveformSampler = new WaveformSampler();
 
     private List<Consumer<EntryID>> onDeleteListeners;
 
@@ -61,7 +59,7 @@ public class AudioStorage {
         audioMap = new HashMap<>();
         handlerMap = new HashMap<>();
         fetchStateMap = new HashMap<>();
-        fetchStateMapLiveData = new MutableLiveData<>();
+        fetchStateNotifier = new FetchStateNotifier(this::getFetchStateCopy);
         waveformModel = DB.getDB(context).waveformModel();
         downloadQueue = new ArrayList<>();
         downloadsLiveData = new MutableLiveData<>();
@@ -81,7 +79,9 @@ public class AudioStorage {
 
     public synchronized AudioDataSource put(EntryID entryID, AudioDataSource audioDataSource) {
         synchronized (fetchStateMap) {
-            fetchStateMap.put(entryID, new AudioDataFetchState(entryID));
+            AudioDataFetchState audioDataFetchState = new AudioDataFetchState(entryID);
+            fetchStateMap.put(entryID, audioDataFetchState);
+            fetchStateNotifier.onStateChanged(entryID, new AudioDataFetchState(audioDataFetchState));
         }
         return audioMap.put(entryID, audioDataSource);
     }
@@ -89,6 +89,7 @@ public class AudioStorage {
     private synchronized void release(EntryID entryID) {
         synchronized (fetchStateMap) {
             fetchStateMap.remove(entryID);
+            fetchStateNotifier.onStateChanged(entryID, null);
         }
         audioMap.remove(entryID);
         Log.d(LC, audioMap.keySet().size() + " AudioDataSource entries in memory. "
@@ -119,6 +120,7 @@ public class AudioStorage {
             put(entryID, audioDataSource);
         }
         if (audioDataSource.isDataReady()) {
+            waveformSampler.updatePriority(entryID, priority);
             if (handler != null) {
                 handler.onSuccess(audioDataSource);
             }
@@ -164,11 +166,10 @@ public class AudioStorage {
                 @Override
                 public void onDownloadFinished() {
                     onDownloadSuccessEvent(entryID);
-                    samplerExecutor.submit(() -> {
-                        if (!downloadDataSourceEntry.audioDataSource.fetchSamples()) {
-                            Log.e(LC, "Could not sample entry: " + entryID);
-                        }
-                    });
+                    waveformSampler.submit(
+                            downloadDataSourceEntry.audioDataSource,
+                            downloadDataSourceEntry.priority
+                    );
                 }
 
                 @Override
@@ -325,8 +326,16 @@ public class AudioStorage {
         release(entryID);
     }
 
-    public LiveData<HashMap<EntryID,AudioDataFetchState>> getFetchState() {
-        return fetchStateMapLiveData;
+    // Must be called on the main thread. Progress is rate limited.
+    public LiveData<AudioDataFetchState> getFetchState(EntryID entryID) {
+        return fetchStateNotifier.getFetchState(entryID);
+    }
+
+    private AudioDataFetchState getFetchStateCopy(EntryID entryID) {
+        synchronized (fetchStateMap) {
+            AudioDataFetchState audioDataFetchState = fetchStateMap.get(entryID);
+            return audioDataFetchState == null ? null : new AudioDataFetchState(audioDataFetchState);
+        }
     }
 
     private void updateDownloads() {
@@ -415,6 +424,7 @@ public class AudioStorage {
     }
 
     public CompletableFuture<Void> deleteAudioData(Context context, EntryID entryID) {
+        waveformSampler.cancel(entryID);
         synchronized (downloadQueue) {
             if (currentDownloadDataSource != null
                     && currentDownloadDataSource.audioDataSource.entryID.equals(entryID)) {
@@ -467,6 +477,13 @@ public class AudioStorage {
             bytesTotal = 0L;
         }
 
+        AudioDataFetchState(AudioDataFetchState other) {
+            entryID = other.entryID;
+            state = other.state;
+            bytesFetched = other.bytesFetched;
+            bytesTotal = other.bytesTotal;
+        }
+
         public void setState(String state) {
             this.state = state;
         }
@@ -519,8 +536,11 @@ public class AudioStorage {
             AudioDataFetchState audioDataFetchState = fetchStateMap.get(entryID);
             if (audioDataFetchState != null) {
                 audioDataFetchState.setState(state);
+                fetchStateNotifier.onStateChanged(
+                        entryID,
+                        new AudioDataFetchState(audioDataFetchState)
+                );
             }
-            updateFetchState();
         }
     }
 
@@ -529,14 +549,11 @@ public class AudioStorage {
             AudioDataFetchState audioDataFetchState = fetchStateMap.get(entryID);
             if (audioDataFetchState != null) {
                 audioDataFetchState.setProgress(bytesFetched, bytesTotal);
+                fetchStateNotifier.onProgress(
+                        entryID,
+                        new AudioDataFetchState(audioDataFetchState)
+                );
             }
-            updateFetchState();
-        }
-    }
-
-    private void updateFetchState() {
-        synchronized (fetchStateMap) {
-            fetchStateMapLiveData.postValue(fetchStateMap);
         }
     }
 
@@ -0,0 +1,162 @@
+package se.splushii.dancingbunnies.storage;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import androidx.core.util.Pair;
+import androidx.lifecycle.LiveData;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+
+// Delivers fetch state changes to per-entry LiveData on the main thread.
+// A change only marks its entry dirty. Flushes on the main thread deliver the latest state of
+// dirty entries to their LiveData, if observed. State changes are delivered on the next flush.
+// Progress of an entry is delivered at most once every PROGRESS_INTERVAL_MS.
+class FetchStateNotifier {
+    static final long PROGRESS_INTERVAL_MS = 250;
+    private static final long NOT_SCHEDULED = Long.MAX_VALUE;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Function<EntryID, AudioStorage.AudioDataFetchState> currentState;
+    private final Runnable flushRunnable = this::flush;
+    // Accessed on the main thread
+    private final HashMap<EntryID, FetchStateLiveData> liveDataMap = new HashMap<>();
+    private int liveDataMapPruneSize = 64;
+    // Guarded by dirty
+    private final HashMap<EntryID, DirtyEntry> dirty = new HashMap<>();
+    private final HashMap<EntryID, Long> lastDeliveryTimes = new HashMap<>();
+    private long scheduledFlushTime = NOT_SCHEDULED;
+
+    private static class DirtyEntry {
+        final AudioStorage.AudioDataFetchState state;
+        final boolean stateChanged;
+
+        DirtyEntry(AudioStorage.AudioDataFetchState state, boolean stateChanged) {
+            this.state = state;
+            this.stateChanged = stateChanged;
+        }
+    }
+
+    private class FetchStateLiveData extends LiveData<AudioStorage.AudioDataFetchState> {
+        private final EntryID entryID;
+
+        FetchStateLiveData(EntryID entryID, AudioStorage.AudioDataFetchState state) {
+            super(state);
+            this.entryID = entryID;
+        }
+
+        void deliver(AudioStorage.AudioDataFetchState state) {
+            setValue(state);
+        }
+
+        @Override
+        protected void onInactive() {
+            if (!hasObservers() && liveDataMap.get(entryID) == this) {
+                liveDataMap.remove(entryID);
+            }
+        }
+    }
+
+    // currentState returns a copy of the current state of an entry, or null
+    FetchStateNotifier(Function<EntryID, AudioStorage.AudioDataFetchState> currentState) {
+        this.currentState = currentState;
+    }
+
+    // Must be called on the main thread
+    LiveData<AudioStorage.AudioDataFetchState> getFetchState(EntryID entryID) {
+        FetchStateLiveData liveData = liveDataMap.get(entryID);
+        if (liveData == null) {
+            if (liveDataMap.size() >= liveDataMapPruneSize) {
+                // Drop LiveData whose observers were removed while inactive
+                liveDataMap.values().removeIf(l -> !l.hasObservers());
+                liveDataMapPruneSize = Math.max(64, 2 * liveDataMap.size());
+            }
+            liveData = new FetchStateLiveData(entryID, currentState.apply(entryID));
+            liveDataMap.put(entryID, liveData);
+        }
+        return liveData;
+    }
+
+    // state is a copy of the new state, or null if the entry has no fetch state anymore
+    void onStateChanged(EntryID entryID, AudioStorage.AudioDataFetchState state) {
+        markDirty(entryID, state, true);
+    }
+
+    // state is a copy of the state with the new progress
+    void onProgress(EntryID entryID, AudioStorage.AudioDataFetchState state) {
+        markDirty(entryID, state, false);
+    }
+
+    private void markDirty(EntryID entryID,
+                           AudioStorage.AudioDataFetchState state,
+                           boolean stateChanged) {
+        synchronized (dirty) {
+            DirtyEntry previous = dirty.get(entryID);
+            boolean pendingStateChange = stateChanged
+                    || previous != null && previous.stateChanged;
+            dirty.put(entryID, new DirtyEntry(state, pendingStateChange));
+            scheduleFlush(getDeliveryTime(entryID, pendingStateChange));
+        }
+    }
+
+    private long getDeliveryTime(EntryID entryID, boolean stateChanged) {
+        long now = SystemClock.uptimeMillis();
+        Long lastDeliveryTime = lastDeliveryTimes.get(entryID);
+        if (stateChanged || lastDeliveryTime == null) {
+            return now;
+        }
+        return Math.max(now, lastDeliveryTime + PROGRESS_INTERVAL_MS);
+    }
+
+    private void scheduleFlush(long time) {
+        if (time >= scheduledFlushTime) {
+            return;
+        }
+        handler.removeCallbacks(flushRunnable);
+        handler.postAtTime(flushRunnable, time);
+        scheduledFlushTime = time;
+    }
+
+    private void flush() {
+        List<Pair<EntryID, AudioStorage.AudioDataFetchState>> deliveries = new ArrayList<>();
+        synchronized (dirty) {
+            scheduledFlushTime = NOT_SCHEDULED;
+            long now = SystemClock.uptimeMillis();
+            long nextFlushTime = NOT_SCHEDULED;
+            Iterator<Map.Entry<EntryID, DirtyEntry>> iterator = dirty.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<EntryID, DirtyEntry> entry = iterator.next();
+                EntryID entryID = entry.getKey();
+                DirtyEntry dirtyEntry = entry.getValue();
+                long deliveryTime = getDeliveryTime(entryID, dirtyEntry.stateChanged);
+                if (deliveryTime > now) {
+                    nextFlushTime = Math.min(nextFlushTime, deliveryTime);
+                    continue;
+                }
+                iterator.remove();
+                if (dirtyEntry.state == null) {
+                    lastDeliveryTimes.remove(entryID);
+                } else {
+                    lastDeliveryTimes.put(entryID, now);
+                }
+                deliveries.add(new Pair<>(entryID, dirtyEntry.state));
+            }
+            if (nextFlushTime != NOT_SCHEDULED) {
+                scheduleFlush(nextFlushTime);
+            }
+        }
+        for (Pair<EntryID, AudioStorage.AudioDataFetchState> delivery: deliveries) {
+            FetchStateLiveData liveData = liveDataMap.get(delivery.first);
+            if (liveData != null) {
+                liveData.deliver(delivery.second);
+            }
+        }
+    }
+}
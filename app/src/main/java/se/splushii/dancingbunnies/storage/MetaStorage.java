@@ -3,6 +3,8 @@ package se.splushii.dancingbunnies.storage;
 import android.content.Context;
 import android.util.Log;
 
+import com.google.common.cache.CacheStats;
+
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -11,6 +13,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import androidx.core.util.Consumer;
@@ -39,6 +42,7 @@ public class MetaStorage {
     private static MetaStorage instance;
 
     private final MetaDao metaModel;
+    private final QueryPlanCache queryPlanCache = new QueryPlanCache();
 
     public static synchronized MetaStorage getInstance(Context context) {
         if (instance == null) {
@@ -123,6 +127,20 @@ public class MetaStorage {
         );
     }
 
+    // Replaces the given playlists with the playlists in metaList
+    public void replacePlaylistsAndMetas(List<EntryID> playlistIDs,
+                                         List<Meta> metaList,
+                                         boolean allowLocalKeys,
+                                         Consumer<String> progressHandler) {
+        metaModel.replaceEntriesAndMetas(
+                EntryID.TYPE_PLAYLIST,
+                playlistIDs,
+                metaList,
+                allowLocalKeys,
+                progressHandler
+        );
+    }
+
     private void replaceAllEntriesAndMetasFromSource(String entryType,
                                                      String src,
                                                      List<Meta> metaList,
@@ -187,7 +205,7 @@ public class MetaStorage {
         );
     }
 
-    private String getQueryEntriesSQLQueryPrimaryTypeKey(String entryType, String primaryField) {
+    static String getQueryEntriesSQLQueryPrimaryTypeKey(String entryType, String primaryField) {
         if (primaryField != null) {
             return primaryField;
         }
@@ -209,15 +227,64 @@ public class MetaStorage {
         if (queryNode == null) {
             queryNode = new QueryTree(QueryTree.Op.AND, false);
         }
-        HashMap<String, String> keyToTableAliasMap = new HashMap<>();
-        HashSet<String> uniqueQueryKeys = queryNode.getKeys();
         String primaryTypeKey = getQueryEntriesSQLQueryPrimaryTypeKey(entryType, primaryField);
         String primaryTypeTable = MetaDao.getTable(entryType, primaryTypeKey);
-        String primaryTypeTableAlias = "meta_primary";
-        keyToTableAliasMap.put(primaryTypeKey, primaryTypeTableAlias);
         if (primaryTypeTable == null) {
             return null;
         }
+        String shapeKey = QueryPlanCache.shapeKey(
+                entryType,
+                primaryField,
+                sortFields,
+                sortOrderAscending,
+                queryNode
+        );
+        QueryPlanCache.Plan plan = queryPlanCache.get(shapeKey);
+        boolean cached = plan != null;
+        if (!cached) {
+            plan = compileQueryEntriesQueryPlan(
+                    entryType,
+                    primaryTypeKey,
+                    primaryTypeTable,
+                    sortFields,
+                    sortOrderAscending,
+                    queryNode
+            );
+            queryPlanCache.put(shapeKey, plan);
+        }
+        Object[] queryArgs = plan.bindArgs(queryNode);
+        SimpleSQLiteQuery sqlQuery = new SimpleSQLiteQuery(plan.sql, queryArgs);
+        if (debug) {
+            Log.d(LC, "getEntries:"
+                    + "\nplan: " + (cached ? "cached" : "compiled")
+                    + " (hit rate: " + queryPlanCache.stats().hitRate() + ")"
+                    + "\nquery: " + sqlQuery.getSql()
+                    + "\nargs: "
+                    + Arrays.stream(queryArgs)
+                    .map(v -> v == null ? null : v.toString())
+                    .collect(Collectors.joining(", "))
+                    + "\naliases: " + plan.debugAliases
+            );
+        }
+        return sqlQuery;
+    }
+
+    public CacheStats getQueryPlanCacheStats() {
+        return queryPlanCache.stats();
+    }
+
+    // Static, as are the helpers below, so that QueryPlanCacheBenchmark can compare compiling
+    // a plan with looking it up in a QueryPlanCache
+    static QueryPlanCache.Plan compileQueryEntriesQueryPlan(String entryType,
+                                                            String primaryTypeKey,
+                                                            String primaryTypeTable,
+                                                            List<String> sortFields,
+                                                            boolean sortOrderAscending,
+                                                            QueryNode queryNode) {
+        HashMap<String, String> keyToTableAliasMap = new HashMap<>();
+        HashSet<String> uniqueQueryKeys = queryNode.getKeys();
+        String primaryTypeTableAlias = "meta_primary";
+        keyToTableAliasMap.put(primaryTypeKey, primaryTypeTableAlias);
         boolean showMeta = !Meta.FIELD_SPECIAL_ENTRY_ID_TRACK.equals(primaryTypeKey)
                 && !Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST.equals(primaryTypeKey);
         // Other types (keys) which needs to be joined for the query
@@ -373,7 +440,8 @@ public class MetaStorage {
                 queryArgs,
                 keyToTableAliasMap,
                 showMeta ? " AND" : "\nWHERE",
-                queryNode
+                queryNode,
+                new AtomicInteger()
         );
         // Sort
         for (int i = 0; i < sortKeys.size(); i++) {
@@ -391,21 +459,13 @@ public class MetaStorage {
                     sortOrderAscending
             );
         }
-        SimpleSQLiteQuery sqlQuery = new SimpleSQLiteQuery(query.toString(), queryArgs.toArray());
-        if (debug) {
-            Log.d(LC, "getEntries:"
-                    + "\nquery: " + sqlQuery.getSql()
-                    + "\nargs: "
-                    + queryArgs.stream()
-                    .map(v -> v == null ? null : v.toString())
-                    .collect(Collectors.joining(", "))
-                    + "\naliases: "
-                    + keyToTableAliasMap.entrySet().stream()
-                    .map(e -> e.getKey() + ": " + e.getValue())
-                    .collect(Collectors.joining(", "))
-            );
-        }
-        return sqlQuery;
+        return new QueryPlanCache.Plan(
+                query.toString(),
+                queryArgs,
+                keyToTableAliasMap.entrySet().stream()
+                        .map(e -> e.getKey() + ": " + e.getValue())
+                        .collect(Collectors.joining(", "))
+        );
     }
 
     private List<QueryEntry> getQueryEntriesMetaValueEntriesToMeta(
@@ -419,7 +479,7 @@ public class MetaStorage {
             String name;
             switch (primaryTypeKey) {
                 case Meta.FIELD_SPECIAL_ENTRY_SRC:
-                    entryID = new EntryID(
+                    entryID = EntryID.interned(
                             MusicLibraryService.API_SRC_DANCINGBUNNIES_LOCAL,
                             value.src,
                             primaryTypeKey
@@ -428,7 +488,7 @@ public class MetaStorage {
                     break;
                 case Meta.FIELD_SPECIAL_ENTRY_ID_TRACK:
                 case Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST:
-                    entryID = new EntryID(
+                    entryID = EntryID.interned(
                             value.src,
                             value.id,
                             primaryTypeKey
@@ -436,7 +496,7 @@ public class MetaStorage {
                     name = value.value;
                     break;
                 default:
-                    entryID = new EntryID(
+                    entryID = EntryID.interned(
                             MusicLibraryService.API_SRC_DANCINGBUNNIES_LOCAL,
                             value.value,
                             primaryTypeKey
@@ -458,17 +518,25 @@ public class MetaStorage {
         }).collect(Collectors.toList());
     }
 
-    private boolean addQueryNodeToQuery(StringBuilder query,
-                                        List<Object> queryArgs,
-                                        HashMap<String, String> keyToTableAliasMap,
-                                        String prefix,
-                                        QueryNode queryNode) {
+    private static boolean addQueryNodeToQuery(StringBuilder query,
+                                               List<Object> queryArgs,
+                                               HashMap<String, String> keyToTableAliasMap,
+                                               String prefix,
+                                               QueryNode queryNode,
+                                               AtomicInteger leafCounter) {
         StringBuilder tmpQuery = new StringBuilder(prefix);
         List<Object> tmpQueryArgs = new ArrayList<>();
         boolean whereClauseEmpty = true;
         if (queryNode instanceof QueryLeaf) {
             QueryLeaf leaf = (QueryLeaf) queryNode;
-            addQueryLeafToQuery(tmpQuery, tmpQueryArgs, keyToTableAliasMap, " (", leaf);
+            addQueryLeafToQuery(
+                    tmpQuery,
+                    tmpQueryArgs,
+                    keyToTableAliasMap,
+                    " (",
+                    leaf,
+                    leafCounter
+            );
             whereClauseEmpty = false;
         } else if (queryNode instanceof QueryTree) {
             QueryTree tree = (QueryTree) queryNode;
@@ -499,7 +567,8 @@ public class MetaStorage {
                             tmpQueryArgs,
                             keyToTableAliasMap,
                             treeQueryPrefix,
-                            node
+                            node,
+                            leafCounter
                     )) {
                         whereClauseEmpty = false;
                     }
@@ -517,7 +586,8 @@ public class MetaStorage {
                         tmpQueryArgs,
                         keyToTableAliasMap,
                         leafQueryPrefix,
-                        leaf
+                        leaf,
+                        leafCounter
                 )) {
                     whereClauseEmpty = false;
                 }
@@ -531,15 +601,17 @@ public class MetaStorage {
         return !whereClauseEmpty;
     }
 
-    private boolean addQueryLeafToQuery(
+    private static boolean addQueryLeafToQuery(
             StringBuilder query,
             List<Object> queryArgs,
             HashMap<String, String> keyToTableAliasMap,
             String prefix,
-            QueryLeaf leaf
+            QueryLeaf leaf,
+            AtomicInteger leafCounter
     ) {
+        // Every leaf gets an index (in depth first order), used when binding its value
+        int leafIndex = leafCounter.getAndIncrement();
         String key = leaf.getKey();
-        String value = leaf.getValue();
         String sqlOp = leaf.getSQLOp();
         boolean negated = leaf.isNegated();
         String typeTableAlias = keyToTableAliasMap.get(key);
@@ -555,13 +627,9 @@ public class MetaStorage {
         }
         switch (Meta.getType(key)) {
             case LONG:
-                queryArgs.add(Long.parseLong(value));
-                break;
             case STRING:
-                queryArgs.add(value);
-                break;
             case DOUBLE:
-                queryArgs.add(Double.parseDouble(value));
+                queryArgs.add(new QueryPlanCache.Literal(leafIndex, Meta.getType(key)));
                 break;
             default:
                 Log.e(LC, "Unsupported bundleQuery type: " + Meta.getType(key).name());
@@ -584,11 +652,11 @@ public class MetaStorage {
         return true;
     }
 
-    private void addSortToQuery(StringBuilder query,
-                                String showTypeTableAlias,
-                                String key,
-                                String keyTable,
-                                boolean sortOrderAscending) {
+    private static void addSortToQuery(StringBuilder query,
+                                       String showTypeTableAlias,
+                                       String key,
+                                       String keyTable,
+                                       boolean sortOrderAscending) {
         switch (key) {
             case Meta.FIELD_SPECIAL_ENTRY_ID_TRACK:
             case Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST:
@@ -757,17 +825,19 @@ public class MetaStorage {
                 queryArgs,
                 keyToTableAliasMap,
                 whereClauseEmpty ? "\nWHERE" : " AND",
-                queryNode
+                queryNode,
+                new AtomicInteger()
         );
         if (!baseWhereQuery.isEmpty()) {
             query.append(" )");
         }
-        SimpleSQLiteQuery sqlQuery = new SimpleSQLiteQuery(query.toString(), queryArgs.toArray());
+        Object[] boundQueryArgs = QueryPlanCache.bindArgs(queryArgs.toArray(), queryNode);
+        SimpleSQLiteQuery sqlQuery = new SimpleSQLiteQuery(query.toString(), boundQueryArgs);
         if (debug) {
             Log.d(LC, "getNumSongEntries:"
                     + "\nquery: " + sqlQuery.getSql()
                     + "\nargs: "
-                    + queryArgs.stream()
+                    + Arrays.stream(boundQueryArgs)
                     .map(v -> v == null ? null : v.toString())
                     .collect(Collectors.joining(", "))
                     + "\naliases: "
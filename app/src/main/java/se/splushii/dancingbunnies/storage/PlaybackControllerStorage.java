@@ -3,12 +3,18 @@ package se.splushii.dancingbunnies.storage;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.function.LongFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import androidx.core.util.Pair;
@@ -35,8 +41,75 @@ public class PlaybackControllerStorage {
     public static final int QUEUE_ID_LOCALAUDIOPLAYER_PRELOAD = 3;
     public static final int QUEUE_ID_LOCALAUDIOPLAYER_HISTORY = 5;
 
+    // A committed change to the entries of a queue. Changes to a queue have consecutive
+    // sequence numbers. A listener that sees a gap has missed changes, and should reload.
+    public static class QueueChange {
+        public static final int INSERT = 0;
+        public static final int REMOVE = 1;
+        public static final int MOVE = 2;
+        public static final int UPDATE = 3;
+        public static final int REPLACE = 4;
+
+        public final int type;
+        public final long seq;
+        // Token passed by the writer, or null
+        public final Object origin;
+        // INSERT
+        public final int position;
+        // MOVE
+        public final long beforePlaybackID;
+        public final List<PlaybackEntry> entries;
+
+        QueueChange(int type,
+                    long seq,
+                    Object origin,
+                    int position,
+                    long beforePlaybackID,
+                    List<PlaybackEntry> entries) {
+            this.type = type;
+            this.seq = seq;
+            this.origin = origin;
+            this.position = position;
+            this.beforePlaybackID = beforePlaybackID;
+            this.entries = entries;
+        }
+    }
+
+    public interface QueueChangeListener {
+        // Called in sequence order, on the thread that made the change
+        void onQueueChange(QueueChange change);
+    }
+
+    private static class QueueChangeStream {
+        private final CopyOnWriteArrayList<QueueChangeListener> listeners =
+                new CopyOnWriteArrayList<>();
+        private long seq = 0;
+
+        // Writes and notifies listeners while holding the lock, so that sequence numbers
+        // follow the commit order. A failed write consumes a sequence number without a change.
+        synchronized void write(Runnable dbWrite, LongFunction<QueueChange> change) {
+            long writeSeq = ++seq;
+            dbWrite.run();
+            QueueChange queueChange = change.apply(writeSeq);
+            for (QueueChangeListener listener: listeners) {
+                try {
+                    listener.onQueueChange(queueChange);
+                } catch (RuntimeException e) {
+                    Log.e(LC, "Queue change listener failed: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        synchronized <T> Pair<Long, T> read(Supplier<T> dbRead) {
+            return new Pair<>(seq, dbRead.get());
+        }
+    }
+
     private static PlaybackControllerStorage instance;
     private final Context context;
+    private final ConcurrentHashMap<Integer, QueueChangeStream> queueChangeStreams =
+            new ConcurrentHashMap<>();
 
     private final PlaybackControllerEntryDao entryModel;
     private final SharedPreferences preferences;
@@ -139,7 +212,7 @@ public class PlaybackControllerStorage {
     ) {
         return roomPlaybackControllerEntries.stream().map(entry ->
                 new PlaybackEntry(
-                        new EntryID(entry.src, entry.id, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK),
+                        EntryID.interned(entry.src, entry.id, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK),
                         entry.playbackID,
                         entry.playbackType,
                         entry.playlistPos,
@@ -148,37 +221,165 @@ public class PlaybackControllerStorage {
         ).collect(Collectors.toList());
     }
 
+    private QueueChangeStream getQueueChangeStream(int queueID) {
+        return queueChangeStreams.computeIfAbsent(queueID, k -> new QueueChangeStream());
+    }
+
+    public void addQueueChangeListener(int queueID, QueueChangeListener listener) {
+        getQueueChangeStream(queueID).listeners.add(listener);
+    }
+
+    public void removeQueueChangeListener(int queueID, QueueChangeListener listener) {
+        getQueueChangeStream(queueID).listeners.remove(listener);
+    }
+
+    // Returns the entries together with the sequence number of the last change they include
+    public CompletableFuture<Pair<Long, List<PlaybackEntry>>> getEntriesSnapshot(int queueID) {
+        return CompletableFuture.supplyAsync(() -> getQueueChangeStream(queueID).read(() ->
+                RoomPlaybackControllerEntryList2PlaybackEntryList(
+                        entryModel.getEntriesSync(queueID)
+                )
+        ));
+    }
+
+    private CompletableFuture<Void> write(int queueID,
+                                          Runnable dbWrite,
+                                          LongFunction<QueueChange> change) {
+        QueueChangeStream stream = getQueueChangeStream(queueID);
+        return CompletableFuture.runAsync(() -> stream.write(dbWrite, change));
+    }
+
     public CompletableFuture<Void> insert(int queueID, int toPosition, List<PlaybackEntry> entries) {
+        return insert(queueID, toPosition, entries, null);
+    }
+
+    public CompletableFuture<Void> insert(int queueID,
+                                          int toPosition,
+                                          List<PlaybackEntry> entries,
+                                          Object origin) {
         if (entries == null || entries.isEmpty()) {
             return Util.futureResult();
         }
-        return CompletableFuture.runAsync(() -> entryModel.insert(queueID, toPosition, entries));
+        List<PlaybackEntry> changedEntries = new ArrayList<>(entries);
+        return write(
+                queueID,
+                () -> entryModel.insert(queueID, toPosition, changedEntries),
+                seq -> new QueueChange(
+                        QueueChange.INSERT,
+                        seq,
+                        origin,
+                        toPosition,
+                        PlaybackEntry.PLAYBACK_ID_INVALID,
+                        changedEntries
+                )
+        );
     }
 
     public CompletableFuture<Void> updatePositions(int queueID, List<PlaybackEntry> entries) {
+        return updatePositions(queueID, entries, null);
+    }
+
+    public CompletableFuture<Void> updatePositions(int queueID,
+                                                   List<PlaybackEntry> entries,
+                                                   Object origin) {
         if (entries == null || entries.isEmpty()) {
             return Util.futureResult();
         }
-        return CompletableFuture.runAsync(() -> entryModel.updatePositions(queueID, entries));
+        List<PlaybackEntry> changedEntries = new ArrayList<>(entries);
+        return write(
+                queueID,
+                () -> entryModel.updatePositions(queueID, changedEntries),
+                seq -> new QueueChange(
+                        QueueChange.UPDATE,
+                        seq,
+                        origin,
+                        -1,
+                        PlaybackEntry.PLAYBACK_ID_INVALID,
+                        changedEntries
+                )
+        );
     }
 
     public CompletableFuture<Void> replaceWith(int queueID, List<PlaybackEntry> entries) {
-        return CompletableFuture.runAsync(() -> entryModel.replaceWith(queueID, entries));
+        return replaceWith(queueID, entries, null);
+    }
+
+    public CompletableFuture<Void> replaceWith(int queueID,
+                                               List<PlaybackEntry> entries,
+                                               Object origin) {
+        List<PlaybackEntry> changedEntries = entries == null
+                ? Collections.emptyList()
+                : new ArrayList<>(entries);
+        return write(
+                queueID,
+                () -> entryModel.replaceWith(queueID, changedEntries),
+                seq -> new QueueChange(
+                        QueueChange.REPLACE,
+                        seq,
+                        origin,
+                        -1,
+                        PlaybackEntry.PLAYBACK_ID_INVALID,
+                        changedEntries
+                )
+        );
     }
 
     public CompletableFuture<Void> removeEntries(int queueID, List<PlaybackEntry> playbackEntries) {
-        return CompletableFuture.runAsync(() -> entryModel.removeEntries(queueID, playbackEntries));
+        return removeEntries(queueID, playbackEntries, null);
+    }
+
+    public CompletableFuture<Void> removeEntries(int queueID,
+                                                 List<PlaybackEntry> playbackEntries,
+                                                 Object origin) {
+        List<PlaybackEntry> changedEntries = new ArrayList<>(playbackEntries);
+        return write(
+                queueID,
+                () -> entryModel.removeEntries(queueID, changedEntries),
+                seq -> new QueueChange(
+                        QueueChange.REMOVE,
+                        seq,
+                        origin,
+                        -1,
+                        PlaybackEntry.PLAYBACK_ID_INVALID,
+                        changedEntries
+                )
+        );
     }
 
     public CompletableFuture<Void> removeAll(int queueID) {
-        return CompletableFuture.runAsync(() -> entryModel.removeAll(queueID));
+        return removeAll(queueID, null);
+    }
+
+    public CompletableFuture<Void> removeAll(int queueID, Object origin) {
+        return write(
+                queueID,
+                () -> entryModel.removeAll(queueID),
+                seq -> new QueueChange(
+                        QueueChange.REPLACE,
+                        seq,
+                        origin,
+                        -1,
+                        PlaybackEntry.PLAYBACK_ID_INVALID,
+                        Collections.emptyList()
+                )
+        );
     }
 
     public CompletableFuture<Void> move(int queueID,
                                         long beforePlaybackID,
                                         List<PlaybackEntry> playbackEntries) {
-        return CompletableFuture.runAsync(() ->
-                entryModel.move(queueID, playbackEntries, beforePlaybackID)
+        List<PlaybackEntry> changedEntries = new ArrayList<>(playbackEntries);
+        return write(
+                queueID,
+                () -> entryModel.move(queueID, changedEntries, beforePlaybackID),
+                seq -> new QueueChange(
+                        QueueChange.MOVE,
+                        seq,
+                        null,
+                        -1,
+                        beforePlaybackID,
+                        changedEntries
+                )
         );
     }
 
@@ -211,11 +412,39 @@ public class PlaybackControllerStorage {
         return future;
     }
 
+    // Sorts the entries of a queue in the database. Falls back to sorting on track metas if
+    // some entries are not stored in the queue.
+    public CompletableFuture<List<PlaybackEntry>> sorted(int queueID,
+                                                         List<PlaybackEntry> playbackEntries,
+                                                         List<String> sortBy) {
+        return CompletableFuture.supplyAsync(
+                () -> entryModel.getPlaybackIDsSortedBy(queueID, sortBy)
+        ).thenCompose(sortedPlaybackIDs -> {
+            HashMap<Long, PlaybackEntry> entryMap = new HashMap<>();
+            for (PlaybackEntry entry: playbackEntries) {
+                entryMap.put(entry.playbackID, entry);
+            }
+            List<PlaybackEntry> sortedEntries = new ArrayList<>(entryMap.size());
+            for (long playbackID: sortedPlaybackIDs) {
+                PlaybackEntry entry = entryMap.remove(playbackID);
+                if (entry != null) {
+                    sortedEntries.add(entry);
+                }
+            }
+            if (!entryMap.isEmpty()) {
+                Log.w(LC, "sorted: " + entryMap.size() + " entries not in queue " + queueID
+                        + ". Sorting on metas.");
+                return PlaybackController.sorted(context, playbackEntries, sortBy);
+            }
+            return CompletableFuture.completedFuture(sortedEntries);
+        });
+    }
+
     public CompletableFuture<Void> sort(int queueID,
                                         List<PlaybackEntry> playbackEntries,
                                         List<String> sortBy) {
-        CompletableFuture<List<PlaybackEntry>> sortedEntries = PlaybackController.sorted(
-                context,
+        CompletableFuture<List<PlaybackEntry>> sortedEntries = sorted(
+                queueID,
                 playbackEntries,
                 sortBy
         );
@@ -20,6 +20,8 @@ public class PlaylistStorage {
     private static final String LC = Util.getLogContext(PlaylistStorage.class);
     private static PlaylistStorage instance;
 
+    private static final int INSERT_CHUNK_SIZE = 500;
+
     private final DB db;
     private final MetaStorage metaStorage;
     private final PlaylistEntryDao playlistEntryModel;
@@ -43,13 +45,6 @@ public class PlaylistStorage {
             boolean allowLocalKeys,
             Consumer<String> progressHandler
     ) {
-        HashMap<EntryID, List<PlaylistEntry>> playlistEntriesMap = new HashMap<>();
-        for (se.splushii.dancingbunnies.musiclibrary.Playlist playlist: playlists) {
-            if (playlist instanceof StupidPlaylist) {
-                StupidPlaylist p = (StupidPlaylist) playlist;
-                playlistEntriesMap.put(p.meta.entryID, p.getEntries());
-            }
-        }
         return CompletableFuture.runAsync(() ->
                 db.runInTransaction(() -> {
                     metaStorage.replaceAllPlaylistsAndMetasFromSource(
@@ -58,17 +53,54 @@ public class PlaylistStorage {
                             allowLocalKeys,
                             progressHandler
                     );
-                    for (EntryID playlistID: playlistEntriesMap.keySet()) {
-                        List<PlaylistEntry> playlistEntries = playlistEntriesMap.get(playlistID);
-                        if (playlistEntries == null) {
-                            continue;
-                        }
-                        playlistEntryModel.add(playlistID, playlistEntries, null);
-                    }
+                    addPlaylistEntries(playlists);
+                })
+        );
+    }
+
+    // Replaces the given playlists with the ones in playlists. Given playlists which are not
+    // in playlists are removed.
+    public CompletableFuture<Void> replacePlaylists(
+            List<EntryID> playlistIDs,
+            List<se.splushii.dancingbunnies.musiclibrary.Playlist> playlists,
+            boolean allowLocalKeys,
+            Consumer<String> progressHandler
+    ) {
+        return CompletableFuture.runAsync(() ->
+                db.runInTransaction(() -> {
+                    metaStorage.replacePlaylistsAndMetas(
+                            playlistIDs,
+                            playlists.stream().map(p -> p.meta).collect(Collectors.toList()),
+                            allowLocalKeys,
+                            progressHandler
+                    );
+                    addPlaylistEntries(playlists);
                 })
         );
     }
 
+    // Entries are read and inserted in chunks, so that large playlists are not kept in memory.
+    // Throws if the entries of a playlist can not be read, which rolls back the transaction.
+    private void addPlaylistEntries(List<se.splushii.dancingbunnies.musiclibrary.Playlist> playlists) {
+        HashMap<EntryID, StupidPlaylist> stupidPlaylists = new HashMap<>();
+        for (se.splushii.dancingbunnies.musiclibrary.Playlist playlist: playlists) {
+            if (playlist instanceof StupidPlaylist) {
+                stupidPlaylists.put(playlist.meta.entryID, (StupidPlaylist) playlist);
+            }
+        }
+        for (StupidPlaylist playlist: stupidPlaylists.values()) {
+            EntryID playlistID = playlist.meta.entryID;
+            String error = playlist.forEachEntryChunk(
+                    INSERT_CHUNK_SIZE,
+                    chunk -> playlistEntryModel.add(playlistID, chunk, null)
+            );
+            if (error != null) {
+                throw new Util.FutureException("Could not add entries to playlist "
+                        + playlistID + ": " + error);
+            }
+        }
+    }
+
     public CompletableFuture<Void> addToPlaylist(EntryID playlistID,
                                                  List<EntryID> entryIDs,
                                                  String beforePlaylistEntryID) {
@@ -81,6 +113,14 @@ public class PlaylistStorage {
         );
     }
 
+    public CompletableFuture<Void> addPlaylistEntries(EntryID playlistID,
+                                                      List<PlaylistEntry> playlistEntries,
+                                                      String beforePlaylistEntryID) {
+        return CompletableFuture.runAsync(() ->
+                playlistEntryModel.add(playlistID, playlistEntries, beforePlaylistEntryID)
+        );
+    }
+
     public CompletableFuture<Void> removeFromPlaylist(EntryID playlistID,
                                                       List<String> playlistEntryIDs) {
         return CompletableFuture.runAsync(() ->
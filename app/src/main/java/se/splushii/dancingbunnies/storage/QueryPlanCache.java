@@ -0,0 +1,155 @@
+package se.splushii.dancingbunnies.storage;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+import se.splushii.dancingbunnies.musiclibrary.QueryLeaf;
+import se.splushii.dancingbunnies.musiclibrary.QueryNode;
+import se.splushii.dancingbunnies.musiclibrary.QueryTree;
+
+// Caches generated SQL for query shapes (keys, ops, sort keys), with the literal values
+// from the QueryLeafs bound as parameters when the query is executed.
+class QueryPlanCache {
+    private static final int MAX_PLANS = 128;
+
+    private final Cache<String, Plan> plans = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PLANS)
+            .recordStats()
+            .build();
+
+    Plan get(String shapeKey) {
+        return plans.getIfPresent(shapeKey);
+    }
+
+    void put(String shapeKey, Plan plan) {
+        plans.put(shapeKey, plan);
+    }
+
+    CacheStats stats() {
+        return plans.stats();
+    }
+
+    static class Plan {
+        final String sql;
+        final Object[] args;
+        final String debugAliases;
+
+        Plan(String sql, List<Object> args, String debugAliases) {
+            this.sql = sql;
+            this.args = args.toArray();
+            this.debugAliases = debugAliases;
+        }
+
+        Object[] bindArgs(QueryNode queryNode) {
+            return QueryPlanCache.bindArgs(args, queryNode);
+        }
+    }
+
+    // Placeholder for the value of the n:th (depth first) QueryLeaf in a query
+    static class Literal {
+        final int leafIndex;
+        final Meta.Type type;
+
+        Literal(int leafIndex, Meta.Type type) {
+            this.leafIndex = leafIndex;
+            this.type = type;
+        }
+
+        @Override
+        public String toString() {
+            return "?" + leafIndex + "(" + type.name() + ")";
+        }
+    }
+
+    static Object[] bindArgs(Object[] args, QueryNode queryNode) {
+        List<String> values = new ArrayList<>();
+        collectLeafValues(queryNode, values);
+        Object[] boundArgs = new Object[args.length];
+        for (int i = 0; i < args.length; i++) {
+            if (!(args[i] instanceof Literal)) {
+                boundArgs[i] = args[i];
+                continue;
+            }
+            Literal literal = (Literal) args[i];
+            String value = values.get(literal.leafIndex);
+            switch (literal.type) {
+                case LONG:
+                    boundArgs[i] = Long.parseLong(value);
+                    break;
+                case DOUBLE:
+                    boundArgs[i] = Double.parseDouble(value);
+                    break;
+                default:
+                case STRING:
+                    boundArgs[i] = value;
+                    break;
+            }
+        }
+        return boundArgs;
+    }
+
+    private static void collectLeafValues(QueryNode queryNode, List<String> values) {
+        if (queryNode instanceof QueryLeaf) {
+            values.add(((QueryLeaf) queryNode).getValue());
+        } else if (queryNode instanceof QueryTree) {
+            for (QueryNode node: (QueryTree) queryNode) {
+                if (node != null) {
+                    collectLeafValues(node, values);
+                }
+            }
+        }
+    }
+
+    static String shapeKey(String entryType,
+                           String primaryField,
+                           List<String> sortFields,
+                           boolean sortOrderAscending,
+                           QueryNode queryNode) {
+        StringBuilder key = new StringBuilder();
+        appendString(key, entryType);
+        appendString(key, primaryField);
+        key.append(sortOrderAscending ? 'A' : 'D');
+        if (sortFields != null) {
+            key.append(sortFields.size()).append('#');
+            for (String sortField: sortFields) {
+                appendString(key, sortField);
+            }
+        }
+        key.append('|');
+        appendShape(key, queryNode);
+        return key.toString();
+    }
+
+    private static void appendShape(StringBuilder key, QueryNode queryNode) {
+        if (queryNode instanceof QueryLeaf) {
+            QueryLeaf leaf = (QueryLeaf) queryNode;
+            key.append(leaf.isNegated() ? "!L" : "L");
+            appendString(key, leaf.getKey());
+            key.append(leaf.getOperator() == null ? "-" : leaf.getOperator().name());
+        } else if (queryNode instanceof QueryTree) {
+            QueryTree tree = (QueryTree) queryNode;
+            key.append(tree.isNegated() ? "!T" : "T");
+            key.append(tree.getOperator().name()).append('(');
+            for (QueryNode node: tree) {
+                if (node != null) {
+                    appendShape(key, node);
+                    key.append(',');
+                }
+            }
+            key.append(')');
+        }
+    }
+
+    private static void appendString(StringBuilder key, String s) {
+        if (s == null) {
+            key.append("-1:");
+            return;
+        }
+        key.append(s.length()).append(':').append(s);
+    }
+}
@@ -1,12 +1,15 @@
 package se.splushii.dancingbunnies.storage;
 
 import android.content.Context;
+import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import androidx.lifecycle.LiveData;
@@ -17,6 +20,7 @@ import se.splushii.dancingbunnies.storage.db.DB;
 import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
 import se.splushii.dancingbunnies.storage.db.TransactionDao;
 import se.splushii.dancingbunnies.storage.transactions.Transaction;
+import se.splushii.dancingbunnies.storage.transactions.TransactionCompactor;
 import se.splushii.dancingbunnies.storage.transactions.TransactionMetaAdd;
 import se.splushii.dancingbunnies.storage.transactions.TransactionMetaDelete;
 import se.splushii.dancingbunnies.storage.transactions.TransactionMetaEdit;
@@ -30,9 +34,15 @@ import se.splushii.dancingbunnies.util.Util;
 public class TransactionStorage {
     private static final String LC = Util.getLogContext(TransactionStorage.class);
 
+    // Number of added transactions before compacting the transaction log
+    private static final int COMPACTION_THRESHOLD = 32;
+
     private static TransactionStorage instance;
 
     private final TransactionDao transactionDao;
+    // Held while transactions are compacted or applied to a backend
+    private final Semaphore applyPermit = new Semaphore(1);
+    private final AtomicInteger numAddedSinceCompaction = new AtomicInteger();
 
     public static synchronized TransactionStorage getInstance(Context context) {
         if (instance == null) {
@@ -170,7 +180,8 @@ public class TransactionStorage {
                                     playlistID,
                                     entryID,
                                     beforePlaylistEntryID,
-                                    meta
+                                    meta,
+                                    PlaylistEntry.generatePlaylistEntryID()
                             )
                     ));
         }
@@ -244,15 +255,80 @@ public class TransactionStorage {
     }
 
     private CompletableFuture<Void> addTransaction(Context context, Transaction t) {
-        return CompletableFuture.runAsync(() ->
-                transactionDao.insert(se.splushii.dancingbunnies.storage.db.Transaction.from(
-                        t.getSrc(),
-                        t.getDate(),
-                        t.getGroup(),
-                        t.getAction(),
-                        t.getArgs()
-                ))
-        ).thenCompose(aVoid -> t.applyLocally(context));
+        return CompletableFuture.runAsync(() -> {
+            transactionDao.insert(se.splushii.dancingbunnies.storage.db.Transaction.from(
+                    t.getSrc(),
+                    t.getDate(),
+                    t.getGroup(),
+                    t.getAction(),
+                    t.getArgs()
+            ));
+            if (numAddedSinceCompaction.incrementAndGet() >= COMPACTION_THRESHOLD
+                    && applyPermit.tryAcquire()) {
+                try {
+                    compact();
+                } finally {
+                    applyPermit.release();
+                }
+            }
+        }).thenCompose(aVoid -> t.applyLocally(context));
+    }
+
+    public CompletableFuture<Integer> compactTransactions() {
+        return CompletableFuture.supplyAsync(() -> {
+            applyPermit.acquireUninterruptibly();
+            try {
+                return compact();
+            } finally {
+                applyPermit.release();
+            }
+        });
+    }
+
+    private int compact() {
+        long start = System.currentTimeMillis();
+        numAddedSinceCompaction.set(0);
+        List<Transaction> transactions = dbTransactionsToTransactions(
+                transactionDao.getTransactionsOnce()
+        );
+        TransactionCompactor.Result result = TransactionCompactor.compact(transactions);
+        if (result.isEmpty()) {
+            return 0;
+        }
+        transactionDao.compact(
+                result.removed.stream()
+                        .map(Transaction::getID)
+                        .collect(Collectors.toList()),
+                result.replaced.stream()
+                        .map(t -> {
+                            se.splushii.dancingbunnies.storage.db.Transaction dbTransaction =
+                                    se.splushii.dancingbunnies.storage.db.Transaction.from(
+                                            t.getSrc(),
+                                            t.getDate(),
+                                            t.getGroup(),
+                                            t.getAction(),
+                                            t.getArgs()
+                                    );
+                            dbTransaction.rowid = t.getID();
+                            return dbTransaction;
+                        })
+                        .collect(Collectors.toList())
+        );
+        Log.d(LC, "compact: eliminated " + result.getNumEliminated()
+                + " and replaced " + result.replaced.size()
+                + " of " + transactions.size() + " transactions"
+                + " in " + (System.currentTimeMillis() - start) + "ms");
+        return result.getNumEliminated();
+    }
+
+    // Compaction is suspended between these calls, so that transactions being applied to a
+    // backend are not changed underneath
+    public void beginApplyingTransactions() {
+        applyPermit.acquireUninterruptibly();
+    }
+
+    public void endApplyingTransactions() {
+        applyPermit.release();
     }
 
     private List<Transaction> dbTransactionsToTransactions(
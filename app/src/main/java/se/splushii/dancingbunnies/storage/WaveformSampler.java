@@ -0,0 +1,172 @@
+package se.splushii.dancingbunnies.storage;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import se.splushii.dancingbunnies.musiclibrary.AudioDataSource;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.util.Util;
+
+// Samples waveforms of cached entries on a bounded pool of decoder threads.
+// Pending entries are sampled in priority order (see AudioStorage.DOWNLOAD_PRIO_*), so the
+// current and queued entries are sampled before bulk downloads. Equal priorities are sampled
+// in submission order.
+class WaveformSampler {
+    private static final String LC = Util.getLogContext(WaveformSampler.class);
+
+    // Leave a core for playback and UI
+    private static final int NUM_DECODER_THREADS =
+            Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+    private final ThreadPoolExecutor decoderExecutor = new ThreadPoolExecutor(
+            NUM_DECODER_THREADS,
+            NUM_DECODER_THREADS,
+            30,
+            TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>()
+    );
+    // Pending and running tasks. Guarded by this.
+    private final HashMap<EntryID, SampleTask> tasks = new HashMap<>();
+    private long nextSequence = 0;
+    // Throughput since the sampler was last idle. Guarded by this.
+    private long busySinceNanos;
+    private int numSampled;
+    private int numFailed;
+    private long bytesSampled;
+
+    private class SampleTask implements Runnable, Comparable<SampleTask> {
+        private final AudioDataSource audioDataSource;
+        private final int priority;
+        private final long sequence;
+        private boolean started = false;
+        private volatile boolean cancelled = false;
+
+        SampleTask(AudioDataSource audioDataSource, int priority, long sequence) {
+            this.audioDataSource = audioDataSource;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            synchronized (WaveformSampler.this) {
+                if (cancelled) {
+                    return;
+                }
+                started = true;
+            }
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            EntryID entryID = audioDataSource.entryID;
+            long size = audioDataSource.getSize();
+            boolean success = false;
+            try {
+                success = audioDataSource.fetchSamples(() -> cancelled);
+            } catch (RuntimeException e) {
+                Log.e(LC, "Could not sample entry: " + entryID + ": " + e.getMessage());
+            }
+            if (!success && !cancelled) {
+                Log.e(LC, "Could not sample entry: " + entryID);
+            }
+            synchronized (WaveformSampler.this) {
+                if (success) {
+                    numSampled++;
+                    bytesSampled += size;
+                } else if (!cancelled) {
+                    numFailed++;
+                }
+                tasks.remove(entryID, this);
+                onTaskEnded();
+            }
+        }
+
+        @Override
+        public int compareTo(SampleTask other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    WaveformSampler() {
+        decoderExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    synchronized void submit(AudioDataSource audioDataSource, int priority) {
+        EntryID entryID = audioDataSource.entryID;
+        SampleTask task = tasks.get(entryID);
+        if (task != null) {
+            updatePriority(task, priority);
+            return;
+        }
+        if (tasks.isEmpty()) {
+            busySinceNanos = System.nanoTime();
+            numSampled = 0;
+            numFailed = 0;
+            bytesSampled = 0;
+        }
+        enqueue(audioDataSource, priority);
+    }
+
+    // Moves a pending entry forward if priority is higher than its current one
+    synchronized void updatePriority(EntryID entryID, int priority) {
+        SampleTask task = tasks.get(entryID);
+        if (task != null) {
+            updatePriority(task, priority);
+        }
+    }
+
+    private void updatePriority(SampleTask task, int priority) {
+        if (task.started || priority >= task.priority) {
+            return;
+        }
+        if (decoderExecutor.remove(task)) {
+            enqueue(task.audioDataSource, priority);
+        }
+    }
+
+    private void enqueue(AudioDataSource audioDataSource, int priority) {
+        SampleTask task = new SampleTask(audioDataSource, priority, nextSequence++);
+        tasks.put(audioDataSource.entryID, task);
+        decoderExecutor.execute(task);
+    }
+
+    // Drops a pending entry, or stops sampling it without storing a waveform
+    synchronized void cancel(EntryID entryID) {
+        SampleTask task = tasks.remove(entryID);
+        if (task == null) {
+            return;
+        }
+        task.cancelled = true;
+        decoderExecutor.remove(task);
+        Log.d(LC, "Cancelled sampling of entry: " + entryID);
+        onTaskEnded();
+    }
+
+    private void onTaskEnded() {
+        if (!tasks.isEmpty() || numSampled + numFailed <= 0) {
+            return;
+        }
+        double seconds = (System.nanoTime() - busySinceNanos) / 1e9;
+        Log.d(LC, String.format(
+                Locale.ROOT,
+                "Sampled %d entries (%d failed, %.1f MB) in %.1f s on %d threads:"
+                        + " %.2f entries/s, %.2f MB/s",
+                numSampled,
+                numFailed,
+                bytesSampled / 1e6,
+                seconds,
+                NUM_DECODER_THREADS,
+                numSampled / seconds,
+                bytesSampled / 1e6 / seconds
+        ));
+        numSampled = 0;
+        numFailed = 0;
+    }
+}
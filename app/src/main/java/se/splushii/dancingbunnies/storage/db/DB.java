@@ -2,9 +2,11 @@ package se.splushii.dancingbunnies.storage.db;
 
 import android.content.Context;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -84,6 +86,10 @@ public abstract class DB extends RoomDatabase {
     public abstract PlaybackControllerEntryDao playbackControllerEntryModel();
     public abstract TransactionDao transactionModel();
 
+    // Selections of at least this size are removed and moved in bulk, with a constant number
+    // of statements. Smaller selections are cheaper with a statement per entry.
+    static final int BULK_THRESHOLD = 4;
+
     public static <T> long[] getPositions(List<T> entries, Function<T, Long> positionSupplier) {
         long[] playlistPositions = new long[entries.size()];
         for (int i = 0; i < playlistPositions.length; i++) {
@@ -127,4 +133,46 @@ public abstract class DB extends RoomDatabase {
             move.accept(sourcePosition, sourceToTargetMap.get(sourcePosition));
         }
     }
-}
\ No newline at end of file
+
+    // Returns the entries in their order after moving the entries with keys to the position
+    // of the entry with beforeKey, or to the end if not found. Same order as movePositions().
+    static List<PositionEntry> moveEntries(List<PositionEntry> entries,
+                                           Set<String> keys,
+                                           String beforeKey) {
+        List<PositionEntry> movedEntries = new ArrayList<>();
+        List<PositionEntry> otherEntries = new ArrayList<>(entries.size());
+        int targetPos = entries.size();
+        int numMovedBelowTargetPos = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            PositionEntry entry = entries.get(i);
+            if (targetPos == entries.size() && entry.key.equals(beforeKey)) {
+                targetPos = i;
+                numMovedBelowTargetPos = movedEntries.size();
+            }
+            if (keys.contains(entry.key)) {
+                movedEntries.add(entry);
+            } else {
+                otherEntries.add(entry);
+            }
+        }
+        if (targetPos == entries.size()) {
+            numMovedBelowTargetPos = movedEntries.size();
+        }
+        int splitPos = targetPos - numMovedBelowTargetPos;
+        List<PositionEntry> result = new ArrayList<>(entries.size());
+        result.addAll(otherEntries.subList(0, splitPos));
+        result.addAll(movedEntries);
+        result.addAll(otherEntries.subList(splitPos, otherEntries.size()));
+        return result;
+    }
+
+    // Sets the position of each entry to its index, where it differs
+    static void updatePositions(List<PositionEntry> entries, BiConsumer<Long, Long> setPosition) {
+        for (int i = 0; i < entries.size(); i++) {
+            PositionEntry entry = entries.get(i);
+            if (entry.pos != i) {
+                setPosition.accept(entry.rowId, (long) i);
+            }
+        }
+    }
+}
@@ -577,6 +577,17 @@ public abstract class MetaDao {
         insertEntriesAndMetas(entryType, metaList, allowLocalKeys, progressHandler);
     }
 
+    @Transaction
+    public void replaceEntriesAndMetas(String entryType,
+                                       List<EntryID> entryIDs,
+                                       List<Meta> metaList,
+                                       boolean allowLocalKeys,
+                                       Consumer<String> progressHandler) {
+        progressHandler.accept("Clearing old entries...");
+        deleteEntries(entryType, entryIDs);
+        insertEntriesAndMetas(entryType, metaList, allowLocalKeys, progressHandler);
+    }
+
     public List<MetaString> getStringMetaSync(String entryType, EntryID entryID) {
         switch (entryType) {
             case EntryID.TYPE_TRACK:
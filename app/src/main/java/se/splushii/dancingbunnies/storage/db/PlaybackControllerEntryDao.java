@@ -2,6 +2,7 @@ package se.splushii.dancingbunnies.storage.db;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -10,8 +11,13 @@ import androidx.room.Dao;
 import androidx.room.Delete;
 import androidx.room.Insert;
 import androidx.room.Query;
+import androidx.room.RawQuery;
 import androidx.room.Transaction;
+import androidx.sqlite.db.SimpleSQLiteQuery;
+import androidx.sqlite.db.SupportSQLiteQuery;
 import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.util.Util;
 
 import static androidx.room.OnConflictStrategy.REPLACE;
@@ -48,10 +54,32 @@ public abstract class PlaybackControllerEntryDao {
             + " FROM " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES
             + " WHERE " + isEntry)
     abstract long _get_position(int queueID, long playbackID);
+    @Query("SELECT " + DB.COLUMN_ROW_ID
+            + ", " + PlaybackControllerEntry.COLUMN_PLAYBACK_ID + " AS " + PositionEntry.COLUMN_KEY
+            + ", " + PlaybackControllerEntry.COLUMN_POS + " AS " + PositionEntry.COLUMN_POS
+            + " FROM " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES
+            + " WHERE " + isQueue
+            + " ORDER BY " + PlaybackControllerEntry.COLUMN_POS + " ASC")
+    abstract List<PositionEntry> _get_position_entries(int queueID);
+    @Query("UPDATE " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES
+            + " SET " + PlaybackControllerEntry.COLUMN_POS + " = :pos"
+            + " WHERE " + DB.COLUMN_ROW_ID + " = :rowId")
+    abstract void _set_position(long rowId, long pos);
+
+    private static HashSet<String> getKeys(List<PlaybackEntry> entries) {
+        HashSet<String> keys = new HashSet<>();
+        for (PlaybackEntry entry: entries) {
+            keys.add(Long.toString(entry.playbackID));
+        }
+        return keys;
+    }
 
     // Delete
     @Delete
     abstract void _delete(PlaybackControllerEntry entry);
+    @Query("DELETE FROM " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES
+            + " WHERE " + DB.COLUMN_ROW_ID + " = :rowId")
+    abstract void _delete_row(long rowId);
     @Query("UPDATE " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES
             + " SET " + PlaybackControllerEntry.COLUMN_POS + " = "
             + PlaybackControllerEntry.COLUMN_POS + " - 1"
@@ -60,6 +88,13 @@ public abstract class PlaybackControllerEntryDao {
     abstract void _update_pos_after_delete(int queueID, long position);
     @Transaction
     public void removeEntries(int queueID, List<PlaybackEntry> playbackEntries) {
+        if (playbackEntries.size() >= DB.BULK_THRESHOLD) {
+            removeEntriesBulk(queueID, playbackEntries);
+        } else {
+            removeEntriesEach(queueID, playbackEntries);
+        }
+    }
+    void removeEntriesEach(int queueID, List<PlaybackEntry> playbackEntries) {
         for (PlaybackEntry playbackEntry: playbackEntries) {
             PlaybackControllerEntry entry = getEntry(queueID, playbackEntry.playbackID);
             if (entry == null) {
@@ -69,6 +104,18 @@ public abstract class PlaybackControllerEntryDao {
             _update_pos_after_delete(queueID, entry.pos);
         }
     }
+    void removeEntriesBulk(int queueID, List<PlaybackEntry> playbackEntries) {
+        HashSet<String> keys = getKeys(playbackEntries);
+        List<PositionEntry> remainingEntries = new ArrayList<>();
+        for (PositionEntry entry: _get_position_entries(queueID)) {
+            if (keys.contains(entry.key)) {
+                _delete_row(entry.rowId);
+            } else {
+                remainingEntries.add(entry);
+            }
+        }
+        DB.updatePositions(remainingEntries, this::_set_position);
+    }
     @Query("DELETE FROM " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES
             + " WHERE " + isQueue)
     public abstract void removeAll(int queueID);
@@ -149,6 +196,13 @@ public abstract class PlaybackControllerEntryDao {
     public void move(int queueID,
                      List<PlaybackEntry> entries,
                      long idAfterTargetPos) {
+        if (entries.size() >= DB.BULK_THRESHOLD) {
+            moveBulk(queueID, entries, idAfterTargetPos);
+        } else {
+            moveEach(queueID, entries, idAfterTargetPos);
+        }
+    }
+    void moveEach(int queueID, List<PlaybackEntry> entries, long idAfterTargetPos) {
         long[] entryPositions = getEntryPositions(queueID, entries);
         long targetPos = idAfterTargetPos <= PlaybackEntry.PLAYBACK_ID_INVALID
                 ? _num_entries(queueID)
@@ -159,4 +213,53 @@ public abstract class PlaybackControllerEntryDao {
                 (source, target) -> _move(queueID, source, target)
         );
     }
+    void moveBulk(int queueID, List<PlaybackEntry> entries, long idAfterTargetPos) {
+        DB.updatePositions(
+                DB.moveEntries(
+                        _get_position_entries(queueID),
+                        getKeys(entries),
+                        idAfterTargetPos <= PlaybackEntry.PLAYBACK_ID_INVALID
+                                ? null
+                                : Long.toString(idAfterTargetPos)
+                ),
+                this::_set_position
+        );
+    }
+
+    // Sort
+    @RawQuery
+    abstract List<Long> _get_playback_ids(SupportSQLiteQuery query);
+    // Returns the playbackIDs of the queue entries, ordered by the values of the sortBy keys.
+    // Entries with multiple values for a key are ordered by the lowest value. Entries without
+    // a value are ordered first. Ties keep their queue order.
+    public List<Long> getPlaybackIDsSortedBy(int queueID, List<String> sortBy) {
+        String entry = "e";
+        StringBuilder query = new StringBuilder("SELECT " + entry + "."
+                + PlaybackControllerEntry.COLUMN_PLAYBACK_ID
+                + " FROM " + DB.TABLE_PLAYBACK_CONTROLLER_ENTRIES + " AS " + entry
+                + " WHERE " + entry + "." + PlaybackControllerEntry.COLUMN_QUEUE_ID + " = ?"
+                + " ORDER BY ");
+        List<Object> args = new ArrayList<>();
+        args.add(queueID);
+        for (String key: sortBy) {
+            String table = MetaDao.getTable(EntryID.TYPE_TRACK, key);
+            if (Meta.FIELD_SPECIAL_ENTRY_SRC.equals(key)) {
+                query.append(entry).append(".").append(DB.COLUMN_SRC);
+            } else if (DB.TABLE_TRACK_ID.equals(table)) {
+                query.append(entry).append(".").append(DB.COLUMN_ID);
+            } else {
+                query.append("(SELECT MIN(\"").append(DB.COLUMN_VALUE).append("\")")
+                        .append(" FROM ").append(table)
+                        .append(" WHERE ").append(DB.COLUMN_SRC).append(" = ")
+                        .append(entry).append(".").append(DB.COLUMN_SRC)
+                        .append(" AND ").append(DB.COLUMN_ID).append(" = ")
+                        .append(entry).append(".").append(DB.COLUMN_ID)
+                        .append(" AND \"").append(DB.COLUMN_KEY).append("\" = ?)");
+                args.add(key);
+            }
+            query.append(" ASC, ");
+        }
+        query.append(entry).append(".").append(PlaybackControllerEntry.COLUMN_POS).append(" ASC");
+        return _get_playback_ids(new SimpleSQLiteQuery(query.toString(), args.toArray()));
+    }
 }
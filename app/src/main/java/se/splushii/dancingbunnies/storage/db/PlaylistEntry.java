@@ -183,7 +183,7 @@ public class PlaylistEntry implements Parcelable {
     }
 
     public EntryID entryID() {
-        return new EntryID(entry_src, entry_id, entry_type);
+        return EntryID.interned(entry_src, entry_id, entry_type);
     }
 
     public static List<PlaylistEntry> generatePlaylistEntries(EntryID playlistID,
@@ -2,6 +2,8 @@ package se.splushii.dancingbunnies.storage.db;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -45,6 +47,17 @@ public abstract class PlaylistEntryDao {
             + " FROM " + DB.TABLE_PLAYLIST_ENTRIES
             + " WHERE " + isSpecifiedPlaylistEntry)
     abstract long _get_position(String playlistSrc, String playlistId, String playlistEntryID);
+    @Query("SELECT " + DB.COLUMN_ROW_ID
+            + ", " + PlaylistEntry.COLUMN_ID + " AS " + PositionEntry.COLUMN_KEY
+            + ", " + PlaylistEntry.COLUMN_POS + " AS " + PositionEntry.COLUMN_POS
+            + " FROM " + DB.TABLE_PLAYLIST_ENTRIES
+            + " WHERE " + isSpecifiedPlaylist
+            + " ORDER BY " + PlaylistEntry.COLUMN_POS + " ASC")
+    abstract List<PositionEntry> _get_position_entries(String playlistSrc, String playlistId);
+    @Query("UPDATE " + DB.TABLE_PLAYLIST_ENTRIES
+            + " SET " + PlaylistEntry.COLUMN_POS + " = :pos"
+            + " WHERE " + DB.COLUMN_ROW_ID + " = :rowId")
+    abstract void _set_position(long rowId, long pos);
 
     @Query("SELECT * FROM " + DB.TABLE_PLAYLIST_ENTRIES
             + " ORDER BY " + PlaylistEntry.COLUMN_POS + " ASC")
@@ -104,14 +117,42 @@ public abstract class PlaylistEntryDao {
             + " WHERE " + PlaylistEntry.COLUMN_POS + " > :position"
             + " AND " + isSpecifiedPlaylist)
     abstract void _update_pos_after_delete(String playlistSrc, String playlistId, long position);
+    @Query("DELETE FROM " + DB.TABLE_PLAYLIST_ENTRIES
+            + " WHERE " + DB.COLUMN_ROW_ID + " = :rowId")
+    abstract void _delete_row(long rowId);
     @Transaction
     public void remove(EntryID playlistID, List<String> playlistEntryIDs) {
+        if (playlistEntryIDs.size() >= DB.BULK_THRESHOLD) {
+            removeBulk(playlistID, playlistEntryIDs);
+        } else {
+            removeEach(playlistID, playlistEntryIDs);
+        }
+    }
+    void removeEach(EntryID playlistID, List<String> playlistEntryIDs) {
         long[] playlistEntryPositions = getPlaylistEntryPositions(playlistID, playlistEntryIDs);
+        // Remove from the highest position, so that the remaining positions stay valid
+        List<Integer> indices = new ArrayList<>();
         for (int i = 0; i < playlistEntryPositions.length; i++) {
+            indices.add(i);
+        }
+        indices.sort(Comparator.comparingLong(i -> -playlistEntryPositions[i]));
+        for (int i: indices) {
             _delete(playlistID.src, playlistID.id, playlistEntryIDs.get(i));
             _update_pos_after_delete(playlistID.src, playlistID.id, playlistEntryPositions[i]);
         }
     }
+    void removeBulk(EntryID playlistID, List<String> playlistEntryIDs) {
+        HashSet<String> keys = new HashSet<>(playlistEntryIDs);
+        List<PositionEntry> remainingEntries = new ArrayList<>();
+        for (PositionEntry entry: _get_position_entries(playlistID.src, playlistID.id)) {
+            if (keys.contains(entry.key)) {
+                _delete_row(entry.rowId);
+            } else {
+                remainingEntries.add(entry);
+            }
+        }
+        DB.updatePositions(remainingEntries, this::_set_position);
+    }
 
     // Move
     @Query("UPDATE " + DB.TABLE_PLAYLIST_ENTRIES
@@ -132,6 +173,13 @@ public abstract class PlaylistEntryDao {
     public void move(EntryID playlistID,
                      List<String> playlistEntryIDs,
                      String idAfterTargetPos) {
+        if (playlistEntryIDs.size() >= DB.BULK_THRESHOLD) {
+            moveBulk(playlistID, playlistEntryIDs, idAfterTargetPos);
+        } else {
+            moveEach(playlistID, playlistEntryIDs, idAfterTargetPos);
+        }
+    }
+    void moveEach(EntryID playlistID, List<String> playlistEntryIDs, String idAfterTargetPos) {
         long[] playlistEntryPositions = getPlaylistEntryPositions(playlistID, playlistEntryIDs);
         long targetPos = idAfterTargetPos == null
                 ? _num_entries(playlistID.src, playlistID.id)
@@ -142,4 +190,14 @@ public abstract class PlaylistEntryDao {
                 (source, target) -> _move(playlistID.src, playlistID.id, source, target)
         );
     }
+    void moveBulk(EntryID playlistID, List<String> playlistEntryIDs, String idAfterTargetPos) {
+        DB.updatePositions(
+                DB.moveEntries(
+                        _get_position_entries(playlistID.src, playlistID.id),
+                        new HashSet<>(playlistEntryIDs),
+                        idAfterTargetPos
+                ),
+                this::_set_position
+        );
+    }
 }
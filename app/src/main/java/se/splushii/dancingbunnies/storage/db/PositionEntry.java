@@ -0,0 +1,18 @@
+package se.splushii.dancingbunnies.storage.db;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+
+// Row, key and position of an entry in a positioned list
+public class PositionEntry {
+    static final String COLUMN_KEY = "key";
+    static final String COLUMN_POS = "pos";
+
+    @ColumnInfo(name = DB.COLUMN_ROW_ID)
+    public long rowId;
+    @NonNull
+    @ColumnInfo(name = COLUMN_KEY)
+    public String key;
+    @ColumnInfo(name = COLUMN_POS)
+    public long pos;
+}
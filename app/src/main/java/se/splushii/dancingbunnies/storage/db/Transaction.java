@@ -18,8 +18,8 @@ public class Transaction {
     static final String COLUMN_DATE = "date";
     static final String COLUMN_SRC = "src";
     static final String COLUMN_GROUP = "grp";
-    private static final String COLUMN_ACTION = "action";
-    private static final String COLUMN_ARGS = "args";
+    static final String COLUMN_ACTION = "action";
+    static final String COLUMN_ARGS = "args";
     static final String COLUMN_ERROR = "err";
     static final String COLUMN_ERROR_NUM = "errnum";
 
@@ -46,4 +46,20 @@ public abstract class TransactionDao {
             + ", " + Transaction.COLUMN_ERROR_NUM + " = " + Transaction.COLUMN_ERROR_NUM + " + 1"
             + " WHERE " + Transaction.COLUMN_ROW_ID + " = :id;")
     public abstract void setError(long id, String error);
+
+    @Query("UPDATE " + DB.TABLE_LIBRARY_TRANSACTIONS
+            + " SET " + Transaction.COLUMN_ACTION + " = :action"
+            + ", " + Transaction.COLUMN_ARGS + " = :args"
+            + " WHERE " + Transaction.COLUMN_ROW_ID + " = :rowId;")
+    public abstract void update(long rowId, String action, String args);
+
+    @androidx.room.Transaction
+    public void compact(List<Long> deletedRowIds, List<Transaction> updatedTransactions) {
+        for (long rowId: deletedRowIds) {
+            delete(rowId);
+        }
+        for (Transaction transaction: updatedTransactions) {
+            update(transaction.rowid, transaction.action, transaction.args);
+        }
+    }
 }
\ No newline at end of file
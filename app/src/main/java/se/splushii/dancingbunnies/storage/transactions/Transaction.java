@@ -12,6 +12,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.util.Util;
 
 public abstract class Transaction implements Parcelable {
@@ -224,4 +225,7 @@ public abstract class Transaction implements Parcelable {
     // Batch changes to be applied to the actual backend
     public abstract void addToBatch(Context context, APIClient.Batch batch)
             throws APIClient.BatchException;
+
+    // Add what needs to be synced after the changes have been applied to the backend
+    public abstract void addToSyncScope(SyncScope scope);
 }
\ No newline at end of file
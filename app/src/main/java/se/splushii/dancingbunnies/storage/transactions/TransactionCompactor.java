@@ -0,0 +1,281 @@
+package se.splushii.dancingbunnies.storage.transactions;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Objects;
+
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+
+// Coalesces and cancels pending transactions per target, before they are applied to a backend.
+//
+// Meta (per entry, key and value):
+//   add(a) + delete(a) -> nothing, delete(a) + add(a) -> nothing
+//   add(a) + edit(a, b) -> add(b)
+//   edit(o, a) + edit(a, b) -> edit(o, b) (nothing if o == b)
+//   edit(o, a) + delete(a) -> delete(o)
+// Playlist entries (per playlist entry ID):
+//   move + move -> last move
+//   move + delete -> delete
+//   add + (moves) + delete -> nothing
+// Playlists:
+//   any playlist operation + playlist delete -> playlist delete
+//   playlist add + (playlist operations) + playlist delete -> nothing
+//
+// A transaction which refers to a playlist entry as "before" entry is a barrier for that
+// playlist entry, since its outcome depends on where the playlist entry is at that point.
+// Replacement transactions keep the ID of the first transaction they replace, so that the
+// order of the transactions is kept.
+public class TransactionCompactor {
+    private static final Transaction CANCELLED = new TransactionUnknown(
+            Transaction.ID_NONE, null, null, null, null, null, 0, null
+    );
+
+    public static class Result {
+        public final List<Transaction> removed;
+        public final List<Transaction> replaced;
+
+        Result(List<Transaction> removed, List<Transaction> replaced) {
+            this.removed = removed;
+            this.replaced = replaced;
+        }
+
+        public int getNumEliminated() {
+            return removed.size();
+        }
+
+        public boolean isEmpty() {
+            return removed.isEmpty() && replaced.isEmpty();
+        }
+    }
+
+    private final LinkedHashMap<Long, Transaction> alive = new LinkedHashMap<>();
+    private final HashMap<String, Deque<Transaction>> metaTargets = new HashMap<>();
+    private final HashMap<String, Deque<Transaction>> playlistEntryTargets = new HashMap<>();
+    private final HashMap<String, List<Transaction>> playlistTargets = new HashMap<>();
+    private final HashMap<String, Transaction> playlistAdds = new HashMap<>();
+
+    private TransactionCompactor() {}
+
+    public static Result compact(List<Transaction> transactions) {
+        TransactionCompactor compactor = new TransactionCompactor();
+        for (Transaction transaction: transactions) {
+            compactor.add(transaction);
+        }
+        List<Transaction> removed = new ArrayList<>();
+        List<Transaction> replaced = new ArrayList<>();
+        for (Transaction transaction: transactions) {
+            Transaction current = compactor.alive.get(transaction.getID());
+            if (current == null) {
+                removed.add(transaction);
+            } else if (current != transaction) {
+                replaced.add(current);
+            }
+        }
+        return new Result(removed, replaced);
+    }
+
+    private void add(Transaction t) {
+        alive.put(t.getID(), t);
+        if (t instanceof TransactionMetaAdd) {
+            TransactionMetaAdd m = (TransactionMetaAdd) t;
+            addMeta(t, metaTarget(t, entryKey(m.entryID), m.key));
+        } else if (t instanceof TransactionMetaDelete) {
+            TransactionMetaDelete m = (TransactionMetaDelete) t;
+            addMeta(t, metaTarget(t, entryKey(m.entryID), m.key));
+        } else if (t instanceof TransactionMetaEdit) {
+            TransactionMetaEdit m = (TransactionMetaEdit) t;
+            addMeta(t, metaTarget(t, entryKey(m.entryID), m.key));
+        } else if (t instanceof TransactionPlaylistAdd) {
+            String target = playlistTarget(t, entryKey(((TransactionPlaylistAdd) t).playlistID));
+            playlistAdds.put(target, t);
+            playlistTargets.put(target, new ArrayList<>());
+        } else if (t instanceof TransactionPlaylistDelete) {
+            EntryID playlistID = ((TransactionPlaylistDelete) t).playlistID;
+            deletePlaylist(t, playlistTarget(t, entryKey(playlistID)));
+        } else if (t instanceof TransactionPlaylistMetaAdd) {
+            addPlaylistOp(t, entryKey(((TransactionPlaylistMetaAdd) t).playlistID));
+        } else if (t instanceof TransactionPlaylistEntryAdd) {
+            TransactionPlaylistEntryAdd a = (TransactionPlaylistEntryAdd) t;
+            addPlaylistOp(t, entryKey(a.playlistID));
+            barrier(t, entryKey(a.playlistID), a.beforePlaylistEntryID);
+            if (a.playlistEntryID != null) {
+                target(
+                        playlistEntryTargets,
+                        entryTarget(t, entryKey(a.playlistID), a.playlistEntryID)
+                ).addLast(t);
+            }
+        } else if (t instanceof TransactionPlaylistEntryMove) {
+            TransactionPlaylistEntryMove m = (TransactionPlaylistEntryMove) t;
+            addPlaylistOp(t, entryKey(m.playlistID));
+            barrier(t, entryKey(m.playlistID), m.beforePlaylistEntryID);
+            Deque<Transaction> ops = target(
+                    playlistEntryTargets,
+                    entryTarget(t, entryKey(m.playlistID), m.playlistEntryID)
+            );
+            Transaction prev = peekAlive(ops);
+            if (prev instanceof TransactionPlaylistEntryMove) {
+                remove(ops.removeLast());
+            }
+            ops.addLast(t);
+        } else if (t instanceof TransactionPlaylistEntryDelete) {
+            TransactionPlaylistEntryDelete d = (TransactionPlaylistEntryDelete) t;
+            addPlaylistOp(t, entryKey(d.playlistID));
+            Deque<Transaction> ops = target(
+                    playlistEntryTargets,
+                    entryTarget(t, entryKey(d.playlistID), d.playlistEntryID)
+            );
+            Transaction prev = peekAlive(ops);
+            while (prev instanceof TransactionPlaylistEntryMove) {
+                remove(ops.removeLast());
+                prev = peekAlive(ops);
+            }
+            if (prev instanceof TransactionPlaylistEntryAdd) {
+                remove(ops.removeLast());
+                remove(t);
+                return;
+            }
+            ops.addLast(t);
+        }
+    }
+
+    private void addMeta(Transaction t, String target) {
+        Deque<Transaction> ops = target(metaTargets, target);
+        Transaction prev = peekAlive(ops);
+        if (prev == null) {
+            ops.addLast(t);
+            return;
+        }
+        Transaction merged = mergeMeta(prev, t);
+        if (merged == null) {
+            ops.addLast(t);
+            return;
+        }
+        remove(t);
+        ops.removeLast();
+        if (merged == CANCELLED) {
+            remove(prev);
+            return;
+        }
+        alive.put(prev.getID(), merged);
+        ops.addLast(merged);
+    }
+
+    // Returns a replacement for first, CANCELLED if both cancel out, or null if not mergeable
+    private static Transaction mergeMeta(Transaction first, Transaction second) {
+        if (first instanceof TransactionMetaAdd) {
+            TransactionMetaAdd a = (TransactionMetaAdd) first;
+            if (second instanceof TransactionMetaDelete) {
+                TransactionMetaDelete d = (TransactionMetaDelete) second;
+                return Objects.equals(a.value, d.value) ? CANCELLED : null;
+            }
+            if (second instanceof TransactionMetaEdit) {
+                TransactionMetaEdit e = (TransactionMetaEdit) second;
+                if (!Objects.equals(a.value, e.oldValue)) {
+                    return null;
+                }
+                return new TransactionMetaAdd(
+                        a.getID(), a.getSrc(), a.getDate(), a.getErrorCount(), a.getErrorMessage(),
+                        a.entryID, a.key, e.newValue
+                );
+            }
+        } else if (first instanceof TransactionMetaDelete) {
+            TransactionMetaDelete d = (TransactionMetaDelete) first;
+            if (second instanceof TransactionMetaAdd) {
+                TransactionMetaAdd a = (TransactionMetaAdd) second;
+                return Objects.equals(d.value, a.value) ? CANCELLED : null;
+            }
+        } else if (first instanceof TransactionMetaEdit) {
+            TransactionMetaEdit e1 = (TransactionMetaEdit) first;
+            if (second instanceof TransactionMetaEdit) {
+                TransactionMetaEdit e2 = (TransactionMetaEdit) second;
+                if (!Objects.equals(e1.newValue, e2.oldValue)) {
+                    return null;
+                }
+                if (Objects.equals(e1.oldValue, e2.newValue)) {
+                    return CANCELLED;
+                }
+                return new TransactionMetaEdit(
+                        e1.getID(), e1.getSrc(), e1.getDate(), e1.getErrorCount(), e1.getErrorMessage(),
+                        e1.entryID, e1.key, e1.oldValue, e2.newValue
+                );
+            }
+            if (second instanceof TransactionMetaDelete) {
+                TransactionMetaDelete d = (TransactionMetaDelete) second;
+                if (!Objects.equals(e1.newValue, d.value)) {
+                    return null;
+                }
+                return new TransactionMetaDelete(
+                        e1.getID(), e1.getSrc(), e1.getDate(), e1.getErrorCount(), e1.getErrorMessage(),
+                        e1.entryID, e1.key, e1.oldValue
+                );
+            }
+        }
+        return null;
+    }
+
+    private void addPlaylistOp(Transaction t, String playlistKey) {
+        playlistTargets.computeIfAbsent(playlistTarget(t, playlistKey), k -> new ArrayList<>())
+                .add(t);
+    }
+
+    private void deletePlaylist(Transaction t, String target) {
+        List<Transaction> ops = playlistTargets.remove(target);
+        if (ops != null) {
+            for (Transaction op: ops) {
+                remove(op);
+            }
+        }
+        Transaction playlistAdd = playlistAdds.remove(target);
+        if (playlistAdd != null) {
+            remove(playlistAdd);
+            remove(t);
+        }
+    }
+
+    private void barrier(Transaction t, String playlistKey, String beforePlaylistEntryID) {
+        if (beforePlaylistEntryID == null) {
+            return;
+        }
+        playlistEntryTargets.remove(entryTarget(t, playlistKey, beforePlaylistEntryID));
+    }
+
+    private void remove(Transaction t) {
+        alive.remove(t.getID(), t);
+    }
+
+    private Transaction peekAlive(Deque<Transaction> ops) {
+        while (!ops.isEmpty()) {
+            Transaction t = ops.peekLast();
+            if (alive.get(t.getID()) == t) {
+                return t;
+            }
+            ops.removeLast();
+        }
+        return null;
+    }
+
+    private static Deque<Transaction> target(HashMap<String, Deque<Transaction>> targets,
+                                             String target) {
+        return targets.computeIfAbsent(target, k -> new ArrayDeque<>());
+    }
+
+    private static String entryKey(EntryID entryID) {
+        return entryID.src + "\n" + entryID.id + "\n" + entryID.type;
+    }
+
+    private static String metaTarget(Transaction t, String entryKey, String key) {
+        return t.getSrc() + "\n" + entryKey + "\n" + key;
+    }
+
+    private static String playlistTarget(Transaction t, String playlistKey) {
+        return t.getSrc() + "\n" + playlistKey;
+    }
+
+    private static String entryTarget(Transaction t, String playlistKey, String playlistEntryID) {
+        return t.getSrc() + "\n" + playlistKey + "\n" + playlistEntryID;
+    }
+}
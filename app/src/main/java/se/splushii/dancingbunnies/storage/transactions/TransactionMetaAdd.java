@@ -10,6 +10,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.storage.MetaStorage;
@@ -25,9 +26,9 @@ public class TransactionMetaAdd extends Transaction {
     private static final String JSON_KEY_KEY = "key";
     private static final String JSON_KEY_VALUE = "value";
 
-    private final EntryID entryID;
-    private final String key;
-    private final String value;
+    final EntryID entryID;
+    final String key;
+    final String value;
 
     public TransactionMetaAdd(long id,
                               String src,
@@ -117,4 +118,9 @@ public class TransactionMetaAdd extends Transaction {
     public void addToBatch(Context context, APIClient.Batch batch) throws APIClient.BatchException {
         batch.addMeta(context, entryID, key, value);
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addTrack(entryID);
+    }
 }
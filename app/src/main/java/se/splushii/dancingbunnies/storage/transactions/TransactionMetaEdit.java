@@ -10,6 +10,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.storage.MetaStorage;
@@ -26,10 +27,10 @@ public class TransactionMetaEdit extends Transaction {
     private static final String JSON_KEY_OLD_VALUE = "oldValue";
     private static final String JSON_KEY_NEW_VALUE = "newValue";
 
-    private final EntryID entryID;
-    private final String key;
-    private final String oldValue;
-    private final String newValue;
+    final EntryID entryID;
+    final String key;
+    final String oldValue;
+    final String newValue;
 
     public TransactionMetaEdit(long id,
                                String src,
@@ -125,4 +126,9 @@ public class TransactionMetaEdit extends Transaction {
     public void addToBatch(Context context, APIClient.Batch batch) throws APIClient.BatchException {
         batch.editMeta(context, entryID, key, oldValue, newValue);
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addTrack(entryID);
+    }
 }
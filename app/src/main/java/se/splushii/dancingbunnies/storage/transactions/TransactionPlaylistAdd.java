@@ -10,6 +10,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.storage.MetaStorage;
 import se.splushii.dancingbunnies.util.Util;
@@ -24,7 +25,7 @@ public class TransactionPlaylistAdd extends Transaction {
     private static final String JSON_KEY_NAME = "name";
     private static final String JSON_KEY_QUERY = "query";
 
-    private final EntryID playlistID;
+    final EntryID playlistID;
     private final String name;
     private final String query;
 
@@ -123,4 +124,9 @@ public class TransactionPlaylistAdd extends Transaction {
                 query
         );
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addPlaylist(playlistID);
+    }
 }
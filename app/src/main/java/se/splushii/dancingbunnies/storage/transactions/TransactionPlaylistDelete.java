@@ -11,6 +11,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.storage.MetaStorage;
 import se.splushii.dancingbunnies.util.Util;
@@ -23,7 +24,7 @@ public class TransactionPlaylistDelete extends Transaction {
 
     private static final String JSON_KEY_PLAYLIST_ID = "playlist_id";
 
-    private final EntryID playlistID;
+    final EntryID playlistID;
 
     public TransactionPlaylistDelete(long id,
                                      String src,
@@ -101,4 +102,9 @@ public class TransactionPlaylistDelete extends Transaction {
     public void addToBatch(Context context, APIClient.Batch batch) throws APIClient.BatchException {
         batch.deletePlaylist(context, playlistID);
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addPlaylist(playlistID);
+    }
 }
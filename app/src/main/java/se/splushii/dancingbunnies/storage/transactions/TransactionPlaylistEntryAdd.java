@@ -11,9 +11,11 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.storage.PlaylistStorage;
+import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
 import se.splushii.dancingbunnies.util.Util;
 
 public class TransactionPlaylistEntryAdd extends Transaction {
@@ -26,11 +28,14 @@ public class TransactionPlaylistEntryAdd extends Transaction {
     private static final String JSON_KEY_ENTRY_ID = "entry_id";
     private static final String JSON_KEY_BEFORE_PLAYLIST_ENTRY_ID = "before_playlist_entry_id";
     private static final String JSON_KEY_META_SNAPSHOT = "meta_snapshot";
+    private static final String JSON_KEY_PLAYLIST_ENTRY_ID = "playlist_entry_id";
 
-    private final EntryID playlistID;
-    private final EntryID entryID;
-    private final String beforePlaylistEntryID;
-    private final Meta metaSnapshot;
+    final EntryID playlistID;
+    final EntryID entryID;
+    final String beforePlaylistEntryID;
+    final Meta metaSnapshot;
+    // The playlist entry ID used when applied locally. Null for older transactions.
+    final String playlistEntryID;
 
     public TransactionPlaylistEntryAdd(long id,
                                        String src,
@@ -46,6 +51,9 @@ public class TransactionPlaylistEntryAdd extends Transaction {
                 ? args.getString(JSON_KEY_BEFORE_PLAYLIST_ENTRY_ID)
                 : null;
         metaSnapshot = Meta.from(args.getJSONObject(JSON_KEY_META_SNAPSHOT));
+        playlistEntryID = args.has(JSON_KEY_PLAYLIST_ENTRY_ID)
+                ? args.getString(JSON_KEY_PLAYLIST_ENTRY_ID)
+                : null;
     }
 
     public TransactionPlaylistEntryAdd(long id,
@@ -56,13 +64,15 @@ public class TransactionPlaylistEntryAdd extends Transaction {
                                        EntryID playlistID,
                                        EntryID entryID,
                                        String beforePlaylistEntryID,
-                                       Meta metaSnapshot
+                                       Meta metaSnapshot,
+                                       String playlistEntryID
     ) {
         super(id, src, date, errorCount, errorMessage, GROUP, ACTION);
         this.playlistID = playlistID;
         this.entryID = entryID;
         this.beforePlaylistEntryID = beforePlaylistEntryID;
         this.metaSnapshot = metaSnapshot;
+        this.playlistEntryID = playlistEntryID;
     }
 
     @Override
@@ -85,6 +95,7 @@ public class TransactionPlaylistEntryAdd extends Transaction {
             args.put(JSON_KEY_ENTRY_ID, entryIDJSON);
             args.put(JSON_KEY_BEFORE_PLAYLIST_ENTRY_ID, beforePlaylistEntryID);
             args.put(JSON_KEY_META_SNAPSHOT, metaSnapshotJSON);
+            args.put(JSON_KEY_PLAYLIST_ENTRY_ID, playlistEntryID);
         } catch (JSONException e) {
             e.printStackTrace();
             return null;
@@ -130,6 +141,16 @@ public class TransactionPlaylistEntryAdd extends Transaction {
 
     @Override
     public CompletableFuture<Void> applyLocally(Context context) {
+        if (playlistEntryID != null) {
+            return PlaylistStorage.getInstance(context)
+                    .addPlaylistEntries(
+                            playlistID,
+                            Collections.singletonList(
+                                    PlaylistEntry.from(playlistID, playlistEntryID, entryID, 0)
+                            ),
+                            beforePlaylistEntryID
+                    );
+        }
         return PlaylistStorage.getInstance(context)
                 .addToPlaylist(
                         playlistID,
@@ -143,9 +164,15 @@ public class TransactionPlaylistEntryAdd extends Transaction {
         batch.addPlaylistEntry(
                 context,
                 playlistID,
+                playlistEntryID,
                 entryID,
                 beforePlaylistEntryID,
                 metaSnapshot
         );
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addPlaylist(playlistID);
+    }
 }
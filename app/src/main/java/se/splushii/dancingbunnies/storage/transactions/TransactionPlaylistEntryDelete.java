@@ -11,6 +11,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.storage.PlaylistStorage;
 import se.splushii.dancingbunnies.util.Util;
@@ -25,8 +26,8 @@ public class TransactionPlaylistEntryDelete extends Transaction {
     private static final String JSON_KEY_PLAYLIST_ENTRY_ID = "playlist_entry_id";
     private static final String JSON_KEY_ENTRY_ID = "entry_id";
 
-    private final EntryID playlistID;
-    private final String playlistEntryID;
+    final EntryID playlistID;
+    final String playlistEntryID;
     private final EntryID entryID;
 
     public TransactionPlaylistEntryDelete(long id,
@@ -123,4 +124,9 @@ public class TransactionPlaylistEntryDelete extends Transaction {
     public void addToBatch(Context context, APIClient.Batch batch) throws APIClient.BatchException {
         batch.deletePlaylistEntry(context, playlistID, playlistEntryID, entryID);
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addPlaylist(playlistID);
+    }
 }
@@ -11,6 +11,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.storage.PlaylistStorage;
 import se.splushii.dancingbunnies.util.Util;
@@ -26,10 +27,10 @@ public class TransactionPlaylistEntryMove extends Transaction {
     private static final String JSON_KEY_ENTRY_ID = "entry_id";
     private static final String JSON_KEY_BEFORE_PLAYLIST_ENTRY_ID = "before_playlist_entry_id";
 
-    private final EntryID playlistID;
-    private final String playlistEntryID;
+    final EntryID playlistID;
+    final String playlistEntryID;
     private final EntryID entryID;
-    private final String beforePlaylistEntryID;
+    final String beforePlaylistEntryID;
 
     public TransactionPlaylistEntryMove(long id,
                                         String src,
@@ -149,4 +150,9 @@ public class TransactionPlaylistEntryMove extends Transaction {
                 beforePlaylistEntryID
         );
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addPlaylist(playlistID);
+    }
 }
@@ -10,6 +10,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.Meta;
 import se.splushii.dancingbunnies.storage.MetaStorage;
@@ -25,7 +26,7 @@ public class TransactionPlaylistMetaAdd extends Transaction {
     private static final String JSON_KEY_KEY = "key";
     private static final String JSON_KEY_VALUE = "value";
 
-    private final EntryID playlistID;
+    final EntryID playlistID;
     private final String key;
     private final String value;
 
@@ -117,4 +118,9 @@ public class TransactionPlaylistMetaAdd extends Transaction {
     public void addToBatch(Context context, APIClient.Batch batch) throws APIClient.BatchException {
         batch.addPlaylistMeta(context, playlistID, key, value);
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {
+        scope.addPlaylist(playlistID);
+    }
 }
@@ -9,6 +9,7 @@ import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
 
 import se.splushii.dancingbunnies.backend.APIClient;
+import se.splushii.dancingbunnies.jobs.SyncScope;
 import se.splushii.dancingbunnies.util.Util;
 
 public class TransactionUnknown extends Transaction {
@@ -66,4 +67,7 @@ public class TransactionUnknown extends Transaction {
     public void addToBatch(Context context, APIClient.Batch batch) throws APIClient.BatchException {
         throw new APIClient.BatchException("Unknown transaction");
     }
+
+    @Override
+    public void addToSyncScope(SyncScope scope) {}
 }
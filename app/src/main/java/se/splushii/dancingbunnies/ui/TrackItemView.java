@@ -10,7 +10,6 @@ import android.widget.ImageView;
 import android.widget.LinearLayout;
 import android.widget.TextView;
 
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
 
@@ -115,17 +114,13 @@ public class TrackItemView extends LinearLayout {
         isStatic = false;
     }
 
-    private void setFetchState(HashMap<EntryID, AudioStorage.AudioDataFetchState> fetchStateMap,
-                              EntryID currentEntryID) {
-        if (fetchStateMap != null && fetchStateMap.containsKey(currentEntryID)) {
-            AudioStorage.AudioDataFetchState fetchstate = fetchStateMap.get(currentEntryID);
-            if (fetchstate == null) {
-                return;
-            }
-            Meta meta = getMeta();
-            cacheStatus = fetchstate.getStatusMsg(meta == null ? "?" : meta.getFormattedFileSize());
-            setCacheStatus();
+    private void setFetchState(AudioStorage.AudioDataFetchState fetchstate) {
+        if (fetchstate == null) {
+            return;
         }
+        Meta meta = getMeta();
+        cacheStatus = fetchstate.getStatusMsg(meta == null ? "?" : meta.getFormattedFileSize());
+        setCacheStatus();
     }
 
     private void setCacheStatus() {
@@ -389,19 +384,15 @@ public class TrackItemView extends LinearLayout {
         );
     }
 
-    public void observeFetchStateLiveData(
-            LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData,
-            LifecycleOwner lifecycleOwner
-    ) {
-        fetchStateLiveData.observe(
-                lifecycleOwner,
-                fetchState -> setFetchState(fetchState, entryIDLiveData.getValue())
-        );
-        entryIDLiveData.observe(
-                lifecycleOwner,
-                e -> setFetchState(fetchStateLiveData.getValue(), e)
-        );
-        setFetchState(fetchStateLiveData.getValue(), entryIDLiveData.getValue());
+    public void observeFetchState(Context context, LifecycleOwner lifecycleOwner) {
+        LiveData<AudioStorage.AudioDataFetchState> fetchStateLiveData =
+                Transformations.switchMap(entryIDLiveData, entryID -> {
+                    if (entryID == null) {
+                        return new MutableLiveData<>(null);
+                    }
+                    return AudioStorage.getInstance(context).getFetchState(entryID);
+                });
+        fetchStateLiveData.observe(lifecycleOwner, this::setFetchState);
     }
 
     private void setMeta(Meta meta) {
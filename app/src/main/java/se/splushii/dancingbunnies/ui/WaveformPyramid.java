@@ -0,0 +1,114 @@
+package se.splushii.dancingbunnies.ui;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Multi-resolution waveform. Level 0 holds the stored buckets. Each following level merges
+// LEVEL_FACTOR buckets of the previous level, until a level has fewer than
+// LEVEL_FACTOR * MIN_LEVEL_SIZE buckets (e.g. 8192, 2048, 512, 128).
+// Peaks are merged by max and RMS values by the root mean square of the covered buckets.
+public class WaveformPyramid {
+    static final int LEVEL_FACTOR = 4;
+    static final int MIN_LEVEL_SIZE = 128;
+
+    private final List<Level> levels;
+
+    public static class Level {
+        public final float[] rmsPositive;
+        public final float[] rmsNegative;
+        public final float[] peakPositive;
+        public final float[] peakNegative;
+
+        private Level(int size) {
+            rmsPositive = new float[size];
+            rmsNegative = new float[size];
+            peakPositive = new float[size];
+            peakNegative = new float[size];
+        }
+
+        public int size() {
+            return rmsPositive.length;
+        }
+    }
+
+    private WaveformPyramid(List<Level> levels) {
+        this.levels = levels;
+    }
+
+    public static WaveformPyramid from(double[] rmsPositive,
+                                       double[] rmsNegative,
+                                       double[] peakPositive,
+                                       double[] peakNegative) {
+        int size = Math.min(
+                Math.min(rmsPositive.length, rmsNegative.length),
+                Math.min(peakPositive.length, peakNegative.length)
+        );
+        Level base = new Level(size);
+        for (int i = 0; i < size; i++) {
+            base.rmsPositive[i] = (float) rmsPositive[i];
+            base.rmsNegative[i] = (float) rmsNegative[i];
+            base.peakPositive[i] = (float) peakPositive[i];
+            base.peakNegative[i] = (float) peakNegative[i];
+        }
+        List<Level> levels = new ArrayList<>();
+        levels.add(base);
+        // Number of base buckets covered by a full bucket of the current level
+        int span = 1;
+        Level level = base;
+        while (level.size() >= LEVEL_FACTOR * MIN_LEVEL_SIZE) {
+            level = merge(level, span, size);
+            span *= LEVEL_FACTOR;
+            levels.add(level);
+        }
+        return new WaveformPyramid(levels);
+    }
+
+    private static Level merge(Level level, int span, int baseSize) {
+        int size = (level.size() + LEVEL_FACTOR - 1) / LEVEL_FACTOR;
+        Level merged = new Level(size);
+        for (int i = 0; i < size; i++) {
+            int start = i * LEVEL_FACTOR;
+            int end = Math.min(level.size(), start + LEVEL_FACTOR);
+            float peakPositive = 0;
+            float peakNegative = 0;
+            double sumSquaresPositive = 0;
+            double sumSquaresNegative = 0;
+            for (int j = start; j < end; j++) {
+                peakPositive = Math.max(peakPositive, level.peakPositive[j]);
+                peakNegative = Math.max(peakNegative, level.peakNegative[j]);
+                // The last bucket may cover fewer base buckets
+                int weight = Math.min(span, baseSize - j * span);
+                sumSquaresPositive += weight * (double) level.rmsPositive[j] * level.rmsPositive[j];
+                sumSquaresNegative += weight * (double) level.rmsNegative[j] * level.rmsNegative[j];
+            }
+            int mergedSpan = Math.min(span * LEVEL_FACTOR, baseSize - start * span);
+            merged.peakPositive[i] = peakPositive;
+            merged.peakNegative[i] = peakNegative;
+            merged.rmsPositive[i] = (float) Math.sqrt(sumSquaresPositive / mergedSpan);
+            merged.rmsNegative[i] = (float) Math.sqrt(sumSquaresNegative / mergedSpan);
+        }
+        return merged;
+    }
+
+    public int getNumLevels() {
+        return levels.size();
+    }
+
+    public Level getLevel(int level) {
+        return levels.get(level);
+    }
+
+    // Returns the coarsest level with at least numFrames buckets, or level 0 if there is none
+    public Level getLevelFor(int numFrames) {
+        for (int i = levels.size() - 1; i > 0; i--) {
+            if (levels.get(i).size() >= numFrames) {
+                return levels.get(i);
+            }
+        }
+        return levels.get(0);
+    }
+
+    public boolean isEmpty() {
+        return levels.get(0).size() <= 0;
+    }
+}
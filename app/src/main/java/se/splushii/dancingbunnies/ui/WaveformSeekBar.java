@@ -17,10 +17,7 @@ public class WaveformSeekBar extends androidx.appcompat.widget.AppCompatSeekBar
     private RectF frame;
     private Paint framePaint;
 
-    private double[] samples;
-    private double[] samplesNegative;
-    private double[] peakSamples;
-    private double[] peakNegativeSamples;
+    private WaveformPyramid waveform;
 
     private int numFrames;
     private float[] frameHeightTop;
@@ -51,7 +48,7 @@ public class WaveformSeekBar extends androidx.appcompat.widget.AppCompatSeekBar
 
     @Override
     protected void onDraw(Canvas canvas) {
-        if (samples.length <= 0) {
+        if (numFrames <= 0) {
             super.onDraw(canvas);
             return;
         }
@@ -114,6 +111,12 @@ public class WaveformSeekBar extends androidx.appcompat.widget.AppCompatSeekBar
         }
     }
 
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        calculateFrames();
+    }
+
     private void onSetProgress(int progress) {
         invalidate();
     }
@@ -131,20 +134,12 @@ public class WaveformSeekBar extends androidx.appcompat.widget.AppCompatSeekBar
     }
 
     public void resetData() {
-        samples = new double[0];
-        samplesNegative = new double[0];
-        peakSamples = new double[0];
-        peakNegativeSamples = new double[0];
-    }
-
-    public void setData(double[] samples,
-                        double[] samplesNegative,
-                        double[] peakSamples,
-                        double[] peakNegativeSamples) {
-        this.samples = samples;
-        this.samplesNegative = samplesNegative;
-        this.peakSamples = peakSamples;
-        this.peakNegativeSamples = peakNegativeSamples;
+        waveform = null;
+        numFrames = 0;
+    }
+
+    public void setData(WaveformPyramid waveform) {
+        this.waveform = waveform;
         calculateFrames();
         invalidate();
     }
@@ -153,16 +148,24 @@ public class WaveformSeekBar extends androidx.appcompat.widget.AppCompatSeekBar
         int usableWidth = getWidth() - getPaddingStart() - getPaddingEnd();
         int usableHeight = getHeight() - getPaddingTop() - getPaddingBottom();
         float maxWaveHeight = (float) usableHeight / 2;
+        if (waveform == null || waveform.isEmpty() || usableWidth < FRAME_WIDTH) {
+            numFrames = 0;
+            return;
+        }
         numFrames = usableWidth / FRAME_WIDTH;
-        frameHeightTop = new float[numFrames];
-        frameHeightBottom = new float[numFrames];
-        frameHeightPeakTop = new float[numFrames];
-        frameHeightPeakBottom = new float[numFrames];
-
-        float rmsPosMax = calculateWeights(samples, frameHeightTop);
-        float rmsNegMax = calculateWeights(samplesNegative, frameHeightBottom);
-        float peakPosMax = calculateWeights(peakSamples, frameHeightPeakTop);
-        float peakNegMax = calculateWeights(peakNegativeSamples, frameHeightPeakBottom);
+        if (frameHeightTop == null || frameHeightTop.length != numFrames) {
+            frameHeightTop = new float[numFrames];
+            frameHeightBottom = new float[numFrames];
+            frameHeightPeakTop = new float[numFrames];
+            frameHeightPeakBottom = new float[numFrames];
+        }
+
+        // Resample from the coarsest level with at least one bucket per frame
+        WaveformPyramid.Level level = waveform.getLevelFor(numFrames);
+        float rmsPosMax = calculateWeights(level.rmsPositive, frameHeightTop, false);
+        float rmsNegMax = calculateWeights(level.rmsNegative, frameHeightBottom, false);
+        float peakPosMax = calculateWeights(level.peakPositive, frameHeightPeakTop, true);
+        float peakNegMax = calculateWeights(level.peakNegative, frameHeightPeakBottom, true);
         float maxWeight = Math.max(Math.max(rmsPosMax, rmsNegMax), Math.max(peakPosMax, peakNegMax));
         calculateFrames(frameHeightTop, maxWeight, maxWaveHeight, true);
         calculateFrames(frameHeightBottom, maxWeight, maxWaveHeight, false);
@@ -170,42 +173,40 @@ public class WaveformSeekBar extends androidx.appcompat.widget.AppCompatSeekBar
         calculateFrames(frameHeightPeakBottom, maxWeight, maxWaveHeight, false);
     }
 
-    private float calculateWeights(double[] samples, float[] frames) {
-        int lastFrame = 0;
-        int currentFrame = 0;
-        float sum = 0;
-        int count = 0;
+    private float calculateWeights(float[] samples, float[] frames, boolean peak) {
         float weightMax = 0;
-        // Downsample samples to frames.length and calculate weights
-        for (int i = 0; i < samples.length; i++) {
-            currentFrame = frames.length * i / samples.length;
-            if (currentFrame > lastFrame) {
-                float weight = sum / count;
-                if (weight > weightMax) {
-                    weightMax = weight;
+        // Resample samples to frames.length and calculate weights
+        for (int frame = 0; frame < frames.length; frame++) {
+            int start = (int) ((long) frame * samples.length / frames.length);
+            int end = Math.max(
+                    start + 1,
+                    (int) ((long) (frame + 1) * samples.length / frames.length)
+            );
+            float weight = 0;
+            if (peak) {
+                for (int i = start; i < end; i++) {
+                    weight = Math.max(weight, samples[i]);
                 }
-                frames[lastFrame] = weight;
-                sum = 0;
-                count = 0;
+            } else {
+                double sumSquares = 0;
+                for (int i = start; i < end; i++) {
+                    sumSquares += (double) samples[i] * samples[i];
+                }
+                weight = (float) Math.sqrt(sumSquares / (end - start));
             }
-            sum += samples[i];
-            count++;
-            lastFrame = currentFrame;
-        }
-        if (count > 0) {
-            float weight = sum / count;
             if (weight > weightMax) {
                 weightMax = weight;
             }
-            frames[currentFrame] = weight;
+            frames[frame] = weight;
         }
         return weightMax;
     }
+
     private void calculateFrames(float[] weights, float maxWeight, float maxWaveHeight, boolean positive) {
         // Calculate frames and apply weights
         for (int i = 0; i < weights.length; i++) {
             float weight = weights[i];
-            float waveHeight = maxWaveHeight * weight / maxWeight;
+            float waveHeight = maxWeight > 0 ? maxWaveHeight * weight / maxWeight : 0;
             weights[i] = getPaddingTop() + maxWaveHeight
                     + (positive ? 1 : -1) * waveHeight;
         }
@@ -6,7 +6,6 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
@@ -36,12 +35,10 @@ public class DownloadsDialogAdapter extends
     private final DownloadsDialogFragment fragment;
     private TrackItemActionsView selectedActionView;
     private LiveData<HashSet<EntryID>> cachedEntriesLiveData;
-    private LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData;
 
     DownloadsDialogAdapter(DownloadsDialogFragment fragment) {
         this.fragment = fragment;
         cachedEntriesLiveData = MusicLibraryService.getCachedEntries(fragment.getContext());
-        fetchStateLiveData = AudioStorage.getInstance(fragment.getContext()).getFetchState();
         setHasStableIds(true);
     }
 
@@ -55,7 +52,7 @@ public class DownloadsDialogAdapter extends
         holder.itemContent.initMetaObserver(fragment.requireContext());
         holder.itemContent.observeMeta(fragment.getViewLifecycleOwner());
         holder.itemContent.observeCachedLiveData(cachedEntriesLiveData, fragment.getViewLifecycleOwner());
-        holder.itemContent.observeFetchStateLiveData(fetchStateLiveData, fragment.getViewLifecycleOwner());
+        holder.itemContent.observeFetchState(fragment.requireContext(), fragment.getViewLifecycleOwner());
         holder.actionsView.setAudioBrowser(AudioBrowser.getInstance(fragment.getActivity()));
         holder.actionsView.setFragmentManager(fragment.requireActivity().getSupportFragmentManager());
         holder.actionsView.setEntryIDSupplier(holder.itemContent::getEntryID);
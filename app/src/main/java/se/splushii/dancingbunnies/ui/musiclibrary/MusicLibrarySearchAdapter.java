@@ -6,7 +6,6 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -20,7 +19,6 @@ import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
 import se.splushii.dancingbunnies.musiclibrary.QueryEntry;
-import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.ui.ActionModeCallback;
 import se.splushii.dancingbunnies.ui.TrackItemActionsView;
 import se.splushii.dancingbunnies.ui.TrackItemView;
@@ -42,7 +40,6 @@ public class MusicLibrarySearchAdapter extends
     private TrackItemActionsView selectedActionView;
     private boolean initialScrolled;
     private LiveData<HashSet<EntryID>> cachedEntriesLiveData;
-    private LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData;
     private LiveData<PlaybackEntry> currentEntryLiveData;
 
     MusicLibrarySearchAdapter(MusicLibraryFragment fragment) {
@@ -57,7 +54,6 @@ public class MusicLibrarySearchAdapter extends
     void setModel(MusicLibraryFragmentModel model) {
         initialScrolled = false;
         cachedEntriesLiveData = MusicLibraryService.getCachedEntries(fragment.getContext());
-        fetchStateLiveData = AudioStorage.getInstance(fragment.getContext()).getFetchState();
         model.getQueryEntries().observe(fragment.getViewLifecycleOwner(), dataset -> {
             MusicLibraryUserState state = model.getUserState().getValue();
             if (state.query.isSearchQuery()) {
@@ -201,8 +197,8 @@ public class MusicLibrarySearchAdapter extends
                 cachedEntriesLiveData,
                 fragment.getViewLifecycleOwner()
         );
-        holder.itemContent.observeFetchStateLiveData(
-                fetchStateLiveData,
+        holder.itemContent.observeFetchState(
+                fragment.requireContext(),
                 fragment.getViewLifecycleOwner()
         );
         holder.actionsView.setAudioBrowser(fragment.getRemote());
@@ -7,7 +7,6 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -19,7 +18,6 @@ import se.splushii.dancingbunnies.R;
 import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
-import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.ui.ActionModeCallback;
 import se.splushii.dancingbunnies.ui.TrackItemActionsView;
 import se.splushii.dancingbunnies.ui.TrackItemView;
@@ -55,7 +53,6 @@ public class NowPlayingEntriesAdapter extends
 
     private TrackItemActionsView selectedActionView;
     private LiveData<HashSet<EntryID>> cachedEntriesLiveData;
-    private LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData;
     private LiveData<NowPlayingState> nowPlayingStateLiveData;
 
     NowPlayingEntriesAdapter(NowPlayingFragment fragment) {
@@ -65,7 +62,6 @@ public class NowPlayingEntriesAdapter extends
 
     void setModel(NowPlayingFragmentModel model) {
         cachedEntriesLiveData = MusicLibraryService.getCachedEntries(fragment.getContext());
-        fetchStateLiveData = AudioStorage.getInstance(fragment.getContext()).getFetchState();
         nowPlayingStateLiveData = model.getState();
     }
 
@@ -246,7 +242,7 @@ public class NowPlayingEntriesAdapter extends
         holder.itemContent.initMetaObserver(fragment.requireContext());
         holder.itemContent.observeMeta(fragment.getViewLifecycleOwner());
         holder.itemContent.observeCachedLiveData(cachedEntriesLiveData, fragment.getViewLifecycleOwner());
-        holder.itemContent.observeFetchStateLiveData(fetchStateLiveData, fragment.getViewLifecycleOwner());
+        holder.itemContent.observeFetchState(fragment.requireContext(), fragment.getViewLifecycleOwner());
         holder.itemContent.setDragHandleListener(() -> startDrag(holder));
         holder.actionsView.setAudioBrowser(fragment.getRemote());
         holder.actionsView.setFragmentManager(fragment.requireActivity().getSupportFragmentManager());
@@ -37,6 +37,7 @@ import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 import androidx.lifecycle.LiveData;
 import androidx.lifecycle.MutableLiveData;
+import androidx.lifecycle.Transformations;
 import androidx.lifecycle.ViewModelProvider;
 import androidx.mediarouter.app.MediaRouteButton;
 import androidx.mediarouter.media.MediaControlIntent;
@@ -60,6 +61,7 @@ import se.splushii.dancingbunnies.storage.transactions.Transaction;
 import se.splushii.dancingbunnies.ui.ActionModeCallback;
 import se.splushii.dancingbunnies.ui.FastScroller;
 import se.splushii.dancingbunnies.ui.MenuActions;
+import se.splushii.dancingbunnies.ui.WaveformPyramid;
 import se.splushii.dancingbunnies.ui.WaveformSeekBar;
 import se.splushii.dancingbunnies.ui.selection.RecyclerViewActionModeSelectionTracker;
 import se.splushii.dancingbunnies.util.Util;
@@ -207,12 +209,12 @@ public class NowPlayingFragment extends Fragment implements AudioBrowserCallback
                     if (waveformEntry == null) {
                         waveformSeekBar.resetData();
                     } else {
-                        waveformSeekBar.setData(
+                        waveformSeekBar.setData(WaveformPyramid.from(
                                 waveformEntry.getRMSPositive(),
                                 waveformEntry.getRMSNegative(),
                                 waveformEntry.getPeakPositive(),
                                 waveformEntry.getPeakNegative()
-                        );
+                        ));
                     }
                 }
         );
@@ -496,11 +498,16 @@ public class NowPlayingFragment extends Fragment implements AudioBrowserCallback
         );
 
         model = new ViewModelProvider(requireActivity()).get(NowPlayingFragmentModel.class);
-        AudioStorage.getInstance(requireContext()).getFetchState().observe(getViewLifecycleOwner(), audioDataFetchStates -> {
+        LiveData<AudioStorage.AudioDataFetchState> fetchStateLiveData =
+                Transformations.switchMap(entryIDLiveData, entryID -> {
+                    if (entryID == null) {
+                        return new MutableLiveData<>(null);
+                    }
+                    return AudioStorage.getInstance(requireContext()).getFetchState(entryID);
+                });
+        fetchStateLiveData.observe(getViewLifecycleOwner(), state -> {
             boolean showSize = false;
             Meta meta = metaLiveData.getValue();
-            EntryID entryID = meta == null ? null : meta.entryID;
-            AudioStorage.AudioDataFetchState state = audioDataFetchStates.get(entryID);
             String formattedFileSize = meta == null ? null : meta.getFormattedFileSize();
             if (state != null) {
                 sizeText.setText(state.getStatusMsg(formattedFileSize));
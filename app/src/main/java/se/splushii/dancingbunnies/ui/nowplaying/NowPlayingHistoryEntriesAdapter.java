@@ -6,7 +6,6 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
@@ -17,7 +16,6 @@ import se.splushii.dancingbunnies.R;
 import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
-import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.storage.PlaybackControllerStorage;
 import se.splushii.dancingbunnies.ui.ActionModeCallback;
 import se.splushii.dancingbunnies.ui.TrackItemActionsView;
@@ -43,13 +41,11 @@ public class NowPlayingHistoryEntriesAdapter extends
 
     private TrackItemActionsView selectedActionView;
     private LiveData<HashSet<EntryID>> cachedEntriesLiveData;
-    private LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData;
 
     NowPlayingHistoryEntriesAdapter(NowPlayingFragment fragment) {
         this.fragment = fragment;
         setHasStableIds(true);
         cachedEntriesLiveData = MusicLibraryService.getCachedEntries(fragment.requireContext());
-        fetchStateLiveData = AudioStorage.getInstance(fragment.requireContext()).getFetchState();
         PlaybackControllerStorage.getInstance(fragment.requireContext())
                 .getHistoryEntries()
                 .observe(fragment.getViewLifecycleOwner(), this::setHistoryEntries);
@@ -176,7 +172,7 @@ public class NowPlayingHistoryEntriesAdapter extends
         holder.itemContent.initMetaObserver(fragment.requireContext());
         holder.itemContent.observeMeta(fragment.getViewLifecycleOwner());
         holder.itemContent.observeCachedLiveData(cachedEntriesLiveData, fragment.getViewLifecycleOwner());
-        holder.itemContent.observeFetchStateLiveData(fetchStateLiveData, fragment.getViewLifecycleOwner());
+        holder.itemContent.observeFetchState(fragment.requireContext(), fragment.getViewLifecycleOwner());
         holder.actionsView.setAudioBrowser(fragment.getRemote());
         holder.actionsView.setFragmentManager(fragment.requireActivity().getSupportFragmentManager());
         holder.actionsView.setEntryIDSupplier(() -> holder.playbackEntry.entryID);
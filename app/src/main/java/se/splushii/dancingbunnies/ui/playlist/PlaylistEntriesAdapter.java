@@ -7,7 +7,6 @@ import android.view.ViewGroup;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -22,7 +21,6 @@ import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
 import se.splushii.dancingbunnies.backend.APIClient;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
-import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.storage.TransactionStorage;
 import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
 import se.splushii.dancingbunnies.ui.ActionModeCallback;
@@ -58,7 +56,6 @@ public class PlaylistEntriesAdapter extends
     private EntryID playlistID;
     private TrackItemActionsView selectedActionView;
     private LiveData<HashSet<EntryID>> cachedEntriesLiveData;
-    private LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData;
     private LiveData<Long> currentPlaylistPosLiveData;
     private LiveData<EntryID> currentPlaylistIDLiveData;
     private LiveData<Boolean> currentPlaylistIDIsSmartLiveData;
@@ -260,7 +257,7 @@ public class PlaylistEntriesAdapter extends
         holder.itemContent.initMetaObserver(fragment.requireContext());
         holder.itemContent.observeMeta(fragment.getViewLifecycleOwner());
         holder.itemContent.observeCachedLiveData(cachedEntriesLiveData, fragment.getViewLifecycleOwner());
-        holder.itemContent.observeFetchStateLiveData(fetchStateLiveData, fragment.getViewLifecycleOwner());
+        holder.itemContent.observeFetchState(fragment.requireContext(), fragment.getViewLifecycleOwner());
         holder.actionsView.setAudioBrowser(fragment.getRemote());
         holder.actionsView.setFragmentManager(fragment.requireActivity().getSupportFragmentManager());
         holder.actionsView.setEntryIDSupplier(() -> holder.playlistEntry.entryID());
@@ -323,7 +320,6 @@ public class PlaylistEntriesAdapter extends
             updateScrollPos(userState, entries);
         });
         cachedEntriesLiveData = MusicLibraryService.getCachedEntries(fragment.getContext());
-        fetchStateLiveData = AudioStorage.getInstance(fragment.getContext()).getFetchState();
         currentPlaylistPosLiveData = model.getCurrentPlaylistPos();
         currentPlaylistIDLiveData = model.getCurrentPlaylistID();
         currentEntryLiveData = model.getCurrentEntry();
@@ -6,7 +6,6 @@ import android.view.ViewGroup;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 
 import androidx.annotation.NonNull;
@@ -19,7 +18,6 @@ import se.splushii.dancingbunnies.audioplayer.PlaybackEntry;
 import se.splushii.dancingbunnies.backend.APIClient;
 import se.splushii.dancingbunnies.musiclibrary.EntryID;
 import se.splushii.dancingbunnies.musiclibrary.MusicLibraryService;
-import se.splushii.dancingbunnies.storage.AudioStorage;
 import se.splushii.dancingbunnies.storage.PlaybackControllerStorage;
 import se.splushii.dancingbunnies.ui.ActionModeCallback;
 import se.splushii.dancingbunnies.ui.TrackItemActionsView;
@@ -48,7 +46,6 @@ public class PlaylistPlaybackEntriesAdapter extends
 
     private TrackItemActionsView selectedActionView;
     private LiveData<HashSet<EntryID>> cachedEntriesLiveData;
-    private LiveData<HashMap<EntryID, AudioStorage.AudioDataFetchState>> fetchStateLiveData;
     private LiveData<Long> currentPlaylistPosLiveData;
     private MutableLiveData<EntryID> browsedPlaylistIDLiveData;
     private LiveData<EntryID> currentPlaylistIDLiveData;
@@ -63,7 +60,6 @@ public class PlaylistPlaybackEntriesAdapter extends
 
     void setModel(PlaylistFragmentModel model) {
         cachedEntriesLiveData = MusicLibraryService.getCachedEntries(fragment.getContext());
-        fetchStateLiveData = AudioStorage.getInstance(fragment.getContext()).getFetchState();
         currentPlaylistPosLiveData = model.getCurrentPlaylistPos();
         currentPlaylistIDLiveData = model.getCurrentPlaylistID();
         currentEntryLiveData = model.getCurrentEntry();
@@ -327,7 +323,7 @@ public class PlaylistPlaybackEntriesAdapter extends
         holder.itemContent.initMetaObserver(fragment.requireContext());
         holder.itemContent.observeMeta(fragment.getViewLifecycleOwner());
         holder.itemContent.observeCachedLiveData(cachedEntriesLiveData, fragment.getViewLifecycleOwner());
-        holder.itemContent.observeFetchStateLiveData(fetchStateLiveData, fragment.getViewLifecycleOwner());
+        holder.itemContent.observeFetchState(fragment.requireContext(), fragment.getViewLifecycleOwner());
         holder.actionsView.setAudioBrowser(fragment.getRemote());
         holder.actionsView.setFragmentManager(fragment.requireActivity().getSupportFragmentManager());
         holder.actionsView.setEntryIDSupplier(() -> holder.playbackEntry.entryID);
@@ -0,0 +1,55 @@
+package se.splushii.dancingbunnies.ui.selection;
+
+import java.util.HashMap;
+import java.util.List;
+
+// Index from key to the position of its first occurrence in a list.
+// Changing the list invalidates the index from the first changed position. The index is then
+// rebuilt lazily, only as far as lookups need it.
+class KeyPositionIndex<ID> {
+    private final List<ID> list;
+    private final HashMap<ID, Integer> positions = new HashMap<>();
+    // Entries for positions below this are valid
+    private int validSize = 0;
+
+    KeyPositionIndex(List<ID> list) {
+        this.list = list;
+    }
+
+    void invalidateFrom(int pos) {
+        validSize = Math.min(validSize, pos);
+    }
+
+    void clear() {
+        positions.clear();
+        validSize = 0;
+    }
+
+    // Returns the position of key, or -1 if not found
+    int indexOf(ID key) {
+        if (isValid(key, positions.get(key))) {
+            return positions.get(key);
+        }
+        if (validSize == 0 && positions.size() > 2 * list.size()) {
+            // Drop keys of removed items
+            positions.clear();
+        }
+        while (validSize < list.size()) {
+            int pos = validSize++;
+            ID item = list.get(pos);
+            Integer earlierPos = positions.get(item);
+            if (earlierPos != null && earlierPos < pos && isValid(item, earlierPos)) {
+                continue;
+            }
+            positions.put(item, pos);
+            if (item.equals(key)) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    private boolean isValid(ID key, Integer pos) {
+        return pos != null && pos < validSize && key.equals(list.get(pos));
+    }
+}
@@ -1,14 +1,22 @@
 package se.splushii.dancingbunnies.ui.selection;
 
+import android.util.Log;
+
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.core.util.Consumer;
+import androidx.core.util.Pair;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 import se.splushii.dancingbunnies.util.Diff;
 import se.splushii.dancingbunnies.util.Util;
@@ -17,7 +25,60 @@ public abstract class SmartDiffSelectionRecyclerViewAdapter<ID, ViewHolder exten
         extends SelectionRecyclerViewAdapter<ID, ViewHolder> {
     private static final String LC = Util.getLogContext(SmartDiffSelectionRecyclerViewAdapter.class);
 
-    private List<ID> dataSet = new ArrayList<>();
+    // Lists up to this size are diffed synchronously. Larger lists are diffed in the
+    // background, and the updates are applied in chunks between frames, however many
+    // operations they have (e.g. shuffles).
+    private static final int SYNC_DIFF_MAX_SIZE = 1000;
+    private static final long UPDATE_CHUNK_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(4);
+
+    private final List<ID> dataSet = new ArrayList<>();
+    private final KeyPositionIndex<ID> positionIndex = new KeyPositionIndex<>(dataSet);
+    private final Diff.Calculator<ID> diffCalculator =
+            new Diff.Calculator<>(Util.getMainThreadExecutor());
+    // Diffs waiting to be applied, in order. The first one may be partially applied.
+    private final ArrayDeque<DataSetUpdate<ID>> updates = new ArrayDeque<>();
+    private boolean updatesScheduled = false;
+    // Latest requested dataset, while its diff is calculated in the background
+    private List<ID> pendingItems;
+    private BiFunction<ID, ID, Boolean> pendingContentComparator;
+
+    private static class DataSetUpdate<ID> {
+        final Diff diff;
+        final List<ID> items;
+        final BiFunction<ID, ID, Boolean> contentComparator;
+        int nextOp = 0;
+
+        DataSetUpdate(Diff diff, List<ID> items, BiFunction<ID, ID, Boolean> contentComparator) {
+            this.diff = diff;
+            this.items = items;
+            this.contentComparator = contentComparator;
+        }
+    }
+
+    private final ListUpdateCallback dataSetUpdateCallback = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {
+            positionIndex.invalidateFrom(position);
+            notifyItemRangeInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            positionIndex.invalidateFrom(position);
+            notifyItemRangeRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            positionIndex.invalidateFrom(Math.min(fromPosition, toPosition));
+            notifyItemMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            notifyItemRangeChanged(position, count, payload);
+        }
+    };
 
     protected List<ID> getDataSet() {
         return Collections.unmodifiableList(dataSet);
@@ -27,32 +88,163 @@ public abstract class SmartDiffSelectionRecyclerViewAdapter<ID, ViewHolder exten
         setDataSet(items, Objects::equals);
     }
 
+    // Small lists are updated before this returns. When either the current or the new list is
+    // larger than SYNC_DIFF_MAX_SIZE, or earlier updates are still in progress, getDataSet()
+    // changes later, as the diff is applied.
     protected void setDataSet(List<ID> items, BiFunction<ID, ID, Boolean> contentComparator) {
-        if (items.size() > 1000) {
-            // Do fast diff
-            boolean changed = Diff.fastDiff(dataSet, items, contentComparator);
-            if (changed) {
-                dataSet.clear();
-                dataSet.addAll(items);
-                notifyDataSetChanged();
+        boolean busy = !updates.isEmpty() || pendingItems != null;
+        if (!busy && (dataSet.isEmpty() || items.isEmpty())) {
+            if (!dataSet.isEmpty() || !items.isEmpty()) {
+                replaceDataSet(items);
             }
-        } else {
-            // Do thorough diff
-            Diff diff = Diff.diff(dataSet, items, contentComparator);
-            if (diff.changed) {
-                if (hasSelection() && !diff.deleted.isEmpty()) {
-                    removeSelection(
-                            diff.deleted.stream()
-                                    .map(dataSet::get)
-                                    .collect(Collectors.toList())
-                    );
-                }
-                dataSet.clear();
-                dataSet.addAll(items);
-                diff.diffUtilResult.dispatchUpdatesTo(this);
-                diff.moved.forEach(p -> notifyItemChanged(p.second));
-                recalculateSelection();
+            return;
+        }
+        List<ID> currentItems = getTargetDataSet();
+        if (busy || Math.max(currentItems.size(), items.size()) > SYNC_DIFF_MAX_SIZE) {
+            diffInBackground(items, contentComparator);
+            return;
+        }
+        Diff diff = Diff.diff(dataSet, items, contentComparator);
+        if (diff.changed) {
+            updates.add(new DataSetUpdate<>(diff, new ArrayList<>(items), contentComparator));
+            applyUpdates(Long.MAX_VALUE);
+        }
+    }
+
+    // The dataset when all queued updates are applied
+    private List<ID> getTargetDataSet() {
+        return updates.isEmpty() ? dataSet : updates.peekLast().items;
+    }
+
+    private void diffInBackground(List<ID> items, BiFunction<ID, ID, Boolean> contentComparator) {
+        pendingItems = items;
+        pendingContentComparator = contentComparator;
+        List<ID> targetItems = new ArrayList<>(items);
+        diffCalculator.submit(getTargetDataSet(), targetItems, contentComparator)
+                .handle((diff, t) -> {
+                    if (t instanceof CancellationException
+                            || t != null && t.getCause() instanceof CancellationException) {
+                        return null;
+                    }
+                    pendingItems = null;
+                    pendingContentComparator = null;
+                    if (t != null) {
+                        Log.e(LC, "Could not diff dataset: " + t.getMessage());
+                        applyUpdates(Long.MAX_VALUE);
+                        replaceDataSet(targetItems);
+                        return null;
+                    }
+                    if (diff.changed) {
+                        updates.add(new DataSetUpdate<>(diff, targetItems, contentComparator));
+                        scheduleUpdates();
+                    }
+                    return null;
+                });
+    }
+
+    private void scheduleUpdates() {
+        if (updatesScheduled) {
+            return;
+        }
+        updatesScheduled = true;
+        Util.getMainThreadExecutor().execute(() -> {
+            updatesScheduled = false;
+            if (!applyUpdates(UPDATE_CHUNK_BUDGET_NANOS)) {
+                scheduleUpdates();
+            }
+        });
+    }
+
+    // Returns true if all queued updates were applied within budgetNanos
+    private boolean applyUpdates(long budgetNanos) {
+        long startTime = System.nanoTime();
+        while (!updates.isEmpty()) {
+            long budgetLeft = budgetNanos - (System.nanoTime() - startTime);
+            if (budgetLeft <= 0) {
+                return false;
+            }
+            DataSetUpdate<ID> update = updates.peek();
+            Diff diff = update.diff;
+            if (update.nextOp == 0 && hasSelection() && !diff.deleted.isEmpty()) {
+                removeSelection(
+                        diff.deleted.stream()
+                                .map(dataSet::get)
+                                .collect(Collectors.toList())
+                );
+            }
+            update.nextOp = diff.editScript.applyTo(
+                    dataSet,
+                    update.items,
+                    update.nextOp,
+                    budgetLeft,
+                    dataSetUpdateCallback
+            );
+            if (update.nextOp < diff.editScript.getNumOps()) {
+                return false;
             }
+            updates.poll();
+            // Items with equal keys and content may still be other instances
+            for (int i = 0; i < dataSet.size(); i++) {
+                dataSet.set(i, update.items.get(i));
+            }
+            notifyItemRangesChanged(diff.moved);
+            recalculateSelection();
+        }
+        return true;
+    }
+
+    private void notifyItemRangesChanged(List<Pair<Integer, Integer>> moved) {
+        List<Integer> positions = moved.stream()
+                .map(p -> p.second)
+                .sorted()
+                .collect(Collectors.toList());
+        int start = 0;
+        for (int i = 1; i <= positions.size(); i++) {
+            if (i == positions.size() || positions.get(i) != positions.get(i - 1) + 1) {
+                notifyItemRangeChanged(positions.get(start), i - start);
+                start = i;
+            }
+        }
+    }
+
+    private void replaceDataSet(List<ID> items) {
+        diffCalculator.cancel();
+        pendingItems = null;
+        pendingContentComparator = null;
+        int oldSize = dataSet.size();
+        if (hasSelection() && oldSize > 0) {
+            removeSelection(new ArrayList<>(dataSet));
+        }
+        dataSet.clear();
+        dataSet.addAll(items);
+        positionIndex.clear();
+        if (oldSize == 0) {
+            notifyItemRangeInserted(0, items.size());
+        } else if (items.isEmpty()) {
+            notifyItemRangeRemoved(0, oldSize);
+        } else {
+            notifyDataSetChanged();
+        }
+        recalculateSelection();
+    }
+
+    // Local changes (e.g. drag and drop) are made to the dataset as currently shown. Queued
+    // diffs are based on a stale dataset, so drop them and rediff after the change.
+    private void beforeLocalChange() {
+        if (updates.isEmpty()) {
+            return;
+        }
+        if (pendingItems == null) {
+            DataSetUpdate<ID> lastUpdate = updates.peekLast();
+            pendingItems = lastUpdate.items;
+            pendingContentComparator = lastUpdate.contentComparator;
+        }
+        updates.clear();
+    }
+
+    private void afterLocalChange() {
+        if (pendingItems != null) {
+            diffInBackground(pendingItems, pendingContentComparator);
         }
     }
 
@@ -82,17 +274,26 @@ public abstract class SmartDiffSelectionRecyclerViewAdapter<ID, ViewHolder exten
 
     @Override
     protected void moveItemInDataset(int from, int to) {
+        beforeLocalChange();
         dataSet.add(to, dataSet.remove(from));
+        positionIndex.invalidateFrom(Math.min(from, to));
+        afterLocalChange();
     }
 
     @Override
     protected void addItemToDataset(int pos, ID item) {
+        beforeLocalChange();
         dataSet.add(pos, item);
+        positionIndex.invalidateFrom(pos);
+        afterLocalChange();
     }
 
     @Override
     protected void removeItemFromDataset(int pos) {
+        beforeLocalChange();
         dataSet.remove(pos);
+        positionIndex.invalidateFrom(pos);
+        afterLocalChange();
     }
 
     @Override
@@ -105,7 +306,7 @@ public abstract class SmartDiffSelectionRecyclerViewAdapter<ID, ViewHolder exten
 
     @Override
     protected int getPosition(@NonNull ID item) {
-        int index = dataSet.indexOf(item);
+        int index = positionIndex.indexOf(item);
         return index < 0 ? RecyclerView.NO_POSITION : index;
     }
 }
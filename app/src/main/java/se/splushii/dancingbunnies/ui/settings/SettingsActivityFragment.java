@@ -1,6 +1,7 @@
 package se.splushii.dancingbunnies.ui.settings;
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.text.InputType;
@@ -55,6 +56,7 @@ import se.splushii.dancingbunnies.storage.MetaStorage;
 import se.splushii.dancingbunnies.storage.TransactionStorage;
 import se.splushii.dancingbunnies.ui.ConfirmationDialogFragment;
 import se.splushii.dancingbunnies.ui.transactions.TransactionsDialogFragment;
+import se.splushii.dancingbunnies.util.PlayLatencyTracer;
 import se.splushii.dancingbunnies.util.Util;
 
 import static se.splushii.dancingbunnies.musiclibrary.MusicLibraryService.API_SRC_ID_REGEX;
@@ -154,6 +156,10 @@ public class SettingsActivityFragment extends PreferenceFragmentCompat
                 APIClient.SETTINGS_KEY_GIT_BRANCH,
                 sharedPrefs.getString(getBackendConfigPrefKey(context, backendID, R.string.pref_key_backend_config_suffix_git_branch), "")
         );
+        settings.putBoolean(
+                APIClient.SETTINGS_KEY_GIT_SHALLOW,
+                sharedPrefs.getBoolean(getBackendConfigPrefKey(context, backendID, R.string.pref_key_backend_config_suffix_git_shallow), false)
+        );
         return settings;
     }
 
@@ -388,6 +394,16 @@ public class SettingsActivityFragment extends PreferenceFragmentCompat
             );
             return false;
         });
+
+        String playbackLatencyExportKey = getResources().getString(R.string.pref_key_playback_latency_export);
+        findPreference(playbackLatencyExportKey).setOnPreferenceClickListener(preference -> {
+            Intent intent = new Intent(Intent.ACTION_SEND)
+                    .setType("text/plain")
+                    .putExtra(Intent.EXTRA_SUBJECT, getString(R.string.pref_playback_latency_export))
+                    .putExtra(Intent.EXTRA_TEXT, PlayLatencyTracer.getInstance().export());
+            startActivity(Intent.createChooser(intent, getString(R.string.pref_playback_latency_export)));
+            return true;
+        });
     }
 
     @Override
@@ -743,6 +759,8 @@ public class SettingsActivityFragment extends PreferenceFragmentCompat
                     } else if (suffix.startsWith(Util.getString(requireContext(), R.string.pref_key_backend_config_suffix_git_repo))) {
                         enableAuthenticatedPrefs(backendID, false);
                         heartbeatAPI(backendID);
+                    } else if (suffix.equals(Util.getString(requireContext(), R.string.pref_key_backend_config_suffix_git_shallow))) {
+                        // Applied on next sync
                     } else {
                         Log.e(LC, "onSharedPreferenceChanged: Unhandled key(" + configGroup + "): " + key);
                     }
@@ -1177,6 +1195,17 @@ public class SettingsActivityFragment extends PreferenceFragmentCompat
                 "master",
                 null
         );
+        Preference prefShallow = addCheckPref(
+                sp,
+                parentPref,
+                dependencyPrefKey,
+                backendID,
+                R.string.pref_key_backend_config_suffix_git_shallow,
+                R.string.pref_backend_config_git_shallow,
+                true,
+                true
+        );
+        prefShallow.setSummary(R.string.pref_backend_config_git_shallow_summary);
     }
 
     private void setupPrefBase(Preference pref,
@@ -1337,6 +1366,7 @@ public class SettingsActivityFragment extends PreferenceFragmentCompat
                 break;
             case R.string.pref_key_backend_config_suffix_git_repo:
             case R.string.pref_key_backend_config_suffix_git_branch:
+            case R.string.pref_key_backend_config_suffix_git_shallow:
                 prefKeyConfigGroup = MusicLibraryService.API_SRC_ID_GIT;
                 break;
             case R.string.pref_key_backend_config_suffix_db_api:
@@ -1513,6 +1543,19 @@ public class SettingsActivityFragment extends PreferenceFragmentCompat
         return value;
     }
 
+    // Number of upcoming tracks the local player prepares for gapless playback
+    public static int getGaplessPrepareDepth(Context context) {
+        String depth = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                Util.getString(context, R.string.pref_key_playback_gapless_depth),
+                "1"
+        );
+        try {
+            return Math.max(1, Integer.parseInt(depth));
+        } catch (NumberFormatException e) {
+            return 1;
+        }
+    }
+
     private static boolean isSourceEnabled(Context context, String src) {
         return isSourceEnabled(
                 context,
@@ -5,61 +5,54 @@ import android.util.Log;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.core.util.Pair;
-import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
 import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
 
 import static se.splushii.dancingbunnies.util.Util.getLogContext;
 
 public class Diff {
     private static final String LC = getLogContext(Diff.class);
 
+    private static final ExecutorService diffExecutor = Executors.newSingleThreadExecutor();
+
     public final boolean changed;
     public final List<Integer> deleted;
     public final List<Integer> added;
     public final List<Pair<Integer, Integer>> moved;
-    public final DiffUtil.DiffResult diffUtilResult;
+    public final EditScript editScript;
     private Diff(List<Integer> deleted,
                  List<Integer> added,
                  List<Pair<Integer, Integer>> moved,
-                 DiffUtil.DiffResult diffUtilResult) {
+                 EditScript editScript) {
         this.deleted = deleted;
         this.added = added;
         this.moved = moved;
-        AtomicBoolean diffUtilChanged = new AtomicBoolean();
-        if (diffUtilResult != null) {
-            diffUtilResult.dispatchUpdatesTo(new ListUpdateCallback() {
-                @Override
-                public void onInserted(int position, int count) {
-                    diffUtilChanged.set(true);
-                }
-
-                @Override
-                public void onRemoved(int position, int count) {
-                    diffUtilChanged.set(true);
-                }
-
-                @Override
-                public void onMoved(int fromPosition, int toPosition) {
-                    diffUtilChanged.set(true);
-                }
+        changed = !(deleted.isEmpty() && added.isEmpty() && moved.isEmpty())
+                || (editScript != null && !editScript.isEmpty());
+        this.editScript = editScript;
+    }
 
-                @Override
-                public void onChanged(int position, int count, @Nullable Object payload) {
-                    diffUtilChanged.set(true);
-                }
-            });
+    public void dispatchUpdatesTo(ListUpdateCallback callback) {
+        if (editScript != null) {
+            editScript.dispatchUpdatesTo(callback);
         }
-        changed = !(deleted.isEmpty() && added.isEmpty() && moved.isEmpty())
-                || diffUtilChanged.get();
-        this.diffUtilResult = diffUtilResult;
+    }
+
+    public void dispatchUpdatesTo(RecyclerView.Adapter adapter) {
+        dispatchUpdatesTo(new AdapterListUpdateCallback(adapter));
     }
 
     @NonNull
@@ -98,9 +91,9 @@ public class Diff {
 
     public static <T> Diff diff(List<T> currentEntries,
                                 List<T> newEntries,
-                                boolean withDiffUtilDiff,
+                                boolean withEditScript,
                                 boolean debug) {
-        return diff(currentEntries, newEntries, Object::equals, withDiffUtilDiff, debug);
+        return diff(currentEntries, newEntries, Object::equals, withEditScript, debug);
     }
 
     public static <T> Diff diff(List<T> currentEntries,
@@ -112,8 +105,17 @@ public class Diff {
     public static <T> Diff diff(List<T> currentEntries,
                                 List<T> newEntries,
                                 BiFunction<T, T, Boolean> contentComparator,
-                                boolean withDiffUtilDiff,
+                                boolean withEditScript,
                                 boolean debug) {
+        return diff(currentEntries, newEntries, contentComparator, withEditScript, debug, null);
+    }
+
+    private static <T> Diff diff(List<T> currentEntries,
+                                 List<T> newEntries,
+                                 BiFunction<T, T, Boolean> contentComparator,
+                                 boolean withEditScript,
+                                 boolean debug,
+                                 BooleanSupplier isCancelled) {
         if (debug) {
             Log.d(LC, "calculateDiff start "
                     + "(old: " + currentEntries.size() + ", new: " + newEntries.size() + ")");
@@ -121,113 +123,81 @@ public class Diff {
         long startTime = System.currentTimeMillis();
 
         // Find deleted/added/moved positions
-        HashMap<T, List<Integer>> oldMap = new HashMap<>();
-        for (int i = 0; i < currentEntries.size(); i++) {
-            T entry = currentEntries.get(i);
-            List<Integer> indices = oldMap.getOrDefault(entry, new ArrayList<>());
-            indices.add(i);
-            oldMap.put(entry, indices);
-        }
-        HashMap<T, List<Integer>> newMap = new HashMap<>();
-        for (int i = 0; i < newEntries.size(); i++) {
-            T entry = newEntries.get(i);
-            List<Integer> indices = newMap.getOrDefault(entry, new ArrayList<>());
-            indices.add(i);
-            newMap.put(entry, indices);
-        }
-        // Find unchanged, deleted and moved
-        HashSet<Integer> sameSet = new HashSet<>();
+        HashMap<T, List<Integer>> oldMap = getPositions(currentEntries);
+        HashMap<T, List<Integer>> newMap = getPositions(newEntries);
+        int numSame = 0;
         List<Integer> deletedPositions = new ArrayList<>();
         List<Integer> addedPositions = new ArrayList<>();
         List<Pair<Integer, Integer>> movedPositions = new ArrayList<>();
-        for (T entry: oldMap.keySet()) {
-            List<Integer> oldPositions = oldMap.get(entry);
-            List<Integer> newPositions = newMap.getOrDefault(entry, Collections.emptyList());
-            // Find unchanged
-            nextOldPos:
-            for (int oldPosIndex = 0; oldPosIndex < oldPositions.size(); oldPosIndex++) {
-                int oldPos = oldPositions.get(oldPosIndex);
-                for (int newPosIndex = 0; newPosIndex < newPositions.size(); newPosIndex++) {
-                    int newPosition = newPositions.get(newPosIndex);
-                    if (oldPos == newPosition) {
-                        oldPositions.remove(oldPosIndex);
-                        oldPosIndex--;
-                        newPositions.remove(newPosIndex);
-                        sameSet.add(oldPos);
-                        continue nextOldPos;
-                    }
+        for (Map.Entry<T, List<Integer>> oldMapEntry: oldMap.entrySet()) {
+            List<Integer> oldPositions = oldMapEntry.getValue();
+            List<Integer> newPositions = newMap.remove(oldMapEntry.getKey());
+            if (newPositions == null) {
+                newPositions = Collections.emptyList();
+            }
+            // Find unchanged. Both position lists are ascending.
+            List<Integer> oldRest = new ArrayList<>();
+            List<Integer> newRest = new ArrayList<>();
+            int oldIndex = 0;
+            int newIndex = 0;
+            while (oldIndex < oldPositions.size() && newIndex < newPositions.size()) {
+                int oldPos = oldPositions.get(oldIndex);
+                int newPos = newPositions.get(newIndex);
+                if (oldPos == newPos) {
+                    numSame++;
+                    oldIndex++;
+                    newIndex++;
+                } else if (oldPos < newPos) {
+                    oldRest.add(oldPos);
+                    oldIndex++;
+                } else {
+                    newRest.add(newPos);
+                    newIndex++;
                 }
             }
+            oldRest.addAll(oldPositions.subList(oldIndex, oldPositions.size()));
+            newRest.addAll(newPositions.subList(newIndex, newPositions.size()));
             // Find deleted
-            while (oldPositions.size() > newPositions.size()) {
-                int oldPos = oldPositions.remove(oldPositions.size() - 1);
-                deletedPositions.add(oldPos);
-            }
-            // Find moved
-            while (!oldPositions.isEmpty()) {
-                int oldPos = oldPositions.remove(oldPositions.size() - 1);
-                int newPos = newPositions.remove(newPositions.size() - 1);
-                movedPositions.add(new Pair<>(oldPos, newPos));
+            int numKept = Math.min(oldRest.size(), newRest.size());
+            deletedPositions.addAll(oldRest.subList(numKept, oldRest.size()));
+            // Find moved, pairing the last positions
+            int newOffset = newRest.size() - numKept;
+            for (int i = 0; i < numKept; i++) {
+                movedPositions.add(new Pair<>(oldRest.get(i), newRest.get(newOffset + i)));
             }
+            // Find added
+            addedPositions.addAll(newRest.subList(0, newOffset));
         }
-        // Find added
-        for (T entry: newMap.keySet()) {
-            List<Integer> newPositions = newMap.getOrDefault(entry, Collections.emptyList());
+        for (List<Integer> newPositions: newMap.values()) {
             addedPositions.addAll(newPositions);
         }
         Collections.sort(deletedPositions);
         Collections.sort(addedPositions);
 
-
-        HashSet<Integer> deletedSet = new HashSet<>(deletedPositions);
-        HashMap<Integer, Integer> movedMap = new HashMap<>();
-        for (Pair<Integer, Integer> movedPosition: movedPositions) {
-            movedMap.put(movedPosition.first, movedPosition.second);
-        }
-        HashSet<Integer> addedSet = new HashSet<>(addedPositions);
-
-        // Find updated content
-        List<Integer> updatedPositions = new ArrayList<>();
-        for (int i = 0; i < currentEntries.size(); i++) {
-            T oldEntry = currentEntries.get(i);
-            if (deletedSet.contains(i)) {
-                continue;
-            }
-            if (movedMap.containsKey(i)) {
-                T newEntry = newEntries.get(movedMap.get(i));
-                if (!contentComparator.apply(oldEntry, newEntry)) {
-                    updatedPositions.add(movedMap.get(i));
-                }
-                continue;
-            }
-            // If it's not deleted or moved, it's in the same position
-            if (!sameSet.contains(i)) {
-                Log.e(LC, "SOMETHING BAD WRONG HERE YO");
-            }
-            T newEntry = newEntries.get(i);
-            if (!contentComparator.apply(oldEntry, newEntry)) {
-                updatedPositions.add(i);
-                sameSet.remove(i);
-            }
-        }
+        EditScript editScript = withEditScript ? EditScript.calculate(
+                currentEntries,
+                newEntries,
+                contentComparator,
+                isCancelled
+        ) : null;
 
         long time = System.currentTimeMillis() - startTime;
         if (debug) {
             Log.d(LC, "calculateDiff finish "
                     + "(old: " + currentEntries.size() + ", new: " + newEntries.size() + ")"
                     + "\ntime: " + time + "ms"
-                    + "\nnop: " + sameSet.size()
-                    + "\nupd : " + updatedPositions.size()
+                    + "\nnop: " + numSame
                     + "\ndel : " + deletedPositions.size()
                     + "\nadd : " + addedPositions.size()
                     + "\nmov : " + movedPositions.size()
+                    + (editScript == null ? "" : "\nscript: " + editScript)
             );
         }
-        int numDiffKeptEntries = sameSet.size() + updatedPositions.size() + movedPositions.size();
+        int numDiffKeptEntries = numSame + movedPositions.size();
         int numExpectedKeptEntries = currentEntries.size() - deletedPositions.size();
         if (numDiffKeptEntries != numExpectedKeptEntries) {
             Log.e(LC, "Diff is invalid."
-                    + " Number of ops not affecting count (nop/upd/mov) is wrong."
+                    + " Number of ops not affecting count (nop/mov) is wrong."
                     + " Got " + numDiffKeptEntries + ", but expected " + numExpectedKeptEntries);
         }
 
@@ -238,57 +208,73 @@ public class Diff {
                     + " Number of ops affecting count (add/del) is wrong."
                     + " Got " + numDiffDeltaEntries + ", but expected " + numExpectedDeltaEntries);
         }
-
-        DiffUtil.DiffResult diffResult = withDiffUtilDiff ? diffUtilDiff(
-                currentEntries,
-                newEntries,
-                contentComparator,
-                debug
-        ) : null;
-        return new Diff(deletedPositions, addedPositions, movedPositions, diffResult);
+        return new Diff(deletedPositions, addedPositions, movedPositions, editScript);
     }
 
-    private static <T> DiffUtil.DiffResult diffUtilDiff(List<T> currentEntries,
-                                                        List<T> newEntries,
-                                                        BiFunction<T, T, Boolean> contentComparator,
-                                                        boolean debug) {
-        // Calculate DiffUtil diff
-        if (debug) {
-            Log.d(LC, "calculateDiff DiffUtil start "
-                    + "(old: " + currentEntries.size() + ", new: " + newEntries.size() + ")");
+    private static <T> HashMap<T, List<Integer>> getPositions(List<T> entries) {
+        HashMap<T, List<Integer>> positions = new HashMap<>();
+        for (int i = 0; i < entries.size(); i++) {
+            positions.computeIfAbsent(entries.get(i), k -> new ArrayList<>(1)).add(i);
         }
-        long startTime = System.currentTimeMillis();
-        DiffUtil.DiffResult diffResult = DiffUtil.calculateDiff(new DiffUtil.Callback() {
-            @Override
-            public int getOldListSize() {
-                return currentEntries.size();
-            }
+        return positions;
+    }
 
-            @Override
-            public int getNewListSize() {
-                return newEntries.size();
-            }
+    // Calculates diffs with edit scripts on a background thread.
+    // Submitting a diff cancels the previous one. Only the latest diff is delivered.
+    public static class Calculator<T> {
+        private final Executor resultExecutor;
+        private long latestGeneration = 0;
+        private AtomicBoolean latestCancelled;
+        private CompletableFuture<Diff> latestResult;
 
-            @Override
-            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
-                T oldItem = currentEntries.get(oldItemPosition);
-                T newItem = newEntries.get(newItemPosition);
-                return oldItem.equals(newItem);
-            }
+        public Calculator(Executor resultExecutor) {
+            this.resultExecutor = resultExecutor;
+        }
 
-            @Override
-            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
-                T oldItem = currentEntries.get(oldItemPosition);
-                T newItem = newEntries.get(newItemPosition);
-                return contentComparator.apply(oldItem, newItem);
+        public synchronized CompletableFuture<Diff> submit(List<T> currentEntries,
+                                                           List<T> newEntries,
+                                                           BiFunction<T, T, Boolean> contentComparator) {
+            cancel();
+            long generation = ++latestGeneration;
+            AtomicBoolean cancelled = new AtomicBoolean();
+            CompletableFuture<Diff> result = new CompletableFuture<>();
+            latestCancelled = cancelled;
+            latestResult = result;
+            List<T> currentSnapshot = new ArrayList<>(currentEntries);
+            List<T> newSnapshot = new ArrayList<>(newEntries);
+            CompletableFuture.supplyAsync(() -> diff(
+                    currentSnapshot,
+                    newSnapshot,
+                    contentComparator,
+                    true,
+                    false,
+                    cancelled::get
+            ), diffExecutor).whenCompleteAsync((diff, t) -> {
+                synchronized (this) {
+                    if (generation != latestGeneration) {
+                        result.cancel(false);
+                        return;
+                    }
+                    latestCancelled = null;
+                    latestResult = null;
+                }
+                if (t != null) {
+                    result.completeExceptionally(t);
+                } else {
+                    result.complete(diff);
+                }
+            }, resultExecutor);
+            return result;
+        }
+
+        public synchronized void cancel() {
+            if (latestCancelled != null) {
+                latestCancelled.set(true);
+                latestResult.cancel(false);
+                latestCancelled = null;
+                latestResult = null;
             }
-        }, false);
-        long time = System.currentTimeMillis() - startTime;
-        if (debug) {
-            Log.d(LC, "calculateDiff DiffUtil finish "
-                    + "(old: " + currentEntries.size() + ", new: " + newEntries.size() + ")"
-                    + "\ntime: " + time + "ms");
+            latestGeneration++;
         }
-        return diffResult;
     }
-}
\ No newline at end of file
+}
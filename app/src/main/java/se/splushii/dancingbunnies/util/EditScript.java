@@ -0,0 +1,543 @@
+package se.splushii.dancingbunnies.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+// Operations transforming one list into another: removals, insertions, moves and content
+// changes. Positions refer to the list as it looks when the operation is applied, so the
+// operations can be dispatched in order to e.g. a RecyclerView adapter.
+// Items are aligned with Myers' linear space diff. If that gets too expensive (large lists
+// with many moves), the remaining ranges are aligned on items with unique keys instead.
+// Removed and inserted items with equal keys are then paired into moves.
+public class EditScript {
+    private static final int OP_REMOVE = 0;
+    private static final int OP_INSERT = 1;
+    private static final int OP_MOVE = 2;
+    private static final int OP_CHANGE = 3;
+
+    // Number of diagonals the Myers search may extend before falling back
+    private static final long MAX_SEARCH_COST = 1_000_000;
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    private static final int OP_SIZE = 4;
+
+    // Quadruples of (op, position, count, first new index) or (OP_MOVE, from, to, 0)
+    private final int[] ops;
+    private final int numOps;
+    public final int numRemoved;
+    public final int numInserted;
+    public final int numMoved;
+    public final int numChanged;
+
+    private EditScript(int[] ops,
+                       int numOps,
+                       int numRemoved,
+                       int numInserted,
+                       int numMoved,
+                       int numChanged) {
+        this.ops = ops;
+        this.numOps = numOps;
+        this.numRemoved = numRemoved;
+        this.numInserted = numInserted;
+        this.numMoved = numMoved;
+        this.numChanged = numChanged;
+    }
+
+    public boolean isEmpty() {
+        return numOps == 0;
+    }
+
+    public int getNumOps() {
+        return numOps;
+    }
+
+    public void dispatchUpdatesTo(ListUpdateCallback callback) {
+        for (int i = 0; i < numOps; i++) {
+            int op = ops[OP_SIZE * i];
+            int a = ops[OP_SIZE * i + 1];
+            int b = ops[OP_SIZE * i + 2];
+            switch (op) {
+                case OP_REMOVE:
+                    callback.onRemoved(a, b);
+                    break;
+                case OP_INSERT:
+                    callback.onInserted(a, b);
+                    break;
+                case OP_MOVE:
+                    callback.onMoved(a, b);
+                    break;
+                case OP_CHANGE:
+                    callback.onChanged(a, b, null);
+                    break;
+            }
+        }
+    }
+
+    // Applies the operations from fromOp on to list, which must hold the old items (with the
+    // previous operations applied), and dispatches each to callback after applying it.
+    // Stops when budgetNanos have passed. Returns the index of the next operation to apply,
+    // which is getNumOps() when done.
+    public <T> int applyTo(List<T> list,
+                           List<T> newItems,
+                           int fromOp,
+                           long budgetNanos,
+                           ListUpdateCallback callback) {
+        long startTime = System.nanoTime();
+        int i = fromOp;
+        while (i < numOps) {
+            int op = ops[OP_SIZE * i];
+            int a = ops[OP_SIZE * i + 1];
+            int b = ops[OP_SIZE * i + 2];
+            switch (op) {
+                case OP_REMOVE:
+                    list.subList(a, a + b).clear();
+                    callback.onRemoved(a, b);
+                    break;
+                case OP_INSERT:
+                    int newIndex = ops[OP_SIZE * i + 3];
+                    list.addAll(a, newItems.subList(newIndex, newIndex + b));
+                    callback.onInserted(a, b);
+                    break;
+                case OP_MOVE:
+                    list.add(b, list.remove(a));
+                    callback.onMoved(a, b);
+                    break;
+                case OP_CHANGE:
+                    for (int pos = a; pos < a + b; pos++) {
+                        list.set(pos, newItems.get(pos));
+                    }
+                    callback.onChanged(a, b, null);
+                    break;
+            }
+            i++;
+            if (System.nanoTime() - startTime > budgetNanos) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    @Override
+    public String toString() {
+        return "EditScript{ops: " + numOps
+                + ", removed: " + numRemoved
+                + ", inserted: " + numInserted
+                + ", moved: " + numMoved
+                + ", changed: " + numChanged
+                + "}";
+    }
+
+    public static <T> EditScript calculate(List<T> oldItems,
+                                           List<T> newItems,
+                                           BiFunction<T, T, Boolean> contentComparator,
+                                           BooleanSupplier isCancelled) {
+        int oldSize = oldItems.size();
+        int newSize = newItems.size();
+        int[] oldToNew = new int[oldSize];
+        Arrays.fill(oldToNew, -1);
+        new Aligner<>(oldItems, newItems, oldToNew, isCancelled).align();
+        int[] newToOld = new int[newSize];
+        Arrays.fill(newToOld, -1);
+        for (int i = 0; i < oldSize; i++) {
+            if (oldToNew[i] >= 0) {
+                newToOld[oldToNew[i]] = i;
+            }
+        }
+        checkCancelled(isCancelled);
+
+        // Pair removed and inserted items with equal keys into moves
+        HashMap<T, ArrayDeque<Integer>> removed = new HashMap<>();
+        for (int i = 0; i < oldSize; i++) {
+            if (oldToNew[i] < 0) {
+                removed.computeIfAbsent(oldItems.get(i), k -> new ArrayDeque<>()).add(i);
+            }
+        }
+        int[] moveSource = new int[newSize];
+        Arrays.fill(moveSource, -1);
+        boolean[] isMoveSource = new boolean[oldSize];
+        if (!removed.isEmpty()) {
+            for (int j = 0; j < newSize; j++) {
+                if (newToOld[j] >= 0) {
+                    continue;
+                }
+                ArrayDeque<Integer> sources = removed.get(newItems.get(j));
+                if (sources != null && !sources.isEmpty()) {
+                    int i = sources.poll();
+                    moveSource[j] = i;
+                    isMoveSource[i] = true;
+                }
+            }
+        }
+        checkCancelled(isCancelled);
+
+        // Walk the alignment in order. Each old and new item gets a slot, and matched items
+        // share one. The current list is the occupied slots in order.
+        int numSlots = 0;
+        int[] oldSlot = new int[oldSize];
+        int[] newSlot = new int[newSize];
+        int i = 0;
+        int j = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && oldToNew[i] < 0) {
+                oldSlot[i++] = numSlots++;
+            } else if (j < newSize && newToOld[j] < 0) {
+                newSlot[j++] = numSlots++;
+            } else {
+                oldSlot[i++] = numSlots;
+                newSlot[j++] = numSlots++;
+            }
+        }
+        OpBuilder builder = new OpBuilder();
+        SlotTree occupied = new SlotTree(numSlots);
+        for (i = 0; i < oldSize; i++) {
+            occupied.add(oldSlot[i], 1);
+        }
+        i = 0;
+        j = 0;
+        int numMoved = 0;
+        while (i < oldSize || j < newSize) {
+            if (i < oldSize && oldToNew[i] < 0) {
+                if (!isMoveSource[i]) {
+                    int slot = oldSlot[i];
+                    builder.remove(occupied.countBefore(slot));
+                    occupied.add(slot, -1);
+                }
+                i++;
+            } else if (j < newSize && newToOld[j] < 0) {
+                int slot = newSlot[j];
+                int source = moveSource[j];
+                if (source < 0) {
+                    builder.insert(occupied.countBefore(slot), j);
+                } else {
+                    int from = occupied.countBefore(oldSlot[source]);
+                    occupied.add(oldSlot[source], -1);
+                    int to = occupied.countBefore(slot);
+                    if (from != to) {
+                        builder.move(from, to);
+                        numMoved++;
+                    }
+                }
+                occupied.add(slot, 1);
+                j++;
+            } else {
+                i++;
+                j++;
+            }
+            if (((i + j) % CANCEL_CHECK_INTERVAL) == 0) {
+                checkCancelled(isCancelled);
+            }
+        }
+        // Content changes, in final positions
+        for (j = 0; j < newSize; j++) {
+            int source = newToOld[j] >= 0 ? newToOld[j] : moveSource[j];
+            if (source >= 0 && !contentComparator.apply(oldItems.get(source), newItems.get(j))) {
+                builder.change(j);
+            }
+        }
+        return builder.build(numMoved);
+    }
+
+    private static void checkCancelled(BooleanSupplier isCancelled) {
+        if (isCancelled != null && isCancelled.getAsBoolean()) {
+            throw new CancellationException("Diff cancelled");
+        }
+    }
+
+    // Collects operations, merging runs of removals, insertions and changes
+    private static class OpBuilder {
+        private int[] ops = new int[64];
+        private int numOps = 0;
+        private int numRemoved = 0;
+        private int numInserted = 0;
+        private int numChanged = 0;
+
+        void remove(int pos) {
+            numRemoved++;
+            if (lastOpIs(OP_REMOVE) && lastOp(1) == pos) {
+                ops[OP_SIZE * (numOps - 1) + 2]++;
+                return;
+            }
+            add(OP_REMOVE, pos, 1, 0);
+        }
+
+        void insert(int pos, int newIndex) {
+            numInserted++;
+            if (lastOpIs(OP_INSERT)
+                    && lastOp(1) + lastOp(2) == pos
+                    && lastOp(3) + lastOp(2) == newIndex) {
+                ops[OP_SIZE * (numOps - 1) + 2]++;
+                return;
+            }
+            add(OP_INSERT, pos, 1, newIndex);
+        }
+
+        void move(int from, int to) {
+            add(OP_MOVE, from, to, 0);
+        }
+
+        void change(int pos) {
+            numChanged++;
+            if (lastOpIs(OP_CHANGE) && lastOp(1) + lastOp(2) == pos) {
+                ops[OP_SIZE * (numOps - 1) + 2]++;
+                return;
+            }
+            add(OP_CHANGE, pos, 1, 0);
+        }
+
+        private boolean lastOpIs(int op) {
+            return numOps > 0 && lastOp(0) == op;
+        }
+
+        private int lastOp(int field) {
+            return ops[OP_SIZE * (numOps - 1) + field];
+        }
+
+        private void add(int op, int a, int b, int c) {
+            if (OP_SIZE * numOps + OP_SIZE > ops.length) {
+                ops = Arrays.copyOf(ops, ops.length * 2);
+            }
+            ops[OP_SIZE * numOps] = op;
+            ops[OP_SIZE * numOps + 1] = a;
+            ops[OP_SIZE * numOps + 2] = b;
+            ops[OP_SIZE * numOps + 3] = c;
+            numOps++;
+        }
+
+        EditScript build(int numMoved) {
+            return new EditScript(ops, numOps, numRemoved, numInserted, numMoved, numChanged);
+        }
+    }
+
+    // Fenwick tree counting occupied slots
+    private static class SlotTree {
+        private final int[] tree;
+
+        SlotTree(int size) {
+            tree = new int[size + 1];
+        }
+
+        void add(int slot, int delta) {
+            for (int i = slot + 1; i < tree.length; i += i & -i) {
+                tree[i] += delta;
+            }
+        }
+
+        int countBefore(int slot) {
+            int count = 0;
+            for (int i = slot; i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count;
+        }
+    }
+
+    // Finds a common subsequence of the lists, using Myers' linear space algorithm
+    // ("An O(ND) Difference Algorithm and Its Variations", section 4b).
+    private static class Aligner<T> {
+        private final List<T> a;
+        private final List<T> b;
+        private final int[] aToB;
+        private final BooleanSupplier isCancelled;
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        private long searchBudget = MAX_SEARCH_COST;
+
+        Aligner(List<T> a, List<T> b, int[] aToB, BooleanSupplier isCancelled) {
+            this.a = a;
+            this.b = b;
+            this.aToB = aToB;
+            this.isCancelled = isCancelled;
+            offset = (a.size() + b.size()) / 2 + 2;
+            forward = new int[2 * offset + 1];
+            backward = new int[2 * offset + 1];
+        }
+
+        void align() {
+            ArrayDeque<int[]> ranges = new ArrayDeque<>();
+            ranges.push(new int[] {0, a.size(), 0, b.size()});
+            while (!ranges.isEmpty()) {
+                checkCancelled(isCancelled);
+                int[] range = ranges.pop();
+                int aStart = range[0];
+                int aEnd = range[1];
+                int bStart = range[2];
+                int bEnd = range[3];
+                while (aStart < aEnd && bStart < bEnd && equal(aStart, bStart)) {
+                    aToB[aStart++] = bStart++;
+                }
+                while (aStart < aEnd && bStart < bEnd && equal(aEnd - 1, bEnd - 1)) {
+                    aToB[--aEnd] = --bEnd;
+                }
+                if (aStart == aEnd || bStart == bEnd) {
+                    continue;
+                }
+                int[] snake = middleSnake(aStart, aEnd, bStart, bEnd);
+                if (snake == null) {
+                    alignOnUniqueKeys(aStart, aEnd, bStart, bEnd, ranges);
+                    continue;
+                }
+                for (int x = snake[0], y = snake[1]; x < snake[2]; x++, y++) {
+                    aToB[x] = y;
+                }
+                ranges.push(new int[] {snake[2], aEnd, snake[3], bEnd});
+                ranges.push(new int[] {aStart, snake[0], bStart, snake[1]});
+            }
+        }
+
+        private boolean equal(int x, int y) {
+            return Objects.equals(a.get(x), b.get(y));
+        }
+
+        // Returns the middle snake as {aStart, bStart, aEnd, bEnd},
+        // or null if the search budget is spent
+        private int[] middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+            int n = aEnd - aStart;
+            int m = bEnd - bStart;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int maxD = (n + m + 1) / 2;
+            for (int d = 0; d <= maxD; d++) {
+                searchBudget -= 2 * (d + 1);
+                if (searchBudget < 0) {
+                    return null;
+                }
+                checkCancelled(isCancelled);
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])) {
+                        x = forward[offset + k + 1];
+                    } else {
+                        x = forward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && x >= 0 && y >= 0
+                            && equal(aStart + x, bStart + y)) {
+                        x++;
+                        y++;
+                    }
+                    forward[offset + k] = x;
+                    int c = delta - k;
+                    if (odd && c >= -(d - 1) && c <= d - 1
+                            && forward[offset + k] + backward[offset + c] >= n) {
+                        return new int[] {
+                                aStart + startX,
+                                bStart + startY,
+                                aStart + x,
+                                bStart + y
+                        };
+                    }
+                }
+                for (int k = -d; k <= d; k += 2) {
+                    int x;
+                    if (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])) {
+                        x = backward[offset + k + 1];
+                    } else {
+                        x = backward[offset + k - 1] + 1;
+                    }
+                    int y = x - k;
+                    int startX = x;
+                    int startY = y;
+                    while (x < n && y < m && x >= 0 && y >= 0
+                            && equal(aEnd - 1 - x, bEnd - 1 - y)) {
+                        x++;
+                        y++;
+                    }
+                    backward[offset + k] = x;
+                    int c = delta - k;
+                    if (!odd && c >= -d && c <= d
+                            && backward[offset + k] + forward[offset + c] >= n) {
+                        return new int[] {
+                                aEnd - x,
+                                bEnd - y,
+                                aEnd - startX,
+                                bEnd - startY
+                        };
+                    }
+                }
+            }
+            throw new IllegalStateException("No middle snake found");
+        }
+
+        // Aligns the longest increasing run of items with keys unique in both ranges,
+        // and queues the ranges in between
+        private void alignOnUniqueKeys(int aStart,
+                                       int aEnd,
+                                       int bStart,
+                                       int bEnd,
+                                       ArrayDeque<int[]> ranges) {
+            HashMap<T, Integer> bIndex = new HashMap<>();
+            for (int y = bStart; y < bEnd; y++) {
+                bIndex.merge(b.get(y), y, (y1, y2) -> -1);
+            }
+            HashMap<T, Integer> aCount = new HashMap<>();
+            for (int x = aStart; x < aEnd; x++) {
+                aCount.merge(a.get(x), 1, Integer::sum);
+            }
+            List<int[]> candidates = new ArrayList<>();
+            for (int x = aStart; x < aEnd; x++) {
+                T item = a.get(x);
+                Integer y = bIndex.get(item);
+                if (y != null && y >= 0 && aCount.get(item) == 1) {
+                    candidates.add(new int[] {x, y});
+                }
+            }
+            checkCancelled(isCancelled);
+            // Longest increasing subsequence of b positions
+            int[] tails = new int[candidates.size()];
+            int[] previous = new int[candidates.size()];
+            int length = 0;
+            for (int i = 0; i < candidates.size(); i++) {
+                int y = candidates.get(i)[1];
+                int low = 0;
+                int high = length;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (candidates.get(tails[mid])[1] < y) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                previous[i] = low > 0 ? tails[low - 1] : -1;
+                tails[low] = i;
+                if (low == length) {
+                    length++;
+                }
+            }
+            if (length == 0) {
+                return;
+            }
+            int[][] anchors = new int[length][];
+            for (int i = length - 1, c = tails[length - 1]; i >= 0; i--, c = previous[c]) {
+                anchors[i] = candidates.get(c);
+            }
+            int x = aStart;
+            int y = bStart;
+            for (int[] anchor: anchors) {
+                if (anchor[0] > x && anchor[1] > y) {
+                    ranges.push(new int[] {x, anchor[0], y, anchor[1]});
+                }
+                aToB[anchor[0]] = anchor[1];
+                x = anchor[0] + 1;
+                y = anchor[1] + 1;
+            }
+            if (aEnd > x && bEnd > y) {
+                ranges.push(new int[] {x, aEnd, y, bEnd});
+            }
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package se.splushii.dancingbunnies.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Minimal HTTP/1.1 server for registered files, with support for byte range requests.
+// Files are only reachable through the random paths returned when registering them.
+// Has no Android dependencies, so that it can be used and tested on the JVM.
+public class FileHTTPServer {
+    private static final int MAX_CONNECTIONS = 8;
+    private static final int SOCKET_TIMEOUT_MS = 30000;
+    private static final int MAX_HEADER_BYTES = 8192;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static class RegisteredFile {
+        final File file;
+        final String contentType;
+
+        RegisteredFile(File file, String contentType) {
+            this.file = file;
+            this.contentType = contentType;
+        }
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final ConcurrentHashMap<String, RegisteredFile> files = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> fileToPath = new ConcurrentHashMap<>();
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private ServerSocket serverSocket;
+    private ExecutorService connectionExecutor;
+    private Thread acceptThread;
+
+    // Listens on all interfaces. Use port 0 for any free port.
+    public synchronized void start(int port) throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket(port);
+        connectionExecutor = new ThreadPoolExecutor(
+                0,
+                MAX_CONNECTIONS,
+                30,
+                TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                new ThreadPoolExecutor.AbortPolicy()
+        );
+        ServerSocket socket = serverSocket;
+        ExecutorService executor = connectionExecutor;
+        acceptThread = new Thread(() -> acceptLoop(socket, executor), "FileHTTPServer");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    public synchronized void stop() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {}
+        for (Socket connection: connections) {
+            closeQuietly(connection);
+        }
+        connectionExecutor.shutdownNow();
+        serverSocket = null;
+        connectionExecutor = null;
+        acceptThread = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return serverSocket != null;
+    }
+
+    public synchronized int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    // Returns the path the file is served at. Registering the same file again returns the
+    // same path.
+    public synchronized String register(File file, String contentType) {
+        String key = file.getAbsolutePath();
+        String path = fileToPath.computeIfAbsent(key, k -> "/" + randomToken());
+        files.put(path, new RegisteredFile(file, contentType));
+        return path;
+    }
+
+    // Stops serving the file. Registering it again gives a new path.
+    public synchronized void unregister(File file) {
+        String path = fileToPath.remove(file.getAbsolutePath());
+        if (path != null) {
+            files.remove(path);
+        }
+    }
+
+    public synchronized void unregisterAll() {
+        files.clear();
+        fileToPath.clear();
+    }
+
+    private String randomToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b: bytes) {
+            sb.append(String.format(Locale.ROOT, "%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private void acceptLoop(ServerSocket serverSocket, ExecutorService executor) {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            try {
+                executor.execute(() -> handleConnection(socket));
+            } catch (RuntimeException e) {
+                // Too many connections or stopped
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        connections.add(socket);
+        try {
+            socket.setSoTimeout(SOCKET_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            boolean keepAlive = true;
+            while (keepAlive) {
+                String header = readHeader(in);
+                if (header == null) {
+                    return;
+                }
+                keepAlive = handleRequest(header, out);
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // Closed by the client, timed out or stopped
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    // Returns the request line and headers, or null if the connection was closed
+    private static String readHeader(InputStream in) throws IOException {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        int last4 = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                return null;
+            }
+            header.write(b);
+            if (header.size() > MAX_HEADER_BYTES) {
+                throw new IOException("Request header too large");
+            }
+            last4 = (last4 << 8) | b;
+            if (last4 == 0x0D0A0D0A) {
+                return header.toString(StandardCharsets.ISO_8859_1.name());
+            }
+        }
+    }
+
+    // Returns whether the connection should be kept open
+    private boolean handleRequest(String header, OutputStream out) throws IOException {
+        String[] lines = header.split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3) {
+            sendError(out, 400, "Bad Request", false);
+            return false;
+        }
+        String method = requestLine[0];
+        String path = requestLine[1];
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        boolean keepAlive = !"HTTP/1.0".equals(requestLine[2]);
+        HashMap<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(
+                        lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        lines[i].substring(colon + 1).trim()
+                );
+            }
+        }
+        String connection = headers.get("connection");
+        if (connection != null) {
+            keepAlive = !"close".equalsIgnoreCase(connection);
+        }
+        boolean head = "HEAD".equals(method);
+        if (!head && !"GET".equals(method)) {
+            sendError(out, 405, "Method Not Allowed", keepAlive);
+            return keepAlive;
+        }
+        RegisteredFile registeredFile = files.get(path);
+        if (registeredFile == null || !registeredFile.file.isFile()) {
+            sendError(out, 404, "Not Found", keepAlive);
+            return keepAlive;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(registeredFile.file, "r")) {
+            long length = file.length();
+            long start = 0;
+            long end = length - 1;
+            boolean partial = false;
+            String range = headers.get("range");
+            if (range != null) {
+                long[] parsedRange = parseRange(range, length);
+                if (parsedRange == null) {
+                    sendHeaders(
+                            out,
+                            416,
+                            "Range Not Satisfiable",
+                            null,
+                            0,
+                            "Content-Range: bytes */" + length,
+                            keepAlive
+                    );
+                    return keepAlive;
+                }
+                start = parsedRange[0];
+                end = parsedRange[1];
+                partial = true;
+            }
+            long contentLength = end - start + 1;
+            sendHeaders(
+                    out,
+                    partial ? 206 : 200,
+                    partial ? "Partial Content" : "OK",
+                    registeredFile.contentType,
+                    contentLength,
+                    partial ? "Content-Range: bytes " + start + "-" + end + "/" + length : null,
+                    keepAlive
+            );
+            if (head) {
+                return keepAlive;
+            }
+            file.seek(start);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = contentLength;
+            while (remaining > 0) {
+                int read = file.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    // File was truncated. The response can not be completed.
+                    return false;
+                }
+                out.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+        return keepAlive;
+    }
+
+    // Returns the first byte range as {start, end} (inclusive), or null if not satisfiable.
+    // Only single ranges are supported.
+    static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0 || length == 0) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            String startString = spec.substring(0, dash).trim();
+            String endString = spec.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (startString.isEmpty()) {
+                // Suffix range: the last n bytes
+                long suffixLength = Long.parseLong(endString);
+                if (suffixLength <= 0) {
+                    return null;
+                }
+                start = Math.max(0, length - suffixLength);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(startString);
+                end = endString.isEmpty() ? length - 1 : Long.parseLong(endString);
+                end = Math.min(end, length - 1);
+            }
+            if (start < 0 || start >= length || end < start) {
+                return null;
+            }
+            return new long[] {start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void sendError(OutputStream out,
+                                  int code,
+                                  String reason,
+                                  boolean keepAlive) throws IOException {
+        sendHeaders(out, code, reason, null, 0, null, keepAlive);
+    }
+
+    private static void sendHeaders(OutputStream out,
+                                    int code,
+                                    String reason,
+                                    String contentType,
+                                    long contentLength,
+                                    String extraHeader,
+                                    boolean keepAlive) throws IOException {
+        StringBuilder sb = new StringBuilder()
+                .append("HTTP/1.1 ").append(code).append(' ').append(reason).append("\r\n")
+                .append("Accept-Ranges: bytes\r\n")
+                .append("Access-Control-Allow-Origin: *\r\n")
+                .append("Content-Length: ").append(contentLength).append("\r\n")
+                .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+        if (contentType != null) {
+            sb.append("Content-Type: ").append(contentType).append("\r\n");
+        }
+        if (extraHeader != null) {
+            sb.append(extraHeader).append("\r\n");
+        }
+        sb.append("\r\n");
+        out.write(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {}
+    }
+
+    // Returns a site local IPv4 address of this host, preferring Wi-Fi and Ethernet
+    // interfaces, or null if there is none.
+    public static InetAddress getLANAddress() {
+        InetAddress fallback = null;
+        try {
+            for (NetworkInterface networkInterface:
+                    Collections.list(NetworkInterface.getNetworkInterfaces())) {
+                if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+                    continue;
+                }
+                String name = networkInterface.getName();
+                boolean preferred = name.startsWith("wlan") || name.startsWith("eth");
+                for (InetAddress address: Collections.list(networkInterface.getInetAddresses())) {
+                    if (!(address instanceof Inet4Address) || !address.isSiteLocalAddress()) {
+                        continue;
+                    }
+                    if (preferred) {
+                        return address;
+                    }
+                    if (fallback == null) {
+                        fallback = address;
+                    }
+                }
+            }
+        } catch (SocketException e) {
+            return null;
+        }
+        return fallback;
+    }
+}
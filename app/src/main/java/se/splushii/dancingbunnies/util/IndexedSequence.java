@@ -0,0 +1,301 @@
+package se.splushii.dancingbunnies.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+// Sequence of elements with unique keys. Positional get, insert and remove, and looking up
+// the position of a key, are O(log n) (expected).
+// Implemented as an implicit treap (ordered by position) with parent links, and a map from
+// key to node. Not thread-safe.
+public class IndexedSequence<K, E> {
+    private static class Node<E> {
+        E value;
+        final int priority;
+        int size = 1;
+        Node<E> left;
+        Node<E> right;
+        Node<E> parent;
+
+        Node(E value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+    }
+
+    // The two treaps of a split
+    private static class Split<E> {
+        Node<E> first;
+        Node<E> rest;
+    }
+
+    private final Function<E, K> keyFunction;
+    private final HashMap<K, Node<E>> nodes = new HashMap<>();
+    private final Random random = new Random();
+    private Node<E> root;
+
+    public IndexedSequence(Function<E, K> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public boolean isEmpty() {
+        return root == null;
+    }
+
+    public boolean containsKey(K key) {
+        return nodes.containsKey(key);
+    }
+
+    public E get(int index) {
+        return nodeAt(index).value;
+    }
+
+    // Returns the position of the element with key, or -1 if not found
+    public int indexOfKey(K key) {
+        Node<E> node = nodes.get(key);
+        if (node == null) {
+            return -1;
+        }
+        int index = size(node.left);
+        while (node.parent != null) {
+            if (node == node.parent.right) {
+                index += size(node.parent.left) + 1;
+            }
+            node = node.parent;
+        }
+        return index;
+    }
+
+    // Returns false if an element with the same key is already present
+    public boolean add(int index, E element) {
+        checkPositionIndex(index);
+        K key = keyFunction.apply(element);
+        if (nodes.containsKey(key)) {
+            return false;
+        }
+        Node<E> node = new Node<>(element, random.nextInt());
+        nodes.put(key, node);
+        insert(index, node);
+        return true;
+    }
+
+    // Inserts the elements in order at index, skipping elements whose key is already present.
+    // Returns the number of elements inserted.
+    public int addAll(int index, Collection<? extends E> elements) {
+        checkPositionIndex(index);
+        // Build a treap of the new elements in linear time, then merge it in
+        ArrayDeque<Node<E>> rightSpine = new ArrayDeque<>();
+        int numAdded = 0;
+        for (E element: elements) {
+            K key = keyFunction.apply(element);
+            if (nodes.containsKey(key)) {
+                continue;
+            }
+            Node<E> node = new Node<>(element, random.nextInt());
+            nodes.put(key, node);
+            numAdded++;
+            Node<E> lastPopped = null;
+            while (!rightSpine.isEmpty() && rightSpine.peek().priority < node.priority) {
+                lastPopped = rightSpine.pop();
+            }
+            node.left = lastPopped;
+            if (lastPopped != null) {
+                lastPopped.parent = node;
+            }
+            if (!rightSpine.isEmpty()) {
+                rightSpine.peek().right = node;
+                node.parent = rightSpine.peek();
+            }
+            rightSpine.push(node);
+        }
+        if (numAdded == 0) {
+            return 0;
+        }
+        Node<E> newRoot = rightSpine.peekLast();
+        updateSizes(newRoot);
+        insert(index, newRoot);
+        return numAdded;
+    }
+
+    // Replaces the element with the same key, keeping its position.
+    // Returns false if not found.
+    public boolean replace(E element) {
+        Node<E> node = nodes.get(keyFunction.apply(element));
+        if (node == null) {
+            return false;
+        }
+        node.value = element;
+        return true;
+    }
+
+    // Returns the removed element, or null if not found
+    public E removeKey(K key) {
+        Node<E> node = nodes.remove(key);
+        if (node == null) {
+            return null;
+        }
+        Node<E> merged = merge(node.left, node.right);
+        Node<E> parent = node.parent;
+        if (merged != null) {
+            merged.parent = parent;
+        }
+        if (parent == null) {
+            root = merged;
+        } else {
+            if (parent.left == node) {
+                parent.left = merged;
+            } else {
+                parent.right = merged;
+            }
+            for (Node<E> n = parent; n != null; n = n.parent) {
+                update(n);
+            }
+        }
+        return node.value;
+    }
+
+    public void clear() {
+        root = null;
+        nodes.clear();
+    }
+
+    // Returns the elements in [fromIndex, toIndex)
+    public List<E> subList(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+            throw new IndexOutOfBoundsException(
+                    "fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size()
+            );
+        }
+        List<E> elements = new ArrayList<>(toIndex - fromIndex);
+        if (fromIndex == toIndex) {
+            return elements;
+        }
+        Node<E> node = nodeAt(fromIndex);
+        for (int i = fromIndex; i < toIndex; i++) {
+            elements.add(node.value);
+            node = successor(node);
+        }
+        return elements;
+    }
+
+    public List<E> toList() {
+        return subList(0, size());
+    }
+
+    private static <E> int size(Node<E> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static <E> void update(Node<E> node) {
+        node.size = 1 + size(node.left) + size(node.right);
+    }
+
+    private void updateSizes(Node<E> node) {
+        if (node == null) {
+            return;
+        }
+        updateSizes(node.left);
+        updateSizes(node.right);
+        update(node);
+    }
+
+    private void checkPositionIndex(int index) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+
+    // Inserts the treap at index
+    private void insert(int index, Node<E> treap) {
+        Split<E> parts = split(root, index);
+        root = merge(merge(parts.first, treap), parts.rest);
+        root.parent = null;
+    }
+
+    private Node<E> nodeAt(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static <E> Node<E> successor(Node<E> node) {
+        if (node.right != null) {
+            node = node.right;
+            while (node.left != null) {
+                node = node.left;
+            }
+            return node;
+        }
+        while (node.parent != null && node == node.parent.right) {
+            node = node.parent;
+        }
+        return node.parent;
+    }
+
+    // Splits into the first count elements and the rest. The returned roots have no parent.
+    private Split<E> split(Node<E> node, int count) {
+        if (node == null) {
+            return new Split<>();
+        }
+        Split<E> parts;
+        if (count <= size(node.left)) {
+            parts = split(node.left, count);
+            node.left = parts.rest;
+            if (parts.rest != null) {
+                parts.rest.parent = node;
+            }
+            update(node);
+            parts.rest = node;
+        } else {
+            parts = split(node.right, count - size(node.left) - 1);
+            node.right = parts.first;
+            if (parts.first != null) {
+                parts.first.parent = node;
+            }
+            update(node);
+            parts.first = node;
+        }
+        node.parent = null;
+        return parts;
+    }
+
+    // Merges two treaps where all elements of a come before all elements of b
+    private Node<E> merge(Node<E> a, Node<E> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            a.right.parent = a;
+            update(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        b.left.parent = b;
+        update(b);
+        return b;
+    }
+}
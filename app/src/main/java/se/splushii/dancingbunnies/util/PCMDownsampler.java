@@ -0,0 +1,242 @@
+package se.splushii.dancingbunnies.util;
+
+import java.nio.ShortBuffer;
+
+// Downsamples interleaved 16-bit PCM to numBuckets peak and RMS buckets in a single pass.
+// The stream length need not be known in advance. Samples are first collected in up to
+// 2 * numBuckets working buckets of bucketSize frames each. When all are used, pairs of buckets
+// are merged and bucketSize doubles. When finished, the working buckets are resampled to
+// exactly numBuckets buckets of equal length (within a frame). A stream of fewer than
+// numBuckets frames gets one bucket per frame.
+// Positive and negative sample values are tracked separately, as fractions of full scale.
+// The RMS of a frame is taken over its channels.
+public class PCMDownsampler {
+    private static final int SCRATCH_SIZE = 4096;
+    private static final double POSITIVE_SQUARE_SCALE = (double) Short.MAX_VALUE * Short.MAX_VALUE;
+    private static final double NEGATIVE_SQUARE_SCALE = (double) Short.MIN_VALUE * Short.MIN_VALUE;
+
+    private final int channels;
+    private final int numBuckets;
+    // Working buckets
+    private final int maxBuckets;
+    private final double[] peakPositive;
+    private final double[] peakNegative;
+    private final double[] sumSquaresPositive;
+    private final double[] sumSquaresNegative;
+    private int numUsedBuckets = 0;
+    private int bucketSize = 1;
+    private short[] scratch;
+
+    // Current bucket, in raw sample values. Scaled once per bucket.
+    private int bucketFrames = 0;
+    private int bucketMaxSample = 0;
+    private int bucketMinSample = 0;
+    private long bucketSumSquaresPositive = 0;
+    private long bucketSumSquaresNegative = 0;
+
+    // Channel of the next sample. Frames may span chunks.
+    private int channel = 0;
+
+    public static class Buckets {
+        public final double[] peakPositive;
+        public final double[] peakNegative;
+        public final double[] rmsPositive;
+        public final double[] rmsNegative;
+        // Frames in the stream. Bucket i covers frames [i * numFrames / size(),
+        // (i + 1) * numFrames / size()).
+        public final long numFrames;
+
+        Buckets(double[] peakPositive,
+                double[] peakNegative,
+                double[] rmsPositive,
+                double[] rmsNegative,
+                long numFrames) {
+            this.peakPositive = peakPositive;
+            this.peakNegative = peakNegative;
+            this.rmsPositive = rmsPositive;
+            this.rmsNegative = rmsNegative;
+            this.numFrames = numFrames;
+        }
+
+        public int size() {
+            return peakPositive.length;
+        }
+
+        // Scales all values so that the largest peak is 1
+        public void normalize() {
+            double maxAmplitude = 0;
+            for (int i = 0; i < size(); i++) {
+                maxAmplitude = Math.max(maxAmplitude, peakPositive[i]);
+                maxAmplitude = Math.max(maxAmplitude, peakNegative[i]);
+            }
+            if (maxAmplitude <= 0) {
+                return;
+            }
+            for (int i = 0; i < size(); i++) {
+                peakPositive[i] /= maxAmplitude;
+                peakNegative[i] /= maxAmplitude;
+                rmsPositive[i] /= maxAmplitude;
+                rmsNegative[i] /= maxAmplitude;
+            }
+        }
+    }
+
+    public PCMDownsampler(int channels, int numBuckets) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("channels must be at least 1: " + channels);
+        }
+        if (numBuckets < 1) {
+            throw new IllegalArgumentException("numBuckets must be at least 1: " + numBuckets);
+        }
+        this.channels = channels;
+        this.numBuckets = numBuckets;
+        this.maxBuckets = 2 * numBuckets;
+        peakPositive = new double[maxBuckets];
+        peakNegative = new double[maxBuckets];
+        sumSquaresPositive = new double[maxBuckets];
+        sumSquaresNegative = new double[maxBuckets];
+    }
+
+    // Consumes the remaining samples of the buffer
+    public void accept(ShortBuffer samples) {
+        if (samples.hasArray()) {
+            int offset = samples.arrayOffset() + samples.position();
+            int length = samples.remaining();
+            accept(samples.array(), offset, length);
+            samples.position(samples.limit());
+            return;
+        }
+        if (scratch == null) {
+            scratch = new short[SCRATCH_SIZE];
+        }
+        while (samples.hasRemaining()) {
+            int length = Math.min(scratch.length, samples.remaining());
+            samples.get(scratch, 0, length);
+            accept(scratch, 0, length);
+        }
+    }
+
+    public void accept(short[] samples, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            int bucketSamplesLeft = (bucketSize - bucketFrames) * channels - channel;
+            int n = Math.min(end - i, bucketSamplesLeft);
+            accumulate(samples, i, i + n);
+            i += n;
+            int samplesInFrames = channel + n;
+            bucketFrames += samplesInFrames / channels;
+            channel = samplesInFrames % channels;
+            if (bucketFrames < bucketSize) {
+                continue;
+            }
+            if (numUsedBuckets == maxBuckets) {
+                // The current bucket continues until it has the new bucket size
+                mergeBuckets();
+            } else {
+                endBucket();
+            }
+        }
+    }
+
+    private void accumulate(short[] samples, int from, int to) {
+        int maxSample = bucketMaxSample;
+        int minSample = bucketMinSample;
+        long sumSquaresPositive = bucketSumSquaresPositive;
+        long sumSquaresNegative = bucketSumSquaresNegative;
+        // Branch free, as the sign of audio samples is unpredictable
+        for (int i = from; i < to; i++) {
+            int sample = samples[i];
+            int square = sample * sample;
+            maxSample = Math.max(maxSample, sample);
+            minSample = Math.min(minSample, sample);
+            // -sample >> 31 is all ones if sample > 0, sample >> 31 if sample < 0
+            sumSquaresPositive += square & (-sample >> 31);
+            sumSquaresNegative += square & (sample >> 31);
+        }
+        bucketMaxSample = maxSample;
+        bucketMinSample = minSample;
+        bucketSumSquaresPositive = sumSquaresPositive;
+        bucketSumSquaresNegative = sumSquaresNegative;
+    }
+
+    private void endBucket() {
+        peakPositive[numUsedBuckets] = (double) bucketMaxSample / Short.MAX_VALUE;
+        peakNegative[numUsedBuckets] = (double) bucketMinSample / Short.MIN_VALUE;
+        // Sums of the mean square gain of each frame
+        sumSquaresPositive[numUsedBuckets] =
+                bucketSumSquaresPositive / POSITIVE_SQUARE_SCALE / channels;
+        sumSquaresNegative[numUsedBuckets] =
+                bucketSumSquaresNegative / NEGATIVE_SQUARE_SCALE / channels;
+        numUsedBuckets++;
+        bucketFrames = 0;
+        bucketMaxSample = 0;
+        bucketMinSample = 0;
+        bucketSumSquaresPositive = 0;
+        bucketSumSquaresNegative = 0;
+    }
+
+    private void mergeBuckets() {
+        for (int i = 0; i < numUsedBuckets / 2; i++) {
+            int first = 2 * i;
+            int second = first + 1;
+            peakPositive[i] = Math.max(peakPositive[first], peakPositive[second]);
+            peakNegative[i] = Math.max(peakNegative[first], peakNegative[second]);
+            sumSquaresPositive[i] = sumSquaresPositive[first] + sumSquaresPositive[second];
+            sumSquaresNegative[i] = sumSquaresNegative[first] + sumSquaresNegative[second];
+        }
+        numUsedBuckets /= 2;
+        bucketSize *= 2;
+    }
+
+    // Returns numBuckets buckets, or one per frame for shorter streams. Samples of an incomplete
+    // last frame are only kept if the last working bucket has complete frames. The downsampler
+    // must not be used afterwards.
+    public Buckets finish() {
+        int lastBucketFrames = bucketSize;
+        if (bucketFrames > 0) {
+            if (numUsedBuckets == maxBuckets) {
+                mergeBuckets();
+            }
+            lastBucketFrames = bucketFrames;
+            endBucket();
+        }
+        long numFrames = numUsedBuckets == 0
+                ? 0
+                : (long) (numUsedBuckets - 1) * bucketSize + lastBucketFrames;
+        int size = (int) Math.min(numBuckets, numFrames);
+        double[] outPeakPositive = new double[size];
+        double[] outPeakNegative = new double[size];
+        double[] outRMSPositive = new double[size];
+        double[] outRMSNegative = new double[size];
+        for (int i = 0; i < size; i++) {
+            long start = i * numFrames / size;
+            long end = (i + 1) * numFrames / size;
+            // Peaks are the largest of the overlapping working buckets. Sums of squares are
+            // taken in proportion to the overlap, assuming an even spread within a bucket.
+            double sumSquaresPositiveInRange = 0;
+            double sumSquaresNegativeInRange = 0;
+            for (int bucket = (int) (start / bucketSize);
+                 bucket <= (end - 1) / bucketSize;
+                 bucket++) {
+                long bucketStart = (long) bucket * bucketSize;
+                int frames = bucket == numUsedBuckets - 1 ? lastBucketFrames : bucketSize;
+                long overlap = Math.min(end, bucketStart + frames) - Math.max(start, bucketStart);
+                double weight = (double) overlap / frames;
+                outPeakPositive[i] = Math.max(outPeakPositive[i], peakPositive[bucket]);
+                outPeakNegative[i] = Math.max(outPeakNegative[i], peakNegative[bucket]);
+                sumSquaresPositiveInRange += sumSquaresPositive[bucket] * weight;
+                sumSquaresNegativeInRange += sumSquaresNegative[bucket] * weight;
+            }
+            outRMSPositive[i] = Math.sqrt(sumSquaresPositiveInRange / (end - start));
+            outRMSNegative[i] = Math.sqrt(sumSquaresNegativeInRange / (end - start));
+        }
+        return new Buckets(
+                outPeakPositive,
+                outPeakNegative,
+                outRMSPositive,
+                outRMSNegative,
+                numFrames
+        );
+    }
+}
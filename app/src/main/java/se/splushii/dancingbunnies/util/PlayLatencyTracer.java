@@ -0,0 +1,174 @@
+package se.splushii.dancingbunnies.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Traces the time from a play request until audio starts, split into pipeline stages.
+// Only one trace is active at a time. A new request replaces the active trace.
+// Times are monotonic, and the last samples of each stage are kept for percentiles.
+public class PlayLatencyTracer {
+    // Request received by AudioPlayerService
+    public static final String STAGE_REQUEST = "request";
+    // Request reached the PlaybackController executor
+    public static final String STAGE_CONTROLLER = "controller";
+    // Audio data requested from AudioStorage
+    public static final String STAGE_FETCH = "fetch";
+    // Audio data not cached. Download started.
+    public static final String STAGE_DOWNLOAD = "download";
+    // Audio data ready for playback
+    public static final String STAGE_DATA_READY = "data_ready";
+    // MediaPlayer prepared
+    public static final String STAGE_PREPARED = "prepared";
+    // MediaPlayer started. Ends the trace.
+    public static final String STAGE_STARTED = "started";
+    private static final List<String> STAGES = Arrays.asList(
+            STAGE_REQUEST,
+            STAGE_CONTROLLER,
+            STAGE_FETCH,
+            STAGE_DOWNLOAD,
+            STAGE_DATA_READY,
+            STAGE_PREPARED,
+            STAGE_STARTED
+    );
+
+    private static final int MAX_SAMPLES = 512;
+    private static final long TRACE_TIMEOUT_NS = TimeUnit.MINUTES.toNanos(2);
+
+    private static volatile PlayLatencyTracer instance;
+
+    public static synchronized PlayLatencyTracer getInstance() {
+        if (instance == null) {
+            instance = new PlayLatencyTracer();
+        }
+        return instance;
+    }
+
+    private final HashMap<String, Samples> stageSamples = new HashMap<>();
+    private final HashMap<String, Integer> actionCounts = new HashMap<>();
+    private int numCancelled = 0;
+    private int numTimedOut = 0;
+    // Active trace
+    private String action;
+    private long startNanos;
+    private final LinkedHashMap<String, Long> marks = new LinkedHashMap<>();
+
+    private PlayLatencyTracer() {}
+
+    public synchronized void begin(String action) {
+        if (this.action != null) {
+            numCancelled++;
+        }
+        this.action = action;
+        startNanos = System.nanoTime();
+        marks.clear();
+        marks.put(STAGE_REQUEST, 0L);
+    }
+
+    // Records the first time a stage is reached in the active trace
+    public synchronized void mark(String stage) {
+        if (action == null) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startNanos;
+        if (elapsed > TRACE_TIMEOUT_NS) {
+            numTimedOut++;
+            action = null;
+            return;
+        }
+        marks.putIfAbsent(stage, elapsed);
+        if (STAGE_STARTED.equals(stage)) {
+            for (Map.Entry<String, Long> mark: marks.entrySet()) {
+                stageSamples.computeIfAbsent(mark.getKey(), k -> new Samples())
+                        .add(TimeUnit.NANOSECONDS.toMillis(mark.getValue()));
+            }
+            actionCounts.merge(action, 1, Integer::sum);
+            action = null;
+        }
+    }
+
+    // Drops the active trace, e.g. when the request did not lead to a start
+    public synchronized void cancel() {
+        if (action != null) {
+            numCancelled++;
+            action = null;
+        }
+    }
+
+    public synchronized void reset() {
+        stageSamples.clear();
+        actionCounts.clear();
+        numCancelled = 0;
+        numTimedOut = 0;
+        action = null;
+    }
+
+    // Returns p50/p95 of the time from request until each stage, for completed traces
+    public synchronized String export() {
+        StringBuilder sb = new StringBuilder("Time to audio (ms since request)\n");
+        sb.append(String.format(
+                Locale.ROOT,
+                "%-12s %7s %7s %7s %7s\n",
+                "stage", "count", "p50", "p95", "max"
+        ));
+        for (String stage: STAGES) {
+            Samples samples = stageSamples.get(stage);
+            if (samples == null) {
+                continue;
+            }
+            long[] sorted = samples.sorted();
+            sb.append(String.format(
+                    Locale.ROOT,
+                    "%-12s %7d %7d %7d %7d\n",
+                    stage,
+                    sorted.length,
+                    percentile(sorted, 50),
+                    percentile(sorted, 95),
+                    sorted[sorted.length - 1]
+            ));
+        }
+        List<String> actions = new ArrayList<>(actionCounts.keySet());
+        actions.sort(String::compareTo);
+        sb.append("Completed traces:");
+        for (String action: actions) {
+            sb.append(' ').append(action).append('=').append(actionCounts.get(action));
+        }
+        sb.append("\nCancelled: ").append(numCancelled)
+                .append(", timed out: ").append(numTimedOut)
+                .append('\n');
+        return sb.toString();
+    }
+
+    // Nearest-rank percentile
+    static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, rank - 1)];
+    }
+
+    // The last MAX_SAMPLES samples
+    private static class Samples {
+        private final long[] values = new long[MAX_SAMPLES];
+        private int next = 0;
+        private int size = 0;
+
+        void add(long value) {
+            values[next] = value;
+            next = (next + 1) % values.length;
+            size = Math.min(size + 1, values.length);
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
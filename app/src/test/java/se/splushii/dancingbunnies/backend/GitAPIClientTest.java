@@ -0,0 +1,203 @@
+package se.splushii.dancingbunnies.backend;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.commit;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.deleteRecursively;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.playlistYAML;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.write;
+
+// Syncs against a local bare repository with two unrelated branches and tags
+public class GitAPIClientTest {
+    private static final String BRANCH = "master";
+    private static final String OTHER_BRANCH = "other";
+    private static final int NUM_COMMITS = 5;
+
+    private Path tmpDir;
+    private Path workDir;
+    private String remoteURI;
+    private Git seed;
+    private ObjectId otherHead;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("gitapiclient");
+        Path remoteDir = tmpDir.resolve("remote.git");
+        Git.init().setBare(true).setDirectory(remoteDir.toFile()).call().close();
+        remoteURI = remoteDir.toUri().toString();
+        workDir = tmpDir.resolve("workdir");
+        Path seedDir = tmpDir.resolve("seed");
+        seed = Git.cloneRepository().setURI(remoteURI).setDirectory(seedDir.toFile()).call();
+        for (int i = 0; i < NUM_COMMITS; i++) {
+            write(seedDir, "playlist.yaml", playlistYAML("id", "master " + i));
+            commit(seed, "master " + i);
+        }
+        seed.tag().setName("v1").call();
+        seed.checkout().setOrphan(true).setName(OTHER_BRANCH).call();
+        for (int i = 0; i < NUM_COMMITS; i++) {
+            write(seedDir, "other.yaml", playlistYAML("other", "other " + i));
+            commit(seed, "other " + i);
+        }
+        seed.tag().setName("v2").call();
+        otherHead = seed.getRepository().resolve(Constants.HEAD);
+        seed.push().setPushAll().setPushTags().call();
+        seed.checkout().setName(BRANCH).call();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        seed.close();
+        deleteRecursively(tmpDir);
+    }
+
+    private String sync(boolean shallow) {
+        GitAPIClient client = new GitAPIClient("test");
+        client.setRepository(workDir, remoteURI, BRANCH, shallow);
+        return client.updateWorkDir();
+    }
+
+    private ObjectId pushCommit(String message) throws Exception {
+        Path seedDir = seed.getRepository().getWorkTree().toPath();
+        write(seedDir, "playlist.yaml", playlistYAML("id", message));
+        commit(seed, message);
+        seed.push().call();
+        return seed.getRepository().resolve(Constants.HEAD);
+    }
+
+    private static List<String> refNames(Repository repository, String prefix) throws Exception {
+        List<String> names = new ArrayList<>();
+        for (Ref ref: repository.getRefDatabase().getRefsByPrefix(prefix)) {
+            names.add(ref.getName());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static long getStat(Git git, String key) throws Exception {
+        Properties stats = git.gc().getStatistics();
+        return ((Number) stats.get(key)).longValue();
+    }
+
+    @Test
+    public void fullClone() throws Exception {
+        assertNull(sync(false));
+        try (Git git = Git.open(workDir.toFile())) {
+            Repository repository = git.getRepository();
+            assertEquals(
+                    Arrays.asList(
+                            "refs/remotes/origin/" + BRANCH,
+                            "refs/remotes/origin/" + OTHER_BRANCH
+                    ),
+                    refNames(repository, Constants.R_REMOTES)
+            );
+            assertEquals(
+                    Arrays.asList("refs/tags/v1", "refs/tags/v2"),
+                    refNames(repository, Constants.R_TAGS)
+            );
+            assertTrue(repository.getObjectDatabase().has(otherHead));
+        }
+    }
+
+    @Test
+    public void shallowClone() throws Exception {
+        assertNull(sync(true));
+        try (Git git = Git.open(workDir.toFile())) {
+            Repository repository = git.getRepository();
+            assertEquals(
+                    Collections.singletonList("refs/remotes/origin/" + BRANCH),
+                    refNames(repository, Constants.R_REMOTES)
+            );
+            assertEquals(Collections.emptyList(), refNames(repository, Constants.R_TAGS));
+            assertFalse(repository.getObjectDatabase().has(otherHead));
+            RemoteConfig remoteConfig = new RemoteConfig(repository.getConfig(), "origin");
+            assertEquals(
+                    Collections.singletonList(new RefSpec(
+                            "+refs/heads/" + BRANCH + ":refs/remotes/origin/" + BRANCH
+                    )),
+                    remoteConfig.getFetchRefSpecs()
+            );
+        }
+    }
+
+    @Test
+    public void shallowPullSkipsTags() throws Exception {
+        assertNull(sync(true));
+        ObjectId head = pushCommit("master new");
+        seed.tag().setName("v3").call();
+        seed.push().setPushTags().call();
+        assertNull(sync(true));
+        try (Git git = Git.open(workDir.toFile())) {
+            Repository repository = git.getRepository();
+            assertEquals(head, repository.resolve(Constants.HEAD));
+            assertEquals(Collections.emptyList(), refNames(repository, Constants.R_TAGS));
+        }
+    }
+
+    @Test
+    public void fullToShallowPrunesOtherBranches() throws Exception {
+        assertNull(sync(false));
+        assertNull(sync(true));
+        try (Git git = Git.open(workDir.toFile())) {
+            Repository repository = git.getRepository();
+            assertEquals(
+                    Collections.singletonList("refs/remotes/origin/" + BRANCH),
+                    refNames(repository, Constants.R_REMOTES)
+            );
+            // Pruned right away by gc, not loosened
+            assertFalse(repository.getObjectDatabase().has(otherHead));
+            assertEquals(0, getStat(git, "numberOfLooseObjects"));
+            assertEquals(1, getStat(git, "numberOfPackFiles"));
+        }
+        // Switching back fetches the other branches again
+        assertNull(sync(false));
+        try (Git git = Git.open(workDir.toFile())) {
+            assertTrue(git.getRepository().getObjectDatabase().has(otherHead));
+        }
+    }
+
+    @Test
+    public void gcAfterManyPulls() throws Exception {
+        assertNull(sync(false));
+        // Each pull adds a pack file
+        long lastNumPackFiles = 0;
+        int numGCs = 0;
+        for (int i = 0; i < 2 * GitAPIClient.GC_PACK_FILES_THRESHOLD; i++) {
+            ObjectId head = pushCommit("master pull " + i);
+            assertNull(sync(false));
+            try (Git git = Git.open(workDir.toFile())) {
+                assertEquals(head, git.getRepository().resolve(Constants.HEAD));
+                long numPackFiles = getStat(git, "numberOfPackFiles");
+                assertTrue(numPackFiles <= GitAPIClient.GC_PACK_FILES_THRESHOLD);
+                assertEquals(0, getStat(git, "numberOfLooseObjects"));
+                if (numPackFiles < lastNumPackFiles) {
+                    // Replaced packs are deleted right away
+                    assertEquals(1, numPackFiles);
+                    numGCs++;
+                }
+                lastNumPackFiles = numPackFiles;
+            }
+        }
+        assertEquals(2, numGCs);
+    }
+}
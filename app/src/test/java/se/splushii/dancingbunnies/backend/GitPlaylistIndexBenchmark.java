@@ -0,0 +1,225 @@
+package se.splushii.dancingbunnies.backend;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import se.splushii.dancingbunnies.musiclibrary.Playlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.commit;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.deleteRecursively;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.parser;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.playlistYAML;
+import static se.splushii.dancingbunnies.backend.GitPlaylistIndexTest.write;
+
+// Full rebuild versus incremental update of the playlist index for a repository with 1,000
+// playlists, a cold sync restoring the playlists from the index file, and the cost of reading
+// a playlist from its blob rather than the work tree. Also a rebuild with serial versus
+// parallel parsing, with the number of parse threads pinned.
+public class GitPlaylistIndexBenchmark {
+    private static final int NUM_PLAYLISTS = 1000;
+    private static final int NUM_CHANGED = 10;
+    private static final int ROUNDS = 5;
+    private static final int NUM_PARALLEL_PARSE_THREADS = 4;
+
+    private static String path(int i) {
+        return "playlists/" + (i % 10) + "/playlist" + i + ".yaml";
+    }
+
+    @Test
+    public void update() throws Exception {
+        Path workDir = Files.createTempDirectory("playlistindexbenchmark");
+        try (Git git = Git.init().setDirectory(workDir.toFile()).call()) {
+            for (int i = 0; i < NUM_PLAYLISTS; i++) {
+                write(workDir, path(i), playlistYAML("id" + i, "playlist " + i));
+            }
+            commit(git, "add playlists");
+            AtomicInteger numParsed = new AtomicInteger();
+            long rebuildNanos = 0;
+            long updateNanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                String src = "git@benchmark" + round;
+                Files.deleteIfExists(workDir.resolve(".git/dancingbunnies-playlist-index"));
+                GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+                numParsed.set(0);
+                long start = System.nanoTime();
+                assertNull(index.update(git.getRepository(), parser(src, numParsed)));
+                rebuildNanos += System.nanoTime() - start;
+                assertEquals(NUM_PLAYLISTS, numParsed.get());
+                assertEquals(NUM_PLAYLISTS, index.getEntries().size());
+
+                for (int i = 0; i < NUM_CHANGED; i++) {
+                    int changed = (round * NUM_CHANGED + i) * 37 % NUM_PLAYLISTS;
+                    write(workDir, path(changed), playlistYAML("id" + changed, "round " + round));
+                }
+                commit(git, "change playlists");
+                index = GitPlaylistIndex.load(src, workDir);
+                numParsed.set(0);
+                start = System.nanoTime();
+                assertNull(index.update(git.getRepository(), parser(src, numParsed)));
+                updateNanos += System.nanoTime() - start;
+                assertEquals(NUM_CHANGED, numParsed.get());
+            }
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "%d playlists: rebuild %.1f ms, update of %d changed %.1f ms",
+                    NUM_PLAYLISTS,
+                    rebuildNanos / 1e6 / ROUNDS,
+                    NUM_CHANGED,
+                    updateNanos / 1e6 / ROUNDS
+            ));
+
+            // As after a restart: nothing is kept in memory, HEAD is unchanged, and all
+            // playlists are restored from the index file
+            String src = "git@benchmark" + (ROUNDS - 1);
+            numParsed.set(0);
+            long coldSyncNanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+                assertNull(index.update(git.getRepository(), parser(src, numParsed)));
+                List<Playlist> playlists = index.getPlaylists();
+                coldSyncNanos += System.nanoTime() - start;
+                assertEquals(NUM_PLAYLISTS, playlists.size());
+            }
+            assertEquals(0, numParsed.get());
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "%d playlists: cold sync %.1f ms, parsed 0 files",
+                    NUM_PLAYLISTS,
+                    coldSyncNanos / 1e6 / ROUNDS
+            ));
+
+            // Lazy reads after an update open the repository for each blob
+            List<Playlist.Source> blobSources = new ArrayList<>();
+            List<Playlist.Source> fileSources = new ArrayList<>();
+            GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+            Path gitDir = workDir.resolve(".git");
+            for (GitPlaylistIndex.Entry entry: index.getEntries()) {
+                blobSources.add(new GitPlaylistIndex.BlobSource(gitDir, entry.path, entry.blobSHA));
+                fileSources.add(fileSource(index.getPath(entry)));
+            }
+            long blobBytes = 0;
+            long fileBytes = 0;
+            long blobNanos = 0;
+            long fileNanos = 0;
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                blobBytes += readAll(blobSources);
+                blobNanos += System.nanoTime() - start;
+                start = System.nanoTime();
+                fileBytes += readAll(fileSources);
+                fileNanos += System.nanoTime() - start;
+            }
+            assertEquals(NUM_PLAYLISTS, blobSources.size());
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "lazy read of %d playlists: blob %.1f us, work tree file %.1f us per playlist",
+                    NUM_PLAYLISTS,
+                    blobNanos / 1e3 / ROUNDS / NUM_PLAYLISTS,
+                    fileNanos / 1e3 / ROUNDS / NUM_PLAYLISTS
+            ));
+            assertEquals(fileBytes, blobBytes);
+        } finally {
+            deleteRecursively(workDir);
+        }
+    }
+
+    @Test
+    public void parseThreads() throws Exception {
+        Path workDir = Files.createTempDirectory("playlistindexbenchmark");
+        int defaultNumParseThreads = GitPlaylistIndex.getNumParseThreads();
+        try (Git git = Git.init().setDirectory(workDir.toFile()).call()) {
+            for (int i = 0; i < NUM_PLAYLISTS; i++) {
+                write(workDir, path(i), playlistYAML("id" + i, "playlist " + i));
+            }
+            write(workDir, "playlists/broken.yaml", "not: a playlist");
+            commit(git, "add playlists");
+            String src = "git@benchmark";
+            AtomicInteger numParsed = new AtomicInteger();
+            long[] nanos = new long[2];
+            List<String> serialEntries = null;
+            List<String> parallelEntries = null;
+            // Alternate serial and parallel rounds, after one warmup round of each
+            for (int round = -1; round < ROUNDS; round++) {
+                for (int parallel = 0; parallel < 2; parallel++) {
+                    GitPlaylistIndex.setNumParseThreads(
+                            parallel == 1 ? NUM_PARALLEL_PARSE_THREADS : 1
+                    );
+                    Files.deleteIfExists(workDir.resolve(".git/dancingbunnies-playlist-index"));
+                    GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+                    numParsed.set(0);
+                    long start = System.nanoTime();
+                    assertNull(index.update(git.getRepository(), parser(src, numParsed)));
+                    if (round >= 0) {
+                        nanos[parallel] += System.nanoTime() - start;
+                    }
+                    assertEquals(NUM_PLAYLISTS + 1, numParsed.get());
+                    List<String> entries = new ArrayList<>();
+                    for (GitPlaylistIndex.Entry entry: index.getEntries()) {
+                        entries.add(entry.path + ": "
+                                + (entry.playlistID == null ? null : entry.playlistID.id));
+                    }
+                    if (parallel == 1) {
+                        parallelEntries = entries;
+                    } else {
+                        serialEntries = entries;
+                    }
+                }
+            }
+            // Same entries in the same (tree) order, including the invalid one
+            assertEquals(serialEntries, parallelEntries);
+            System.out.println(String.format(
+                    Locale.ROOT,
+                    "rebuild of %d playlists on %d available processors:"
+                            + " serial %.1f ms, %d parse threads %.1f ms",
+                    NUM_PLAYLISTS,
+                    Runtime.getRuntime().availableProcessors(),
+                    nanos[0] / 1e6 / ROUNDS,
+                    NUM_PARALLEL_PARSE_THREADS,
+                    nanos[1] / 1e6 / ROUNDS
+            ));
+        } finally {
+            GitPlaylistIndex.setNumParseThreads(defaultNumParseThreads);
+            deleteRecursively(workDir);
+        }
+    }
+
+    private static Playlist.Source fileSource(Path path) {
+        return new Playlist.Source() {
+            @Override
+            public InputStream open() throws IOException {
+                return Files.newInputStream(path);
+            }
+
+            @Override
+            public long size() throws IOException {
+                return Files.size(path);
+            }
+        };
+    }
+
+    private static long readAll(List<Playlist.Source> sources) throws IOException {
+        long numBytes = 0;
+        byte[] buf = new byte[4096];
+        for (Playlist.Source source: sources) {
+            try (InputStream inputStream = source.open()) {
+                int n;
+                while ((n = inputStream.read(buf)) > 0) {
+                    numBytes += n;
+                }
+            }
+        }
+        return numBytes;
+    }
+}
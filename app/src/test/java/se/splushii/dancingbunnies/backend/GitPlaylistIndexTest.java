@@ -0,0 +1,324 @@
+package se.splushii.dancingbunnies.backend;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+import se.splushii.dancingbunnies.musiclibrary.Playlist;
+import se.splushii.dancingbunnies.musiclibrary.QueryTree;
+import se.splushii.dancingbunnies.musiclibrary.SmartPlaylist;
+import se.splushii.dancingbunnies.musiclibrary.StupidPlaylist;
+import se.splushii.dancingbunnies.storage.db.PlaylistEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class GitPlaylistIndexTest {
+    private static final ObjectMapper objMapper = new ObjectMapper(new YAMLFactory());
+
+    private Path workDir;
+    private String src;
+    private Git git;
+    private final AtomicInteger numParsed = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("playlistindex");
+        src = "git@" + workDir.getFileName();
+        git = Git.init().setDirectory(workDir.toFile()).call();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        git.close();
+        deleteRecursively(workDir);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path: (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    static String playlistYAML(String id, String name) {
+        return "schema_version: 1\n"
+                + "playlist:\n"
+                + "  type: smart\n"
+                + "  id: " + id + "\n"
+                + "  meta:\n"
+                + "  - name: " + name + "\n"
+                + "query: '{}'\n";
+    }
+
+    static String staticPlaylistYAML(String id, String... trackIDs) {
+        StringBuilder yaml = new StringBuilder("schema_version: 1\n"
+                + "playlist:\n"
+                + "  type: static\n"
+                + "  id: " + id + "\n"
+                + "  meta: []\n"
+                + "entries:\n");
+        for (int i = 0; i < trackIDs.length; i++) {
+            yaml.append("- id: entry").append(i).append("\n")
+                    .append("  entry:\n")
+                    .append("    type: track\n")
+                    .append("    src: tracksrc\n")
+                    .append("    id: ").append(trackIDs[i]).append("\n");
+        }
+        return yaml.toString();
+    }
+
+    static void write(Path workDir, String path, String content) throws IOException {
+        Path file = workDir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void commit(Git git, String message) throws Exception {
+        git.add().addFilepattern(".").call();
+        git.add().addFilepattern(".").setUpdate(true).call();
+        git.commit().setMessage(message).call();
+    }
+
+    // Parses the playlist ID, name and type only, as Playlist.from() needs a Context for
+    // schema validation
+    static Function<Playlist.Source, Playlist> parser(String src, AtomicInteger numParsed) {
+        return source -> {
+            numParsed.incrementAndGet();
+            try (InputStream inputStream = source.open()) {
+                JsonNode root = objMapper.readTree(inputStream);
+                String id = root.path("playlist").path("id").asText(null);
+                if (id == null) {
+                    return null;
+                }
+                EntryID entryID = new EntryID(src, id, Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST);
+                Meta meta = new Meta(entryID);
+                String name = root.path("playlist").path("meta").path(0).path("name").asText(null);
+                if (name != null) {
+                    meta.addString(Meta.FIELD_TITLE, name);
+                }
+                if (Playlist.TYPE_STUPID.equals(root.path("playlist").path("type").asText())) {
+                    return new StupidPlaylist(meta, Collections.emptyList());
+                }
+                return new SmartPlaylist(meta, new QueryTree(QueryTree.Op.AND, false));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    private String update(GitPlaylistIndex index) {
+        return index.update(git.getRepository(), parser(src, numParsed));
+    }
+
+    private static HashMap<String, String> ids(Collection<GitPlaylistIndex.Entry> entries) {
+        HashMap<String, String> ids = new HashMap<>();
+        for (GitPlaylistIndex.Entry entry: entries) {
+            ids.put(entry.path, entry.playlistID == null ? null : entry.playlistID.id);
+        }
+        return ids;
+    }
+
+    @Test
+    public void parsesCommittedBlobs() throws Exception {
+        write(workDir, "playlists/a.yaml", playlistYAML("committed", "a"));
+        commit(git, "add a");
+        // Uncommitted change in the work tree
+        write(workDir, "playlists/a.yaml", playlistYAML("uncommitted", "a"));
+        GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+        assertNull(update(index));
+        assertEquals("committed", ids(index.getEntries()).get("playlists/a.yaml"));
+        String blobSHA = index.getEntries().iterator().next().blobSHA;
+        assertEquals(
+                git.getRepository().resolve("HEAD:playlists/a.yaml").name(),
+                blobSHA
+        );
+    }
+
+    @Test
+    public void blobsCanBeReadAfterUpdate() throws Exception {
+        write(workDir, "a.yaml", playlistYAML("a", "a"));
+        commit(git, "add a");
+        List<Playlist.Source> sources = new ArrayList<>();
+        GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+        assertNull(index.update(git.getRepository(), source -> {
+            sources.add(source);
+            return parser(src, numParsed).apply(source);
+        }));
+        write(workDir, "a.yaml", playlistYAML("b", "b"));
+        assertEquals(1, sources.size());
+        Playlist.Source source = sources.get(0);
+        byte[] expected = playlistYAML("a", "a").getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, source.size());
+        try (InputStream inputStream = source.open()) {
+            assertEquals(
+                    playlistYAML("a", "a"),
+                    new String(readAll(inputStream), StandardCharsets.UTF_8)
+            );
+        }
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = inputStream.read(buf)) > 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void incrementalUpdate() throws Exception {
+        write(workDir, "a.yaml", playlistYAML("a", "a"));
+        write(workDir, "b.yaml", playlistYAML("b", "b"));
+        write(workDir, "c.yaml", playlistYAML("c", "c"));
+        write(workDir, ".hidden.yaml", playlistYAML("hidden", "hidden"));
+        write(workDir, "notes.txt", "not a playlist");
+        commit(git, "add playlists");
+        GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+        assertNull(update(index));
+        assertEquals(3, numParsed.get());
+        assertEquals(3, index.getEntries().size());
+
+        write(workDir, "b.yaml", playlistYAML("b2", "b"));
+        Files.delete(workDir.resolve("c.yaml"));
+        write(workDir, "d.yaml", playlistYAML("d", "d"));
+        write(workDir, "broken.yaml", "not: a playlist");
+        commit(git, "change playlists");
+        numParsed.set(0);
+        // The index is read back from the .git directory
+        index = GitPlaylistIndex.load(src, workDir);
+        assertNull(update(index));
+        assertEquals(3, numParsed.get());
+        HashMap<String, String> expected = new HashMap<>();
+        expected.put("a.yaml", "a");
+        expected.put("b.yaml", "b2");
+        expected.put("d.yaml", "d");
+        expected.put("broken.yaml", null);
+        assertEquals(expected, ids(index.getEntries()));
+
+        // Up to date
+        numParsed.set(0);
+        assertNull(update(index));
+        assertEquals(0, numParsed.get());
+    }
+
+    @Test
+    public void parallelParseKeepsTreeOrder() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            write(workDir, "playlists/" + (i % 3) + "/p" + i + ".yaml", playlistYAML("p" + i, "p"));
+        }
+        write(workDir, "playlists/broken.yaml", "not: a playlist");
+        commit(git, "add playlists");
+        int defaultNumParseThreads = GitPlaylistIndex.getNumParseThreads();
+        List<List<String>> entries = new ArrayList<>();
+        try {
+            for (int numThreads: new int[] {1, 4}) {
+                GitPlaylistIndex.setNumParseThreads(numThreads);
+                Files.deleteIfExists(workDir.resolve(".git/dancingbunnies-playlist-index"));
+                GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+                numParsed.set(0);
+                assertNull(update(index));
+                assertEquals(21, numParsed.get());
+                List<String> paths = new ArrayList<>();
+                for (GitPlaylistIndex.Entry entry: index.getEntries()) {
+                    paths.add(entry.path + ": "
+                            + (entry.playlistID == null ? null : entry.playlistID.id));
+                }
+                entries.add(paths);
+            }
+        } finally {
+            GitPlaylistIndex.setNumParseThreads(defaultNumParseThreads);
+        }
+        assertEquals(entries.get(0), entries.get(1));
+    }
+
+    @Test
+    public void getPlaylistsSkipsInvalidFiles() throws Exception {
+        write(workDir, "a.yaml", playlistYAML("a", "a"));
+        write(workDir, "broken.yaml", "not: a playlist");
+        commit(git, "add playlists");
+        GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+        assertNull(update(index));
+        List<Playlist> playlists = index.getPlaylists();
+        assertEquals(1, playlists.size());
+        assertEquals("a", playlists.get(0).meta.entryID.id);
+    }
+
+    @Test
+    public void getPlaylistsAfterLoad() throws Exception {
+        write(workDir, "smart.yaml", playlistYAML("smart", "smart name"));
+        write(workDir, "static.yaml", staticPlaylistYAML("static", "t1", "t2"));
+        commit(git, "add playlists");
+        GitPlaylistIndex index = GitPlaylistIndex.load(src, workDir);
+        assertNull(update(index));
+        assertEquals(2, numParsed.get());
+        // Uncommitted change in the work tree
+        write(workDir, "static.yaml", staticPlaylistYAML("static", "uncommitted"));
+
+        // As after a restart: the playlists are restored from the index without parsing
+        numParsed.set(0);
+        index = GitPlaylistIndex.load(src, workDir);
+        assertNull(update(index));
+        List<Playlist> playlists = index.getPlaylists();
+        assertEquals(0, numParsed.get());
+        assertEquals(2, playlists.size());
+        HashMap<String, Playlist> byID = new HashMap<>();
+        for (Playlist playlist: playlists) {
+            assertEquals(src, playlist.meta.entryID.src);
+            byID.put(playlist.meta.entryID.id, playlist);
+        }
+        SmartPlaylist smart = (SmartPlaylist) byID.get("smart");
+        assertEquals("smart name", smart.meta.getFirstString(Meta.FIELD_TITLE));
+        assertEquals(
+                new QueryTree(QueryTree.Op.AND, false).toJSON().toString(),
+                smart.getJSONQueryString()
+        );
+        // Entries of static playlists are read from the committed blob
+        List<PlaylistEntry> entries = ((StupidPlaylist) byID.get("static")).getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("t1", entries.get(0).entryID().id);
+        assertEquals("t2", entries.get(1).entryID().id);
+    }
+
+    @Test
+    public void rebuildsForOtherSource() throws Exception {
+        write(workDir, "a.yaml", playlistYAML("a", "a"));
+        commit(git, "add a");
+        assertNull(update(GitPlaylistIndex.load(src, workDir)));
+        numParsed.set(0);
+        String otherSrc = src + "-other";
+        GitPlaylistIndex index = GitPlaylistIndex.load(otherSrc, workDir);
+        assertTrue(index.getEntries().isEmpty());
+        assertNull(index.update(git.getRepository(), parser(otherSrc, numParsed)));
+        assertEquals(1, numParsed.get());
+        assertEquals(otherSrc, index.getPlaylists().get(0).meta.entryID.src);
+    }
+}
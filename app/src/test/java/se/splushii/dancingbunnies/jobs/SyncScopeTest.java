@@ -0,0 +1,65 @@
+package se.splushii.dancingbunnies.jobs;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import androidx.work.Data;
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SyncScopeTest {
+    private static final String SRC = "git@example";
+
+    private static SyncScope roundTrip(SyncScope scope) {
+        return SyncScope.from(scope.getSrc(), scope.putData(new Data.Builder()).build());
+    }
+
+    @Test
+    public void roundTrip_keepsEntryIDTypes() {
+        EntryID track = new EntryID(SRC, "track", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+        EntryID playlist = new EntryID(SRC, "playlist", Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST);
+        EntryID otherPlaylist = new EntryID(SRC, "other", EntryID.TYPE_PLAYLIST);
+        SyncScope scope = new SyncScope(SRC);
+        scope.addTrack(track);
+        scope.addTrack(track);
+        scope.addPlaylist(playlist);
+        scope.addPlaylist(otherPlaylist);
+
+        SyncScope restored = roundTrip(scope);
+        assertEquals(Arrays.asList(track), restored.getTracks());
+        assertEquals(
+                new HashSet<>(Arrays.asList(playlist, otherPlaylist)),
+                new HashSet<>(restored.getPlaylists())
+        );
+        assertFalse(restored.isAllTracks());
+        assertFalse(restored.isAllPlaylists());
+    }
+
+    @Test
+    public void tooManyEntries_syncsAll() {
+        SyncScope scope = new SyncScope(SRC);
+        for (int i = 0; i < 1000; i++) {
+            scope.addTrack(new EntryID(SRC, "track" + i, Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        }
+        scope.addPlaylist(new EntryID(SRC, "playlist", Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST));
+        SyncScope restored = roundTrip(scope);
+        assertTrue(restored.isAllTracks());
+        assertTrue(restored.getTracks().isEmpty());
+        assertTrue(restored.hasTracks());
+        assertFalse(restored.isAllPlaylists());
+        assertEquals(1, restored.getPlaylists().size());
+    }
+
+    @Test
+    public void unscopedData() {
+        assertNull(SyncScope.from(SRC, new Data.Builder().build()));
+        assertTrue(roundTrip(new SyncScope(SRC)).isEmpty());
+    }
+}
@@ -0,0 +1,131 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+
+// HashMap/HashSet heavy workload, as when diffing a synced library against the stored one.
+// Compares EntryID with a key hashing its concatenated fields on every call, as EntryID did
+// before the hash was precomputed.
+public class EntryIDBenchmark {
+    private static final int NUM_ENTRIES = 100_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+
+    private static class ConcatenatedKey {
+        final String src;
+        final String id;
+        final String type;
+
+        ConcatenatedKey(String src, String id, String type) {
+            this.src = src;
+            this.id = id;
+            this.type = type;
+        }
+
+        String key() {
+            return src + id + type;
+        }
+
+        @Override
+        public int hashCode() {
+            return key().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            ConcatenatedKey k = (ConcatenatedKey) obj;
+            return src.equals(k.src) && id.equals(k.id) && type.equals(k.type);
+        }
+    }
+
+    private static <K> long workload(List<K> stored, List<K> synced) {
+        HashMap<K, Integer> positions = new HashMap<>();
+        for (int i = 0; i < stored.size(); i++) {
+            positions.put(stored.get(i), i);
+        }
+        HashSet<K> seen = new HashSet<>();
+        long sum = 0;
+        for (K key: synced) {
+            Integer position = positions.get(key);
+            if (position != null) {
+                sum += position;
+            }
+            seen.add(key);
+        }
+        for (K key: stored) {
+            if (!seen.contains(key)) {
+                sum++;
+            }
+        }
+        return sum;
+    }
+
+    private static <K> double measure(Function<Integer, K> keyFactory) {
+        // New key instances for every round, since the hash may be cached per instance
+        long result = -1;
+        long nanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            List<K> stored = new ArrayList<>(NUM_ENTRIES);
+            List<K> synced = new ArrayList<>(NUM_ENTRIES);
+            for (int i = 0; i < NUM_ENTRIES; i++) {
+                stored.add(keyFactory.apply(i));
+                // Half of the synced entries are new
+                synced.add(keyFactory.apply(i % 2 == 0 ? i : NUM_ENTRIES + i));
+            }
+            long start = System.nanoTime();
+            long sum = workload(stored, synced);
+            if (round >= WARMUP_ROUNDS) {
+                nanos += System.nanoTime() - start;
+            }
+            if (result >= 0) {
+                assertEquals(result, sum);
+            }
+            result = sum;
+        }
+        return nanos / 1e6 / ROUNDS;
+    }
+
+    private static String src() {
+        return "dancingbunnies.backend.subsonic@https://music.example.com";
+    }
+
+    private static String id(int i) {
+        return String.format(Locale.ROOT, "%08x-%04x-4000-8000-%012x", i * 31, i % 65536, i);
+    }
+
+    @Test
+    public void hashMapWorkload() {
+        double concatenatedMs = measure(i -> new ConcatenatedKey(
+                src(),
+                id(i),
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK
+        ));
+        double entryIDMs = measure(i -> new EntryID(
+                src(),
+                id(i),
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK
+        ));
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%d entries: concatenated key hash %.1f ms, EntryID %.1f ms (%.1fx)",
+                NUM_ENTRIES,
+                concatenatedMs,
+                entryIDMs,
+                concatenatedMs / entryIDMs
+        ));
+    }
+}
@@ -0,0 +1,37 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class EntryIDTest {
+    @Test
+    public void equalsAndHashCode() {
+        EntryID a = new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+        EntryID b = new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST));
+        assertNotEquals(a, new EntryID("src", "id2", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        assertNotEquals(a, new EntryID("src2", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        // Fields are not concatenated
+        assertNotEquals(
+                new EntryID("ab", "c", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK),
+                new EntryID("a", "bc", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK)
+        );
+    }
+
+    @Test
+    public void interned() {
+        EntryID a = new EntryID("src", "interned", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+        EntryID b = new EntryID("src", "interned", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+        assertNotSame(a, b);
+        EntryID internedA = EntryID.intern(a);
+        assertSame(internedA, EntryID.intern(b));
+        assertSame(internedA, EntryID.interned("src", "interned", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        assertEquals(a, internedA);
+    }
+}
@@ -0,0 +1,140 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+// Size and encode/decode time of MetaCodec compared to the JSON path (toJSON()/from(JSONObject))
+// and the previous Bundle payload, where the EntryID strings and the three HashMaps were stored
+// as Serializables. android.os.Bundle is not available on the JVM, so the Bundle payload is
+// approximated with Java serialization, which is what Parcel.writeSerializable() uses.
+public class MetaCodecBenchmark {
+    private static final int NUM_METAS = 5_000;
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    // Keys of MetaCodecTest.track()
+    private static final int NUM_KEYS = 13;
+
+    private interface Codec {
+        byte[] encode(Meta meta) throws Exception;
+        Meta decode(byte[] data) throws Exception;
+    }
+
+    private static class BinaryCodec implements Codec {
+        @Override
+        public byte[] encode(Meta meta) {
+            return meta.toBytes();
+        }
+
+        @Override
+        public Meta decode(byte[] data) {
+            return Meta.fromBytes(data);
+        }
+    }
+
+    private static class JSONCodec implements Codec {
+        @Override
+        public byte[] encode(Meta meta) {
+            return meta.toJSON().toString().getBytes();
+        }
+
+        @Override
+        public Meta decode(byte[] data) throws JSONException {
+            return Meta.from(new JSONObject(new String(data)));
+        }
+    }
+
+    private static class SerializableCodec implements Codec {
+        @Override
+        public byte[] encode(Meta meta) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(meta.entryID.src);
+                out.writeObject(meta.entryID.id);
+                out.writeObject(meta.entryID.type);
+                out.writeObject(meta.stringMap);
+                out.writeObject(meta.longMap);
+                out.writeObject(meta.doubleMap);
+            }
+            return bytes.toByteArray();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Meta decode(byte[] data) throws IOException, ClassNotFoundException {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                EntryID entryID = new EntryID(
+                        (String) in.readObject(),
+                        (String) in.readObject(),
+                        (String) in.readObject()
+                );
+                return new Meta(
+                        entryID,
+                        (HashMap<String, List<String>>) in.readObject(),
+                        (HashMap<String, List<Long>>) in.readObject(),
+                        (HashMap<String, List<Double>>) in.readObject()
+                );
+            }
+        }
+    }
+
+    private static void measure(String name, Codec codec, List<Meta> metas) throws Exception {
+        long bytes = 0;
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            List<byte[]> encoded = new ArrayList<>(metas.size());
+            long start = System.nanoTime();
+            for (Meta meta: metas) {
+                encoded.add(codec.encode(meta));
+            }
+            long encodeEnd = System.nanoTime();
+            int numKeys = 0;
+            for (byte[] data: encoded) {
+                numKeys += codec.decode(data).keySet().size();
+            }
+            long decodeEnd = System.nanoTime();
+            assertEquals(metas.size() * NUM_KEYS, numKeys);
+            if (round < WARMUP_ROUNDS) {
+                continue;
+            }
+            encodeNanos += encodeEnd - start;
+            decodeNanos += decodeEnd - encodeEnd;
+            bytes = 0;
+            for (byte[] data: encoded) {
+                bytes += data.length;
+            }
+        }
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%-12s %5d bytes/meta, encode %6.2f us/meta, decode %6.2f us/meta",
+                name,
+                bytes / metas.size(),
+                encodeNanos / 1e3 / ROUNDS / metas.size(),
+                decodeNanos / 1e3 / ROUNDS / metas.size()
+        ));
+    }
+
+    @Test
+    public void compareCodecs() throws Exception {
+        List<Meta> metas = new ArrayList<>(NUM_METAS);
+        for (int i = 0; i < NUM_METAS; i++) {
+            metas.add(MetaCodecTest.track(i));
+        }
+        measure("binary", new BinaryCodec(), metas);
+        measure("json", new JSONCodec(), metas);
+        measure("serializable", new SerializableCodec(), metas);
+    }
+}
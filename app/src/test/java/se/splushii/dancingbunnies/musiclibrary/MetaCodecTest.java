@@ -0,0 +1,119 @@
+package se.splushii.dancingbunnies.musiclibrary;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class MetaCodecTest {
+    private static Meta roundTrip(Meta meta) {
+        return Meta.fromBytes(meta.toBytes());
+    }
+
+    private static void assertMetaEquals(Meta expected, Meta actual) {
+        assertEquals(expected.entryID, actual.entryID);
+        assertEquals(expected.stringMap, actual.stringMap);
+        assertEquals(expected.longMap, actual.longMap);
+        assertEquals(expected.doubleMap, actual.doubleMap);
+    }
+
+    static Meta track(int i) {
+        Meta meta = new Meta(new EntryID(
+                "dancingbunnies.backend.subsonic@https://music.example.com",
+                "track-" + i,
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK
+        ));
+        meta.addString(Meta.FIELD_TITLE, "Title " + i);
+        meta.addString(Meta.FIELD_ALBUM, "Album " + i / 12);
+        meta.addString(Meta.FIELD_ARTIST, "Artist " + i / 100);
+        meta.addString(Meta.FIELD_GENRE, "Rock");
+        meta.addString(Meta.FIELD_GENRE, "Pop");
+        meta.addString(Meta.FIELD_CONTENT_TYPE, "audio/flac");
+        meta.addString(Meta.FIELD_MEDIA_ROOT, "music");
+        meta.addLong(Meta.FIELD_YEAR, 1960 + i % 60);
+        meta.addLong(Meta.FIELD_DURATION, 180_000 + i);
+        meta.addLong(Meta.FIELD_TRACKNUMBER, i % 12 + 1);
+        meta.addLong(Meta.FIELD_DISCNUMBER, 1);
+        meta.addLong(Meta.FIELD_BITRATE, 1411);
+        meta.addLong(Meta.FIELD_FILE_SIZE, 30_000_000L + i);
+        meta.addDouble(Meta.FIELD_AVERAGE_RATING, (i % 50) / 10.0);
+        return meta;
+    }
+
+    @Test
+    public void roundTrip_empty() {
+        Meta meta = new Meta(new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void roundTrip_track() {
+        Meta meta = track(1234);
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void roundTrip_edgeValues() {
+        Meta meta = new Meta(new EntryID("", "\u00e5\u00e4\u00f6 \ud83d\udc07", Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST));
+        meta.addString(Meta.FIELD_TITLE, "");
+        meta.addString(Meta.FIELD_TITLE, "\u65e5\u672c\u8a9e \u2211 \ud83d\udc07");
+        meta.addString("a key with \u0000 null char", "value");
+        meta.addLong(Meta.FIELD_YEAR, 0);
+        meta.addLong(Meta.FIELD_YEAR, -1);
+        meta.addLong(Meta.FIELD_YEAR, Long.MIN_VALUE);
+        meta.addLong(Meta.FIELD_YEAR, Long.MAX_VALUE);
+        meta.addLong(Meta.FIELD_DURATION, Integer.MAX_VALUE + 1L);
+        meta.addDouble(Meta.FIELD_AVERAGE_RATING, -0.0);
+        meta.addDouble(Meta.FIELD_AVERAGE_RATING, Double.NaN);
+        meta.addDouble(Meta.FIELD_AVERAGE_RATING, Double.NEGATIVE_INFINITY);
+        meta.addDouble(Meta.FIELD_AVERAGE_RATING, Double.MIN_VALUE);
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void roundTrip_nullValues() {
+        Meta meta = new Meta(new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        meta.stringMap.put(Meta.FIELD_TITLE, Arrays.asList("a", null, "c"));
+        meta.longMap.put(Meta.FIELD_YEAR, Arrays.asList(null, 2L, null));
+        meta.longMap.put(Meta.FIELD_DURATION, Collections.singletonList(null));
+        // More than one bitmap byte
+        Double[] doubles = new Double[19];
+        for (int i = 0; i < doubles.length; i++) {
+            doubles[i] = i % 3 == 0 ? null : i / 2.0;
+        }
+        meta.doubleMap.put(Meta.FIELD_AVERAGE_RATING, Arrays.asList(doubles));
+        meta.doubleMap.put("empty", Collections.emptyList());
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void roundTrip_manyKeys() {
+        Meta meta = new Meta(new EntryID("src", "id", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK));
+        // Key indices and value counts above one varint byte
+        for (int i = 0; i < 300; i++) {
+            meta.addString("string key " + i, "value " + i);
+            meta.addLong("long key " + i, i);
+        }
+        for (int i = 0; i < 200; i++) {
+            meta.addDouble(Meta.FIELD_AVERAGE_RATING, i);
+        }
+        assertMetaEquals(meta, roundTrip(meta));
+    }
+
+    @Test
+    public void decode_sharesEntryIDs() {
+        Meta meta = track(1);
+        EntryID interned = EntryID.intern(meta.entryID);
+        assertSame(interned, roundTrip(meta).entryID);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_rejectsUnknownVersion() {
+        byte[] data = track(1).toBytes();
+        data[0] = 127;
+        Meta.fromBytes(data);
+    }
+}
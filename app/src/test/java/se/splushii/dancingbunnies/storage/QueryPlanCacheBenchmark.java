@@ -0,0 +1,206 @@
+package se.splushii.dancingbunnies.storage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+import se.splushii.dancingbunnies.musiclibrary.QueryLeaf;
+import se.splushii.dancingbunnies.musiclibrary.QueryNode;
+import se.splushii.dancingbunnies.musiclibrary.QueryTree;
+import se.splushii.dancingbunnies.storage.db.MetaDao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+// Compiling the SQL of a library query (as MetaStorage does on a plan cache miss) versus a plan
+// cache hit (shape key, lookup and binding), for deep and wide query trees. Both must give the
+// same SQL and arguments.
+public class QueryPlanCacheBenchmark {
+    private static final int NUM_QUERIES = 64;
+    private static final int WARMUP_ROUNDS = 50;
+    private static final int ROUNDS = 50;
+    private static final String ENTRY_TYPE = EntryID.TYPE_TRACK;
+    private static final List<String> SORT_FIELDS = Collections.singletonList(Meta.FIELD_YEAR);
+    private static final String[] WIDE_QUERY_KEYS = {
+            Meta.FIELD_ARTIST,
+            Meta.FIELD_ALBUM,
+            Meta.FIELD_TITLE,
+            Meta.FIELD_GENRE,
+            Meta.FIELD_YEAR,
+            Meta.FIELD_DURATION,
+            Meta.FIELD_TRACKNUMBER,
+            Meta.FIELD_AVERAGE_RATING
+    };
+
+    // Balanced tree of alternating AND/OR nodes with 2^depth leaves
+    private static QueryNode deepQuery(int depth, int variant) {
+        if (depth == 0) {
+            return new QueryLeaf(
+                    Meta.FIELD_YEAR,
+                    QueryLeaf.Op.GREATER_OR_EQUALS,
+                    Integer.toString(1950 + variant),
+                    false
+            );
+        }
+        QueryTree tree = new QueryTree(depth % 2 == 0 ? QueryTree.Op.AND : QueryTree.Op.OR, false);
+        tree.addChild(deepQuery(depth - 1, variant));
+        tree.addChild(new QueryLeaf(
+                Meta.FIELD_ARTIST,
+                QueryLeaf.Op.LIKE,
+                "artist " + variant + " " + depth,
+                depth % 3 == 0
+        ));
+        tree.addChild(deepQuery(depth - 1, variant + 1));
+        return tree;
+    }
+
+    // One AND node with width leaves over several keys, each key joining another meta table
+    private static QueryNode wideQuery(int width, int variant) {
+        QueryTree tree = new QueryTree(QueryTree.Op.AND, false);
+        for (int i = 0; i < width; i++) {
+            String key = WIDE_QUERY_KEYS[i % WIDE_QUERY_KEYS.length];
+            String value;
+            switch (Meta.getType(key)) {
+                case LONG:
+                    value = Integer.toString(variant + i);
+                    break;
+                case DOUBLE:
+                    value = Double.toString((variant + i) / 10.0);
+                    break;
+                default:
+                case STRING:
+                    value = key + " " + variant + " " + i;
+                    break;
+            }
+            tree.addChild(new QueryLeaf(key, QueryLeaf.Op.EQUALS, value, i % 5 == 0));
+        }
+        return tree;
+    }
+
+    private static int numLeaves(QueryNode queryNode) {
+        if (queryNode instanceof QueryLeaf) {
+            return 1;
+        }
+        int numLeaves = 0;
+        for (QueryNode node: (QueryTree) queryNode) {
+            numLeaves += numLeaves(node);
+        }
+        return numLeaves;
+    }
+
+    private static class Query {
+        final String sql;
+        final Object[] args;
+
+        Query(String sql, Object[] args) {
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    private static Query compile(QueryNode queryNode) {
+        String primaryTypeKey =
+                MetaStorage.getQueryEntriesSQLQueryPrimaryTypeKey(ENTRY_TYPE, null);
+        QueryPlanCache.Plan plan = MetaStorage.compileQueryEntriesQueryPlan(
+                ENTRY_TYPE,
+                primaryTypeKey,
+                MetaDao.getTable(ENTRY_TYPE, primaryTypeKey),
+                SORT_FIELDS,
+                true,
+                queryNode
+        );
+        return new Query(plan.sql, plan.bindArgs(queryNode));
+    }
+
+    private static Query lookup(QueryPlanCache cache, QueryNode queryNode) {
+        String shapeKey = QueryPlanCache.shapeKey(ENTRY_TYPE, null, SORT_FIELDS, true, queryNode);
+        QueryPlanCache.Plan plan = cache.get(shapeKey);
+        return new Query(plan.sql, plan.bindArgs(queryNode));
+    }
+
+    private static void run(String name, List<QueryNode> queries) {
+        QueryNode first = queries.get(0);
+        QueryPlanCache cache = new QueryPlanCache();
+        String primaryTypeKey =
+                MetaStorage.getQueryEntriesSQLQueryPrimaryTypeKey(ENTRY_TYPE, null);
+        cache.put(
+                QueryPlanCache.shapeKey(ENTRY_TYPE, null, SORT_FIELDS, true, first),
+                MetaStorage.compileQueryEntriesQueryPlan(
+                        ENTRY_TYPE,
+                        primaryTypeKey,
+                        MetaDao.getTable(ENTRY_TYPE, primaryTypeKey),
+                        SORT_FIELDS,
+                        true,
+                        first
+                )
+        );
+        // The plan compiled for the first query is bound to the literals of the others
+        for (QueryNode queryNode: queries) {
+            Query compiled = compile(queryNode);
+            Query cached = lookup(cache, queryNode);
+            assertEquals(compiled.sql, cached.sql);
+            assertArrayEquals(compiled.args, cached.args);
+        }
+
+        long sink = 0;
+        long compileNanos = 0;
+        long lookupNanos = 0;
+        for (int round = -WARMUP_ROUNDS; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (QueryNode queryNode: queries) {
+                sink += compile(queryNode).args.length;
+            }
+            long compiled = System.nanoTime();
+            for (QueryNode queryNode: queries) {
+                sink += lookup(cache, queryNode).args.length;
+            }
+            if (round >= 0) {
+                compileNanos += compiled - start;
+                lookupNanos += System.nanoTime() - compiled;
+            }
+        }
+        int numArgs = compile(first).args.length;
+        assertEquals((long) 2 * (WARMUP_ROUNDS + ROUNDS) * NUM_QUERIES * numArgs, sink);
+        double compileMicros = compileNanos / 1e3 / ROUNDS / NUM_QUERIES;
+        double lookupMicros = lookupNanos / 1e3 / ROUNDS / NUM_QUERIES;
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%s (%d leaves, %d args, %d chars of SQL):"
+                        + " compile %.1f us, cache hit %.1f us (%.1fx)",
+                name,
+                numLeaves(first),
+                numArgs,
+                compile(first).sql.length(),
+                compileMicros,
+                lookupMicros,
+                compileMicros / lookupMicros
+        ));
+    }
+
+    @Test
+    public void deepTrees() {
+        for (int depth: new int[] {1, 3, 5, 7}) {
+            List<QueryNode> queries = new ArrayList<>();
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                queries.add(deepQuery(depth, i));
+            }
+            run("depth " + depth, queries);
+        }
+    }
+
+    @Test
+    public void wideTrees() {
+        for (int width: new int[] {4, 16, 64, 256}) {
+            List<QueryNode> queries = new ArrayList<>();
+            for (int i = 0; i < NUM_QUERIES; i++) {
+                queries.add(wideQuery(width, i));
+            }
+            run("width " + width, queries);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package se.splushii.dancingbunnies.storage;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+import se.splushii.dancingbunnies.musiclibrary.QueryLeaf;
+import se.splushii.dancingbunnies.musiclibrary.QueryNode;
+import se.splushii.dancingbunnies.musiclibrary.QueryTree;
+import se.splushii.dancingbunnies.storage.db.MetaDao;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class QueryPlanCacheTest {
+    private static final List<String> SORT_FIELDS = Collections.singletonList(Meta.FIELD_ARTIST);
+
+    private static QueryTree query(String artist, String year, String duration) {
+        QueryTree tree = new QueryTree(QueryTree.Op.AND, false);
+        tree.addChild(new QueryLeaf(Meta.FIELD_ARTIST, QueryLeaf.Op.EQUALS, artist, false));
+        QueryTree subTree = new QueryTree(QueryTree.Op.OR, true);
+        subTree.addChild(new QueryLeaf(Meta.FIELD_YEAR, QueryLeaf.Op.GREATER, year, false));
+        subTree.addChild(new QueryLeaf(Meta.FIELD_DURATION, QueryLeaf.Op.LESS, duration, true));
+        tree.addChild(subTree);
+        return tree;
+    }
+
+    private static String shapeKey(QueryNode queryNode) {
+        return QueryPlanCache.shapeKey(
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK,
+                Meta.FIELD_ARTIST,
+                SORT_FIELDS,
+                true,
+                queryNode
+        );
+    }
+
+    @Test
+    public void shapeKey_ignoresLiterals() {
+        assertEquals(
+                shapeKey(query("a", "1990", "100")),
+                shapeKey(query("b", "2000", "200"))
+        );
+    }
+
+    @Test
+    public void shapeKey_differsOnShape() {
+        String key = shapeKey(query("a", "1990", "100"));
+
+        QueryTree otherKey = query("a", "1990", "100");
+        otherKey.addChild(new QueryLeaf(Meta.FIELD_ALBUM, QueryLeaf.Op.EQUALS, "x", false));
+        assertNotEquals(key, shapeKey(otherKey));
+
+        QueryTree otherOp = query("a", "1990", "100");
+        otherOp.setOperator(QueryTree.Op.OR);
+        assertNotEquals(key, shapeKey(otherOp));
+
+        QueryTree otherLeafOp = new QueryTree(QueryTree.Op.AND, false);
+        otherLeafOp.addChild(new QueryLeaf(Meta.FIELD_ARTIST, QueryLeaf.Op.LIKE, "a", false));
+        QueryTree sameLeafOp = new QueryTree(QueryTree.Op.AND, false);
+        sameLeafOp.addChild(new QueryLeaf(Meta.FIELD_ARTIST, QueryLeaf.Op.EQUALS, "a", false));
+        assertNotEquals(shapeKey(sameLeafOp), shapeKey(otherLeafOp));
+
+        QueryTree negated = new QueryTree(QueryTree.Op.AND, false);
+        negated.addChild(new QueryLeaf(Meta.FIELD_ARTIST, QueryLeaf.Op.EQUALS, "a", true));
+        assertNotEquals(shapeKey(sameLeafOp), shapeKey(negated));
+
+        QueryNode queryNode = query("a", "1990", "100");
+        assertNotEquals(key, QueryPlanCache.shapeKey(
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK,
+                Meta.FIELD_ARTIST,
+                SORT_FIELDS,
+                false,
+                queryNode
+        ));
+        assertNotEquals(key, QueryPlanCache.shapeKey(
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK,
+                Meta.FIELD_ARTIST,
+                Arrays.asList(Meta.FIELD_ARTIST, Meta.FIELD_YEAR),
+                true,
+                queryNode
+        ));
+        assertNotEquals(key, QueryPlanCache.shapeKey(
+                Meta.FIELD_SPECIAL_ENTRY_ID_TRACK,
+                Meta.FIELD_ALBUM,
+                SORT_FIELDS,
+                true,
+                queryNode
+        ));
+    }
+
+    @Test
+    public void shapeKey_fieldNamesAreDelimited() {
+        QueryTree a = new QueryTree(QueryTree.Op.AND, false);
+        a.addChild(new QueryLeaf("ab", QueryLeaf.Op.EQUALS, "x", false));
+        QueryTree b = new QueryTree(QueryTree.Op.AND, false);
+        b.addChild(new QueryLeaf("a", QueryLeaf.Op.EQUALS, "x", false));
+        assertNotEquals(
+                QueryPlanCache.shapeKey("t", "b", null, true, a),
+                QueryPlanCache.shapeKey("t", "ba", null, true, b)
+        );
+    }
+
+    @Test
+    public void bindArgs_bindsLeafValuesDepthFirst() {
+        Object[] args = new Object[] {
+                "fixed",
+                new QueryPlanCache.Literal(2, Meta.Type.LONG),
+                new QueryPlanCache.Literal(0, Meta.Type.STRING),
+                new QueryPlanCache.Literal(1, Meta.Type.LONG),
+                new QueryPlanCache.Literal(0, Meta.Type.STRING)
+        };
+        assertArrayEquals(
+                new Object[] {"fixed", 200L, "a", 1990L, "a"},
+                QueryPlanCache.bindArgs(args, query("a", "1990", "200"))
+        );
+        assertArrayEquals(
+                new Object[] {"fixed", 300L, "b", 2001L, "b"},
+                QueryPlanCache.bindArgs(args, query("b", "2001", "300"))
+        );
+    }
+
+    @Test
+    public void bindArgs_parsesDoubles() {
+        QueryLeaf leaf = new QueryLeaf("gain", QueryLeaf.Op.LESS, "-3.5", false);
+        Object[] args = new Object[] {new QueryPlanCache.Literal(0, Meta.Type.DOUBLE)};
+        assertArrayEquals(new Object[] {-3.5}, QueryPlanCache.bindArgs(args, leaf));
+    }
+
+    @Test
+    public void plan_bindsFromCachedShape() {
+        QueryPlanCache cache = new QueryPlanCache();
+        QueryTree first = query("a", "1990", "100");
+        cache.put(shapeKey(first), new QueryPlanCache.Plan(
+                "SELECT ? ?",
+                Arrays.asList(
+                        new QueryPlanCache.Literal(0, Meta.Type.STRING),
+                        new QueryPlanCache.Literal(1, Meta.Type.LONG)
+                ),
+                ""
+        ));
+        QueryTree second = query("b", "2000", "200");
+        QueryPlanCache.Plan plan = cache.get(shapeKey(second));
+        assertEquals("SELECT ? ?", plan.sql);
+        assertArrayEquals(new Object[] {"b", 2000L}, plan.bindArgs(second));
+        assertEquals(1, cache.stats().hitCount());
+    }
+
+    private static QueryPlanCache.Plan compile(QueryNode queryNode) {
+        String primaryTypeKey =
+                MetaStorage.getQueryEntriesSQLQueryPrimaryTypeKey(EntryID.TYPE_TRACK, null);
+        return MetaStorage.compileQueryEntriesQueryPlan(
+                EntryID.TYPE_TRACK,
+                primaryTypeKey,
+                MetaDao.getTable(EntryID.TYPE_TRACK, primaryTypeKey),
+                SORT_FIELDS,
+                true,
+                queryNode
+        );
+    }
+
+    @Test
+    public void plan_matchesCompiledPlan() {
+        QueryTree first = query("a", "1990", "100");
+        first.addChild(new QueryLeaf(Meta.FIELD_ALBUM, QueryLeaf.Op.LIKE, "x", true));
+        QueryPlanCache.Plan cached = compile(first);
+        for (int i = 0; i < 4; i++) {
+            QueryTree queryNode = query("b" + i, Integer.toString(2000 + i), "20" + i);
+            queryNode.addChild(new QueryLeaf(Meta.FIELD_ALBUM, QueryLeaf.Op.LIKE, "y" + i, true));
+            QueryPlanCache.Plan compiled = compile(queryNode);
+            assertEquals(compiled.sql, cached.sql);
+            assertArrayEquals(compiled.bindArgs(queryNode), cached.bindArgs(queryNode));
+        }
+    }
+}
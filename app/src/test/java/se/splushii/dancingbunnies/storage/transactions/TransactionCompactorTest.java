@@ -0,0 +1,247 @@
+package se.splushii.dancingbunnies.storage.transactions;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import se.splushii.dancingbunnies.musiclibrary.EntryID;
+import se.splushii.dancingbunnies.musiclibrary.Meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionCompactorTest {
+    private static final String SRC = "git@example";
+    private static final String OTHER_SRC = "subsonic@example";
+    private static final EntryID TRACK = new EntryID(SRC, "track", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+    private static final EntryID OTHER_TRACK = new EntryID(SRC, "other", Meta.FIELD_SPECIAL_ENTRY_ID_TRACK);
+    private static final EntryID PLAYLIST = new EntryID(SRC, "playlist", Meta.FIELD_SPECIAL_ENTRY_ID_PLAYLIST);
+
+    private long nextID = 1;
+
+    // Returns the transactions left after compaction, in order
+    private static List<Transaction> compact(List<Transaction> transactions) {
+        TransactionCompactor.Result result = TransactionCompactor.compact(transactions);
+        HashSet<Long> removed = new HashSet<>();
+        for (Transaction t: result.removed) {
+            removed.add(t.getID());
+        }
+        HashMap<Long, Transaction> replaced = new HashMap<>();
+        for (Transaction t: result.replaced) {
+            replaced.put(t.getID(), t);
+        }
+        List<Transaction> compacted = new ArrayList<>();
+        for (Transaction t: transactions) {
+            if (!removed.contains(t.getID())) {
+                compacted.add(replaced.getOrDefault(t.getID(), t));
+            }
+        }
+        return compacted;
+    }
+
+    // Transaction.equals() does not compare IDs
+    private static List<Long> ids(List<? extends Transaction> transactions) {
+        List<Long> ids = new ArrayList<>();
+        for (Transaction t: transactions) {
+            ids.add(t.getID());
+        }
+        return ids;
+    }
+
+    private static void assertCompacted(List<Transaction> expected, List<Transaction> transactions) {
+        assertEquals(ids(expected), ids(compact(transactions)));
+    }
+
+    private TransactionMetaAdd metaAdd(String src, EntryID entryID, String key, String value) {
+        return new TransactionMetaAdd(nextID++, src, null, 0, null, entryID, key, value);
+    }
+
+    private TransactionMetaAdd metaAdd(String value) {
+        return metaAdd(SRC, TRACK, Meta.FIELD_GENRE, value);
+    }
+
+    private TransactionMetaDelete metaDelete(String value) {
+        return new TransactionMetaDelete(nextID++, SRC, null, 0, null, TRACK, Meta.FIELD_GENRE, value);
+    }
+
+    private TransactionMetaEdit metaEdit(String oldValue, String newValue) {
+        return new TransactionMetaEdit(
+                nextID++, SRC, null, 0, null, TRACK, Meta.FIELD_GENRE, oldValue, newValue
+        );
+    }
+
+    private TransactionPlaylistEntryAdd entryAdd(String playlistEntryID, String before) {
+        return new TransactionPlaylistEntryAdd(
+                nextID++, SRC, null, 0, null,
+                PLAYLIST, TRACK, before, new Meta(TRACK), playlistEntryID
+        );
+    }
+
+    private TransactionPlaylistEntryMove entryMove(String playlistEntryID, String before) {
+        return new TransactionPlaylistEntryMove(
+                nextID++, SRC, null, 0, null, PLAYLIST, playlistEntryID, TRACK, before
+        );
+    }
+
+    private TransactionPlaylistEntryDelete entryDelete(String playlistEntryID) {
+        return new TransactionPlaylistEntryDelete(
+                nextID++, SRC, null, 0, null, PLAYLIST, playlistEntryID, TRACK
+        );
+    }
+
+    private TransactionPlaylistAdd playlistAdd() {
+        return new TransactionPlaylistAdd(nextID++, SRC, null, 0, null, PLAYLIST, "name", null);
+    }
+
+    private TransactionPlaylistDelete playlistDelete() {
+        return new TransactionPlaylistDelete(nextID++, SRC, null, 0, null, PLAYLIST);
+    }
+
+    private TransactionPlaylistMetaAdd playlistMetaAdd() {
+        return new TransactionPlaylistMetaAdd(
+                nextID++, SRC, null, 0, null, PLAYLIST, Meta.FIELD_GENRE, "value"
+        );
+    }
+
+    @Test
+    public void metaAddDelete_cancel() {
+        assertCompacted(Collections.emptyList(), Arrays.asList(metaAdd("a"), metaDelete("a")));
+        assertCompacted(Collections.emptyList(), Arrays.asList(metaDelete("a"), metaAdd("a")));
+    }
+
+    @Test
+    public void metaAddDelete_differentValues() {
+        List<Transaction> transactions = Arrays.asList(metaAdd("a"), metaDelete("b"));
+        assertCompacted(transactions, transactions);
+    }
+
+    @Test
+    public void metaAddEdit_foldsIntoAdd() {
+        TransactionMetaAdd add = metaAdd("a");
+        List<Transaction> compacted = compact(Arrays.asList(add, metaEdit("a", "b"), metaEdit("b", "c")));
+        assertEquals(1, compacted.size());
+        TransactionMetaAdd folded = (TransactionMetaAdd) compacted.get(0);
+        assertEquals(add.getID(), folded.getID());
+        assertEquals("c", folded.value);
+    }
+
+    @Test
+    public void metaEdits_fold() {
+        TransactionMetaEdit first = metaEdit("o", "a");
+        List<Transaction> compacted = compact(Arrays.asList(first, metaEdit("a", "b")));
+        assertEquals(1, compacted.size());
+        TransactionMetaEdit folded = (TransactionMetaEdit) compacted.get(0);
+        assertEquals(first.getID(), folded.getID());
+        assertEquals("o", folded.oldValue);
+        assertEquals("b", folded.newValue);
+
+        assertCompacted(
+                Collections.emptyList(),
+                Arrays.asList(metaEdit("o", "a"), metaEdit("a", "o"))
+        );
+    }
+
+    @Test
+    public void metaEditDelete_deletesOriginal() {
+        List<Transaction> compacted = compact(Arrays.asList(metaEdit("o", "a"), metaDelete("a")));
+        assertEquals(1, compacted.size());
+        assertEquals("o", ((TransactionMetaDelete) compacted.get(0)).value);
+    }
+
+    @Test
+    public void meta_separateTargets() {
+        List<Transaction> transactions = Arrays.asList(
+                metaAdd(SRC, TRACK, Meta.FIELD_GENRE, "a"),
+                new TransactionMetaDelete(nextID++, OTHER_SRC, null, 0, null, TRACK, Meta.FIELD_GENRE, "a"),
+                new TransactionMetaDelete(nextID++, SRC, null, 0, null, OTHER_TRACK, Meta.FIELD_GENRE, "a"),
+                new TransactionMetaDelete(nextID++, SRC, null, 0, null, TRACK, Meta.FIELD_ARTIST, "a")
+        );
+        assertCompacted(transactions, transactions);
+    }
+
+    @Test
+    public void entryMoves_keepLast() {
+        TransactionPlaylistEntryMove first = entryMove("x", null);
+        TransactionPlaylistEntryMove second = entryMove("x", "y");
+        TransactionPlaylistEntryMove last = entryMove("x", null);
+        assertCompacted(Collections.singletonList(last), Arrays.asList(first, second, last));
+    }
+
+    @Test
+    public void entryMoveDelete_keepsDelete() {
+        TransactionPlaylistEntryMove move = entryMove("x", null);
+        TransactionPlaylistEntryDelete delete = entryDelete("x");
+        assertCompacted(Collections.singletonList(delete), Arrays.asList(move, delete));
+    }
+
+    @Test
+    public void entryAddMoveDelete_cancel() {
+        List<Transaction> transactions = Arrays.asList(
+                entryAdd("x", null),
+                entryMove("x", null),
+                entryDelete("x")
+        );
+        assertCompacted(Collections.emptyList(), transactions);
+    }
+
+    @Test
+    public void entryAddWithoutPlaylistEntryID_isKept() {
+        List<Transaction> transactions = Arrays.asList(entryAdd(null, null), entryDelete("x"));
+        assertCompacted(transactions, transactions);
+    }
+
+    @Test
+    public void beforeEntry_isBarrier() {
+        // The position of y depends on where x is when y is added
+        List<Transaction> transactions = Arrays.asList(
+                entryMove("x", null),
+                entryAdd("y", "x"),
+                entryMove("x", null)
+        );
+        assertCompacted(transactions, transactions);
+    }
+
+    @Test
+    public void playlistDelete_dropsEarlierOperations() {
+        List<Transaction> transactions = new ArrayList<>(Arrays.asList(
+                playlistMetaAdd(),
+                entryAdd("x", null),
+                entryMove("y", null)
+        ));
+        TransactionPlaylistDelete delete = playlistDelete();
+        transactions.add(delete);
+        assertCompacted(Collections.singletonList(delete), transactions);
+    }
+
+    @Test
+    public void playlistAddDelete_cancel() {
+        assertCompacted(Collections.emptyList(), Arrays.asList(
+                playlistAdd(),
+                entryAdd("x", null),
+                playlistDelete()
+        ));
+    }
+
+    @Test
+    public void result_reportsRemovedAndReplaced() {
+        TransactionMetaAdd add = metaAdd("a");
+        TransactionMetaEdit edit = metaEdit("a", "b");
+        TransactionMetaAdd unrelated = metaAdd(SRC, OTHER_TRACK, Meta.FIELD_GENRE, "a");
+        TransactionCompactor.Result result = TransactionCompactor.compact(
+                Arrays.asList(add, unrelated, edit)
+        );
+        assertEquals(ids(Collections.singletonList(edit)), ids(result.removed));
+        assertEquals(1, result.replaced.size());
+        assertEquals(add.getID(), result.replaced.get(0).getID());
+        assertEquals(1, result.getNumEliminated());
+
+        assertTrue(TransactionCompactor.compact(Collections.singletonList(unrelated)).isEmpty());
+        assertSame(unrelated, compact(Collections.singletonList(unrelated)).get(0));
+    }
+}
@@ -0,0 +1,156 @@
+package se.splushii.dancingbunnies.ui;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class WaveformPyramidTest {
+    private static final double DELTA = 1e-5;
+
+    private static double[] randomValues(Random random, int size) {
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = random.nextDouble();
+        }
+        return values;
+    }
+
+    // Checks each bucket of each level against the level 0 buckets it covers
+    private static void checkLevels(int size) {
+        Random random = new Random(size);
+        double[] rmsPositive = randomValues(random, size);
+        double[] rmsNegative = randomValues(random, size);
+        double[] peakPositive = randomValues(random, size);
+        double[] peakNegative = randomValues(random, size);
+        WaveformPyramid pyramid = WaveformPyramid.from(
+                rmsPositive,
+                rmsNegative,
+                peakPositive,
+                peakNegative
+        );
+        WaveformPyramid.Level base = pyramid.getLevel(0);
+        assertEquals(size, base.size());
+        int span = 1;
+        for (int l = 0; l < pyramid.getNumLevels(); l++) {
+            WaveformPyramid.Level level = pyramid.getLevel(l);
+            assertEquals((size + span - 1) / span, level.size());
+            if (l < pyramid.getNumLevels() - 1) {
+                assertTrue(level.size()
+                        >= WaveformPyramid.LEVEL_FACTOR * WaveformPyramid.MIN_LEVEL_SIZE);
+            } else {
+                assertTrue(level.size()
+                        < WaveformPyramid.LEVEL_FACTOR * WaveformPyramid.MIN_LEVEL_SIZE);
+            }
+            for (int i = 0; i < level.size(); i++) {
+                int start = i * span;
+                // The last bucket may cover fewer base buckets
+                int end = Math.min(size, start + span);
+                double maxPositive = 0;
+                double maxNegative = 0;
+                double sumSquaresPositive = 0;
+                double sumSquaresNegative = 0;
+                for (int j = start; j < end; j++) {
+                    maxPositive = Math.max(maxPositive, base.peakPositive[j]);
+                    maxNegative = Math.max(maxNegative, base.peakNegative[j]);
+                    sumSquaresPositive += base.rmsPositive[j] * base.rmsPositive[j];
+                    sumSquaresNegative += base.rmsNegative[j] * base.rmsNegative[j];
+                }
+                String bucket = "size " + size + ", level " + l + ", bucket " + i;
+                assertEquals(bucket, maxPositive, level.peakPositive[i], 0);
+                assertEquals(bucket, maxNegative, level.peakNegative[i], 0);
+                assertEquals(
+                        bucket,
+                        Math.sqrt(sumSquaresPositive / (end - start)),
+                        level.rmsPositive[i],
+                        DELTA
+                );
+                assertEquals(
+                        bucket,
+                        Math.sqrt(sumSquaresNegative / (end - start)),
+                        level.rmsNegative[i],
+                        DELTA
+                );
+            }
+            span *= WaveformPyramid.LEVEL_FACTOR;
+        }
+    }
+
+    @Test
+    public void levels() {
+        int minMergedSize = WaveformPyramid.LEVEL_FACTOR * WaveformPyramid.MIN_LEVEL_SIZE;
+        checkLevels(1);
+        checkLevels(minMergedSize - 1);
+        checkLevels(minMergedSize);
+        checkLevels(8192);
+    }
+
+    @Test
+    public void partialLastBuckets() {
+        checkLevels(8192 + 1);
+        checkLevels(8192 + 5);
+        checkLevels(10000);
+        checkLevels(12345);
+    }
+
+    @Test
+    public void numLevels() {
+        int minMergedSize = WaveformPyramid.LEVEL_FACTOR * WaveformPyramid.MIN_LEVEL_SIZE;
+        assertEquals(1, WaveformPyramid.from(
+                new double[minMergedSize - 1],
+                new double[minMergedSize - 1],
+                new double[minMergedSize - 1],
+                new double[minMergedSize - 1]
+        ).getNumLevels());
+        // 8192, 2048, 512, 128
+        assertEquals(4, WaveformPyramid.from(
+                new double[8192],
+                new double[8192],
+                new double[8192],
+                new double[8192]
+        ).getNumLevels());
+    }
+
+    @Test
+    public void getLevelFor() {
+        WaveformPyramid pyramid = WaveformPyramid.from(
+                new double[10000],
+                new double[10000],
+                new double[10000],
+                new double[10000]
+        );
+        // 10000, 2500, 625, 157
+        assertEquals(4, pyramid.getNumLevels());
+        assertSame(pyramid.getLevel(3), pyramid.getLevelFor(1));
+        assertSame(pyramid.getLevel(3), pyramid.getLevelFor(157));
+        assertSame(pyramid.getLevel(2), pyramid.getLevelFor(158));
+        assertSame(pyramid.getLevel(2), pyramid.getLevelFor(625));
+        assertSame(pyramid.getLevel(1), pyramid.getLevelFor(626));
+        assertSame(pyramid.getLevel(1), pyramid.getLevelFor(2500));
+        assertSame(pyramid.getLevel(0), pyramid.getLevelFor(2501));
+        assertSame(pyramid.getLevel(0), pyramid.getLevelFor(20000));
+    }
+
+    @Test
+    public void empty() {
+        WaveformPyramid pyramid = WaveformPyramid.from(
+                new double[0],
+                new double[0],
+                new double[0],
+                new double[0]
+        );
+        assertTrue(pyramid.isEmpty());
+        assertEquals(1, pyramid.getNumLevels());
+        assertSame(pyramid.getLevel(0), pyramid.getLevelFor(100));
+        assertFalse(WaveformPyramid.from(
+                new double[1],
+                new double[1],
+                new double[1],
+                new double[1]
+        ).isEmpty());
+    }
+}
@@ -0,0 +1,90 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import static org.junit.Assert.assertEquals;
+
+// Calculates and applies edit scripts between 10k-item lists with many moves
+public class EditScriptBenchmark {
+    private static final int NUM_ITEMS = 10000;
+    private static final int ROUNDS = 5;
+
+    private static final ListUpdateCallback NO_CALLBACK = new ListUpdateCallback() {
+        @Override
+        public void onInserted(int position, int count) {}
+
+        @Override
+        public void onRemoved(int position, int count) {}
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {}
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {}
+    };
+
+    private static List<Integer> move(Random random, List<Integer> items, int numMoves) {
+        List<Integer> moved = new ArrayList<>(items);
+        for (int i = 0; i < numMoves; i++) {
+            int item = moved.remove(random.nextInt(moved.size()));
+            moved.add(random.nextInt(moved.size() + 1), item);
+        }
+        return moved;
+    }
+
+    private static void benchmark(String scenario, List<Integer> oldItems, List<Integer> newItems) {
+        long bestCalculateNanos = Long.MAX_VALUE;
+        long bestApplyNanos = Long.MAX_VALUE;
+        EditScript script = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            script = EditScript.calculate(oldItems, newItems, Integer::equals, null);
+            long calculated = System.nanoTime();
+            List<Integer> list = new ArrayList<>(oldItems);
+            script.applyTo(list, newItems, 0, Long.MAX_VALUE, NO_CALLBACK);
+            long applied = System.nanoTime();
+            assertEquals(newItems, list);
+            bestCalculateNanos = Math.min(bestCalculateNanos, calculated - start);
+            bestApplyNanos = Math.min(bestApplyNanos, applied - calculated);
+        }
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%-22s calculate %6.1f ms, apply %6.1f ms, %s",
+                scenario,
+                bestCalculateNanos / 1e6,
+                bestApplyNanos / 1e6,
+                script
+        ));
+    }
+
+    @Test
+    public void manyMoves() {
+        Random random = new Random(45);
+        List<Integer> items = new ArrayList<>();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            items.add(i);
+        }
+        for (int numMoves: new int[] {100, 500, 2000}) {
+            benchmark(numMoves + " moves", items, move(random, items, numMoves));
+        }
+        List<Integer> shuffled = new ArrayList<>(items);
+        Collections.shuffle(shuffled, random);
+        benchmark("shuffle", items, shuffled);
+        List<Integer> fewKeys = new ArrayList<>();
+        for (int i = 0; i < NUM_ITEMS; i++) {
+            fewKeys.add(random.nextInt(10));
+        }
+        benchmark("500 moves, 10 keys", fewKeys, move(random, fewKeys, 500));
+        List<Integer> insertedFirst = new ArrayList<>(items);
+        insertedFirst.add(0, -1);
+        benchmark("insert first", items, insertedFirst);
+    }
+}
@@ -0,0 +1,303 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EditScriptTest {
+    private static final int FUZZ_CASES = 5000;
+
+    // Equal by key, so that content changes can be told apart from moves
+    static class Item {
+        final int key;
+        final int version;
+
+        Item(int key, int version) {
+            this.key = key;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Item && key == ((Item) o).key;
+        }
+
+        @Override
+        public int hashCode() {
+            return key;
+        }
+
+        @Override
+        public String toString() {
+            return key + "v" + version;
+        }
+    }
+
+    private static EditScript calculate(List<Item> oldItems, List<Item> newItems) {
+        return EditScript.calculate(
+                oldItems,
+                newItems,
+                (oldItem, newItem) -> oldItem.version == newItem.version,
+                null
+        );
+    }
+
+    private static void assertSameContent(List<Item> expected, List<Item> actual) {
+        assertEquals(expected, actual);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).version, actual.get(i).version);
+        }
+    }
+
+    // Mirrors the callbacks on the old indices, and checks that each new item ends up at its
+    // position, with changes reported for exactly the kept items with new content
+    private static class Mirror implements ListUpdateCallback {
+        private static final int INSERTED = -1;
+
+        private final List<Integer> oldIndices = new ArrayList<>();
+        private final Set<Integer> changed = new HashSet<>();
+
+        Mirror(int oldSize) {
+            for (int i = 0; i < oldSize; i++) {
+                oldIndices.add(i);
+            }
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            oldIndices.addAll(position, Collections.nCopies(count, INSERTED));
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            oldIndices.subList(position, position + count).clear();
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            assertFalse(fromPosition == toPosition);
+            oldIndices.add(toPosition, oldIndices.remove(fromPosition));
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            for (int i = position; i < position + count; i++) {
+                assertTrue(changed.add(i));
+            }
+        }
+
+        void check(List<Item> oldItems, List<Item> newItems) {
+            assertEquals(newItems.size(), oldIndices.size());
+            for (int i = 0; i < newItems.size(); i++) {
+                int oldIndex = oldIndices.get(i);
+                if (oldIndex == INSERTED) {
+                    assertFalse(changed.contains(i));
+                    continue;
+                }
+                Item oldItem = oldItems.get(oldIndex);
+                assertEquals(newItems.get(i), oldItem);
+                assertEquals(oldItem.version != newItems.get(i).version, changed.contains(i));
+            }
+        }
+    }
+
+    private static void checkScript(List<Item> oldItems, List<Item> newItems) {
+        EditScript script = calculate(oldItems, newItems);
+        List<Item> list = new ArrayList<>(oldItems);
+        Mirror mirror = new Mirror(oldItems.size());
+        assertEquals(
+                script.getNumOps(),
+                script.applyTo(list, newItems, 0, Long.MAX_VALUE, mirror)
+        );
+        assertSameContent(newItems, list);
+        mirror.check(oldItems, newItems);
+        Mirror dispatched = new Mirror(oldItems.size());
+        script.dispatchUpdatesTo(dispatched);
+        dispatched.check(oldItems, newItems);
+    }
+
+    private static List<Item> randomItems(Random random, int size, int keySpace) {
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            items.add(new Item(random.nextInt(keySpace), 0));
+        }
+        return items;
+    }
+
+    // Removes, inserts and moves random items, and gives some items new content
+    static List<Item> edit(Random random, List<Item> items, int numEdits, int keySpace) {
+        List<Item> edited = new ArrayList<>(items);
+        for (int i = 0; i < numEdits; i++) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    if (!edited.isEmpty()) {
+                        edited.remove(random.nextInt(edited.size()));
+                    }
+                    break;
+                case 1:
+                    edited.add(
+                            random.nextInt(edited.size() + 1),
+                            new Item(random.nextInt(keySpace), 0)
+                    );
+                    break;
+                case 2:
+                    if (!edited.isEmpty()) {
+                        Item item = edited.remove(random.nextInt(edited.size()));
+                        edited.add(random.nextInt(edited.size() + 1), item);
+                    }
+                    break;
+                case 3:
+                    if (!edited.isEmpty()) {
+                        int index = random.nextInt(edited.size());
+                        Item item = edited.get(index);
+                        edited.set(index, new Item(item.key, item.version + 1));
+                    }
+                    break;
+            }
+        }
+        return edited;
+    }
+
+    @Test
+    public void emptyAndEqualLists() {
+        List<Item> items = Arrays.asList(new Item(1, 0), new Item(2, 0));
+        assertTrue(calculate(Collections.emptyList(), Collections.emptyList()).isEmpty());
+        assertTrue(calculate(items, new ArrayList<>(items)).isEmpty());
+        checkScript(Collections.emptyList(), items);
+        checkScript(items, Collections.emptyList());
+    }
+
+    @Test
+    public void counts() {
+        List<Item> oldItems = Arrays.asList(
+                new Item(1, 0),
+                new Item(2, 0),
+                new Item(3, 0),
+                new Item(4, 0)
+        );
+        List<Item> newItems = Arrays.asList(
+                new Item(4, 0),
+                new Item(1, 1),
+                new Item(3, 0),
+                new Item(5, 0)
+        );
+        EditScript script = calculate(oldItems, newItems);
+        assertEquals(1, script.numRemoved);
+        assertEquals(1, script.numInserted);
+        assertEquals(1, script.numMoved);
+        assertEquals(1, script.numChanged);
+        checkScript(oldItems, newItems);
+    }
+
+    @Test
+    public void fuzz() {
+        Random random = new Random(45);
+        for (int i = 0; i < FUZZ_CASES; i++) {
+            int size = random.nextInt(i < FUZZ_CASES / 2 ? 12 : 200);
+            // Few keys give many duplicates
+            int keySpace = random.nextBoolean() ? Math.max(1, size / 3) : 100000;
+            List<Item> oldItems = randomItems(random, size, keySpace);
+            List<Item> newItems = edit(random, oldItems, random.nextInt(size + 3), keySpace);
+            checkScript(oldItems, newItems);
+        }
+    }
+
+    // Lists large enough to spend the search budget, so that ranges are aligned on unique keys
+    @Test
+    public void fuzzLargeLists() {
+        Random random = new Random(46);
+        for (int i = 0; i < 10; i++) {
+            int size = 3000 + random.nextInt(8000);
+            List<Item> oldItems = new ArrayList<>();
+            for (int j = 0; j < size; j++) {
+                oldItems.add(new Item(random.nextBoolean() ? j : size + random.nextInt(50), 0));
+            }
+            checkScript(oldItems, edit(random, oldItems, size, size + 60));
+        }
+    }
+
+    @Test
+    public void shuffledUniqueItems() {
+        Random random = new Random(47);
+        List<Item> oldItems = new ArrayList<>(
+                new LinkedHashSet<>(randomItems(random, 5000, 1000000))
+        );
+        List<Item> newItems = new ArrayList<>(oldItems);
+        Collections.shuffle(newItems, random);
+        EditScript script = calculate(oldItems, newItems);
+        assertEquals(0, script.numRemoved);
+        assertEquals(0, script.numInserted);
+        checkScript(oldItems, newItems);
+    }
+
+    // Applying in steps must give the same result as applying at once
+    @Test
+    public void applyInSteps() {
+        Random random = new Random(48);
+        List<Item> oldItems = randomItems(random, 500, 300);
+        List<Item> newItems = edit(random, oldItems, 300, 300);
+        EditScript script = calculate(oldItems, newItems);
+        List<Item> list = new ArrayList<>(oldItems);
+        Mirror mirror = new Mirror(oldItems.size());
+        int op = 0;
+        while (op < script.getNumOps()) {
+            int next = script.applyTo(list, newItems, op, 0, mirror);
+            assertTrue(next > op);
+            op = next;
+        }
+        assertSameContent(newItems, list);
+        mirror.check(oldItems, newItems);
+    }
+
+    // Scripts too large for one frame are applied in time-bounded chunks, as by
+    // SmartDiffSelectionRecyclerViewAdapter, with granular callbacks throughout
+    @Test
+    public void applyLargeScriptInChunks() {
+        Random random = new Random(49);
+        List<Item> oldItems = new ArrayList<>(
+                new LinkedHashSet<>(randomItems(random, 5000, 1000000))
+        );
+        List<Item> newItems = new ArrayList<>(oldItems);
+        Collections.shuffle(newItems, random);
+        newItems = edit(random, newItems, 500, 1000000);
+        EditScript script = calculate(oldItems, newItems);
+        assertTrue(script.getNumOps() > 1000);
+        List<Item> list = new ArrayList<>(oldItems);
+        Mirror mirror = new Mirror(oldItems.size());
+        int numChunks = 0;
+        int op = 0;
+        while (op < script.getNumOps()) {
+            op = script.applyTo(list, newItems, op, TimeUnit.MICROSECONDS.toNanos(100), mirror);
+            numChunks++;
+        }
+        assertTrue(numChunks > 1);
+        assertSameContent(newItems, list);
+        mirror.check(oldItems, newItems);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancel() {
+        List<Item> items = Arrays.asList(new Item(1, 0), new Item(2, 0));
+        EditScript.calculate(
+                items,
+                Arrays.asList(items.get(1), items.get(0)),
+                (oldItem, newItem) -> oldItem.version == newItem.version,
+                () -> true
+        );
+    }
+}
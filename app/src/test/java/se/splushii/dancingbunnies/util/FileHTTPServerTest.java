@@ -0,0 +1,147 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class FileHTTPServerTest {
+    private static final String CONTENT_TYPE = "audio/flac";
+
+    private FileHTTPServer server;
+    private File file;
+    private byte[] content;
+
+    @Before
+    public void setUp() throws IOException {
+        content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        file = File.createTempFile("filehttpserver", ".flac");
+        Files.write(file.toPath(), content);
+        server = new FileHTTPServer();
+        server.start(0);
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+        file.delete();
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private static byte[] readBody(HttpURLConnection connection) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    @Test
+    public void get() throws IOException {
+        String path = server.register(file, CONTENT_TYPE);
+        HttpURLConnection connection = open(path, "GET");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(CONTENT_TYPE, connection.getContentType());
+        assertEquals(content.length, connection.getContentLengthLong());
+        assertEquals("bytes", connection.getHeaderField("Accept-Ranges"));
+        assertNull(connection.getHeaderField("Content-Range"));
+        assertArrayEquals(content, readBody(connection));
+    }
+
+    @Test
+    public void getRange() throws IOException {
+        String path = server.register(file, CONTENT_TYPE);
+        HttpURLConnection connection = open(path, "GET");
+        connection.setRequestProperty("Range", "bytes=1000-1999");
+        assertEquals(206, connection.getResponseCode());
+        assertEquals(1000, connection.getContentLengthLong());
+        assertEquals(
+                "bytes 1000-1999/" + content.length,
+                connection.getHeaderField("Content-Range")
+        );
+        assertArrayEquals(Arrays.copyOfRange(content, 1000, 2000), readBody(connection));
+
+        // Open ended and suffix ranges
+        connection = open(path, "GET");
+        connection.setRequestProperty("Range", "bytes=99000-");
+        assertEquals(206, connection.getResponseCode());
+        assertArrayEquals(Arrays.copyOfRange(content, 99000, content.length), readBody(connection));
+        connection = open(path, "GET");
+        connection.setRequestProperty("Range", "bytes=-10");
+        assertEquals(206, connection.getResponseCode());
+        assertArrayEquals(
+                Arrays.copyOfRange(content, content.length - 10, content.length),
+                readBody(connection)
+        );
+    }
+
+    @Test
+    public void getUnsatisfiableRange() throws IOException {
+        String path = server.register(file, CONTENT_TYPE);
+        HttpURLConnection connection = open(path, "GET");
+        connection.setRequestProperty("Range", "bytes=" + content.length + "-");
+        assertEquals(416, connection.getResponseCode());
+        assertEquals("bytes */" + content.length, connection.getHeaderField("Content-Range"));
+        assertEquals(0, connection.getContentLengthLong());
+    }
+
+    @Test
+    public void head() throws IOException {
+        String path = server.register(file, CONTENT_TYPE);
+        HttpURLConnection connection = open(path, "HEAD");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals(content.length, connection.getContentLengthLong());
+        assertEquals(CONTENT_TYPE, connection.getContentType());
+        assertEquals(0, readBody(connection).length);
+        // The connection is kept alive after a response without body
+        connection = open(path, "GET");
+        assertEquals(200, connection.getResponseCode());
+        assertArrayEquals(content, readBody(connection));
+    }
+
+    @Test
+    public void unknownPath() throws IOException {
+        server.register(file, CONTENT_TYPE);
+        assertEquals(404, open("/unknown", "GET").getResponseCode());
+        assertEquals(404, open("/", "GET").getResponseCode());
+    }
+
+    @Test
+    public void unregister() throws IOException {
+        String path = server.register(file, CONTENT_TYPE);
+        assertEquals(path, server.register(file, CONTENT_TYPE));
+        assertEquals(200, open(path, "HEAD").getResponseCode());
+        server.unregister(file);
+        assertEquals(404, open(path, "GET").getResponseCode());
+        String newPath = server.register(file, CONTENT_TYPE);
+        assertNotEquals(path, newPath);
+        assertEquals(404, open(path, "GET").getResponseCode());
+        assertEquals(200, open(newPath, "HEAD").getResponseCode());
+    }
+}
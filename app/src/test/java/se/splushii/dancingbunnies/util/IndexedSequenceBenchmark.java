@@ -0,0 +1,168 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+// Mixed operations on a 10k-entry playback queue: IndexedSequence versus the LinkedList it
+// replaced in PlaybackQueue
+public class IndexedSequenceBenchmark {
+    private static final int QUEUE_SIZE = 10000;
+    private static final int NUM_OPERATIONS = 20000;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    private static class Entry {
+        final long playbackID;
+
+        Entry(long playbackID) {
+            this.playbackID = playbackID;
+        }
+    }
+
+    private interface Queue {
+        void add(int index, Entry entry);
+        void remove(long playbackID);
+        int indexOf(long playbackID);
+        Entry get(int index);
+        int size();
+    }
+
+    private static class LinkedListQueue implements Queue {
+        private final LinkedList<Entry> entries = new LinkedList<>();
+
+        @Override
+        public void add(int index, Entry entry) {
+            entries.add(index, entry);
+        }
+
+        @Override
+        public void remove(long playbackID) {
+            entries.removeIf(entry -> entry.playbackID == playbackID);
+        }
+
+        @Override
+        public int indexOf(long playbackID) {
+            int index = 0;
+            for (Entry entry: entries) {
+                if (entry.playbackID == playbackID) {
+                    return index;
+                }
+                index++;
+            }
+            return -1;
+        }
+
+        @Override
+        public Entry get(int index) {
+            return entries.get(index);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+    }
+
+    private static class IndexedSequenceQueue implements Queue {
+        private final IndexedSequence<Long, Entry> entries =
+                new IndexedSequence<>(entry -> entry.playbackID);
+
+        @Override
+        public void add(int index, Entry entry) {
+            entries.add(index, entry);
+        }
+
+        @Override
+        public void remove(long playbackID) {
+            entries.removeKey(playbackID);
+        }
+
+        @Override
+        public int indexOf(long playbackID) {
+            return entries.indexOfKey(playbackID);
+        }
+
+        @Override
+        public Entry get(int index) {
+            return entries.get(index);
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+    }
+
+    // Returns a checksum of the results
+    private static long run(Queue queue) {
+        Random random = new Random(0);
+        List<Long> playbackIDs = new ArrayList<>();
+        long nextPlaybackID = 0;
+        for (int i = 0; i < QUEUE_SIZE; i++) {
+            queue.add(i, new Entry(nextPlaybackID));
+            playbackIDs.add(nextPlaybackID++);
+        }
+        long checksum = 0;
+        for (int i = 0; i < NUM_OPERATIONS; i++) {
+            switch (i % 4) {
+                case 0:
+                    queue.add(random.nextInt(queue.size() + 1), new Entry(nextPlaybackID));
+                    playbackIDs.add(nextPlaybackID++);
+                    break;
+                case 1:
+                    int removeIndex = random.nextInt(playbackIDs.size());
+                    long removed = playbackIDs.get(removeIndex);
+                    playbackIDs.set(removeIndex, playbackIDs.get(playbackIDs.size() - 1));
+                    playbackIDs.remove(playbackIDs.size() - 1);
+                    queue.remove(removed);
+                    break;
+                case 2:
+                    long playbackID = playbackIDs.get(random.nextInt(playbackIDs.size()));
+                    checksum += queue.indexOf(playbackID);
+                    break;
+                case 3:
+                    checksum += queue.get(random.nextInt(queue.size())).playbackID;
+                    break;
+            }
+        }
+        return checksum + queue.size();
+    }
+
+    private static long time(Queue[] queues, long[] checksums, int index) {
+        long start = System.nanoTime();
+        checksums[index] = run(queues[index]);
+        return System.nanoTime() - start;
+    }
+
+    @Test
+    public void mixedOperations() {
+        long linkedListNanos = 0;
+        long indexedSequenceNanos = 0;
+        long[] checksums = new long[2];
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            Queue[] queues = {new LinkedListQueue(), new IndexedSequenceQueue()};
+            long linkedList = time(queues, checksums, 0);
+            long indexedSequence = time(queues, checksums, 1);
+            assertEquals(checksums[0], checksums[1]);
+            if (round >= WARMUP_ROUNDS) {
+                linkedListNanos += linkedList;
+                indexedSequenceNanos += indexedSequence;
+            }
+        }
+        System.out.println(String.format(
+                Locale.ROOT,
+                "%d operations on a %d-entry queue: LinkedList %.1f ms, IndexedSequence %.1f ms",
+                NUM_OPERATIONS,
+                QUEUE_SIZE,
+                linkedListNanos / 1e6 / ROUNDS,
+                indexedSequenceNanos / 1e6 / ROUNDS
+        ));
+    }
+}
@@ -0,0 +1,186 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedSequenceTest {
+    private static final int FUZZ_SEEDS = 20;
+    private static final int FUZZ_OPERATIONS = 2000;
+    private static final int FUZZ_KEYS = 300;
+
+    static class Item {
+        final long key;
+        final int version;
+
+        Item(long key, int version) {
+            this.key = key;
+            this.version = version;
+        }
+
+        @Override
+        public String toString() {
+            return key + "v" + version;
+        }
+    }
+
+    private static IndexedSequence<Long, Item> newSequence() {
+        return new IndexedSequence<>(item -> item.key);
+    }
+
+    private static int indexOfKey(List<Item> reference, long key) {
+        for (int i = 0; i < reference.size(); i++) {
+            if (reference.get(i).key == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void assertSameElements(List<Item> expected, List<Item> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSame(expected.get(i), actual.get(i));
+        }
+    }
+
+    @Test
+    public void basicOperations() {
+        IndexedSequence<Long, Item> sequence = newSequence();
+        assertTrue(sequence.isEmpty());
+        Item a = new Item(1, 0);
+        Item b = new Item(2, 0);
+        Item c = new Item(3, 0);
+        assertTrue(sequence.add(0, b));
+        assertTrue(sequence.add(0, a));
+        assertTrue(sequence.add(2, c));
+        assertFalse(sequence.add(0, new Item(2, 1)));
+        assertSameElements(Arrays.asList(a, b, c), sequence.toList());
+        assertEquals(1, sequence.indexOfKey(2L));
+        assertEquals(-1, sequence.indexOfKey(4L));
+        Item b1 = new Item(2, 1);
+        assertTrue(sequence.replace(b1));
+        assertFalse(sequence.replace(new Item(4, 0)));
+        assertSame(b1, sequence.get(1));
+        assertSame(b1, sequence.removeKey(2L));
+        assertNull(sequence.removeKey(2L));
+        assertFalse(sequence.containsKey(2L));
+        assertSameElements(Arrays.asList(a, c), sequence.toList());
+        sequence.clear();
+        assertEquals(0, sequence.size());
+        assertEquals(-1, sequence.indexOfKey(1L));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void addOutOfBounds() {
+        newSequence().add(1, new Item(1, 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutOfBounds() {
+        IndexedSequence<Long, Item> sequence = newSequence();
+        sequence.add(0, new Item(1, 0));
+        sequence.get(1);
+    }
+
+    // Random operations, checked against an ArrayList
+    @Test
+    public void fuzz() {
+        for (int seed = 0; seed < FUZZ_SEEDS; seed++) {
+            fuzz(seed);
+        }
+    }
+
+    private static void fuzz(long seed) {
+        Random random = new Random(seed);
+        IndexedSequence<Long, Item> sequence = newSequence();
+        List<Item> reference = new ArrayList<>();
+        int version = 0;
+        for (int op = 0; op < FUZZ_OPERATIONS; op++) {
+            String context = "seed " + seed + ", operation " + op;
+            long key = random.nextInt(FUZZ_KEYS);
+            int index = random.nextInt(reference.size() + 1);
+            switch (random.nextInt(8)) {
+                case 0:
+                case 1: {
+                    Item item = new Item(key, version++);
+                    boolean expected = indexOfKey(reference, key) < 0;
+                    if (expected) {
+                        reference.add(index, item);
+                    }
+                    assertEquals(context, expected, sequence.add(index, item));
+                    break;
+                }
+                case 2: {
+                    // Also contains duplicates within the added elements
+                    List<Item> items = new ArrayList<>();
+                    int numItems = random.nextInt(20);
+                    for (int i = 0; i < numItems; i++) {
+                        items.add(new Item(random.nextInt(FUZZ_KEYS), version++));
+                    }
+                    List<Item> added = new ArrayList<>();
+                    for (Item item: items) {
+                        if (indexOfKey(reference, item.key) < 0
+                                && indexOfKey(added, item.key) < 0) {
+                            added.add(item);
+                        }
+                    }
+                    reference.addAll(index, added);
+                    assertEquals(context, added.size(), sequence.addAll(index, items));
+                    break;
+                }
+                case 3:
+                case 4: {
+                    int referenceIndex = indexOfKey(reference, key);
+                    Item expected = referenceIndex < 0 ? null : reference.remove(referenceIndex);
+                    assertSame(context, expected, sequence.removeKey(key));
+                    break;
+                }
+                case 5: {
+                    Item item = new Item(key, version++);
+                    int referenceIndex = indexOfKey(reference, key);
+                    if (referenceIndex >= 0) {
+                        reference.set(referenceIndex, item);
+                    }
+                    assertEquals(context, referenceIndex >= 0, sequence.replace(item));
+                    break;
+                }
+                case 6: {
+                    int from = random.nextInt(reference.size() + 1);
+                    int to = from + random.nextInt(reference.size() - from + 1);
+                    assertSameElements(reference.subList(from, to), sequence.subList(from, to));
+                    break;
+                }
+                case 7:
+                    if (random.nextInt(100) == 0) {
+                        reference.clear();
+                        sequence.clear();
+                    }
+                    break;
+            }
+            assertEquals(context, reference.size(), sequence.size());
+            assertEquals(context, reference.isEmpty(), sequence.isEmpty());
+            if (!reference.isEmpty()) {
+                int i = random.nextInt(reference.size());
+                assertSame(context, reference.get(i), sequence.get(i));
+            }
+            assertEquals(context, indexOfKey(reference, key), sequence.indexOfKey(key));
+            assertEquals(context, indexOfKey(reference, key) >= 0, sequence.containsKey(key));
+        }
+        assertSameElements(reference, sequence.toList());
+        for (int i = 0; i < reference.size(); i++) {
+            assertEquals(i, sequence.indexOfKey(reference.get(i).key));
+        }
+        assertEquals(Collections.emptyList(), sequence.subList(0, 0));
+    }
+}
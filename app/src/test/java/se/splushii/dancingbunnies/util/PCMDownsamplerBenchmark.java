@@ -0,0 +1,59 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+// Downsamples 10 minutes of stereo 44.1 kHz PCM, fed as 4096-sample direct buffers like
+// MediaCodec output buffers
+public class PCMDownsamplerBenchmark {
+    private static final int CHANNELS = 2;
+    private static final int NUM_FRAMES = 44100 * 600;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int NUM_BUCKETS = 8192;
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    @Test
+    public void downsample() {
+        short[] samples = PCMDownsamplerTest.signal(NUM_FRAMES, CHANNELS, 1);
+        ByteBuffer bytes = ByteBuffer.allocateDirect(2 * samples.length)
+                .order(ByteOrder.nativeOrder());
+        bytes.asShortBuffer().put(samples);
+        ShortBuffer source = bytes.asShortBuffer();
+        long nanos = 0;
+        PCMDownsampler.Buckets buckets = null;
+        for (int round = 0; round < WARMUP_ROUNDS + ROUNDS; round++) {
+            long start = System.nanoTime();
+            PCMDownsampler downsampler = new PCMDownsampler(CHANNELS, NUM_BUCKETS);
+            for (int offset = 0; offset < samples.length; offset += CHUNK_SIZE) {
+                source.limit(Math.min(samples.length, offset + CHUNK_SIZE));
+                source.position(offset);
+                downsampler.accept(source.slice());
+            }
+            buckets = downsampler.finish();
+            if (round >= WARMUP_ROUNDS) {
+                nanos += System.nanoTime() - start;
+            }
+        }
+        assertEquals(NUM_BUCKETS, buckets.size());
+        assertEquals(NUM_FRAMES, buckets.numFrames);
+        double millis = nanos / 1e6 / ROUNDS;
+        System.out.println(String.format(
+                Locale.ROOT,
+                "Downsampled %d frames x %d channels in %.1f ms (%.0f Msamples/s),"
+                        + " %d buckets of %.1f frames",
+                NUM_FRAMES,
+                CHANNELS,
+                millis,
+                samples.length / millis / 1e3,
+                buckets.size(),
+                (double) buckets.numFrames / buckets.size()
+        ));
+    }
+}
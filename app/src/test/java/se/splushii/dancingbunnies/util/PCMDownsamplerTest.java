@@ -0,0 +1,259 @@
+package se.splushii.dancingbunnies.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PCMDownsamplerTest {
+    private static final double RMS_DELTA = 1e-9;
+    private static final int[] NUM_FRAMES = {
+            0, 1, 15, 16, 17, 31, 33, 1000, 8191, 8192, 8193, 100003
+    };
+
+    // Gaussian noise with a varying envelope, including full scale samples of both signs
+    static short[] signal(int numFrames, int channels, long seed) {
+        Random random = new Random(seed);
+        short[] samples = new short[numFrames * channels];
+        for (int i = 0; i < samples.length; i++) {
+            double envelope = 0.2 + 0.8 * Math.abs(Math.sin(i / 5000.0));
+            long sample = Math.round(random.nextGaussian() * 9000 * envelope);
+            samples[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+        }
+        if (samples.length > 0) {
+            samples[samples.length / 3] = Short.MAX_VALUE;
+            samples[samples.length / 2] = Short.MIN_VALUE;
+        }
+        return samples;
+    }
+
+    private static PCMDownsampler.Buckets downsample(short[] samples,
+                                                     int channels,
+                                                     int numBuckets) {
+        PCMDownsampler downsampler = new PCMDownsampler(channels, numBuckets);
+        downsampler.accept(samples, 0, samples.length);
+        return downsampler.finish();
+    }
+
+    // Checks the buckets against values computed per frame
+    private static void verify(short[] samples,
+                               int channels,
+                               int numBuckets,
+                               PCMDownsampler.Buckets buckets) {
+        int numFrames = samples.length / channels;
+        assertEquals(numFrames, buckets.numFrames);
+        assertEquals(Math.min(numBuckets, numFrames), buckets.size());
+        double[] peakPositive = new double[numFrames];
+        double[] peakNegative = new double[numFrames];
+        double[] squaresPositive = new double[numFrames];
+        double[] squaresNegative = new double[numFrames];
+        for (int frame = 0; frame < numFrames; frame++) {
+            for (int channel = 0; channel < channels; channel++) {
+                short sample = samples[frame * channels + channel];
+                if (sample > 0) {
+                    double gain = (double) sample / Short.MAX_VALUE;
+                    peakPositive[frame] = Math.max(peakPositive[frame], gain);
+                    squaresPositive[frame] += gain * gain / channels;
+                } else if (sample < 0) {
+                    double gain = (double) sample / Short.MIN_VALUE;
+                    peakNegative[frame] = Math.max(peakNegative[frame], gain);
+                    squaresNegative[frame] += gain * gain / channels;
+                }
+            }
+        }
+        // Frames per working bucket: the smallest power of two that fits all frames in
+        // 2 * numBuckets working buckets
+        int bucketSize = 1;
+        while ((numFrames + bucketSize - 1) / bucketSize > 2 * numBuckets) {
+            bucketSize *= 2;
+        }
+        double totalSquaresPositive = 0;
+        double totalSquaresNegative = 0;
+        for (int i = 0; i < buckets.size(); i++) {
+            int start = (int) ((long) i * numFrames / buckets.size());
+            int end = (int) ((long) (i + 1) * numFrames / buckets.size());
+            assertTrue(end > start);
+            // The working buckets overlapping the range
+            int bucketsStart = start / bucketSize * bucketSize;
+            int bucketsEnd = Math.min(numFrames, (end + bucketSize - 1) / bucketSize * bucketSize);
+            assertEquals(max(peakPositive, bucketsStart, bucketsEnd), buckets.peakPositive[i], 0);
+            assertEquals(max(peakNegative, bucketsStart, bucketsEnd), buckets.peakNegative[i], 0);
+            double rmsPositive = buckets.rmsPositive[i];
+            double rmsNegative = buckets.rmsNegative[i];
+            if (start == bucketsStart && end == bucketsEnd) {
+                assertEquals(
+                        Math.sqrt(sum(squaresPositive, start, end) / (end - start)),
+                        rmsPositive,
+                        RMS_DELTA
+                );
+                assertEquals(
+                        Math.sqrt(sum(squaresNegative, start, end) / (end - start)),
+                        rmsNegative,
+                        RMS_DELTA
+                );
+            } else {
+                // A share of the overlapping working buckets
+                assertTrue(rmsPositive * rmsPositive * (end - start)
+                        <= sum(squaresPositive, bucketsStart, bucketsEnd) + RMS_DELTA);
+                assertTrue(rmsNegative * rmsNegative * (end - start)
+                        <= sum(squaresNegative, bucketsStart, bucketsEnd) + RMS_DELTA);
+            }
+            totalSquaresPositive += rmsPositive * rmsPositive * (end - start);
+            totalSquaresNegative += rmsNegative * rmsNegative * (end - start);
+        }
+        // Resampling neither adds nor loses energy
+        double totalDelta = RMS_DELTA * Math.max(1, numFrames);
+        assertEquals(sum(squaresPositive, 0, numFrames), totalSquaresPositive, totalDelta);
+        assertEquals(sum(squaresNegative, 0, numFrames), totalSquaresNegative, totalDelta);
+    }
+
+    private static double max(double[] values, int from, int to) {
+        double max = 0;
+        for (int i = from; i < to; i++) {
+            max = Math.max(max, values[i]);
+        }
+        return max;
+    }
+
+    private static double sum(double[] values, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    private static void checkChannels(int channels) {
+        for (int numBuckets: new int[] {1, 3, 16, 8192}) {
+            for (int numFrames: NUM_FRAMES) {
+                short[] samples = signal(numFrames, channels, numFrames * 31 + channels);
+                verify(samples, channels, numBuckets, downsample(samples, channels, numBuckets));
+            }
+        }
+    }
+
+    @Test
+    public void mono() {
+        checkChannels(1);
+    }
+
+    @Test
+    public void multichannel() {
+        checkChannels(2);
+        checkChannels(6);
+    }
+
+    // Chunks of random length, split mid-frame, as heap and direct buffers
+    @Test
+    public void framesSplitAcrossChunks() {
+        Random random = new Random(50);
+        for (int channels: new int[] {1, 2, 6}) {
+            for (int numFrames: NUM_FRAMES) {
+                short[] samples = signal(numFrames, channels, numFrames);
+                PCMDownsampler downsampler = new PCMDownsampler(channels, 16);
+                int pos = 0;
+                while (pos < samples.length) {
+                    int length = Math.min(samples.length - pos, 1 + random.nextInt(5000));
+                    ShortBuffer buffer;
+                    if (random.nextBoolean()) {
+                        buffer = ShortBuffer.wrap(samples, pos, length).slice();
+                    } else {
+                        buffer = ByteBuffer.allocateDirect(2 * length)
+                                .order(ByteOrder.nativeOrder())
+                                .asShortBuffer();
+                        buffer.put(samples, pos, length);
+                        buffer.flip();
+                    }
+                    downsampler.accept(buffer);
+                    assertFalse(buffer.hasRemaining());
+                    pos += length;
+                }
+                PCMDownsampler.Buckets chunked = downsampler.finish();
+                verify(samples, channels, 16, chunked);
+                PCMDownsampler.Buckets whole = downsample(samples, channels, 16);
+                assertEquals(whole.numFrames, chunked.numFrames);
+                assertArrayEquals(whole.peakPositive, chunked.peakPositive, 0);
+                assertArrayEquals(whole.peakNegative, chunked.peakNegative, 0);
+                assertArrayEquals(whole.rmsPositive, chunked.rmsPositive, 0);
+                assertArrayEquals(whole.rmsNegative, chunked.rmsNegative, 0);
+            }
+        }
+    }
+
+    @Test
+    public void fixedNumBuckets() {
+        // Fits in the working buckets, with and without merges
+        for (int numFrames: new int[] {32, 33, 64, 65, 1000, 4097, 100003}) {
+            short[] samples = signal(numFrames, 1, numFrames);
+            PCMDownsampler.Buckets buckets = downsample(samples, 1, 32);
+            assertEquals(32, buckets.size());
+            verify(samples, 1, 32, buckets);
+        }
+        // One bucket per frame
+        assertEquals(20, downsample(signal(20, 1, 1), 1, 32).size());
+    }
+
+    @Test
+    public void partialLastBucket() {
+        // Working buckets of 2 frames: [0, 2), [2, 4) and [4, 5).
+        // Resampled to [0, 2) and [2, 5), which align with them.
+        short[] samples = {100, -200, 300, 400, 500};
+        PCMDownsampler.Buckets buckets = downsample(samples, 1, 2);
+        assertEquals(2, buckets.size());
+        assertEquals(5, buckets.numFrames);
+        double max = Short.MAX_VALUE;
+        double min = -Short.MIN_VALUE;
+        assertEquals(100 / max, buckets.peakPositive[0], 0);
+        assertEquals(200 / min, buckets.peakNegative[0], 0);
+        assertEquals(Math.sqrt(100 * 100 / (max * max) / 2), buckets.rmsPositive[0], RMS_DELTA);
+        assertEquals(Math.sqrt(200 * 200 / (min * min) / 2), buckets.rmsNegative[0], RMS_DELTA);
+        assertEquals(500 / max, buckets.peakPositive[1], 0);
+        assertEquals(0, buckets.peakNegative[1], 0);
+        assertEquals(
+                Math.sqrt((300 * 300 + 400 * 400 + 500 * 500) / (max * max) / 3),
+                buckets.rmsPositive[1],
+                RMS_DELTA
+        );
+        assertEquals(0, buckets.rmsNegative[1], 0);
+    }
+
+    // Samples of an incomplete last frame are dropped with no complete frame in the bucket
+    @Test
+    public void incompleteLastFrame() {
+        short[] samples = {100, 100, 30000};
+        PCMDownsampler.Buckets buckets = downsample(samples, 2, 8);
+        assertEquals(1, buckets.size());
+        assertEquals(100 / (double) Short.MAX_VALUE, buckets.peakPositive[0], 0);
+    }
+
+    @Test
+    public void normalize() {
+        PCMDownsampler.Buckets buckets = downsample(new short[] {8192, -16384}, 1, 2);
+        buckets.normalize();
+        // The largest peak is 16384 / 32768 = 0.5
+        assertEquals(8192 / (double) Short.MAX_VALUE / 0.5, buckets.peakPositive[0], 0);
+        assertEquals(8192 / (double) Short.MAX_VALUE / 0.5, buckets.rmsPositive[0], RMS_DELTA);
+        assertEquals(1, buckets.peakNegative[1], 0);
+        assertEquals(1, buckets.rmsNegative[1], RMS_DELTA);
+        PCMDownsampler.Buckets empty = new PCMDownsampler(2, 8).finish();
+        empty.normalize();
+        assertEquals(0, empty.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noBuckets() {
+        new PCMDownsampler(1, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void noChannels() {
+        new PCMDownsampler(0, 2);
+    }
+}